@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Agrupa los mensajes salientes por vecino. En vez de escribir cada mensaje apenas se envía,
+ * junta hasta 'max' mensajes o espera hasta 'esperaUs' microsegundos desde el primero, lo que
+ * ocurra antes, y los escribe juntos: una sola trama de lote si el vecino la acepta (ver
+ * {@link Protocolo}), o los mensajes seguidos con una sola escritura al socket si no.
+ *
+ * La política es por enlace. Con max 1 no se agrupa nada: cada mensaje se escribe en el hilo
+ * que lo envía, como sin agrupador. Los mensajes urgentes ({@link Mensaje#esUrgente()}) no
+ * esperan: salen en el acto junto con lo que hubiera pendiente hacia ese vecino, así no se
+ * adelantan a los anteriores.
+ *
+ * Los lotes de un vecino se toman bajo su candado y pasan a una fila de listos; los escribe de
+ * a uno, en el orden de la fila, quien la esté vaciando. Así un lote urgente y uno vencido no
+ * se escriben en otro orden que el que se tomaron, y nadie escribe con el candado tomado.
+ *
+ * Los lotes que vencen los detecta un único hilo temporizador, que nunca escribe: pasa el lote
+ * a la fila y la vacía un hilo de escritura. Así un vecino lento o caído (cola de salida llena
+ * con bloquear, o sin colas con nodo.salida.capacidad=0) no demora los lotes hacia los demás.
+ *
+ * Propiedades del sistema:
+ *   nodo.lote.max       = mensajes por lote (por defecto 1: no se agrupa)
+ *   nodo.lote.esperaUs  = espera máxima del primer mensaje de un lote (por defecto 1000)
+ *   nodo.lote.VECINO    = max/esperaUs solo para ese enlace, p. ej. -Dnodo.lote.127.0.0.1_5001=64/500
+ */
+public class AgrupadorSalida {
+
+    /** Escribe un lote (uno o más mensajes, en orden) hacia un vecino. */
+    public interface Escritor {
+        void escribir(String vecino, List<Mensaje> lote) throws IOException;
+    }
+
+    /** Cuántos mensajes junta un enlace y cuánto los hace esperar. */
+    public static final class Politica {
+        final int max;
+        final long esperaUs;
+
+        public Politica(int max, long esperaUs) {
+            this.max = Math.max(1, max);
+            this.esperaUs = Math.max(0, esperaUs);
+        }
+
+        public boolean agrupa() { return max > 1; }
+        public int getMax() { return max; }
+        public long getEsperaUs() { return esperaUs; }
+
+        // "max/esperaUs" o solo "max" (con la espera por defecto)
+        static Politica desdeTexto(String texto, Politica porDefecto) {
+            String[] partes = texto.trim().split("/");
+            int max = Integer.parseInt(partes[0].trim());
+            long espera = partes.length > 1 ? Long.parseLong(partes[1].trim()) : porDefecto.esperaUs;
+            return new Politica(max, espera);
+        }
+
+        @Override
+        public String toString() {
+            return agrupa() ? max + " mensajes / " + esperaUs + " us" : "sin agrupar";
+        }
+    }
+
+    // Lo que espera hacia un vecino; se usa como candado de su propia lista
+    private static final class Pendientes {
+        List<Mensaje> mensajes = new ArrayList<>();
+        ScheduledFuture<?> vencimiento;
+        // Lotes ya tomados, en orden; los escribe un solo hilo a la vez
+        final Queue<List<Mensaje>> listos = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean escribiendo = new AtomicBoolean();
+
+        List<Mensaje> tomar() {
+            List<Mensaje> lote = mensajes;
+            mensajes = new ArrayList<>();
+            if (vencimiento != null) {
+                vencimiento.cancel(false);
+                vencimiento = null;
+            }
+            return lote;
+        }
+    }
+
+    private final Escritor escritor;
+    private final Politica porDefecto;
+    private final ConcurrentMap<String, Politica> politicas = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Pendientes> pendientes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService temporizador;
+    private final ExecutorService escritores;
+
+    private final AtomicLong lotes = new AtomicLong();
+    private final AtomicLong mensajesEnLotes = new AtomicLong();
+    private final AtomicLong descartados = new AtomicLong();
+
+    public AgrupadorSalida(Escritor escritor, Politica porDefecto) {
+        this.escritor = escritor;
+        this.porDefecto = porDefecto;
+        this.temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "agrupador-salida");
+            t.setDaemon(true);
+            return t;
+        });
+        this.escritores = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "agrupador-escritura");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static AgrupadorSalida desdePropiedades(Escritor escritor) {
+        return new AgrupadorSalida(escritor, new Politica(
+                Integer.getInteger("nodo.lote.max", 1),
+                Long.getLong("nodo.lote.esperaUs", 1_000)));
+    }
+
+    // ============================
+    //          POLÍTICAS
+    // ============================
+
+    /** Fija la política de un enlace; pisa la de las propiedades. */
+    public void configurar(String vecino, int max, long esperaUs) {
+        politicas.put(vecino, new Politica(max, esperaUs));
+    }
+
+    public Politica politica(String vecino) {
+        return politicas.computeIfAbsent(vecino, v -> {
+            String texto = System.getProperty("nodo.lote." + v);
+            if (texto == null) return porDefecto;
+            try {
+                return Politica.desdeTexto(texto, porDefecto);
+            } catch (NumberFormatException e) {
+                System.err.println("[WARN] nodo.lote." + v + " inválido (" + texto + "); se usa " + porDefecto);
+                return porDefecto;
+            }
+        });
+    }
+
+    public boolean agrupa(String vecino) {
+        return politica(vecino).agrupa();
+    }
+
+    // ============================
+    //           ENVÍO
+    // ============================
+
+    /**
+     * Envía m al vecino según la política del enlace. Devuelve false solo si el mensaje se
+     * escribió en el acto y falló; un lote que falla más tarde se informa y se descarta.
+     */
+    public boolean enviar(String vecino, Mensaje m) {
+        Politica p = politica(vecino);
+        Pendientes pend = pendientes.get(vecino);
+        if (!p.agrupa() && pend == null)
+            return escribir(vecino, List.of(m));
+
+        if (pend == null) pend = pendientes.computeIfAbsent(vecino, v -> new Pendientes());
+
+        synchronized (pend) {
+            pend.mensajes.add(m);
+            if (!m.esUrgente() && pend.mensajes.size() < p.max) {
+                if (pend.vencimiento == null) {
+                    Pendientes vencido = pend;
+                    pend.vencimiento = temporizador.schedule(() -> vencer(vecino, vencido), p.esperaUs, TimeUnit.MICROSECONDS);
+                }
+                return true;
+            }
+            pend.listos.add(pend.tomar());
+        }
+        return escribirListos(vecino, pend);
+    }
+
+    // En el temporizador: no escribe, deja el lote a un hilo de escritura
+    private void vencer(String vecino, Pendientes pend) {
+        if (tomarListo(pend)) escritores.execute(() -> escribirListos(vecino, pend));
+    }
+
+    private void vaciar(String vecino, Pendientes pend) {
+        if (tomarListo(pend)) escribirListos(vecino, pend);
+    }
+
+    private static boolean tomarListo(Pendientes pend) {
+        synchronized (pend) {
+            // tomar() cancela el vencimiento: si lo llama otro, este no se repite
+            if (pend.mensajes.isEmpty()) return false;
+            pend.listos.add(pend.tomar());
+            return true;
+        }
+    }
+
+    // Escribe los lotes listos en orden si ningún otro hilo lo está haciendo; si hay otro,
+    // él escribe también los que se agregaron. false si falló alguna escritura de este hilo.
+    private boolean escribirListos(String vecino, Pendientes pend) {
+        boolean ok = true;
+        while (!pend.listos.isEmpty() && pend.escribiendo.compareAndSet(false, true)) {
+            try {
+                List<Mensaje> lote;
+                while ((lote = pend.listos.poll()) != null)
+                    ok &= escribir(vecino, lote);
+            } finally {
+                pend.escribiendo.set(false);
+            }
+        }
+        return ok;
+    }
+
+    private boolean escribir(String vecino, List<Mensaje> lote) {
+        try {
+            escritor.escribir(vecino, lote);
+            if (lote.size() > 1) {
+                lotes.incrementAndGet();
+                mensajesEnLotes.addAndGet(lote.size());
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            if (lote.size() > 1) {
+                descartados.addAndGet(lote.size());
+                System.err.println("Error enviando a " + vecino + " un lote de " + lote.size()
+                        + " mensajes; se descartan: " + e.getMessage());
+            } else {
+                System.err.println("Error enviando a " + vecino + ": " + e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    /** Escribe ya todo lo pendiente, hacia todos los vecinos. */
+    public void vaciarTodo() {
+        for (Map.Entry<String, Pendientes> e : pendientes.entrySet())
+            vaciar(e.getKey(), e.getValue());
+    }
+
+    public long getLotes() { return lotes.get(); }
+    public long getMensajesEnLotes() { return mensajesEnLotes.get(); }
+    public long getDescartados() { return descartados.get(); }
+
+    public void cerrar() {
+        vaciarTodo();
+        temporizador.shutdownNow();
+        escritores.shutdown();
+    }
+}
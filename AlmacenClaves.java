@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * Almacén de claves públicas en un solo archivo, en lugar de un .pub en hexadecimal por nodo.
+ *
+ * El archivo empieza con "CLV1" y sigue con registros que solo se agregan al final:
+ *
+ *   int largo | short largoNombre | nombre UTF-8 | short largoDer | clave DER X.509 | int crc32
+ *
+ * largo cuenta desde largoNombre hasta el final de la clave, y el CRC32 cubre esos mismos
+ * bytes. Si un nodo vuelve a guardar su clave, vale el último registro.
+ *
+ * Las lecturas van a un MappedByteBuffer; el índice nombre -> posición está en memoria.
+ * Un registro se escribe completo bajo un FileLock (varios procesos comparten keys/) y se
+ * fuerza al disco. Si el proceso se corta a mitad de un registro, al abrir
+ * el archivo se descarta ese registro incompleto o con CRC inválido.
+ *
+ * {@link #compactar()} reescribe el archivo con un registro por nodo; hay que hacerlo con los
+ * nodos detenidos, ya que los otros procesos siguen leyendo el archivo anterior.
+ */
+public class AlmacenClaves implements AutoCloseable {
+
+    public static final String ARCHIVO = "claves.db";
+
+    private static final byte[] MAGICO = {'C', 'L', 'V', '1'};
+    private static final int CABECERA = MAGICO.length;
+    private static final int MAX_NOMBRE = 0xFFFF;
+    private static final int MAX_DER = 0xFFFF;
+
+    private final Path ruta;
+    private FileChannel canal;
+    private volatile MappedByteBuffer mapa;
+    // Hasta dónde llegan los registros válidos ya leídos
+    private long fin;
+    private int registros;
+
+    private final ConcurrentMap<String, Ubicacion> indice = new ConcurrentHashMap<>();
+
+    private static final class Ubicacion {
+        final long posicion;
+        final int largo;
+
+        Ubicacion(long posicion, int largo) {
+            this.posicion = posicion;
+            this.largo = largo;
+        }
+    }
+
+    private AlmacenClaves(Path ruta) {
+        this.ruta = ruta;
+    }
+
+    /** Abre (o crea) el almacén, descartando un registro final incompleto. */
+    public static AlmacenClaves abrir(Path ruta) throws IOException {
+        AlmacenClaves a = new AlmacenClaves(ruta);
+        a.abrirCanal();
+        return a;
+    }
+
+    private synchronized void abrirCanal() throws IOException {
+        Path padre = ruta.toAbsolutePath().getParent();
+        if (padre != null) Files.createDirectories(padre);
+
+        canal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indice.clear();
+        fin = 0;
+        registros = 0;
+        mapa = null;
+
+        FileLock candado = canal.lock();
+        try {
+            if (canal.size() < CABECERA) {
+                canal.truncate(0);
+                canal.write(ByteBuffer.wrap(MAGICO), 0);
+                canal.force(true);
+            } else {
+                ByteBuffer magico = ByteBuffer.allocate(CABECERA);
+                canal.read(magico, 0);
+                if (!Arrays.equals(magico.array(), MAGICO))
+                    throw new IOException("No es un almacén de claves: " + ruta);
+            }
+            fin = CABECERA;
+            leerNuevos();
+
+            // Restos de una escritura cortada: se descartan para que lo próximo quede legible
+            if (canal.size() > fin) {
+                System.err.println("[WARN] Almacén de claves " + ruta + ": se descartan "
+                        + (canal.size() - fin) + " bytes de un registro incompleto.");
+                canal.truncate(fin);
+                canal.force(true);
+            }
+        } finally {
+            candado.release();
+        }
+    }
+
+    // ============================
+    //          LECTURA
+    // ============================
+
+    /** Clave DER del nodo, o null si no está. */
+    public byte[] leer(String nombre) {
+        Ubicacion u = indice.get(nombre);
+        if (u == null) return null;
+
+        byte[] der = new byte[u.largo];
+        mapa.get((int) u.posicion, der, 0, u.largo);
+        return der;
+    }
+
+    public boolean contiene(String nombre) {
+        return indice.containsKey(nombre);
+    }
+
+    public Set<String> nombres() {
+        return Collections.unmodifiableSet(indice.keySet());
+    }
+
+    public int tamano() {
+        return indice.size();
+    }
+
+    /** Registros en el archivo, contando los reemplazados por uno posterior del mismo nodo. */
+    public synchronized int getRegistros() {
+        return registros;
+    }
+
+    /**
+     * Lee los registros que otro proceso agregó desde la última lectura.
+     * Devuelve los nombres nuevos o actualizados.
+     */
+    public synchronized List<String> refrescar() throws IOException {
+        return leerNuevos();
+    }
+
+    // Recorre desde fin hasta el último registro completo y válido
+    private List<String> leerNuevos() throws IOException {
+        long tamano = canal.size();
+        if (tamano <= fin) return List.of();
+        if (tamano > Integer.MAX_VALUE) throw new IOException("Almacén de claves demasiado grande: " + ruta);
+
+        MappedByteBuffer m = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+        Map<String, Ubicacion> nuevos = new LinkedHashMap<>();
+        CRC32 crc = new CRC32();
+
+        long pos = fin;
+        while (pos + 4 <= tamano) {
+            int largo = m.getInt((int) pos);
+            long siguiente = pos + 4 + (long) largo + 4;
+            if (largo < 4 || siguiente > tamano) break;
+
+            crc.reset();
+            crc.update(m.slice((int) pos + 4, largo));
+            if ((int) crc.getValue() != m.getInt((int) (pos + 4 + largo))) break;
+
+            int p = (int) pos + 4;
+            int largoNombre = m.getShort(p) & 0xFFFF;
+            int largoDer = largo - 2 - largoNombre - 2;
+            if (largoDer < 0 || (m.getShort(p + 2 + largoNombre) & 0xFFFF) != largoDer) break;
+
+            byte[] nombre = new byte[largoNombre];
+            m.get(p + 2, nombre, 0, largoNombre);
+            String n = new String(nombre, StandardCharsets.UTF_8);
+
+            nuevos.put(n, new Ubicacion(p + 2 + largoNombre + 2, largoDer));
+            registros++;
+            pos = siguiente;
+        }
+
+        // Se publica el mapa nuevo antes que el índice: un lector nunca ve una posición fuera
+        // del mapa
+        mapa = m;
+        indice.putAll(nuevos);
+        fin = pos;
+        return new ArrayList<>(nuevos.keySet());
+    }
+
+    // ============================
+    //         ESCRITURA
+    // ============================
+
+    public synchronized void guardar(String nombre, byte[] der) throws IOException {
+        byte[] n = nombre.getBytes(StandardCharsets.UTF_8);
+        if (n.length > MAX_NOMBRE || der.length > MAX_DER)
+            throw new IllegalArgumentException("Nombre o clave demasiado largos para " + nombre);
+
+        byte[] actual = leer(nombre);
+        if (actual != null && Arrays.equals(actual, der)) return;
+
+        int largo = 2 + n.length + 2 + der.length;
+        ByteBuffer registro = ByteBuffer.allocate(4 + largo + 4);
+        registro.putInt(largo)
+                .putShort((short) n.length).put(n)
+                .putShort((short) der.length).put(der);
+        CRC32 crc = new CRC32();
+        crc.update(registro.array(), 4, largo);
+        registro.putInt((int) crc.getValue());
+        registro.flip();
+
+        FileLock candado = canal.lock();
+        try {
+            // Antes de escribir se leen los registros de otros procesos, así fin es el final real
+            leerNuevos();
+            long pos = fin;
+            while (registro.hasRemaining())
+                pos += canal.write(registro, pos);
+            canal.force(false);
+            leerNuevos();
+        } finally {
+            candado.release();
+        }
+    }
+
+    /**
+     * Reescribe el archivo con el último registro de cada nodo. Se escribe un archivo
+     * temporal completo y se lo mueve encima del original, así un corte deja uno de los dos.
+     */
+    public synchronized void compactar() throws IOException {
+        Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+
+        FileLock candado = canal.lock();
+        try {
+            leerNuevos();
+            Files.deleteIfExists(temporal);
+            try (AlmacenClaves nuevo = abrir(temporal)) {
+                for (String n : new TreeSet<>(indice.keySet()))
+                    nuevo.guardar(n, leer(n));
+            }
+            Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            candado.release();
+        }
+        canal.close();
+        abrirCanal();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        canal.close();
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identificadores de mensajes ya vistos por un nodo, para descartar las copias que llegan
+ * por otros caminos antes de descifrarlas o reenviarlas.
+ *
+ * Guarda dos generaciones: la actual y la anterior. Cuando la actual cumple ventanaMs o
+ * llega a la mitad de la capacidad, pasa a ser la anterior y la anterior se descarta. Un
+ * id se recuerda entre ventanaMs y 2 * ventanaMs, y nunca hay más de capacidad ids en memoria.
+ *
+ * Propiedades del sistema:
+ *   nodo.vistos.capacidad = ids recordados como máximo (por defecto 100000)
+ *   nodo.vistos.ventanaMs = duración de cada generación (por defecto 60000)
+ */
+public class CacheVistos {
+
+    private final int maxPorGeneracion;
+    private final long ventanaNanos;
+
+    private volatile Set<Long> actual = ConcurrentHashMap.newKeySet();
+    private volatile Set<Long> anterior = ConcurrentHashMap.newKeySet();
+    private volatile long inicioActual = System.nanoTime();
+
+    public CacheVistos(int capacidad, long ventanaMs) {
+        if (capacidad < 2) throw new IllegalArgumentException("La capacidad debe ser al menos 2");
+        this.maxPorGeneracion = capacidad / 2;
+        this.ventanaNanos = TimeUnit.MILLISECONDS.toNanos(ventanaMs);
+    }
+
+    public static CacheVistos desdePropiedades() {
+        return new CacheVistos(
+                Integer.getInteger("nodo.vistos.capacidad", 100_000),
+                Long.getLong("nodo.vistos.ventanaMs", 60_000));
+    }
+
+    /**
+     * Registra el id y devuelve true si es la primera vez que se ve. El id 0 (mensajes de
+     * nodos que no ponen id) siempre se acepta.
+     */
+    public boolean registrar(long id) {
+        if (id == 0) return true;
+
+        Set<Long> gen = actual;
+        if (System.nanoTime() - inicioActual > ventanaNanos || gen.size() >= maxPorGeneracion)
+            gen = rotar(gen);
+
+        Long clave = id;
+        return !anterior.contains(clave) && gen.add(clave);
+    }
+
+    private synchronized Set<Long> rotar(Set<Long> vista) {
+        // Otro hilo pudo rotar mientras se esperaba el candado
+        if (actual != vista) return actual;
+
+        Set<Long> nueva = ConcurrentHashMap.newKeySet();
+        anterior = vista;
+        actual = nueva;
+        inicioActual = System.nanoTime();
+        return nueva;
+    }
+
+    public int tamano() {
+        return actual.size() + anterior.size();
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pide claves públicas a otros nodos con GET_PUBKEY sin bloquear a quien las pide.
+ *
+ * Las pedidas corren en un pool propio, así varias claves de destinos distintos se piden a la
+ * vez. Mientras hay una pedida en curso para un destino, las siguientes reciben el mismo
+ * future en lugar de abrir otra conexión. Cada intento tiene tiempo límite de conexión y de
+ * respuesta; si falla se reintenta con espera exponencial hasta agotar los intentos.
+ *
+ * La clave recibida se guarda en el {@link DirectorioClaves} antes de completar el future.
+ *
+ * Propiedades del sistema:
+ *   nodo.claves.hilos       = pedidas simultáneas a destinos distintos (por defecto 4)
+ *   nodo.claves.timeoutMs   = límite de conexión y de respuesta por intento (por defecto 2000)
+ *   nodo.claves.intentos    = intentos por pedida (por defecto 3)
+ *   nodo.claves.esperaMs    = espera antes del segundo intento; se duplica en cada uno (por defecto 100)
+ */
+public class ClienteClaves {
+
+    private final DirectorioClaves directorio;
+    private final ExecutorService ejecutor;
+    private final int timeoutMs;
+    private final int intentos;
+    private final long esperaMs;
+
+    private final ConcurrentMap<String, CompletableFuture<PublicKey>> enCurso = new ConcurrentHashMap<>();
+
+    private final AtomicLong pedidas = new AtomicLong();
+    private final AtomicLong coalescidas = new AtomicLong();
+    private final AtomicLong fallidas = new AtomicLong();
+
+    public ClienteClaves(DirectorioClaves directorio, int hilos, int timeoutMs, int intentos, long esperaMs) {
+        this.directorio = directorio;
+        this.timeoutMs = timeoutMs;
+        this.intentos = Math.max(1, intentos);
+        this.esperaMs = esperaMs;
+
+        AtomicInteger contador = new AtomicInteger();
+        this.ejecutor = Executors.newFixedThreadPool(hilos, r -> {
+            Thread t = new Thread(r, "cliente-claves-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static ClienteClaves desdePropiedades(DirectorioClaves directorio) {
+        return new ClienteClaves(directorio,
+                Integer.getInteger("nodo.claves.hilos", 4),
+                Integer.getInteger("nodo.claves.timeoutMs", 2_000),
+                Integer.getInteger("nodo.claves.intentos", 3),
+                Long.getLong("nodo.claves.esperaMs", 100));
+    }
+
+    /** Clave del destino: ya completada si se conoce, si no la de la pedida en curso o una nueva. */
+    public CompletableFuture<PublicKey> solicitar(String destino) {
+        PublicKey conocida = directorio.obtener(destino);
+        if (conocida != null) return CompletableFuture.completedFuture(conocida);
+
+        CompletableFuture<PublicKey> nueva = new CompletableFuture<>();
+        CompletableFuture<PublicKey> existente = enCurso.putIfAbsent(destino, nueva);
+        if (existente != null) {
+            coalescidas.incrementAndGet();
+            return existente;
+        }
+
+        // Terminada (bien o mal) deja lugar a otra pedida del mismo destino
+        nueva.whenComplete((pub, e) -> enCurso.remove(destino, nueva));
+        intentar(destino, nueva, 1, ejecutor);
+        return nueva;
+    }
+
+    private void intentar(String destino, CompletableFuture<PublicKey> resultado, int intento, Executor donde) {
+        try {
+            donde.execute(() -> {
+                try {
+                    PublicKey pub = pedir(destino);
+                    directorio.guardar(destino, pub);
+                    resultado.complete(pub);
+                } catch (Exception e) {
+                    if (intento < intentos) {
+                        long espera = esperaMs << (intento - 1);
+                        intentar(destino, resultado, intento + 1,
+                                CompletableFuture.delayedExecutor(espera, TimeUnit.MILLISECONDS, ejecutor));
+                    } else {
+                        fallidas.incrementAndGet();
+                        resultado.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Cliente cerrado
+            resultado.completeExceptionally(e);
+        }
+    }
+
+    private PublicKey pedir(String destino) throws Exception {
+        pedidas.incrementAndGet();
+
+        String[] partes = TablaRuteo.normalizar(destino).split("_");
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(partes[0], Integer.parseInt(partes[1])), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+
+            PrintWriter out = new PrintWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            out.println("GET_PUBKEY");
+            String pubHex = in.readLine();
+            if (pubHex == null) throw new IOException("El nodo " + destino + " cerró la conexión sin responder");
+
+            return Encriptador.publicKeyFromHex(pubHex.trim());
+        }
+    }
+
+    public long getPedidas() { return pedidas.get(); }
+    public long getCoalescidas() { return coalescidas.get(); }
+    public long getFallidas() { return fallidas.get(); }
+
+    public void cerrar() {
+        ejecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Colas de salida por vecino para el transporte bloqueante. Enviar un mensaje solo lo encola;
+ * un hilo propio de cada vecino lo escribe. Así un vecino caído (que tarda nodo.pool.connectMs
+ * en fallar) o lento demora solo sus propios mensajes, nunca al hilo que recibe y reenvía ni
+ * a los demás vecinos.
+ *
+ * Cada cola tiene capacidad fija. Llena, sigue la política de desborde:
+ *   descartarNuevo  se descarta el mensaje que llega (por defecto: reenviar nunca frena
+ *                   al hilo que recibe)
+ *   descartarViejo  se descarta el más viejo de la cola para hacerle lugar
+ *   bloquear        quien envía espera a que haya lugar (vuelve a frenar la recepción; lo
+ *                   usan las pruebas que no deben perder mensajes)
+ *
+ * Los mensajes descartados por cola llena se cuentan (getDescartadosLlena).
+ *
+ * El hilo de un vecino escribe de una vez todo lo que encuentra en la cola, hasta LOTE_MAXIMO
+ * mensajes. Si la escritura falla (después del reintento del pool) se descartan esos mensajes
+ * y los que esperan detrás, y el vecino queda caído por nodo.salida.reintentoMs: mientras tanto
+ * {@link #encolar} lo rechaza, así quien reenvía lo ve en el acto y elige otro camino (PCNode
+ * inunda) en vez de dejar los mensajes en una cola que no sale. Pasado ese tiempo se lo vuelve
+ * a intentar con el próximo envío.
+ *
+ * Propiedades del sistema (nodo.cola, en cambio, es la cola de entrada de DespachadorConexiones):
+ *   nodo.salida.capacidad   = mensajes por vecino (por defecto 1000; 0 = sin colas, se escribe
+ *                             en el hilo que envía y un envío fallido se ve en el acto)
+ *   nodo.salida.desborde    = descartarNuevo | descartarViejo | bloquear (por defecto descartarNuevo)
+ *   nodo.salida.reintentoMs = cuánto se rechazan los envíos a un vecino tras un error de escritura
+ *                             (por defecto 1000); también lo usa {@link TransporteNio}
+ */
+public class ColasSalida {
+
+    public enum Desborde {
+        DESCARTAR_NUEVO, DESCARTAR_VIEJO, BLOQUEAR;
+
+        public static Desborde desdeNombre(String nombre) {
+            switch (nombre.trim().toLowerCase(Locale.ROOT)) {
+                case "descartarnuevo": return DESCARTAR_NUEVO;
+                case "descartarviejo": return DESCARTAR_VIEJO;
+                case "bloquear":       return BLOQUEAR;
+                default: throw new IllegalArgumentException("Política de desborde desconocida: " + nombre);
+            }
+        }
+
+        public static Desborde porPropiedad() {
+            return desdeNombre(System.getProperty("nodo.salida.desborde", "descartarNuevo"));
+        }
+    }
+
+    /** Cuánto queda caído un vecino después de un error de escritura (nodo.salida.reintentoMs). */
+    public static long reintentoNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("nodo.salida.reintentoMs", 1_000));
+    }
+
+    private static final int LOTE_MAXIMO = 256;
+
+    private final class Cola {
+        final String vecino;
+        final BlockingQueue<Mensaje> mensajes = new ArrayBlockingQueue<>(capacidad);
+        final AtomicLong descartados = new AtomicLong();
+        final Thread hilo;
+        volatile long caidoHasta;            // 0 si la última escritura no falló
+
+        Cola(String vecino) {
+            this.vecino = vecino;
+            this.hilo = new Thread(() -> drenar(this), "salida-" + vecino);
+            hilo.setDaemon(true);
+        }
+    }
+
+    private final AgrupadorSalida.Escritor escritor;
+    private final int capacidad;
+    private final Desborde desborde;
+    private final long reintentoNanos = reintentoNanos();
+    private final ConcurrentMap<String, Cola> colas = new ConcurrentHashMap<>();
+    private volatile boolean activa = true;
+
+    private final AtomicLong escritos = new AtomicLong();
+    private final AtomicLong descartadosLlena = new AtomicLong();
+    private final AtomicLong descartadosError = new AtomicLong();
+
+    public ColasSalida(AgrupadorSalida.Escritor escritor, int capacidad, Desborde desborde) {
+        this.escritor = escritor;
+        this.capacidad = Math.max(1, capacidad);
+        this.desborde = desborde;
+    }
+
+    /** Las colas según las propiedades, o null si nodo.salida.capacidad es 0. */
+    public static ColasSalida desdePropiedades(AgrupadorSalida.Escritor escritor) {
+        int capacidad = Integer.getInteger("nodo.salida.capacidad", 1000);
+        return capacidad > 0 ? new ColasSalida(escritor, capacidad, Desborde.porPropiedad()) : null;
+    }
+
+    // ============================
+    //          ENCOLAR
+    // ============================
+
+    /**
+     * Encola los mensajes hacia el vecino; no bloquea salvo con la política BLOQUEAR. Devuelve
+     * false, sin encolar nada, si el vecino está caído (su última escritura falló hace menos de
+     * nodo.salida.reintentoMs).
+     */
+    public boolean encolar(String vecino, List<Mensaje> lote) {
+        Cola c = colas.get(vecino);
+        if (c == null) c = colas.computeIfAbsent(vecino, this::crear);
+        if (caido(c)) return false;
+
+        for (Mensaje m : lote) {
+            if (!agregar(c, m)) {
+                descartadosLlena.incrementAndGet();
+                long n = c.descartados.incrementAndGet();
+                // Un aviso al empezar a descartar y después uno cada mil, no uno por mensaje
+                if (n == 1 || n % 1000 == 0)
+                    System.err.println("[WARN] Cola hacia " + vecino + " llena (" + capacidad + "); "
+                            + n + " mensajes descartados hasta ahora (" + desborde + ").");
+            }
+        }
+        return true;
+    }
+
+    /** false si el vecino está caído y encolar lo rechazaría. */
+    public boolean disponible(String vecino) {
+        Cola c = colas.get(vecino);
+        return c == null || !caido(c);
+    }
+
+    private static boolean caido(Cola c) {
+        long hasta = c.caidoHasta;
+        return hasta != 0 && hasta - System.nanoTime() > 0;
+    }
+
+    private Cola crear(String vecino) {
+        Cola c = new Cola(vecino);
+        c.hilo.start();
+        return c;
+    }
+
+    // false si se descartó un mensaje (el nuevo o uno viejo)
+    private boolean agregar(Cola c, Mensaje m) {
+        switch (desborde) {
+            case DESCARTAR_VIEJO:
+                boolean lugar = true;
+                while (!c.mensajes.offer(m)) {
+                    if (c.mensajes.poll() != null) lugar = false;
+                }
+                return lugar;
+            case BLOQUEAR:
+                try {
+                    c.mensajes.put(m);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            default:
+                return c.mensajes.offer(m);
+        }
+    }
+
+    // ============================
+    //       HILO POR VECINO
+    // ============================
+
+    private void drenar(Cola c) {
+        List<Mensaje> lote = new ArrayList<>(LOTE_MAXIMO);
+        try {
+            while (activa || !c.mensajes.isEmpty()) {
+                Mensaje primero = c.mensajes.poll(200, TimeUnit.MILLISECONDS);
+                if (primero == null) continue;
+
+                lote.add(primero);
+                if (caido(c)) {
+                    // Lo que entró justo antes de marcarlo caído fallaría igual
+                    c.mensajes.drainTo(lote);
+                    descartadosError.addAndGet(lote.size());
+                    lote.clear();
+                    continue;
+                }
+                c.mensajes.drainTo(lote, LOTE_MAXIMO - 1);
+                try {
+                    escritor.escribir(c.vecino, lote);
+                    escritos.addAndGet(lote.size());
+                    c.caidoHasta = 0;
+                } catch (IOException | RuntimeException e) {
+                    c.caidoHasta = (System.nanoTime() + reintentoNanos) | 1;   // | 1: nunca 0
+                    // Los que esperan detrás fallarían igual; descartarlos libera a quien bloquea
+                    c.mensajes.drainTo(lote);
+                    descartadosError.addAndGet(lote.size());
+                    System.err.println("Error enviando a " + c.vecino + ": " + e.getMessage()
+                            + (lote.size() > 1 ? " (se descartan " + lote.size() + " mensajes)" : "")
+                            + "; se lo da por caído " + TimeUnit.NANOSECONDS.toMillis(reintentoNanos) + " ms");
+                }
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            // cierre
+        }
+    }
+
+    public int pendientes(String vecino) {
+        Cola c = colas.get(vecino);
+        return c == null ? 0 : c.mensajes.size();
+    }
+
+    public long getEscritos() { return escritos.get(); }
+    public long getDescartadosLlena() { return descartadosLlena.get(); }
+    public long getDescartadosError() { return descartadosError.get(); }
+
+    /** Cada hilo termina de escribir lo que tiene en su cola y sale; se lo espera hasta esperaMs en total. */
+    public void cerrar(long esperaMs) {
+        activa = false;
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMs);
+        for (Cola c : colas.values()) {
+            try {
+                c.hilo.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(limite - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            c.hilo.interrupt();
+        }
+    }
+}
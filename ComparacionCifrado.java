@@ -0,0 +1,92 @@
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.Random;
+
+/**
+ * Costo del contenido de un mensaje, de punta a punta (cifrar en el origen y descifrar en el
+ * destino), para cada tamaño de payload:
+ *
+ *   CBC+firma  AES-CBC y firma SHA256withRSA del texto cifrado (firmar + verificar), lo original
+ *   GCM+firma  AES-GCM con la misma firma
+ *   CBC        solo AES-CBC, sin autenticación (referencia)
+ *   GCM        solo AES-GCM: el camino de firma amortizada dentro de una sesión
+ *
+ * Las claves AES y RSA ya están creadas: no se mide el intercambio de la clave AES. GCM
+ * tarda en estabilizarse en la JIT, por eso cada medición dura 4 segundos por defecto.
+ *
+ * Uso: java ComparacionCifrado [segundosPorMedicion]
+ */
+public class ComparacionCifrado {
+
+    private static final int[] TAMANOS = {16, 256, 4 * 1024, 64 * 1024, 1024 * 1024};
+
+    private static volatile long sumidero;
+
+    public static void main(String[] args) throws Exception {
+        double segundos = args.length > 0 ? Double.parseDouble(args[0]) : 4.0;
+        Random rnd = new Random(42);
+
+        KeyPair par = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        SecretKey clave = Encriptador.generarClaveAES();
+        byte[] claveBytes = clave.getEncoded();
+        byte[] aad = "127.0.0.1_5000;127.0.0.1_5001".getBytes(StandardCharsets.UTF_8);
+
+        System.out.printf("msg/s (MB/s):%n%10s %20s %20s %20s %20s%n",
+                "payload", "CBC+firma", "GCM+firma", "CBC", "GCM");
+
+        for (int tamano : TAMANOS) {
+            byte[] datos = new byte[tamano];
+            rnd.nextBytes(datos);
+
+            double cbcFirma = medir(segundos, () -> {
+                Encriptador.AesResultado ar = Encriptador.cifrarConAES(datos, clave);
+                byte[] firma = FirmaDigital.firmarBytes(ar.cipher, par.getPrivate());
+                if (!FirmaDigital.verificarFirma(ar.cipher, firma, par.getPublic())) throw new IllegalStateException();
+                sumidero += Encriptador.descifrarConAES(ar.cipher, ar.iv, claveBytes).length;
+            });
+            double gcmFirma = medir(segundos, () -> {
+                Encriptador.AesResultado ar = Encriptador.cifrarConAESGCM(datos, clave, aad);
+                byte[] firma = FirmaDigital.firmarBytes(ar.cipher, par.getPrivate());
+                if (!FirmaDigital.verificarFirma(ar.cipher, firma, par.getPublic())) throw new IllegalStateException();
+                sumidero += Encriptador.descifrarConAESGCM(ar.cipher, ar.iv, claveBytes, aad).length;
+            });
+            double cbc = medir(segundos, () -> {
+                Encriptador.AesResultado ar = Encriptador.cifrarConAES(datos, clave);
+                sumidero += Encriptador.descifrarConAES(ar.cipher, ar.iv, claveBytes).length;
+            });
+            double gcm = medir(segundos, () -> {
+                Encriptador.AesResultado ar = Encriptador.cifrarConAESGCM(datos, clave, aad);
+                sumidero += Encriptador.descifrarConAESGCM(ar.cipher, ar.iv, claveBytes, aad).length;
+            });
+
+            System.out.printf("%10d %20s %20s %20s %20s%n", tamano,
+                    celda(cbcFirma, tamano), celda(gcmFirma, tamano), celda(cbc, tamano), celda(gcm, tamano));
+        }
+    }
+
+    private static String celda(double porSegundo, int tamano) {
+        return String.format("%.0f (%.1f)", porSegundo, porSegundo * tamano / 1e6);
+    }
+
+    private interface Operacion {
+        void ejecutar() throws Exception;
+    }
+
+    // Calienta la mitad del tiempo y mide la otra mitad; devuelve operaciones por segundo
+    private static double medir(double segundos, Operacion op) throws Exception {
+        long mitad = (long) (segundos * 1e9 / 2);
+        long fin = System.nanoTime() + mitad;
+        while (System.nanoTime() < fin) op.ejecutar();
+
+        long ops = 0;
+        long inicio = System.nanoTime();
+        fin = inicio + mitad;
+        long ahora;
+        do {
+            op.ejecutar();
+            ops++;
+        } while ((ahora = System.nanoTime()) < fin);
+        return ops / ((ahora - inicio) / 1e9);
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Relación y velocidad de la compresión del contenido ({@link Compresor}) sobre un corpus de
+ * ejemplo:
+ *
+ *   chat     frases cortas armadas con un vocabulario chico, como mensajes de usuario
+ *   json     registros JSON de eventos, con claves repetidas y valores que cambian
+ *   fuentes  los .java del directorio actual (o del indicado), concatenados
+ *   azar     bytes aleatorios: lo incompresible, que el nodo termina enviando sin comprimir
+ *
+ * Para cada contenido y codec muestra el tamaño comprimido relativo a 1 KB y a 64 KB, los MB/s
+ * al comprimir y descomprimir (sobre el contenido original) y el enlace de equilibrio: en un
+ * enlace más lento que ese, comprimir ahorra más tiempo de transmisión del que cuesta en CPU
+ * (comprimir en el origen + descomprimir en el destino). En el formato de texto los bytes
+ * viajan en hex, así que el ahorro y el enlace de equilibrio se duplican.
+ *
+ * Uso: java ComparacionCompresion [segundosPorMedicion] [directorioFuentes]
+ */
+public class ComparacionCompresion {
+
+    private static final int CHICO = 1024;
+    private static final int GRANDE = 64 * 1024;
+
+    private static volatile long sumidero;
+
+    public static void main(String[] args) throws Exception {
+        double segundos = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        Path fuentes = Paths.get(args.length > 1 ? args[1] : ".");
+
+        Map<String, byte[]> corpus = new LinkedHashMap<>();
+        corpus.put("chat", chat(GRANDE));
+        corpus.put("json", json(GRANDE));
+        byte[] codigo = fuentes(fuentes, GRANDE);
+        if (codigo != null) corpus.put("fuentes", codigo);
+        byte[] azar = new byte[GRANDE];
+        new Random(42).nextBytes(azar);
+        corpus.put("azar", azar);
+
+        System.out.printf("%-8s %-8s %9s %9s %12s %14s %16s%n",
+                "corpus", "codec", "1 KB", "64 KB", "comp MB/s", "descomp MB/s", "equilibrio Mb/s");
+
+        for (Map.Entry<String, byte[]> e : corpus.entrySet()) {
+            byte[] datos = e.getValue();
+            byte[] chico = Arrays.copyOf(datos, CHICO);
+
+            for (Compresor.Tipo tipo : new Compresor.Tipo[]{Compresor.Tipo.DEFLATE, Compresor.Tipo.LZ}) {
+                byte[] comprimido = Compresor.comprimirSiempre(datos, tipo);
+                if (!Arrays.equals(Compresor.descomprimir(comprimido, tipo), datos))
+                    throw new IllegalStateException("Ida y vuelta distinta: " + e.getKey() + " " + tipo);
+
+                double comprimir = medir(segundos, () -> sumidero += Compresor.comprimirSiempre(datos, tipo).length);
+                double descomprimir = medir(segundos, () -> sumidero += Compresor.descomprimir(comprimido, tipo).length);
+
+                // Segundos de CPU por contenido y bytes que se dejan de enviar en binario
+                double cpu = 1 / comprimir + 1 / descomprimir;
+                long ahorro = datos.length - Math.min(datos.length, comprimido.length);
+
+                System.out.printf("%-8s %-8s %8.1f%% %8.1f%% %12.1f %14.1f %16s%n",
+                        e.getKey(), tipo.getNombre(),
+                        relacion(chico, tipo), relacion(datos, tipo),
+                        comprimir * datos.length / 1e6, descomprimir * datos.length / 1e6,
+                        ahorro == 0 ? "nunca" : String.format("%.0f", ahorro * 8 / cpu / 1e6));
+            }
+        }
+    }
+
+    // Tamaño que se envía, en % del original: sin comprimir si la compresión no achica
+    private static double relacion(byte[] datos, Compresor.Tipo tipo) {
+        byte[] c = Compresor.comprimir(datos, tipo);
+        return 100.0 * (c != null ? c.length : datos.length) / datos.length;
+    }
+
+    // ============================
+    //           CORPUS
+    // ============================
+
+    private static final String[] PALABRAS = {
+            "hola", "nodo", "mensaje", "que", "tal", "la", "red", "el", "de", "ruta", "anda", "bien",
+            "lento", "hoy", "mañana", "envío", "clave", "gracias", "listo", "ok", "se", "cayó", "vuelve",
+            "prueba", "servidor", "puerto", "conexión", "ya", "no", "sí", "después", "archivo"
+    };
+
+    private static byte[] chat(int tamano) {
+        Random rnd = new Random(1);
+        StringBuilder sb = new StringBuilder(tamano + 100);
+        while (sb.length() < tamano) {
+            int n = 3 + rnd.nextInt(10);
+            for (int i = 0; i < n; i++) {
+                if (i > 0) sb.append(' ');
+                sb.append(PALABRAS[rnd.nextInt(PALABRAS.length)]);
+            }
+            sb.append(rnd.nextInt(4) == 0 ? "?\n" : ".\n");
+        }
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), tamano);
+    }
+
+    private static byte[] json(int tamano) {
+        Random rnd = new Random(2);
+        String[] tipos = {"conexion", "mensaje", "reenvio", "descarte", "clave"};
+        StringBuilder sb = new StringBuilder(tamano + 200);
+        long ts = 1_700_000_000_000L;
+        while (sb.length() < tamano) {
+            ts += rnd.nextInt(500);
+            sb.append("{\"ts\":").append(ts)
+              .append(",\"tipo\":\"").append(tipos[rnd.nextInt(tipos.length)])
+              .append("\",\"origen\":\"127.0.0.1_").append(5000 + rnd.nextInt(20))
+              .append("\",\"destino\":\"127.0.0.1_").append(5000 + rnd.nextInt(20))
+              .append("\",\"bytes\":").append(rnd.nextInt(65536))
+              .append(",\"ttl\":").append(rnd.nextInt(16))
+              .append(",\"ok\":").append(rnd.nextInt(10) != 0).append("}\n");
+        }
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), tamano);
+    }
+
+    private static byte[] fuentes(Path directorio, int tamano) throws Exception {
+        if (!Files.isDirectory(directorio)) return null;
+        ByteArrayOutputStream todo = new ByteArrayOutputStream(tamano);
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            for (Path p : (Iterable<Path>) archivos.filter(p -> p.toString().endsWith(".java")).sorted()::iterator) {
+                todo.write(Files.readAllBytes(p));
+                if (todo.size() >= tamano) break;
+            }
+        }
+        return todo.size() >= tamano ? Arrays.copyOf(todo.toByteArray(), tamano) : null;
+    }
+
+    // ============================
+    //          MEDICIÓN
+    // ============================
+
+    private interface Operacion {
+        void ejecutar() throws Exception;
+    }
+
+    // Calienta la mitad del tiempo y mide la otra mitad; devuelve operaciones por segundo
+    private static double medir(double segundos, Operacion op) throws Exception {
+        long mitad = (long) (segundos * 1e9 / 2);
+        long fin = System.nanoTime() + mitad;
+        while (System.nanoTime() < fin) op.ejecutar();
+
+        long ops = 0;
+        long inicio = System.nanoTime();
+        fin = inicio + mitad;
+        long ahora;
+        do {
+            op.ejecutar();
+            ops++;
+        } while ((ahora = System.nanoTime()) < fin);
+        return ops / ((ahora - inicio) / 1e9);
+    }
+}
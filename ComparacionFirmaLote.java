@@ -0,0 +1,80 @@
+import java.security.*;
+import java.util.*;
+
+/**
+ * Firmas verificadas (y hechas) por segundo, una por una con {@link FirmaDigital#verificarFirma}
+ * y en lotes con {@link FirmaDigital#verificarLote} / {@link FirmaDigital#firmarLote}, para
+ * varios tamaños de lote. Los lotes de verificación mezclan dos orígenes, como una ráfaga
+ * que llega por un vecino.
+ *
+ * Uso: java ComparacionFirmaLote [segundosPorMedicion]
+ */
+public class ComparacionFirmaLote {
+
+    private static final int[] TAMANOS = {1, 8, 32, 128, 512};
+
+    private static volatile long sumidero;
+
+    public static void main(String[] args) throws Exception {
+        double segundos = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        Random rnd = new Random(42);
+
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        KeyPair[] pares = {kpg.generateKeyPair(), kpg.generateKeyPair()};
+        Map<String, PublicKey> claves = Map.of("a", pares[0].getPublic(), "b", pares[1].getPublic());
+
+        System.out.printf("núcleos: %d%n%8s %14s %14s %14s %14s%n", Runtime.getRuntime().availableProcessors(),
+                "lote", "verif. una", "verif. lote", "firma una", "firma lote");
+
+        for (int tamano : TAMANOS) {
+            List<FirmaDigital.Verificacion> lote = new ArrayList<>();
+            List<byte[]> datos = new ArrayList<>();
+            for (int i = 0; i < tamano; i++) {
+                byte[] d = new byte[256];
+                rnd.nextBytes(d);
+                int quien = i % 2;
+                lote.add(new FirmaDigital.Verificacion(d,
+                        FirmaDigital.firmarBytes(d, pares[quien].getPrivate()), quien == 0 ? "a" : "b"));
+                datos.add(d);
+            }
+
+            double una = medir(segundos, tamano, () -> {
+                for (FirmaDigital.Verificacion v : lote)
+                    if (FirmaDigital.verificarFirma(v.datos, v.firma, claves.get(v.origen))) sumidero++;
+            });
+            double enLote = medir(segundos, tamano, () -> {
+                for (boolean ok : FirmaDigital.verificarLote(lote, claves::get))
+                    if (ok) sumidero++;
+            });
+            double firmaUna = medir(segundos, tamano, () -> {
+                for (byte[] d : datos)
+                    sumidero += FirmaDigital.firmarBytes(d, pares[0].getPrivate()).length;
+            });
+            double firmaLote = medir(segundos, tamano, () ->
+                    sumidero += FirmaDigital.firmarLote(datos, pares[0].getPrivate()).length);
+
+            System.out.printf("%8d %14.0f %14.0f %14.0f %14.0f%n", tamano, una, enLote, firmaUna, firmaLote);
+        }
+    }
+
+    private interface Operacion {
+        void ejecutar() throws Exception;
+    }
+
+    // Calienta la mitad del tiempo y mide la otra mitad; devuelve firmas por segundo
+    private static double medir(double segundos, int porOperacion, Operacion op) throws Exception {
+        long mitad = (long) (segundos * 1e9 / 2);
+        long fin = System.nanoTime() + mitad;
+        while (System.nanoTime() < fin) op.ejecutar();
+
+        long ops = 0;
+        long inicio = System.nanoTime();
+        fin = inicio + mitad;
+        long ahora;
+        do {
+            op.ejecutar();
+            ops++;
+        } while ((ahora = System.nanoTime()) < fin);
+        return ops * porOperacion / ((ahora - inicio) / 1e9);
+    }
+}
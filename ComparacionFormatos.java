@@ -0,0 +1,131 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Compara el formato texto (hex separado por ';') con el binario (longitudes + bytes crudos):
+ * bytes en el cable por mensaje y mensajes por segundo de ida y vuelta (codificar, decodificar
+ * y leer los campos crudos, como hace el destino).
+ *
+ * También mide el costo de un nodo intermedio (leer, agregarse al camino y volver a codificar)
+ * decodificando el mensaje completo contra leyendo solo la cabecera de ruteo.
+ *
+ * Uso: java ComparacionFormatos [segundosPorMedicion]
+ */
+public class ComparacionFormatos {
+
+    private static final int[] TAMANOS = {16, 256, 4 * 1024, 64 * 1024, 1024 * 1024};
+    private static final String[] CAMINO = {"172.16.4.233_5000", "172.16.4.253_5001", "172.16.4.6_5010"};
+
+    private static volatile long sumidero;
+
+    public static void main(String[] args) {
+        double segundos = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        Random rnd = new Random(42);
+
+        System.out.printf("%10s %12s %12s %8s %14s %14s %8s%n",
+                "payload", "texto (B)", "binario (B)", "ahorro", "texto msg/s", "binario msg/s", "x");
+
+        for (int tamano : TAMANOS) {
+            // AES-CBC con PKCS5 rellena hasta el siguiente bloque; RSA-2048 da 256 bytes
+            byte[] clave = bytes(rnd, 256);
+            byte[] iv = bytes(rnd, 16);
+            byte[] cifrado = bytes(rnd, (tamano / 16 + 1) * 16);
+            byte[] firma = bytes(rnd, 256);
+
+            Mensaje m = nuevo(clave, iv, cifrado, firma);
+            int bytesTexto = m.aTexto().getBytes(StandardCharsets.UTF_8).length + 1;
+            int bytesBinario = 4 + m.tamanoBinario();
+
+            double tasaTexto = medir(segundos, () -> {
+                String linea = nuevo(clave, iv, cifrado, firma).aTexto();
+                Mensaje leido = Mensaje.desdeTexto(linea);
+                sumidero += leido.getCiphertext().length + leido.getSignature().length;
+            });
+
+            ByteBuffer buf = ByteBuffer.allocateDirect(bytesBinario);
+            double tasaBinario = medir(segundos, () -> {
+                buf.clear();
+                Mensaje nuevo = nuevo(clave, iv, cifrado, firma);
+                buf.putInt(nuevo.tamanoBinario());
+                nuevo.escribirBinario(buf);
+                buf.flip();
+                buf.getInt();
+                Mensaje leido = Mensaje.desdeBinario(buf);
+                sumidero += leido.getCiphertext().length + leido.getSignature().length;
+            });
+
+            System.out.printf("%10d %12d %12d %7.1f%% %14.0f %14.0f %7.1fx%n",
+                    tamano, bytesTexto, bytesBinario, 100.0 * (bytesTexto - bytesBinario) / bytesTexto,
+                    tasaTexto, tasaBinario, tasaBinario / tasaTexto);
+        }
+
+        System.out.printf("%nReenvío (msg/s):%n%10s %14s %14s %14s %14s%n",
+                "payload", "texto compl.", "texto cabec.", "bin. compl.", "bin. cabec.");
+
+        for (int tamano : TAMANOS) {
+            Mensaje m = nuevo(bytes(rnd, 256), bytes(rnd, 16), bytes(rnd, (tamano / 16 + 1) * 16), bytes(rnd, 256));
+            String linea = m.aTexto();
+            ByteBuffer trama = ByteBuffer.allocate(m.tamanoBinario());
+            m.escribirBinario(trama);
+            ByteBuffer salida = ByteBuffer.allocateDirect(m.tamanoBinario() + 64);
+
+            double textoCompleto = medir(segundos, () -> {
+                Mensaje leido = Mensaje.desdeTexto(linea);
+                leido.agregarAlCamino("172.16.2.5_5000");
+                sumidero += leido.aTexto().length();
+            });
+            double textoCabecera = medir(segundos, () -> {
+                Mensaje leido = Mensaje.cabeceraDesdeTexto(linea);
+                leido.agregarAlCamino("172.16.2.5_5000");
+                sumidero += leido.aTexto().length();
+            });
+            double binarioCompleto = medir(segundos, () -> {
+                Mensaje leido = Mensaje.desdeBinario(trama.duplicate().rewind());
+                leido.agregarAlCamino("172.16.2.5_5000");
+                salida.clear();
+                leido.escribirBinario(salida);
+                sumidero += salida.position();
+            });
+            double binarioCabecera = medir(segundos, () -> {
+                Mensaje leido = Mensaje.cabeceraDesdeBinario(trama.duplicate().rewind());
+                leido.agregarAlCamino("172.16.2.5_5000");
+                salida.clear();
+                leido.escribirBinario(salida);
+                sumidero += salida.position();
+            });
+
+            System.out.printf("%10d %14.0f %14.0f %14.0f %14.0f%n",
+                    tamano, textoCompleto, textoCabecera, binarioCompleto, binarioCabecera);
+        }
+    }
+
+    private static Mensaje nuevo(byte[] clave, byte[] iv, byte[] cifrado, byte[] firma) {
+        Mensaje m = new Mensaje(CAMINO[0], "172.16.2.5_5019", clave, iv, cifrado, firma, CAMINO[0]);
+        for (int i = 1; i < CAMINO.length; i++) m.agregarAlCamino(CAMINO[i]);
+        return m;
+    }
+
+    private static byte[] bytes(Random rnd, int n) {
+        byte[] b = new byte[n];
+        rnd.nextBytes(b);
+        return b;
+    }
+
+    // Calienta la mitad del tiempo y mide la otra mitad; devuelve operaciones por segundo
+    private static double medir(double segundos, Runnable op) {
+        long mitad = (long) (segundos * 1e9 / 2);
+        long fin = System.nanoTime() + mitad;
+        while (System.nanoTime() < fin) op.run();
+
+        long ops = 0;
+        long inicio = System.nanoTime();
+        fin = inicio + mitad;
+        long ahora;
+        do {
+            op.run();
+            ops++;
+        } while ((ahora = System.nanoTime()) < fin);
+        return ops / ((ahora - inicio) / 1e9);
+    }
+}
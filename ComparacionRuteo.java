@@ -0,0 +1,156 @@
+import java.util.*;
+
+/**
+ * Compara cuántas transmisiones cuesta entregar un mensaje unicast inundando (como
+ * PCNode antes de la tabla de ruteo: directo al destino y a todos los vecinos, cada nodo
+ * reenvía una vez a los vecinos que no están en el camino) contra reenviando solo al
+ * siguiente salto de {@link TablaRuteo}.
+ *
+ * Simula las decisiones de reenvío sobre topologías generadas, sin sockets ni cifrado.
+ * Los enlaces son bidireccionales (cada nodo se declara vecino del otro en la configuración)
+ * y no se aplica TTL, para comparar las dos estrategias en redes de cualquier diámetro.
+ *
+ * Uso: java ComparacionRuteo [mensajesPorTopologia] [semilla]
+ */
+public class ComparacionRuteo {
+
+    public static void main(String[] args) {
+        int mensajes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long semilla = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        Random rnd = new Random(semilla);
+
+        System.out.printf("Transmisiones por mensaje entregado:%n%-22s %6s %7s %12s %12s %10s%n",
+                "topología", "nodos", "enlaces", "inundación", "ruteo", "reducción");
+
+        for (int n : new int[]{16, 64, 256}) {
+            medir("anillo", anillo(n), mensajes, rnd);
+            int lado = (int) Math.sqrt(n);
+            medir("malla " + lado + "x" + lado, malla(lado), mensajes, rnd);
+            medir("aleatoria grado 4", aleatoria(n, 4, rnd), mensajes, rnd);
+        }
+    }
+
+    private static void medir(String nombre, Map<String, List<String>> topologia, int mensajes, Random rnd) {
+        List<String> nodos = new ArrayList<>(topologia.keySet());
+
+        // Cada nodo arma su tabla con la configuración completa, como cargarConfiguracion
+        Map<String, TablaRuteo> tablas = new HashMap<>();
+        for (String nodo : nodos) {
+            TablaRuteo t = new TablaRuteo(nodo);
+            for (Map.Entry<String, List<String>> e : topologia.entrySet())
+                t.agregarEnlaces(e.getKey(), e.getValue());
+            tablas.put(nodo, t);
+        }
+
+        long txInundacion = 0, txRuteo = 0, entregadosInundacion = 0, entregadosRuteo = 0;
+        for (int i = 0; i < mensajes; i++) {
+            String origen = nodos.get(rnd.nextInt(nodos.size()));
+            String destino;
+            do {
+                destino = nodos.get(rnd.nextInt(nodos.size()));
+            } while (destino.equals(origen));
+
+            long[] r = inundar(topologia, origen, destino);
+            txInundacion += r[0];
+            entregadosInundacion += r[1];
+
+            r = enrutar(tablas, origen, destino);
+            txRuteo += r[0];
+            entregadosRuteo += r[1];
+        }
+
+        int enlaces = 0;
+        for (List<String> v : topologia.values()) enlaces += v.size();
+
+        double porInundacion = (double) txInundacion / entregadosInundacion;
+        double porRuteo = (double) txRuteo / entregadosRuteo;
+        System.out.printf("%-22s %6d %7d %12.1f %12.1f %9.1fx%n",
+                nombre, nodos.size(), enlaces / 2, porInundacion, porRuteo, porInundacion / porRuteo);
+    }
+
+    // Devuelve {transmisiones, entregados}
+    private static long[] inundar(Map<String, List<String>> topologia, String origen, String destino) {
+        long tx = 1;   // envío directo al destino, que siempre llega
+
+        Set<String> vistos = new HashSet<>();
+        vistos.add(origen);
+        ArrayDeque<List<String>> enVuelo = new ArrayDeque<>();
+        for (String v : topologia.get(origen)) {
+            enVuelo.add(List.of(origen, v));
+            tx++;
+        }
+
+        while (!enVuelo.isEmpty()) {
+            List<String> camino = enVuelo.poll();
+            String nodo = camino.get(camino.size() - 1);
+            if (!vistos.add(nodo) || nodo.equals(destino)) continue;
+
+            for (String v : topologia.get(nodo)) {
+                if (camino.contains(v)) continue;
+                List<String> siguiente = new ArrayList<>(camino);
+                siguiente.add(v);
+                enVuelo.add(siguiente);
+                tx++;
+            }
+        }
+        return new long[]{tx, 1};
+    }
+
+    private static long[] enrutar(Map<String, TablaRuteo> tablas, String origen, String destino) {
+        long tx = 0;
+        String nodo = origen;
+        while (!nodo.equals(destino)) {
+            String salto = tablas.get(nodo).siguienteSalto(destino);
+            if (salto == null) return new long[]{tx, 0};
+            nodo = salto;
+            tx++;
+        }
+        return new long[]{tx, 1};
+    }
+
+    // ============================
+    //         TOPOLOGÍAS
+    // ============================
+
+    private static String nodo(int i) {
+        return "10.0." + (i / 256) + "." + (i % 256) + "_5000";
+    }
+
+    private static void unir(Map<String, List<String>> t, int a, int b) {
+        String na = nodo(a), nb = nodo(b);
+        if (a == b || t.get(na).contains(nb)) return;
+        t.get(na).add(nb);
+        t.get(nb).add(na);
+    }
+
+    private static Map<String, List<String>> vacia(int n) {
+        Map<String, List<String>> t = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) t.put(nodo(i), new ArrayList<>());
+        return t;
+    }
+
+    private static Map<String, List<String>> anillo(int n) {
+        Map<String, List<String>> t = vacia(n);
+        for (int i = 0; i < n; i++) unir(t, i, (i + 1) % n);
+        return t;
+    }
+
+    private static Map<String, List<String>> malla(int lado) {
+        Map<String, List<String>> t = vacia(lado * lado);
+        for (int f = 0; f < lado; f++) {
+            for (int c = 0; c < lado; c++) {
+                if (c + 1 < lado) unir(t, f * lado + c, f * lado + c + 1);
+                if (f + 1 < lado) unir(t, f * lado + c, (f + 1) * lado + c);
+            }
+        }
+        return t;
+    }
+
+    // Anillo (para que sea conexa) más cuerdas al azar hasta el grado medio pedido
+    private static Map<String, List<String>> aleatoria(int n, int grado, Random rnd) {
+        Map<String, List<String>> t = anillo(n);
+        int cuerdas = n * (grado - 2) / 2;
+        for (int i = 0; i < cuerdas; i++) unir(t, rnd.nextInt(n), rnd.nextInt(n));
+        return t;
+    }
+}
@@ -0,0 +1,111 @@
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+
+/**
+ * Mensajes por segundo procesados por un nodo destino con y sin sesiones AES
+ * ({@link SesionesCifrado}). Sin sesión cada mensaje trae su clave AES cifrada con RSA y el
+ * destino la descifra con su clave privada; con sesión solo el primero la trae.
+ *
+ * Los mensajes se arman antes de medir (el costo de firmar queda fuera) y se envían por una
+ * conexión persistente; se mide hasta que el destino entregó todos.
+ *
+ * Uso: java ComparacionSesiones [mensajes] [puertoBase]
+ */
+public class ComparacionSesiones {
+
+    private static final String ORIGEN = "127.0.0.1_5998";
+
+    public static void main(String[] args) throws Exception {
+        int mensajes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int puerto = args.length > 1 ? Integer.parseInt(args[1]) : 6300;
+
+        KeyPair origen = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        DirectorioClaves.global().guardar(ORIGEN, origen.getPublic());
+
+        PrintStream consola = System.out;
+        consola.printf("Mensajes por corrida: %d%n%n%-12s %12s%n", mensajes, "modo", "msg/s");
+
+        for (boolean conSesion : new boolean[]{false, true}) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            double tasa;
+            try {
+                tasa = correr(conSesion, puerto++, origen.getPrivate(), mensajes);
+            } finally {
+                System.setOut(consola);
+            }
+            consola.printf("%-12s %12.1f%n", conSesion ? "con sesión" : "sin sesión", tasa);
+        }
+    }
+
+    private static double correr(boolean conSesion, int puerto, PrivateKey firmante, int mensajes) throws Exception {
+        PCNode nodo = new PCNode("127.0.0.1", puerto);
+        nodo.iniciarServidor();
+        esperarServidor(puerto);
+
+        PublicKey pubDestino = DirectorioClaves.global().obtener(nodo.getNombre());
+
+        Mensaje[] lote = new Mensaje[mensajes];
+        if (conSesion) {
+            SesionesCifrado sesiones = new SesionesCifrado(true, 60_000, Long.MAX_VALUE, 1_000);
+            SesionesCifrado.Salida sesion = sesiones.salida(nodo.getNombre(), pubDestino);
+            byte[][] cuerpo = cifrarYFirmar(sesion.getClave(), firmante);
+            byte[] claveCifrada = Encriptador.cifrarClaveAESConRSA(sesion.getClave(), pubDestino);
+            for (int i = 0; i < mensajes; i++) {
+                // Solo el primero lleva la clave cifrada, los demás solo el id de sesión
+                lote[i] = mensaje(nodo.getNombre(), i == 0 ? claveCifrada : new byte[0], cuerpo);
+                lote[i].setSesion(sesion.getId());
+            }
+        } else {
+            SecretKey clave = Encriptador.generarClaveAES();
+            byte[][] cuerpo = cifrarYFirmar(clave, firmante);
+            byte[] claveCifrada = Encriptador.cifrarClaveAESConRSA(clave, pubDestino);
+            for (int i = 0; i < mensajes; i++)
+                lote[i] = mensaje(nodo.getNombre(), claveCifrada, cuerpo);
+        }
+
+        PoolConexiones conexiones = new PoolConexiones(30_000, 1, 3_000, 10_000);
+        long inicio = System.nanoTime();
+        // El primero de la sesión se entrega antes de mandar el resto, como ocurre en la red
+        // durante el anuncio de la clave
+        conexiones.enviar(nodo.getNombre(), lote[0]);
+        while (nodo.getMensajesEntregados() < 1)
+            Thread.sleep(1);
+        for (int i = 1; i < mensajes; i++)
+            conexiones.enviar(nodo.getNombre(), lote[i]);
+
+        while (nodo.getMensajesEntregados() < mensajes)
+            Thread.sleep(1);
+        long nanos = System.nanoTime() - inicio;
+
+        conexiones.cerrar();
+        nodo.detener();
+        return mensajes / (nanos / 1e9);
+    }
+
+    // {iv, texto cifrado, firma}
+    private static byte[][] cifrarYFirmar(SecretKey clave, PrivateKey firmante) throws Exception {
+        Encriptador.AesResultado ar = Encriptador.cifrarConAES(
+                "mensaje de prueba de sesiones".getBytes(StandardCharsets.UTF_8), clave);
+        return new byte[][]{ar.iv, ar.cipher, FirmaDigital.firmarBytes(ar.cipher, firmante)};
+    }
+
+    // Cada mensaje es nuevo (otro id), si no el destino descarta las copias como duplicadas
+    private static Mensaje mensaje(String destino, byte[] claveCifrada, byte[][] cuerpo) {
+        return new Mensaje(ORIGEN, destino, claveCifrada, cuerpo[0], cuerpo[1], cuerpo[2], ORIGEN);
+    }
+
+    private static void esperarServidor(int puerto) throws InterruptedException {
+        for (int intento = 0; intento < 100; intento++) {
+            try {
+                new Socket("127.0.0.1", puerto).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("El servidor no arrancó en el puerto " + puerto);
+    }
+}
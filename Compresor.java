@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresión del contenido antes de cifrarlo (el texto cifrado ya no se puede comprimir).
+ *
+ *   DEFLATE  java.util.zip, mejor relación y más lento
+ *   LZ       LZ77 al estilo LZ4: solo copias de hasta 64 KB atrás, sin entropía; mucho más
+ *            rápido y con menos relación
+ *
+ * Los dos formatos empiezan con el largo original en varint, que se usa para reservar la
+ * salida. Antes de reservarla se rechaza un largo que esos datos no podrían producir: más de
+ * TRAMA_MAXIMA, o más que el tamaño comprimido por la expansión máxima del formato. Así un
+ * mensaje chico no puede hacer reservar 64 MB.
+ *
+ * Comprimir antes de cifrar filtra algo de información por el tamaño; no conviene mezclar en
+ * un mismo mensaje secretos con texto que controle otro.
+ *
+ * Propiedades del sistema:
+ *   nodo.compresion        = ninguna | deflate | lz (por defecto ninguna)
+ *   nodo.compresion.umbral = no se comprimen contenidos más chicos (por defecto 256 bytes)
+ */
+public final class Compresor {
+
+    public enum Tipo {
+        NINGUNO("ninguna"), DEFLATE("deflate"), LZ("lz");
+
+        private final String nombre;
+
+        Tipo(String nombre) {
+            this.nombre = nombre;
+        }
+
+        public String getNombre() { return nombre; }
+
+        public static Tipo desdeNombre(String nombre) {
+            for (Tipo t : values())
+                if (t.nombre.equalsIgnoreCase(nombre.trim())) return t;
+            throw new IllegalArgumentException("Compresión no soportada: " + nombre);
+        }
+    }
+
+    // Expansión máxima de cada formato: DEFLATE no pasa de 1032 a 1; en LZ cada byte de
+    // extensión de un largo agrega a lo sumo 255 bytes de salida
+    private static final int EXPANSION_DEFLATE = 1032;
+    private static final int EXPANSION_LZ = 255;
+
+    private static final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+
+    private Compresor() {}
+
+    public static Tipo tipoPorPropiedad() {
+        return Tipo.desdeNombre(System.getProperty("nodo.compresion", "ninguna"));
+    }
+
+    public static int umbral() {
+        return Integer.getInteger("nodo.compresion.umbral", 256);
+    }
+
+    /** Datos comprimidos, o null si comprimir no los achica (se envían tal cual). */
+    public static byte[] comprimir(byte[] datos, Tipo tipo) {
+        if (tipo == Tipo.NINGUNO) return null;
+        byte[] c = comprimirSiempre(datos, tipo);
+        return c.length < datos.length ? c : null;
+    }
+
+    /** Datos comprimidos aunque no achiquen (NINGUNO los devuelve tal cual). */
+    public static byte[] comprimirSiempre(byte[] datos, Tipo tipo) {
+        switch (tipo) {
+            case DEFLATE: return deflate(datos);
+            case LZ:      return lz(datos);
+            default:      return datos;
+        }
+    }
+
+    public static byte[] descomprimir(byte[] datos, Tipo tipo) throws IOException {
+        switch (tipo) {
+            case DEFLATE: return inflate(datos);
+            case LZ:      return deslz(datos);
+            default:      return datos;
+        }
+    }
+
+    // ============================
+    //          DEFLATE
+    // ============================
+
+    private static byte[] deflate(byte[] datos) {
+        Deflater d = deflater.get();
+        d.reset();
+        d.setInput(datos);
+        d.finish();
+
+        byte[] out = new byte[5 + datos.length + datos.length / 1000 + 64];
+        int pos = escribirVarint(out, 0, datos.length);
+        while (!d.finished()) {
+            if (pos == out.length) out = Arrays.copyOf(out, out.length * 2);
+            pos += d.deflate(out, pos, out.length - pos);
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    private static byte[] inflate(byte[] datos) throws IOException {
+        int[] pos = {0};
+        byte[] out = new byte[leerLargo(datos, pos, EXPANSION_DEFLATE)];
+
+        Inflater inf = inflater.get();
+        inf.reset();
+        inf.setInput(datos, pos[0], datos.length - pos[0]);
+        try {
+            int n = 0;
+            while (n < out.length && !inf.finished()) {
+                int leidos = inf.inflate(out, n, out.length - n);
+                if (leidos == 0 && (inf.needsInput() || inf.needsDictionary()))
+                    throw new IOException("Datos deflate incompletos");
+                n += leidos;
+            }
+            // Lleno el arreglo, el flujo todavía tiene que terminar sin dar más bytes
+            if (n == out.length && !inf.finished() && inf.inflate(new byte[1]) > 0)
+                throw new IOException("Datos deflate más largos de lo anunciado");
+            if (n != out.length || !inf.finished()) throw new IOException("Datos deflate de otro largo");
+        } catch (DataFormatException e) {
+            throw new IOException("Datos deflate dañados: " + e.getMessage(), e);
+        }
+        return out;
+    }
+
+    // ============================
+    //             LZ
+    // ============================
+    //
+    // Secuencias: token (4 bits largo de literales | 4 bits largo de copia - 4), literales,
+    // distancia u16 little-endian. Un nibble en 15 sigue con bytes que se suman (255 = sigue).
+    // La última secuencia solo lleva literales.
+
+    private static final int BITS_HASH = 12;
+    private static final int COPIA_MINIMA = 4;
+    private static final int DISTANCIA_MAXIMA = 0xFFFF;
+
+    private static final ThreadLocal<int[]> tablaLz = ThreadLocal.withInitial(() -> new int[1 << BITS_HASH]);
+
+    private static byte[] lz(byte[] src) {
+        int n = src.length;
+        byte[] dst = new byte[5 + n + n / 255 + 16];
+        int dp = escribirVarint(dst, 0, n);
+
+        int[] tabla = tablaLz.get();
+        Arrays.fill(tabla, -1);
+
+        int ancla = 0;
+        int i = 0;
+        while (i + COPIA_MINIMA <= n) {
+            int cuatro = leerInt(src, i);
+            int h = (cuatro * 0x9E3779B1) >>> (32 - BITS_HASH);
+            int candidato = tabla[h];
+            tabla[h] = i;
+
+            if (candidato < 0 || i - candidato > DISTANCIA_MAXIMA || leerInt(src, candidato) != cuatro) {
+                // Sin coincidencias se avanza cada vez más rápido: lo incompresible cuesta poco
+                i += 1 + ((i - ancla) >>> 6);
+                continue;
+            }
+
+            int largo = COPIA_MINIMA;
+            while (i + largo < n && src[candidato + largo] == src[i + largo]) largo++;
+
+            dp = escribirSecuencia(dst, dp, src, ancla, i - ancla, largo - COPIA_MINIMA);
+            dst[dp++] = (byte) (i - candidato);
+            dst[dp++] = (byte) ((i - candidato) >>> 8);
+            if (largo - COPIA_MINIMA >= 15) dp = escribirExtension(dst, dp, largo - COPIA_MINIMA - 15);
+
+            i += largo;
+            ancla = i;
+        }
+
+        dp = escribirSecuencia(dst, dp, src, ancla, n - ancla, 0);
+        return Arrays.copyOf(dst, dp);
+    }
+
+    // Token y literales; la extensión del largo de copia la agrega quien llama, tras la distancia
+    private static int escribirSecuencia(byte[] dst, int dp, byte[] src, int desde, int literales, int copia) {
+        dst[dp++] = (byte) ((Math.min(literales, 15) << 4) | Math.min(copia, 15));
+        if (literales >= 15) dp = escribirExtension(dst, dp, literales - 15);
+        System.arraycopy(src, desde, dst, dp, literales);
+        return dp + literales;
+    }
+
+    private static int escribirExtension(byte[] dst, int dp, int resto) {
+        while (resto >= 255) {
+            dst[dp++] = (byte) 255;
+            resto -= 255;
+        }
+        dst[dp++] = (byte) resto;
+        return dp;
+    }
+
+    private static byte[] deslz(byte[] src) throws IOException {
+        int[] pos = {0};
+        byte[] dst = new byte[leerLargo(src, pos, EXPANSION_LZ)];
+        int sp = pos[0];
+        int dp = 0;
+
+        try {
+            while (sp < src.length) {
+                int token = src[sp++] & 0xFF;
+
+                int literales = token >>> 4;
+                if (literales == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xFF;
+                        literales += b;
+                    } while (b == 255);
+                }
+                if (literales > src.length - sp || literales > dst.length - dp)
+                    throw new IOException("Datos LZ dañados");
+                System.arraycopy(src, sp, dst, dp, literales);
+                sp += literales;
+                dp += literales;
+                if (sp == src.length) break;
+
+                int distancia = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+                sp += 2;
+                int largo = token & 0x0F;
+                if (largo == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xFF;
+                        largo += b;
+                    } while (b == 255);
+                }
+                largo += COPIA_MINIMA;
+                if (distancia == 0 || distancia > dp || largo > dst.length - dp)
+                    throw new IOException("Datos LZ dañados");
+
+                // La copia puede solaparse consigo misma (repeticiones cortas): byte a byte
+                int desde = dp - distancia;
+                if (distancia >= largo) {
+                    System.arraycopy(dst, desde, dst, dp, largo);
+                } else {
+                    for (int k = 0; k < largo; k++) dst[dp + k] = dst[desde + k];
+                }
+                dp += largo;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Datos LZ truncados");
+        }
+
+        if (dp != dst.length) throw new IOException("Datos LZ de otro largo");
+        return dst;
+    }
+
+    private static int leerInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    // ============================
+    //        LARGO ORIGINAL
+    // ============================
+
+    private static int escribirVarint(byte[] dst, int dp, int valor) {
+        while ((valor & ~0x7F) != 0) {
+            dst[dp++] = (byte) ((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        dst[dp++] = (byte) valor;
+        return dp;
+    }
+
+    // El largo anunciado, si datos de este tamaño pueden llegar a producirlo
+    private static int leerLargo(byte[] src, int[] pos, int expansion) throws IOException {
+        int valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 32; desplazamiento += 7) {
+            if (pos[0] >= src.length) throw new IOException("Datos comprimidos truncados");
+            byte b = src[pos[0]++];
+            valor |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                if (valor < 0 || valor > Protocolo.TRAMA_MAXIMA)
+                    throw new IOException("Largo descomprimido inválido: " + valor);
+                long posible = (long) (src.length - pos[0]) * expansion + 64;
+                if (valor > posible)
+                    throw new IOException("Largo descomprimido " + valor + " imposible para "
+                            + (src.length - pos[0]) + " bytes comprimidos");
+                return valor;
+            }
+        }
+        throw new IOException("Largo descomprimido inválido");
+    }
+}
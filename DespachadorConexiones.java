@@ -0,0 +1,258 @@
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reparte el procesamiento de los mensajes recibidos por un nodo entre hilos de trabajo,
+ * según el {@link ModoEjecucion} configurado, y corre los lectores de las conexiones aceptadas.
+ *
+ * Las conexiones son persistentes, así que cada una ocupa un lector mientras el vecino esté
+ * conectado. Los lectores son hilos de plataforma reutilizados (hilos virtuales en modo
+ * virtual) y a lo sumo nodo.conexiones a la vez: con todos ocupados el servidor deja de
+ * aceptar hasta que se cierre una conexión y los vecinos esperan en el backlog TCP.
+ *
+ * Los mensajes de una misma conexión pasan por una {@link Serie}: se procesan en los hilos de
+ * trabajo, pero de a uno y en el orden en que se leyeron, así los de un mismo origen llegan en
+ * orden al pipeline del destino. Las distintas conexiones se procesan en paralelo.
+ *
+ * Propiedades del sistema:
+ *   nodo.modo       = secuencial | pool | virtual | acotada   (por defecto pool)
+ *   nodo.hilos      = tamaño del pool                          (por defecto núcleos disponibles)
+ *   nodo.cola       = capacidad de la cola en modo acotada, y mensajes leídos
+ *                     de una conexión a la espera de procesarse (por defecto 64 * hilos)
+ *   nodo.conexiones = conexiones atendidas a la vez            (por defecto 256)
+ *
+ * Las colas de salida hacia los vecinos son otras: nodo.salida.*, ver {@link ColasSalida}.
+ */
+public class DespachadorConexiones {
+
+    private final ModoEjecucion modo;
+    private final int capacidadCola;
+    private final ExecutorService ejecutor;
+    private final ExecutorService lectores;
+    private final Semaphore conexionesLibres;
+
+    public DespachadorConexiones(ModoEjecucion modo, int hilos, int capacidadCola) {
+        this(modo, hilos, capacidadCola, 256);
+    }
+
+    public DespachadorConexiones(ModoEjecucion modo, int hilos, int capacidadCola, int maxConexiones) {
+        if (hilos < 1) throw new IllegalArgumentException("Se necesita al menos un hilo");
+        if (maxConexiones < 1) throw new IllegalArgumentException("Se necesita al menos una conexión");
+        this.modo = modo;
+        this.capacidadCola = capacidadCola;
+        this.ejecutor = crearEjecutor(modo, hilos, capacidadCola);
+        this.lectores = crearLectores(modo, maxConexiones);
+        this.conexionesLibres = new Semaphore(maxConexiones);
+    }
+
+    public static DespachadorConexiones desdePropiedades() {
+        ModoEjecucion modo = ModoEjecucion.desdeTexto(System.getProperty("nodo.modo"));
+        int hilos = Integer.getInteger("nodo.hilos", Runtime.getRuntime().availableProcessors());
+        int cola = Integer.getInteger("nodo.cola", 64 * hilos);
+        int conexiones = Integer.getInteger("nodo.conexiones", 256);
+        return new DespachadorConexiones(modo, hilos, cola, conexiones);
+    }
+
+    private static ExecutorService crearEjecutor(ModoEjecucion modo, int hilos, int capacidadCola) {
+        ThreadFactory fabrica = fabricaDeHilos("nodo-trabajador-");
+
+        switch (modo) {
+            case SECUENCIAL:
+                return null;
+
+            case POOL_FIJO:
+                return Executors.newFixedThreadPool(hilos, fabrica);
+
+            case HILO_VIRTUAL:
+                return ejecutorVirtual(fabrica);
+
+            case COLA_ACOTADA:
+                // CallerRunsPolicy: con la cola llena el hilo lector procesa el mensaje él mismo,
+                // deja de leer de esa conexión y el control de flujo TCP frena al vecino.
+                return new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(capacidadCola), fabrica,
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+
+            default:
+                throw new IllegalStateException("Modo no soportado: " + modo);
+        }
+    }
+
+    // El semáforo de atenderConexion ya limita cuántos lectores hay a la vez; el pool crece
+    // hasta ese límite y los hilos ociosos terminan al minuto.
+    private static ExecutorService crearLectores(ModoEjecucion modo, int maxConexiones) {
+        ThreadFactory fabrica = fabricaDeHilos("nodo-lector-");
+        if (modo == ModoEjecucion.HILO_VIRTUAL) return ejecutorVirtual(fabrica);
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConexiones, maxConexiones, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), fabrica);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() existe desde Java 21; se busca por reflexión
+    // para seguir compilando y ejecutando en JVMs anteriores.
+    private static ExecutorService ejecutorVirtual(ThreadFactory alternativa) {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("[WARN] Hilos virtuales no disponibles en esta JVM; se usa un pool sin límite.");
+            return Executors.newCachedThreadPool(alternativa);
+        }
+    }
+
+    private static ThreadFactory fabricaDeHilos(String prefijo) {
+        AtomicInteger contador = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefijo + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    public void despachar(Runnable tarea) {
+        if (ejecutor == null) {
+            tarea.run();
+            return;
+        }
+
+        try {
+            ejecutor.execute(tarea);
+        } catch (RejectedExecutionException e) {
+            // Solo ocurre tras cerrar(): el mensaje se procesa en el hilo actual
+            tarea.run();
+        }
+    }
+
+    /**
+     * Corre el lector de una conexión aceptada. Si ya hay nodo.conexiones abiertas espera a
+     * que termine alguna, y mientras tanto el hilo del servidor no vuelve a aceptar.
+     */
+    public void atenderConexion(Runnable lector) throws InterruptedException {
+        conexionesLibres.acquire();
+        try {
+            lectores.execute(() -> {
+                try {
+                    lector.run();
+                } finally {
+                    conexionesLibres.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Tras cerrar(): no se atienden conexiones nuevas
+            conexionesLibres.release();
+            throw e;
+        }
+    }
+
+    /** Serie para los mensajes de una conexión; con nodo.cola en espera, execute bloquea. */
+    public Serie serie() {
+        return new Serie(capacidadCola);
+    }
+
+    /**
+     * Como serie(), pero execute nunca bloquea (para el hilo del selector NIO): cuando quedan
+     * más de nodo.cola tareas se marca saturada, y deja de estarlo al bajar a la mitad. Cada
+     * cambio llama a 'cambio', en el hilo que lo produjo; quien lee de la conexión deja de
+     * hacerlo mientras {@link Serie#saturada()}, y así la presión llega igual al vecino.
+     */
+    public Serie serieConAviso(Runnable cambio) {
+        return new Serie(0, capacidadCola, cambio);
+    }
+
+    /**
+     * Ejecutor de las tareas de una conexión: corren en el despachador de a una y en orden.
+     * No ocupa un hilo mientras no tenga tareas; para no acaparar uno con una conexión muy
+     * activa, después de un tramo de tareas se vuelve a despachar al final de la cola.
+     */
+    public final class Serie implements Executor {
+        private static final int TRAMO = 64;
+
+        private final Queue<Runnable> tareas = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendientes = new AtomicInteger();
+        private final Semaphore cupo;
+        // Solo con serieConAviso: umbral de saturación y a quién avisar cada cambio
+        private final int umbral;
+        private final Runnable cambio;
+        private final AtomicBoolean saturada = new AtomicBoolean();
+
+        private Serie(int capacidad) {
+            this(capacidad, 0, null);
+        }
+
+        private Serie(int capacidad, int umbral, Runnable cambio) {
+            this.cupo = capacidad > 0 ? new Semaphore(capacidad) : null;
+            this.umbral = umbral;
+            this.cambio = cambio;
+        }
+
+        /** Si tiene más tareas esperando que las que admite (solo con serieConAviso). */
+        public boolean saturada() {
+            return saturada.get();
+        }
+
+        @Override
+        public void execute(Runnable tarea) {
+            if (ejecutor == null) {
+                tarea.run();
+                return;
+            }
+
+            // Con el cupo lleno el lector espera: deja de leer de esa conexión y el control de
+            // flujo TCP frena al vecino
+            if (cupo != null) cupo.acquireUninterruptibly();
+            tareas.add(tarea);
+            int antes = pendientes.getAndIncrement();
+            if (antes == 0) despachar(this::drenar);
+            if (cambio != null && antes >= umbral && saturada.compareAndSet(false, true)) {
+                cambio.run();
+                // Si drenar ya bajó del umbral antes de marcarla, no la va a desmarcar él
+                aliviar();
+            }
+        }
+
+        private void aliviar() {
+            if (cambio != null && saturada.get() && pendientes.get() <= umbral / 2
+                    && saturada.compareAndSet(true, false))
+                cambio.run();
+        }
+
+        private void drenar() {
+            for (int i = 0; i < TRAMO; i++) {
+                Runnable tarea = tareas.poll();
+                try {
+                    tarea.run();
+                } catch (RuntimeException e) {
+                    System.err.println("[WARN] Error procesando mensaje: " + e.getMessage());
+                } finally {
+                    if (cupo != null) cupo.release();
+                }
+                int quedan = pendientes.decrementAndGet();
+                aliviar();
+                if (quedan == 0) return;
+            }
+            despachar(this::drenar);
+        }
+    }
+
+    public ModoEjecucion getModo() { return modo; }
+
+    public void cerrar() {
+        // Los lectores siguen bloqueados en sus sockets hasta que el vecino cierre; son daemon
+        lectores.shutdown();
+        if (ejecutor == null) return;
+
+        ejecutor.shutdown();
+        try {
+            if (!ejecutor.awaitTermination(5, TimeUnit.SECONDS))
+                ejecutor.shutdownNow();
+        } catch (InterruptedException e) {
+            ejecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Claves públicas de los nodos, ya decodificadas, compartidas por todos los nodos del proceso.
+ *
+ * Las claves se guardan en el almacén keys/claves.db ({@link AlmacenClaves}); los keys/*.pub
+ * de versiones anteriores se siguen leyendo (ver {@link MigrarClaves} para pasarlos al almacén).
+ *
+ * Al crearse carga en paralelo todas las claves y después vigila el directorio con un
+ * WatchService: una clave nueva, en el almacén o en un .pub, se carga apenas aparece. Un nodo
+ * sin clave se recuerda como desconocido durante una ventana, así un origen desconocido no
+ * lee el disco en cada mensaje; pasada la ventana se vuelve a buscar en el disco.
+ *
+ * Los nombres se guardan con ':' cambiado por '_', como los archivos.
+ *
+ * Propiedades del sistema:
+ *   nodo.claves.negativaMs = cuánto se recuerda que un nodo no tiene clave (por defecto 5000)
+ */
+public class DirectorioClaves {
+
+    private static final String EXTENSION = ".pub";
+
+    private static volatile DirectorioClaves global;
+
+    private final Path directorio;
+    private final long ventanaNegativaNanos;
+    private final AlmacenClaves almacen;
+    private final ConcurrentMap<String, PublicKey> claves = new ConcurrentHashMap<>();
+    // nombre -> momento (nanoTime) hasta el que se lo da por desconocido
+    private final ConcurrentMap<String, Long> desconocidos = new ConcurrentHashMap<>();
+
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong aciertosNegativos = new AtomicLong();
+    private final AtomicLong lecturasDisco = new AtomicLong();
+
+    private volatile WatchService vigilante;
+
+    public DirectorioClaves(Path directorio, long ventanaNegativaMs) {
+        this.directorio = directorio;
+        this.ventanaNegativaNanos = ventanaNegativaMs * 1_000_000L;
+        this.almacen = abrirAlmacen(directorio.resolve(AlmacenClaves.ARCHIVO));
+    }
+
+    // Sin almacén (disco de solo lectura, archivo dañado) se sigue con los .pub
+    private static AlmacenClaves abrirAlmacen(Path ruta) {
+        try {
+            return AlmacenClaves.abrir(ruta);
+        } catch (IOException e) {
+            System.err.println("[WARN] No se pudo abrir el almacén de claves " + ruta
+                    + "; se usan los archivos .pub: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** El directorio "keys" del proceso, precargado y vigilado desde el primer uso. */
+    public static DirectorioClaves global() {
+        DirectorioClaves d = global;
+        if (d != null) return d;
+
+        synchronized (DirectorioClaves.class) {
+            if (global == null) {
+                d = new DirectorioClaves(Paths.get("keys"), Long.getLong("nodo.claves.negativaMs", 5_000));
+                d.precargar();
+                d.vigilar();
+                global = d;
+            }
+            return global;
+        }
+    }
+
+    private static String normalizar(String nombre) {
+        return nombre.replace(':', '_');
+    }
+
+    // ============================
+    //          CONSULTAS
+    // ============================
+
+    /** Clave pública del nodo, o null si no se conoce. */
+    public PublicKey obtener(String nombre) {
+        String n = normalizar(nombre);
+
+        PublicKey pub = claves.get(n);
+        if (pub != null) {
+            aciertos.incrementAndGet();
+            return pub;
+        }
+
+        Long hasta = desconocidos.get(n);
+        if (hasta != null && System.nanoTime() - hasta < 0) {
+            aciertosNegativos.incrementAndGet();
+            return null;
+        }
+
+        // La clave pudo aparecer antes de que llegara el aviso del WatchService
+        fallos.incrementAndGet();
+        refrescarAlmacen();
+        pub = claves.get(n);
+        if (pub == null) pub = leerArchivo(directorio.resolve(n + EXTENSION));
+
+        if (pub != null) {
+            registrar(n, pub);
+        } else {
+            desconocidos.put(n, System.nanoTime() + ventanaNegativaNanos);
+        }
+        return pub;
+    }
+
+    public void registrar(String nombre, PublicKey pub) {
+        String n = normalizar(nombre);
+        claves.put(n, pub);
+        desconocidos.remove(n);
+    }
+
+    /** Registra la clave y la guarda en el almacén, para los demás procesos. */
+    public void guardar(String nombre, PublicKey pub) {
+        registrar(nombre, pub);
+
+        String n = normalizar(nombre);
+        if (almacen != null) {
+            try {
+                almacen.guardar(n, pub.getEncoded());
+                return;
+            } catch (IOException e) {
+                System.err.println("[WARN] No se pudo guardar la clave de " + n + " en el almacén: " + e.getMessage());
+            }
+        }
+        Encriptador.guardarClavePublicaEnArchivo(n, Encriptador.publicKeyToHex(pub));
+    }
+
+    public long getAciertos() { return aciertos.get(); }
+    public long getFallos() { return fallos.get(); }
+    public long getAciertosNegativos() { return aciertosNegativos.get(); }
+    public long getLecturasDisco() { return lecturasDisco.get(); }
+    public int tamano() { return claves.size(); }
+
+    // ============================
+    //        CARGA DEL DISCO
+    // ============================
+
+    /** Carga en paralelo las claves del almacén y los archivos .pub; devuelve cuántas cargó. */
+    public int precargar() {
+        int cargadas = 0;
+        if (almacen != null) {
+            refrescarAlmacen();
+            cargadas = (int) almacen.nombres().parallelStream().filter(this::cargarDelAlmacen).count();
+        }
+
+        if (!Files.isDirectory(directorio)) return cargadas;
+
+        List<Path> archivos;
+        try (Stream<Path> listado = Files.list(directorio)) {
+            // El almacén manda: un .pub viejo no pisa la clave que un nodo guardó después
+            archivos = listado.filter(DirectorioClaves::esClave)
+                    .filter(p -> almacen == null || !almacen.contiene(nombreDe(p)))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("[WARN] No se pudo listar " + directorio + ": " + e.getMessage());
+            return cargadas;
+        }
+
+        return cargadas + (int) archivos.parallelStream().filter(this::cargarArchivo).count();
+    }
+
+    private static boolean esClave(Path archivo) {
+        return archivo.getFileName().toString().endsWith(EXTENSION);
+    }
+
+    // Lee los registros que agregaron otros procesos y carga esas claves
+    private void refrescarAlmacen() {
+        if (almacen == null) return;
+        try {
+            for (String n : almacen.refrescar())
+                cargarDelAlmacen(n);
+        } catch (IOException e) {
+            System.err.println("[WARN] No se pudo leer el almacén de claves: " + e.getMessage());
+        }
+    }
+
+    private boolean cargarDelAlmacen(String nombre) {
+        lecturasDisco.incrementAndGet();
+        try {
+            byte[] der = almacen.leer(nombre);
+            if (der == null) return false;
+            registrar(nombre, Encriptador.publicKeyFromBytes(der));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private boolean cargarArchivo(Path archivo) {
+        PublicKey pub = leerArchivo(archivo);
+        if (pub == null) return false;
+
+        registrar(nombreDe(archivo), pub);
+        return true;
+    }
+
+    private static String nombreDe(Path archivo) {
+        String archivoNombre = archivo.getFileName().toString();
+        return archivoNombre.substring(0, archivoNombre.length() - EXTENSION.length());
+    }
+
+    private PublicKey leerArchivo(Path archivo) {
+        lecturasDisco.incrementAndGet();
+        try {
+            if (!Files.exists(archivo)) return null;
+            String hex = Files.readString(archivo).trim();
+            // Archivo recién creado y todavía vacío: llega otro aviso cuando se escriba
+            if (hex.isEmpty()) return null;
+            return Encriptador.publicKeyFromHex(hex);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Vigila el directorio en un hilo daemon; las claves nuevas se cargan al aparecer. */
+    public void vigilar() {
+        try {
+            Files.createDirectories(directorio);
+            vigilante = directorio.getFileSystem().newWatchService();
+            directorio.register(vigilante, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("[WARN] No se puede vigilar " + directorio + "; las claves nuevas se leen al pedirlas: "
+                    + e.getMessage());
+            return;
+        }
+
+        Thread hilo = new Thread(this::atenderAvisos, "directorio-claves");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    private void atenderAvisos() {
+        WatchService w = vigilante;
+        try {
+            while (true) {
+                WatchKey clave = w.take();
+                for (WatchEvent<?> evento : clave.pollEvents()) {
+                    // OVERFLOW: se perdieron avisos, se vuelve a leer todo
+                    if (evento.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        precargar();
+                        continue;
+                    }
+                    Path archivo = directorio.resolve((Path) evento.context());
+                    if (archivo.getFileName().toString().equals(AlmacenClaves.ARCHIVO))
+                        refrescarAlmacen();
+                    else if (esClave(archivo))
+                        cargarArchivo(archivo);
+                }
+                if (!clave.reset()) return;
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // fin del vigilante
+        }
+    }
+
+    public void cerrar() {
+        try {
+            if (vigilante != null) vigilante.close();
+            if (almacen != null) almacen.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -1,10 +1,13 @@
 import javax.crypto.*;
 import javax.crypto.spec.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.security.*;
 import java.security.spec.*;
+import java.util.Arrays;
 
+// Las instancias de Cipher, KeyFactory, KeyGenerator y SecureRandom salen de MotorCripto
 public class Encriptador {
 
     public static class AesResultado {
@@ -14,15 +17,13 @@ public class Encriptador {
     }
 
     public static SecretKey generarClaveAES() throws Exception {
-        KeyGenerator kgen = KeyGenerator.getInstance("AES");
-        kgen.init(128);
-        return kgen.generateKey();
+        return MotorCripto.generadorAes().generateKey();
     }
 
     public static AesResultado cifrarConAES(byte[] datos, SecretKey clave) throws Exception {
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        Cipher cipher = MotorCripto.aes();
         byte[] iv = new byte[16];
-        new SecureRandom().nextBytes(iv);
+        MotorCripto.azar().nextBytes(iv);
         cipher.init(Cipher.ENCRYPT_MODE, clave, new IvParameterSpec(iv));
         AesResultado res = new AesResultado();
         res.cipher = cipher.doFinal(datos);
@@ -33,30 +34,98 @@ public class Encriptador {
 
     public static byte[] descifrarConAES(byte[] datos, byte[] iv, byte[] claveBytes) throws Exception {
         SecretKeySpec keySpec = new SecretKeySpec(claveBytes, "AES");
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        Cipher cipher = MotorCripto.aes();
         cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
         return cipher.doFinal(datos);
     }
 
+    // AES-GCM: IV de 12 bytes al azar y tag de 128 bits al final del texto cifrado. aad son
+    // datos que no se cifran pero quedan autenticados (si no coinciden, descifrar falla).
+    public static AesResultado cifrarConAESGCM(byte[] datos, SecretKey clave, byte[] aad) throws Exception {
+        Cipher cipher = MotorCripto.aesGcm();
+        byte[] iv = new byte[12];
+        MotorCripto.azar().nextBytes(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, clave, new GCMParameterSpec(128, iv));
+        cipher.updateAAD(aad);
+        AesResultado res = new AesResultado();
+        res.cipher = gcmPorTrozos(cipher, datos);
+        res.iv = iv;
+        res.clave = clave;
+        return res;
+    }
+
+    public static byte[] descifrarConAESGCM(byte[] datos, byte[] iv, byte[] claveBytes, byte[] aad) throws Exception {
+        Cipher cipher = MotorCripto.aesGcm();
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(claveBytes, "AES"), new GCMParameterSpec(128, iv));
+        cipher.updateAAD(aad);
+        return gcmPorTrozos(cipher, datos);
+    }
+
+    // Una llamada de GCM mucho más grande que las que el JIT vio hasta entonces lo desoptimiza y
+    // vuelve al camino sin intrínsecos (~30 MB/s en JDK 17, medido con ComparacionCifrado), y a
+    // ese ritmo tarda minutos en recompilarse. Los payloads grandes se pasan en trozos de 16 KB.
+    private static final int TROZO_GCM = 16 * 1024;
+
+    private static byte[] gcmPorTrozos(Cipher cipher, byte[] datos) throws GeneralSecurityException {
+        if (datos.length <= TROZO_GCM) return cipher.doFinal(datos);
+
+        byte[] out = new byte[cipher.getOutputSize(datos.length)];
+        int pos = 0;
+        for (int i = 0; i < datos.length; i += TROZO_GCM)
+            pos += cipher.update(datos, i, Math.min(TROZO_GCM, datos.length - i), out, pos);
+        pos += cipher.doFinal(out, pos);
+        return pos == out.length ? out : Arrays.copyOf(out, pos);
+    }
+
     public static byte[] cifrarClaveAESConRSA(SecretKey claveAES, PublicKey pubRSA) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA");
-        cipher.init(Cipher.ENCRYPT_MODE, pubRSA);
+        Cipher cipher = MotorCripto.rsa();
+        cipher.init(Cipher.ENCRYPT_MODE, pubRSA, MotorCripto.azar());
         return cipher.doFinal(claveAES.getEncoded());
     }
 
     public static byte[] descifrarClaveAESConRSA(byte[] claveCifrada, PrivateKey privRSA) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA");
+        Cipher cipher = MotorCripto.rsa();
         cipher.init(Cipher.DECRYPT_MODE, privRSA);
         return cipher.doFinal(claveCifrada);
     }
 
     // --- HEX helpers ---
+    // Tablas: cada byte a sus dos dígitos y cada carácter Latin-1 a su valor (-1 si no es hex)
+    private static final char[] DIGITOS_HEX = new char[512];
+    private static final byte[] VALOR_HEX = new byte[256];
+
+    static {
+        String digitos = "0123456789abcdef";
+        for (int b = 0; b < 256; b++) {
+            DIGITOS_HEX[2 * b] = digitos.charAt(b >>> 4);
+            DIGITOS_HEX[2 * b + 1] = digitos.charAt(b & 0xF);
+        }
+        Arrays.fill(VALOR_HEX, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            VALOR_HEX[digitos.charAt(i)] = (byte) i;
+            VALOR_HEX[Character.toUpperCase(digitos.charAt(i))] = (byte) i;
+        }
+    }
+
     public static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+        // Se arma en bytes ASCII: el String (compacto, Latin-1) se crea con una sola copia
+        byte[] out = new byte[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++, j += 2) {
+            int b = (bytes[i] & 0xFF) << 1;
+            out[j] = (byte) DIGITOS_HEX[b];
+            out[j + 1] = (byte) DIGITOS_HEX[b + 1];
         }
-        return sb.toString();
+        return new String(out, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Escribe datos[desde, hasta) en hex a partir de destino[pos]; devuelve la posición siguiente. */
+    public static int escribirHex(byte[] datos, int desde, int hasta, char[] destino, int pos) {
+        for (int i = desde; i < hasta; i++) {
+            int b = (datos[i] & 0xFF) << 1;
+            destino[pos++] = DIGITOS_HEX[b];
+            destino[pos++] = DIGITOS_HEX[b + 1];
+        }
+        return pos;
     }
 
     public static byte[] hexToBytes(String hex) {
@@ -64,22 +133,50 @@ public class Encriptador {
         int len = hex.length();
         if (len % 2 != 0) throw new IllegalArgumentException("Hex string must have even length");
         byte[] out = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            out[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
-                    + Character.digit(hex.charAt(i + 1), 16));
+        for (int i = 0, j = 0; i < len; i += 2, j++) {
+            char alto = hex.charAt(i), bajo = hex.charAt(i + 1);
+            int a = alto < 256 ? VALOR_HEX[alto] : -1;
+            int b = bajo < 256 ? VALOR_HEX[bajo] : -1;
+            if ((a | b) < 0) throw caracterInvalido(hex, a < 0 ? i : i + 1);
+            out[j] = (byte) (a << 4 | b);
         }
         return out;
     }
 
+    /**
+     * Decodifica hex[desde, hasta) en destino a partir de pos; devuelve la posición siguiente.
+     * Cualquier carácter que no sea un dígito hex es un error.
+     */
+    public static int leerHex(CharSequence hex, int desde, int hasta, byte[] destino, int pos) {
+        if ((hasta - desde) % 2 != 0) throw new IllegalArgumentException("Hex string must have even length");
+        for (int i = desde; i < hasta; i += 2) {
+            char alto = hex.charAt(i), bajo = hex.charAt(i + 1);
+            int a = alto < 256 ? VALOR_HEX[alto] : -1;
+            int b = bajo < 256 ? VALOR_HEX[bajo] : -1;
+            if ((a | b) < 0) throw caracterInvalido(hex, a < 0 ? i : i + 1);
+            destino[pos++] = (byte) (a << 4 | b);
+        }
+        return pos;
+    }
+
+    private static IllegalArgumentException caracterInvalido(CharSequence hex, int posicion) {
+        return new IllegalArgumentException("Carácter no hexadecimal '" + hex.charAt(posicion)
+                + "' en la posición " + posicion);
+    }
+
     // Convert public key <-> hex (instead of Base64)
     public static String publicKeyToHex(PublicKey clave) {
         return bytesToHex(clave.getEncoded());
     }
 
     public static PublicKey publicKeyFromHex(String hex) throws Exception {
-        byte[] bytes = hexToBytes(hex);
-        X509EncodedKeySpec spec = new X509EncodedKeySpec(bytes);
-        return KeyFactory.getInstance("RSA").generatePublic(spec);
+        return publicKeyFromBytes(hexToBytes(hex));
+    }
+
+    // DER X.509, como lo guarda el almacén de claves
+    public static PublicKey publicKeyFromBytes(byte[] der) throws Exception {
+        X509EncodedKeySpec spec = new X509EncodedKeySpec(der);
+        return MotorCripto.fabricaRsa().generatePublic(spec);
     }
 
     // sanitize filenames for Windows (replace ':' -> '_')
@@ -0,0 +1,171 @@
+import jdk.jfr.*;
+
+/**
+ * Eventos propios para Java Flight Recorder a lo largo del camino de un mensaje:
+ *
+ *   nodo.MensajeRecibido   leer un mensaje (o un lote) de la conexión y armar su cabecera
+ *   nodo.MensajeReenviado  elegir el salto y pasarle el mensaje a un vecino, o inundar
+ *   nodo.MensajeEntregado  desde que el destino lo recibe hasta que lo entrega (descifrar,
+ *                          verificar y la espera en el pipeline, ver {@link PipelineDestino})
+ *   nodo.EtapaCripto       una operación criptográfica del destino: rsa, aes o firma
+ *   nodo.ConexionVecino    abrir una conexión a un vecino (connect y negociación de formato)
+ *   nodo.EscrituraVecino   escribir un lote de mensajes a un vecino con el transporte bloqueante
+ *
+ * Cada evento lleva su duración y los datos del mensaje que hacen falta para ubicarlo (origen,
+ * destino, bytes, saltos). Con el evento desactivado, begin/shouldCommit no cuestan nada y
+ * los campos ni se calculan; por eso se llenan en emitir(), después de shouldCommit().
+ *
+ * El perfil nodo.jfc (junto a las fuentes) los habilita con umbrales pensados para una
+ * grabación continua: solo se registran los mensajes lentos. Uso:
+ *   java -XX:StartFlightRecording:settings=nodo.jfc,maxage=1h,disk=true,dumponexit=true,filename=nodo.jfr ...
+ *   jfr print --events nodo.MensajeEntregado nodo.jfr
+ */
+public final class EventosJfr {
+
+    private EventosJfr() {}
+
+    @Name("nodo.MensajeRecibido")
+    @Label("Mensaje recibido")
+    @Description("Lectura y parseo de un mensaje o lote entrante")
+    @Category({"Nodo", "Mensajes"})
+    @StackTrace(false)
+    public static final class Recibido extends Event {
+        @Label("Formato") String formato;
+        @Label("Bytes") @DataAmount int bytes;
+        @Label("Mensajes") int mensajes;
+        @Label("Origen") String origen;
+        @Label("Destino") String destino;
+        @Label("Saltos") int saltos;
+
+        /** Un mensaje suelto; con m null (duplicado o no se pudo leer) solo se registran formato y bytes. */
+        public void emitir(String formato, int bytes, Mensaje m) {
+            if (!shouldCommit()) return;
+            this.formato = formato;
+            this.bytes = bytes;
+            this.mensajes = 1;
+            if (m != null) {
+                this.origen = m.getOrigen();
+                this.destino = m.getDestino();
+                this.saltos = m.getCamino().size();
+            }
+            commit();
+        }
+
+        /** Un lote: origen y destino quedan vacíos, cada mensaje puede ser de otro. */
+        public void emitirLote(int bytes, int mensajes) {
+            if (!shouldCommit()) return;
+            this.formato = "lote";
+            this.bytes = bytes;
+            this.mensajes = mensajes;
+            commit();
+        }
+    }
+
+    @Name("nodo.MensajeReenviado")
+    @Label("Mensaje reenviado")
+    @Description("Elegir el siguiente salto y entregar el mensaje al agrupador o a las colas de salida")
+    @Category({"Nodo", "Mensajes"})
+    @StackTrace(false)
+    public static final class Reenviado extends Event {
+        @Label("Origen") String origen;
+        @Label("Destino") String destino;
+        @Label("Bytes") @DataAmount int bytes;
+        @Label("Saltos") int saltos;
+        @Label("Modo") @Description("unicast o inundacion") String modo;
+        @Label("Vecinos") int vecinos;
+
+        public void emitir(Mensaje m, boolean unicast, int vecinos) {
+            if (!shouldCommit()) return;
+            this.origen = m.getOrigen();
+            this.destino = m.getDestino();
+            this.bytes = m.tamanoBinario();
+            this.saltos = m.getCamino().size();
+            this.modo = unicast ? "unicast" : "inundacion";
+            this.vecinos = vecinos;
+            commit();
+        }
+    }
+
+    @Name("nodo.MensajeEntregado")
+    @Label("Mensaje entregado")
+    @Description("Desde que el destino recibe el mensaje hasta que lo entrega")
+    @Category({"Nodo", "Mensajes"})
+    @StackTrace(false)
+    public static final class Entregado extends Event {
+        @Label("Origen") String origen;
+        @Label("Destino") String destino;
+        @Label("Bytes") @DataAmount int bytes;
+        @Label("Saltos") int saltos;
+        @Label("Firma válida") boolean firmaValida;
+        @Label("Entregado") @Description("false si se descartó (error o sesión desconocida)") boolean entregado;
+
+        public void emitir(Mensaje m, int saltos, boolean firmaValida, boolean entregado) {
+            end();
+            if (!shouldCommit()) return;
+            this.origen = m.getOrigen();
+            this.destino = m.getDestino();
+            this.bytes = m.getCiphertext().length;
+            this.saltos = saltos;
+            this.firmaValida = firmaValida;
+            this.entregado = entregado;
+            commit();
+        }
+    }
+
+    @Name("nodo.EtapaCripto")
+    @Label("Etapa criptográfica")
+    @Description("Descifrar la clave con RSA, descifrar el contenido con AES o verificar la firma")
+    @Category({"Nodo", "Cripto"})
+    @StackTrace(false)
+    public static final class EtapaCripto extends Event {
+        @Label("Etapa") String etapa;
+        @Label("Origen") String origen;
+        @Label("Bytes") @DataAmount int bytes;
+
+        public void emitir(String etapa, String origen, int bytes) {
+            if (!shouldCommit()) return;
+            this.etapa = etapa;
+            this.origen = origen;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+
+    @Name("nodo.ConexionVecino")
+    @Label("Conexión a vecino")
+    @Description("Abrir una conexión a un vecino: connect y negociación del formato")
+    @Category({"Nodo", "Red"})
+    @StackTrace(false)
+    public static final class ConexionVecino extends Event {
+        @Label("Vecino") String vecino;
+        @Label("Formato") String formato;
+        @Label("Error") String error;
+
+        public void emitir(String vecino, String formato, Throwable error) {
+            if (!shouldCommit()) return;
+            this.vecino = vecino;
+            this.formato = formato;
+            this.error = error == null ? null : error.toString();
+            commit();
+        }
+    }
+
+    @Name("nodo.EscrituraVecino")
+    @Label("Escritura a vecino")
+    @Description("Escribir un lote de mensajes a un vecino, incluida la conexión si hizo falta abrirla")
+    @Category({"Nodo", "Red"})
+    @StackTrace(false)
+    public static final class EscrituraVecino extends Event {
+        @Label("Vecino") String vecino;
+        @Label("Mensajes") int mensajes;
+        @Label("Error") String error;
+
+        public void emitir(String vecino, int mensajes, Throwable error) {
+            if (!shouldCommit()) return;
+            this.vecino = vecino;
+            this.mensajes = mensajes;
+            this.error = error == null ? null : error.toString();
+            commit();
+        }
+    }
+}
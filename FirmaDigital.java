@@ -1,21 +1,152 @@
 import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
 public class FirmaDigital {
+
+    // Firmas por tarea en los lotes: cada tarea inicializa la Signature una sola vez
+    private static final int TROZO_LOTE = 32;
+
+    /** Una firma a verificar dentro de un lote. */
+    public static final class Verificacion {
+        final byte[] datos;
+        final byte[] firma;
+        final String origen;
+
+        public Verificacion(byte[] datos, byte[] firma, String origen) {
+            this.datos = datos;
+            this.firma = firma;
+            this.origen = origen;
+        }
+    }
+
     // Firma devuelve HEX (en lugar de Base64)
     public static String firmar(byte[] datos, PrivateKey clavePrivada) throws Exception {
-        Signature sig = Signature.getInstance("SHA256withRSA");
+        return Encriptador.bytesToHex(firmarBytes(datos, clavePrivada));
+    }
+
+    // Firma cruda, para el formato binario
+    public static byte[] firmarBytes(byte[] datos, PrivateKey clavePrivada) throws Exception {
+        Signature sig = MotorCripto.firma();
         sig.initSign(clavePrivada);
         sig.update(datos);
-        byte[] firma = sig.sign();
-        return Encriptador.bytesToHex(firma);
+        return sig.sign();
     }
 
     // Verifica usando firma HEX
     public static boolean verificarFirma(byte[] datos, String firmaHex, PublicKey clavePublica) throws Exception {
-        Signature sig = Signature.getInstance("SHA256withRSA");
+        return verificarFirma(datos, Encriptador.hexToBytes(firmaHex), clavePublica);
+    }
+
+    public static boolean verificarFirma(byte[] datos, byte[] firma, PublicKey clavePublica) throws Exception {
+        Signature sig = MotorCripto.firma();
         sig.initVerify(clavePublica);
         sig.update(datos);
-        byte[] firma = Encriptador.hexToBytes(firmaHex);
         return sig.verify(firma);
     }
+
+    // ============================
+    //           LOTES
+    // ============================
+
+    /**
+     * Verifica un lote de firmas en el pool común. La clave de cada origen se busca una sola
+     * vez; un origen sin clave (claves devuelve null) da false en todas sus firmas.
+     * El resultado va en el mismo orden que el lote.
+     */
+    public static boolean[] verificarLote(List<Verificacion> lote, Function<String, PublicKey> claves) {
+        return verificarLote(lote, claves, ForkJoinPool.commonPool());
+    }
+
+    public static boolean[] verificarLote(List<Verificacion> lote, Function<String, PublicKey> claves,
+                                          ExecutorService pool) {
+        boolean[] resultado = new boolean[lote.size()];
+
+        // Agrupa por clave pública: un initVerify por grupo y por tarea, no uno por firma
+        Map<String, PublicKey> clavePorOrigen = new HashMap<>();
+        Map<PublicKey, List<Integer>> grupos = new LinkedHashMap<>();
+        for (int i = 0; i < lote.size(); i++) {
+            PublicKey pub = clavePorOrigen.computeIfAbsent(lote.get(i).origen, claves);
+            if (pub != null) grupos.computeIfAbsent(pub, k -> new ArrayList<>()).add(i);
+        }
+
+        List<Callable<Void>> tareas = new ArrayList<>();
+        for (Map.Entry<PublicKey, List<Integer>> grupo : grupos.entrySet()) {
+            List<Integer> indices = grupo.getValue();
+            for (int desde = 0; desde < indices.size(); desde += TROZO_LOTE) {
+                List<Integer> trozo = indices.subList(desde, Math.min(desde + TROZO_LOTE, indices.size()));
+                tareas.add(() -> {
+                    verificarTrozo(lote, trozo, grupo.getKey(), resultado);
+                    return null;
+                });
+            }
+        }
+        ejecutar(tareas, pool);
+        return resultado;
+    }
+
+    private static void verificarTrozo(List<Verificacion> lote, List<Integer> indices, PublicKey pub,
+                                       boolean[] resultado) throws InvalidKeyException {
+        Signature sig = MotorCripto.firma();
+        sig.initVerify(pub);
+        for (int i : indices) {
+            Verificacion v = lote.get(i);
+            try {
+                // verify() deja la Signature lista para la siguiente firma con la misma clave
+                sig.update(v.datos);
+                resultado[i] = sig.verify(v.firma);
+            } catch (SignatureException e) {
+                // Firma mal formada: cuenta como inválida y se reinicia el estado
+                resultado[i] = false;
+                sig.initVerify(pub);
+            }
+        }
+    }
+
+    /** Firma varios mensajes con la misma clave en el pool común; una firma por elemento, en orden. */
+    public static byte[][] firmarLote(List<byte[]> datos, PrivateKey clavePrivada) {
+        return firmarLote(datos, clavePrivada, ForkJoinPool.commonPool());
+    }
+
+    public static byte[][] firmarLote(List<byte[]> datos, PrivateKey clavePrivada, ExecutorService pool) {
+        byte[][] firmas = new byte[datos.size()][];
+
+        List<Callable<Void>> tareas = new ArrayList<>();
+        for (int desde = 0; desde < datos.size(); desde += TROZO_LOTE) {
+            int inicio = desde;
+            int fin = Math.min(desde + TROZO_LOTE, datos.size());
+            tareas.add(() -> {
+                Signature sig = MotorCripto.firma();
+                sig.initSign(clavePrivada);
+                // sign() deja la Signature lista para firmar lo siguiente con la misma clave
+                for (int i = inicio; i < fin; i++) {
+                    sig.update(datos.get(i));
+                    firmas[i] = sig.sign();
+                }
+                return null;
+            });
+        }
+        ejecutar(tareas, pool);
+        return firmas;
+    }
+
+    // Un solo trozo corre en el hilo que llama; los errores de las tareas se propagan
+    private static void ejecutar(List<Callable<Void>> tareas, ExecutorService pool) {
+        try {
+            if (tareas.size() == 1) {
+                tareas.get(0).call();
+                return;
+            }
+            for (Future<Void> f : pool.invokeAll(tareas))
+                f.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -0,0 +1,199 @@
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.security.*;
+import java.util.function.Function;
+
+/**
+ * Mensaje en flujo, para contenidos grandes: se cifra, se firma y se envía por trozos, y el
+ * destino descifra y verifica a medida que llegan. Ningún extremo tiene el contenido entero
+ * en memoria, solo un trozo.
+ *
+ * Después de la línea {@link Protocolo#INICIO_FLUJO} la conexión lleva:
+ *
+ *   cabecera  UTF origen | UTF destino | long id | short+bytes clave AES cifrada con RSA | short+bytes iv
+ *   trozos    int n (1..TROZO_MAXIMO) | n bytes de texto cifrado      (se repite)
+ *   fin       int 0 | short+bytes firma
+ *
+ * y el destino contesta una línea {@link Protocolo#FLUJO_OK} o {@link Protocolo#FLUJO_ERROR}.
+ *
+ * El cifrado es AES-CBC: AES-GCM en Java no entrega nada al descifrar hasta verificar el tag
+ * al final, así que guardaría el contenido entero. La firma SHA256withRSA cubre la cabecera
+ * y todo el texto cifrado; el contenido recién se puede dar por auténtico al final del flujo.
+ *
+ * Los flujos van directo del origen al destino, como GET_PUBKEY: no pasan por otros nodos.
+ *
+ * Como el contenido se descifra antes de poder verificar la firma, el destino corta el flujo
+ * de entrada si no conoce la clave pública del origen (no podría verificarla nunca) y si el
+ * texto cifrado pasa del máximo que acepta.
+ */
+public final class FlujoCifrado {
+
+    public static final int TROZO = 64 * 1024;
+    public static final int TROZO_MAXIMO = 1024 * 1024;
+
+    private FlujoCifrado() {}
+
+    /** Lo que se supo de un flujo recibido. */
+    public static final class Recibido {
+        public final String origen;
+        public final String destino;
+        public final long id;
+        public final long bytes;
+        public final boolean firmaValida;
+
+        Recibido(String origen, String destino, long id, long bytes, boolean firmaValida) {
+            this.origen = origen;
+            this.destino = destino;
+            this.id = id;
+            this.bytes = bytes;
+            this.firmaValida = firmaValida;
+        }
+    }
+
+    // Cipher y Signature propios del flujo: mantienen estado entre trozos y las instancias por
+    // hilo de MotorCripto se reinician con cada mensaje que procese el mismo hilo
+    private static Cipher aes() throws GeneralSecurityException {
+        return Cipher.getInstance(MotorCripto.AES);
+    }
+
+    private static Signature firma() throws GeneralSecurityException {
+        return Signature.getInstance(MotorCripto.FIRMA);
+    }
+
+    // ============================
+    //           ENVÍO
+    // ============================
+
+    /** Cifra, firma y escribe el contenido por trozos; devuelve los bytes de contenido enviados. */
+    public static long enviar(InputStream contenido, OutputStream salida, String origen, String destino, long id,
+                              PublicKey pubDestino, PrivateKey firmante) throws Exception {
+        SecretKey clave = Encriptador.generarClaveAES();
+        byte[] iv = new byte[16];
+        MotorCripto.azar().nextBytes(iv);
+
+        Cipher cipher = aes();
+        cipher.init(Cipher.ENCRYPT_MODE, clave, new IvParameterSpec(iv));
+        Signature sig = firma();
+        sig.initSign(firmante);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(salida, TROZO + 16));
+        byte[] cabecera = cabecera(origen, destino, id, Encriptador.cifrarClaveAESConRSA(clave, pubDestino), iv);
+        sig.update(cabecera);
+        out.write(cabecera);
+
+        byte[] plano = new byte[TROZO];
+        byte[] cifrado = new byte[cipher.getOutputSize(TROZO)];
+        long total = 0;
+        int n;
+        while ((n = contenido.readNBytes(plano, 0, plano.length)) > 0) {
+            total += n;
+            escribirTrozo(out, sig, cifrado, cipher.update(plano, 0, n, cifrado));
+        }
+        escribirTrozo(out, sig, cifrado, cipher.doFinal(cifrado, 0));
+
+        out.writeInt(0);
+        escribirCorto(out, sig.sign());
+        out.flush();
+        return total;
+    }
+
+    private static void escribirTrozo(DataOutputStream out, Signature sig, byte[] cifrado, int n)
+            throws IOException, SignatureException {
+        if (n == 0) return;
+        sig.update(cifrado, 0, n);
+        out.writeInt(n);
+        out.write(cifrado, 0, n);
+    }
+
+    // ============================
+    //         RECEPCIÓN
+    // ============================
+
+    /**
+     * Lee un flujo completo y escribe el contenido descifrado en 'plano' a medida que llega.
+     * claves da la clave pública del origen; si es null el flujo se rechaza antes de descifrar
+     * nada, igual que si el texto cifrado pasa de maximo bytes (IOException en los dos casos).
+     */
+    public static Recibido recibir(InputStream entrada, OutputStream plano, PrivateKey miClave,
+                                   Function<String, PublicKey> claves, long maximo) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(entrada, TROZO + 16));
+
+        String origen = in.readUTF();
+        String destino = in.readUTF();
+        long id = in.readLong();
+        byte[] claveCifrada = leerCorto(in);
+        byte[] iv = leerCorto(in);
+
+        PublicKey pubOrigen = claves.apply(origen);
+        if (pubOrigen == null) throw new IOException("No se conoce la clave pública de " + origen);
+        Signature sig = firma();
+        sig.initVerify(pubOrigen);
+        sig.update(cabecera(origen, destino, id, claveCifrada, iv));
+
+        Cipher cipher = aes();
+        cipher.init(Cipher.DECRYPT_MODE,
+                new SecretKeySpec(Encriptador.descifrarClaveAESConRSA(claveCifrada, miClave), "AES"),
+                new IvParameterSpec(iv));
+
+        byte[] cifrado = new byte[TROZO];
+        byte[] descifrado = new byte[cipher.getOutputSize(TROZO)];
+        long total = 0;
+        long recibidos = 0;
+        int n;
+        while ((n = in.readInt()) != 0) {
+            if (n < 0 || n > TROZO_MAXIMO) throw new IOException("Trozo de flujo inválido: " + n);
+            recibidos += n;
+            if (recibidos > maximo)
+                throw new IOException("Flujo de " + origen + " más grande que el máximo (" + maximo + " bytes)");
+            if (n > cifrado.length) {
+                cifrado = new byte[n];
+                descifrado = new byte[cipher.getOutputSize(n)];
+            }
+            in.readFully(cifrado, 0, n);
+            sig.update(cifrado, 0, n);
+
+            int m = cipher.update(cifrado, 0, n, descifrado);
+            plano.write(descifrado, 0, m);
+            total += m;
+        }
+        int m = cipher.doFinal(descifrado, 0);
+        plano.write(descifrado, 0, m);
+        total += m;
+        plano.flush();
+
+        byte[] firmaRecibida = leerCorto(in);
+        boolean valida = sig.verify(firmaRecibida);
+        return new Recibido(origen, destino, id, total, valida);
+    }
+
+    // ============================
+    //          CAMPOS
+    // ============================
+
+    // La cabecera se firma tal como viaja
+    private static byte[] cabecera(String origen, String destino, long id, byte[] claveCifrada, byte[] iv)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + claveCifrada.length + iv.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(origen);
+        out.writeUTF(destino);
+        out.writeLong(id);
+        escribirCorto(out, claveCifrada);
+        escribirCorto(out, iv);
+        return bytes.toByteArray();
+    }
+
+    private static void escribirCorto(DataOutputStream out, byte[] datos) throws IOException {
+        out.writeShort(datos.length);
+        out.write(datos);
+    }
+
+    private static byte[] leerCorto(DataInputStream in) throws IOException {
+        byte[] datos = new byte[in.readUnsignedShort()];
+        in.readFully(datos);
+        return datos;
+    }
+}
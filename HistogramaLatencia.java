@@ -0,0 +1,91 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos, seguro entre hilos y sin candados.
+ *
+ * Cada potencia de dos se divide en 8 cubetas, así que un percentil se informa con un error
+ * de a lo sumo 12,5 % sin importar la escala (de nanosegundos a minutos). Total y suma son
+ * LongAdder y el máximo solo se escribe cuando cambia, así que registrar desde muchos hilos
+ * solo compite por la cubeta.
+ */
+public class HistogramaLatencia {
+
+    private static final int SUBCUBETAS = 8;
+    private static final int CUBETAS = SUBCUBETAS * 62;
+
+    private final String nombre;
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    public HistogramaLatencia(String nombre) {
+        this.nombre = nombre;
+    }
+
+    public void registrar(long nanos) {
+        if (nanos < 0) nanos = 0;
+        cuentas.incrementAndGet(cubeta(nanos));
+        total.increment();
+        suma.add(nanos);
+        long max;
+        while (nanos > (max = maximo.get()) && !maximo.compareAndSet(max, nanos)) {}
+    }
+
+    // Valores < 8 van a su propia cubeta; el resto, por exponente y los 3 bits siguientes
+    private static int cubeta(long v) {
+        if (v < SUBCUBETAS) return (int) v;
+        int exponente = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exponente - 3)) & (SUBCUBETAS - 1);
+        return (exponente - 2) * SUBCUBETAS + sub;
+    }
+
+    private static long limiteInferior(int cubeta) {
+        if (cubeta < SUBCUBETAS) return cubeta;
+        int exponente = cubeta / SUBCUBETAS + 2;
+        int sub = cubeta % SUBCUBETAS;
+        return (long) (SUBCUBETAS | sub) << (exponente - 3);
+    }
+
+    /** Percentil p (0 a 100) en nanosegundos: el límite inferior de la cubeta que lo contiene. */
+    public long percentil(double p) {
+        long n = total.sum();
+        if (n == 0) return 0;
+
+        long objetivo = Math.max(1, (long) Math.ceil(n * p / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cuentas.get(i);
+            if (acumulado >= objetivo) return Math.min(limiteInferior(i), maximo.get());
+        }
+        return maximo.get();
+    }
+
+    public String getNombre() { return nombre; }
+    public long getCantidad() { return total.sum(); }
+    public long getMaximo() { return maximo.get(); }
+
+    public double getPromedio() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) suma.sum() / n;
+    }
+
+    /** Una línea con cantidad, promedio, p50, p90, p99 y máximo en microsegundos. */
+    public String resumen() {
+        return String.format("%-12s %9d %10.1f %10.1f %10.1f %10.1f %10.1f",
+                nombre, getCantidad(), micros(getPromedio()), micros(percentil(50)), micros(percentil(90)),
+                micros(percentil(99)), micros(getMaximo()));
+    }
+
+    public static String encabezado() {
+        return String.format("%-12s %9s %10s %10s %10s %10s %10s",
+                "etapa", "n", "prom µs", "p50 µs", "p90 µs", "p99 µs", "máx µs");
+    }
+
+    private static double micros(double nanos) {
+        return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+}
@@ -1,67 +1,540 @@
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Mensaje {
+
+    /** Versión del formato binario (ver {@link #escribirBinario(ByteBuffer)}). */
+    public static final byte VERSION_BINARIA = 2;
+
+    /** Saltos que puede dar un mensaje nuevo antes de descartarse (propiedad nodo.ttl). */
+    public static final int TTL_POR_DEFECTO = Integer.getInteger("nodo.ttl", 16);
+
+    // Bits del byte de flags del formato binario
+    private static final int FLAG_SESION = 0x01;
+    private static final int FLAG_GCM = 0x02;
+    private static final int FLAG_DEFLATE = 0x04;
+    private static final int FLAG_LZ = 0x08;
+    private static final int FLAG_URGENTE = 0x10;
+
     private String origen;
     private String destino;
-    private String encAesKeyHex;
-    private String ivHex;
-    private String ciphertextHex;
-    private String signatureHex;
+    private Campo encAesKey;
+    private Campo iv;
+    private Campo ciphertext;
+    private Campo signature;
     private List<String> camino;
 
+    // id para descartar copias repetidas (0 = sin id, mensajes de nodos anteriores) y saltos
+    // que le quedan. En texto viajan en el campo de extensiones, justo antes del camino.
+    private long id;
+    private int ttl;
+    private long sesion;   // id de la sesión AES (ver SesionesCifrado); 0 = clave RSA en el mensaje
+    private boolean gcm;   // contenido en AES-GCM en vez de AES-CBC
+    private Compresor.Tipo compresion = Compresor.Tipo.NINGUNO;   // del contenido, antes de cifrarlo
+    private boolean urgente;   // no espera en los lotes de salida (ver AgrupadorSalida)
+    private String otrasExtensiones = "";   // claves que este nodo no conoce; se reenvían tal cual
+
+    // Mensajes leídos con cabeceraDesde*: el cuerpo (origen y campos cifrados) queda tal como
+    // llegó y solo se decodifica si alguien lo pide. Un nodo que solo reenvía nunca lo toca.
+    private String textoOriginal;     // línea recibida; el cuerpo es [0, finCuerpoTexto]
+    private int finCuerpoTexto;       // posición del ';' que cierra la firma
+    private byte[] cuerpoBinario;     // bytes que siguen a la cabecera de ruteo
+    private volatile boolean cuerpoLeido = true;
+
+    // Mensajes armados con deTrama para reenviarlos: la trama recibida entera. Al escribirla
+    // en binario se copia tal cual salvo el ttl y el camino, al que se agregan los nodos
+    // posteriores a los nodosEnTrama que ya traía. Cambiar otro campo de la cabecera la suelta.
+    private volatile byte[] trama;
+    private int inicioCantidad;       // varint con la cantidad de nodos del camino
+    private int inicioCamino, finCamino;
+    private int nodosEnTrama;
+
+    // aTexto() se llama una vez por vecino al reenviar; se invalida al cambiar el camino
+    private volatile String textoCache;
+
+    /**
+     * Campo criptográfico que puede llegar en hex (formato texto) o en bytes (formato binario).
+     * La otra representación se calcula solo si alguien la pide, así un mensaje que entra y
+     * sale en el mismo formato no paga conversiones.
+     */
+    private static final class Campo {
+        // volatile: el mensaje puede reenviarse a varios vecinos desde hilos distintos
+        private volatile String hex;
+        private volatile byte[] bytes;
+
+        static Campo deHex(String hex) {
+            Campo c = new Campo();
+            c.hex = hex;
+            return c;
+        }
+
+        static Campo deBytes(byte[] bytes) {
+            Campo c = new Campo();
+            c.bytes = bytes;
+            return c;
+        }
+
+        String hex() {
+            if (hex == null) hex = Encriptador.bytesToHex(bytes);
+            return hex;
+        }
+
+        byte[] bytes() {
+            if (bytes == null) bytes = Encriptador.hexToBytes(hex);
+            return bytes;
+        }
+    }
+
     public Mensaje(String origen, String destino, String encAesKeyHex, String ivHex,
                    String ciphertextHex, String signatureHex, String primerNodo) {
+        this(origen, destino, Campo.deHex(encAesKeyHex), Campo.deHex(ivHex),
+                Campo.deHex(ciphertextHex), Campo.deHex(signatureHex), primerNodo);
+    }
+
+    public Mensaje(String origen, String destino, byte[] encAesKey, byte[] iv,
+                   byte[] ciphertext, byte[] signature, String primerNodo) {
+        this(origen, destino, Campo.deBytes(encAesKey), Campo.deBytes(iv),
+                Campo.deBytes(ciphertext), Campo.deBytes(signature), primerNodo);
+    }
+
+    private Mensaje(String origen, String destino, Campo encAesKey, Campo iv,
+                    Campo ciphertext, Campo signature, String primerNodo) {
         this.origen = origen;
         this.destino = destino;
-        this.encAesKeyHex = encAesKeyHex;
-        this.ivHex = ivHex;
-        this.ciphertextHex = ciphertextHex;
-        this.signatureHex = signatureHex;
+        this.encAesKey = encAesKey;
+        this.iv = iv;
+        this.ciphertext = ciphertext;
+        this.signature = signature;
+        this.id = nuevoId();
+        this.ttl = TTL_POR_DEFECTO;
         this.camino = new ArrayList<>();
         if (primerNodo != null && !primerNodo.isEmpty()) {
             this.camino.add(primerNodo);
         }
     }
 
+    private static long nuevoId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
     public static Mensaje desdeTexto(String texto) {
-        String[] partes = texto.split(";", 7);
-        // defensiva: validar longitud
-        if (partes.length < 7) {
-            throw new IllegalArgumentException("Formato de mensaje inválido, se esperaban 7 partes");
-        }
-        // partes[6] es la lista de camino separada por comas (puede estar vacía)
-        String caminoStr = partes[6];
-        // primerNodo será el primer elemento del camino (si existe) para compatibilidad con constructor
-        String primerNodo = "";
-        if (!caminoStr.isEmpty()) {
-            String[] caminoParts = caminoStr.split(",");
-            if (caminoParts.length > 0) primerNodo = caminoParts[0];
-        }
-        Mensaje m = new Mensaje(partes[0], partes[1], partes[2], partes[3], partes[4], partes[5], primerNodo);
-        // reconstruimos la lista entera correctamente
-        m.camino = new ArrayList<>();
-        if (!caminoStr.isEmpty()) {
-            String[] caminoParts = caminoStr.split(",");
-            for (String c : caminoParts) {
-                if (!c.isEmpty()) m.camino.add(c);
+        String[] partes = texto.split(";", -1);
+        // defensiva: validar longitud (7 partes sin extensiones, 8 con ellas)
+        if (partes.length != 7 && partes.length != 8) {
+            throw new IllegalArgumentException("Formato de mensaje inválido, se esperaban 7 u 8 partes");
+        }
+        Mensaje m = new Mensaje(partes[0], partes[1], partes[2], partes[3], partes[4], partes[5], null);
+        // la última parte es la lista de camino separada por comas (puede estar vacía); se
+        // recorre una vez, sin split
+        String caminoStr = partes[partes.length - 1];
+        for (int i = 0; i < caminoStr.length(); ) {
+            int coma = caminoStr.indexOf(',', i);
+            if (coma < 0) coma = caminoStr.length();
+            if (coma > i) m.camino.add(caminoStr.substring(i, coma));
+            i = coma + 1;
+        }
+        m.leerExtensiones(partes.length == 8 ? partes[6] : null);
+        return m;
+    }
+
+    /**
+     * Lee solo la cabecera de ruteo (destino, extensiones y camino) de una línea en formato
+     * texto, sin separar ni copiar el resto. El cuerpo se valida y decodifica al pedir alguno
+     * de sus campos.
+     */
+    public static Mensaje cabeceraDesdeTexto(String texto) {
+        int finOrigen = texto.indexOf(';');
+        int finDestino = finOrigen < 0 ? -1 : texto.indexOf(';', finOrigen + 1);
+        int inicioCamino = texto.lastIndexOf(';');
+        if (finDestino < 0 || inicioCamino <= finDestino) {
+            throw new IllegalArgumentException("Formato de mensaje inválido, se esperaban 7 u 8 partes");
+        }
+
+        // El campo anterior al camino es de extensiones si tiene '='; la firma (hex) nunca lo tiene
+        int finCuerpo = inicioCamino;
+        String extensiones = null;
+        int anterior = texto.lastIndexOf(';', inicioCamino - 1);
+        if (anterior > finDestino) {
+            int igual = texto.indexOf('=', anterior + 1);
+            if (igual >= 0 && igual < inicioCamino) {
+                extensiones = texto.substring(anterior + 1, inicioCamino);
+                finCuerpo = anterior;
             }
         }
+
+        Mensaje m = new Mensaje(null, texto.substring(finOrigen + 1, finDestino),
+                (Campo) null, null, null, null, null);
+        m.leerExtensiones(extensiones);
+        for (int i = inicioCamino + 1; i < texto.length(); ) {
+            int coma = texto.indexOf(',', i);
+            if (coma < 0) coma = texto.length();
+            if (coma > i) m.camino.add(texto.substring(i, coma));
+            i = coma + 1;
+        }
+        m.textoOriginal = texto;
+        m.finCuerpoTexto = finCuerpo;
+        m.cuerpoLeido = false;
         return m;
     }
 
     public String aTexto() {
-        return String.join(";", origen, destino, encAesKeyHex, ivHex, ciphertextHex, signatureHex, String.join(",", camino));
+        String t = textoCache;
+        if (t != null) return t;
+
+        String caminoStr = String.join(",", camino);
+        String extensiones = extensionesTexto();
+        if (textoOriginal != null) {
+            // El cuerpo se copia tal cual llegó, sin pasar por los campos
+            t = new StringBuilder(finCuerpoTexto + extensiones.length() + caminoStr.length() + 2)
+                    .append(textoOriginal, 0, finCuerpoTexto + 1)
+                    .append(extensiones).append(';')
+                    .append(caminoStr)
+                    .toString();
+        } else {
+            leerCuerpo();
+            t = String.join(";", origen, destino, encAesKey.hex(), iv.hex(), ciphertext.hex(), signature.hex(),
+                    extensiones, caminoStr);
+        }
+        textoCache = t;
+        return t;
+    }
+
+    // Extensiones en texto: pares clave=valor separados por comas, p. ej. "id=3f2a9c,ttl=15"
+    private String extensionesTexto() {
+        StringBuilder sb = new StringBuilder(40);
+        if (id != 0) sb.append("id=").append(Long.toHexString(id)).append(',');
+        sb.append("ttl=").append(ttl);
+        if (sesion != 0) sb.append(",ses=").append(Long.toHexString(sesion));
+        if (gcm) sb.append(",cif=gcm");
+        if (compresion != Compresor.Tipo.NINGUNO) sb.append(",cmp=").append(compresion.getNombre());
+        if (urgente) sb.append(",urg=1");
+        sb.append(otrasExtensiones);
+        return sb.toString();
+    }
+
+    // null = línea de un nodo anterior, sin extensiones
+    private void leerExtensiones(String extensiones) {
+        id = 0;
+        ttl = TTL_POR_DEFECTO;
+        sesion = 0;
+        gcm = false;
+        compresion = Compresor.Tipo.NINGUNO;
+        urgente = false;
+        otrasExtensiones = "";
+        if (extensiones == null) return;
+
+        StringBuilder otras = new StringBuilder();
+        for (String par : extensiones.split(",")) {
+            int igual = par.indexOf('=');
+            if (igual < 0) continue;
+            String clave = par.substring(0, igual);
+            String valor = par.substring(igual + 1);
+            switch (clave) {
+                case "id":  id = Long.parseUnsignedLong(valor, 16); break;
+                case "ttl": ttl = Integer.parseInt(valor); break;
+                case "ses": sesion = Long.parseUnsignedLong(valor, 16); break;
+                case "cif":
+                    if (!valor.equals("gcm") && !valor.equals("cbc"))
+                        throw new IllegalArgumentException("Cifrado no soportado: " + valor);
+                    gcm = valor.equals("gcm");
+                    break;
+                case "cmp": compresion = Compresor.Tipo.desdeNombre(valor); break;
+                case "urg": urgente = valor.equals("1"); break;
+                default:    otras.append(',').append(par);
+            }
+        }
+        otrasExtensiones = otras.toString();
+    }
+
+    // ============================
+    //        FORMATO BINARIO
+    // ============================
+    //
+    //   u8      versión (VERSION_BINARIA)
+    //   u8      flags (bit 0: lleva sesión; bit 1: AES-GCM; bit 2: deflate; bit 3: LZ;
+    //           bit 4: urgente; el resto reservado, 0)
+    //   u64     id (0 = sin id)
+    //   u8      ttl
+    //   u64     sesión (solo si el bit 0 de flags está activo)
+    //   cadena  otras extensiones de texto (",clave=valor..."), normalmente vacía
+    //   cadena  destino
+    //   varint  cantidad de nodos en el camino, seguido de una cadena por nodo
+    //   cadena  origen
+    //   bytes   clave AES cifrada, IV, texto cifrado, firma
+    //
+    // cadena = varint longitud + UTF-8; bytes = varint longitud + bytes crudos.
+    // La cabecera de ruteo (destino, camino) va primero para poder leerla sin tocar el resto.
+
+    public int tamanoBinario() {
+        byte[] t = trama;
+        if (t != null) {
+            int n = inicioCantidad + Protocolo.tamanoVarint(camino.size()) + t.length - inicioCamino;
+            for (int i = nodosEnTrama; i < camino.size(); i++) n += Protocolo.tamanoCadena(camino.get(i));
+            return n;
+        }
+
+        int n = 11 + (sesion != 0 ? 8 : 0) + Protocolo.tamanoCadena(otrasExtensiones) + Protocolo.tamanoCadena(destino) + Protocolo.tamanoVarint(camino.size());
+        for (String nodo : camino) n += Protocolo.tamanoCadena(nodo);
+        if (cuerpoBinario != null) return n + cuerpoBinario.length;
+
+        leerCuerpo();
+        return n + Protocolo.tamanoCadena(origen)
+                + Protocolo.tamanoBytes(encAesKey.bytes())
+                + Protocolo.tamanoBytes(iv.bytes())
+                + Protocolo.tamanoBytes(ciphertext.bytes())
+                + Protocolo.tamanoBytes(signature.bytes());
+    }
+
+    /** Escribe el mensaje en la posición actual de buf (debe tener tamanoBinario() bytes libres). */
+    public void escribirBinario(ByteBuffer buf) {
+        byte[] t = trama;
+        if (t != null) {
+            // Versión, flags e id; el ttl (byte 10); sesión, extensiones y destino; el camino
+            buf.put(t, 0, 10);
+            buf.put((byte) Math.max(0, Math.min(ttl, 255)));
+            buf.put(t, 11, inicioCantidad - 11);
+            Protocolo.escribirVarint(buf, camino.size());
+            buf.put(t, inicioCamino, finCamino - inicioCamino);
+            for (int i = nodosEnTrama; i < camino.size(); i++) Protocolo.escribirCadena(buf, camino.get(i));
+            buf.put(t, finCamino, t.length - finCamino);
+            return;
+        }
+
+        buf.put(VERSION_BINARIA);
+        buf.put((byte) ((sesion != 0 ? FLAG_SESION : 0) | (gcm ? FLAG_GCM : 0) | flagCompresion()
+                | (urgente ? FLAG_URGENTE : 0)));
+        buf.putLong(id);
+        buf.put((byte) Math.max(0, Math.min(ttl, 255)));
+        if (sesion != 0) buf.putLong(sesion);
+        Protocolo.escribirCadena(buf, otrasExtensiones);
+        Protocolo.escribirCadena(buf, destino);
+        Protocolo.escribirVarint(buf, camino.size());
+        for (String nodo : camino) Protocolo.escribirCadena(buf, nodo);
+        if (cuerpoBinario != null) {
+            buf.put(cuerpoBinario);
+            return;
+        }
+
+        leerCuerpo();
+        Protocolo.escribirCadena(buf, origen);
+        Protocolo.escribirBytes(buf, encAesKey.bytes());
+        Protocolo.escribirBytes(buf, iv.bytes());
+        Protocolo.escribirBytes(buf, ciphertext.bytes());
+        Protocolo.escribirBytes(buf, signature.bytes());
+    }
+
+    private int flagCompresion() {
+        switch (compresion) {
+            case DEFLATE: return FLAG_DEFLATE;
+            case LZ:      return FLAG_LZ;
+            default:      return 0;
+        }
+    }
+
+    private static Compresor.Tipo compresionDeFlags(int flags) {
+        if ((flags & FLAG_DEFLATE) != 0) return Compresor.Tipo.DEFLATE;
+        if ((flags & FLAG_LZ) != 0) return Compresor.Tipo.LZ;
+        return Compresor.Tipo.NINGUNO;
+    }
+
+    /** Lee un mensaje desde la posición actual de buf hasta el final de la trama. */
+    public static Mensaje desdeBinario(ByteBuffer buf) {
+        byte version = buf.get();
+        if (version != VERSION_BINARIA)
+            throw new IllegalArgumentException("Versión de formato binario no soportada: " + version);
+        int flags = buf.get();
+        long id = buf.getLong();
+        int ttl = buf.get() & 0xFF;
+        long sesion = (flags & FLAG_SESION) != 0 ? buf.getLong() : 0;
+        String otrasExtensiones = Protocolo.leerCadena(buf);
+
+        String destino = Protocolo.leerCadena(buf);
+        int nodos = Protocolo.leerVarint(buf);
+        List<String> camino = new ArrayList<>(nodos);
+        for (int i = 0; i < nodos; i++) camino.add(Protocolo.leerCadena(buf));
+        String origen = Protocolo.leerCadena(buf);
+
+        Mensaje m = new Mensaje(origen, destino,
+                Campo.deBytes(Protocolo.leerBytes(buf)),
+                Campo.deBytes(Protocolo.leerBytes(buf)),
+                Campo.deBytes(Protocolo.leerBytes(buf)),
+                Campo.deBytes(Protocolo.leerBytes(buf)),
+                null);
+        m.camino = camino;
+        m.id = id;
+        m.ttl = ttl;
+        m.sesion = sesion;
+        m.gcm = (flags & FLAG_GCM) != 0;
+        m.compresion = compresionDeFlags(flags);
+        m.urgente = (flags & FLAG_URGENTE) != 0;
+        m.otrasExtensiones = otrasExtensiones;
+        return m;
+    }
+
+    /**
+     * Lee solo la cabecera de ruteo de una trama binaria; el resto se copia una vez, sin
+     * decodificar, y se vuelve a escribir tal cual al reenviar en binario.
+     */
+    public static Mensaje cabeceraDesdeBinario(ByteBuffer buf) {
+        byte version = buf.get();
+        if (version != VERSION_BINARIA)
+            throw new IllegalArgumentException("Versión de formato binario no soportada: " + version);
+        int flags = buf.get();
+        long id = buf.getLong();
+        int ttl = buf.get() & 0xFF;
+        long sesion = (flags & FLAG_SESION) != 0 ? buf.getLong() : 0;
+        String otrasExtensiones = Protocolo.leerCadena(buf);
+
+        String destino = Protocolo.leerCadena(buf);
+        int nodos = Protocolo.leerVarint(buf);
+        Mensaje m = new Mensaje(null, destino, (Campo) null, null, null, null, null);
+        m.id = id;
+        m.ttl = ttl;
+        m.sesion = sesion;
+        m.gcm = (flags & FLAG_GCM) != 0;
+        m.compresion = compresionDeFlags(flags);
+        m.urgente = (flags & FLAG_URGENTE) != 0;
+        m.otrasExtensiones = otrasExtensiones;
+        for (int i = 0; i < nodos; i++) m.camino.add(Protocolo.leerCadena(buf));
+
+        m.cuerpoBinario = new byte[buf.remaining()];
+        buf.get(m.cuerpoBinario);
+        m.cuerpoLeido = false;
+        return m;
+    }
+
+    /**
+     * Un mensaje para reenviar sobre la trama recibida (desde la versión, sin la longitud), que
+     * queda a cargo del mensaje; lo arma {@link VistaMensaje#paraReenviar} con las posiciones
+     * que ya ubicó. Solo se leen los campos fijos de la cabecera y las extensiones.
+     */
+    static Mensaje deTrama(byte[] trama, int inicioCantidad, int inicioCamino, int finCamino,
+                           String destino, List<String> camino) {
+        ByteBuffer buf = ByteBuffer.wrap(trama);
+        int flags = buf.get(1);
+        Mensaje m = new Mensaje(null, destino, (Campo) null, null, null, null, null);
+        m.id = buf.getLong(2);
+        m.ttl = buf.get(10) & 0xFF;
+        buf.position(11);
+        if ((flags & FLAG_SESION) != 0) m.sesion = buf.getLong();
+        m.otrasExtensiones = Protocolo.leerCadena(buf);
+        m.gcm = (flags & FLAG_GCM) != 0;
+        m.compresion = compresionDeFlags(flags);
+        m.urgente = (flags & FLAG_URGENTE) != 0;
+        m.camino.addAll(camino);
+
+        m.trama = trama;
+        m.inicioCantidad = inicioCantidad;
+        m.inicioCamino = inicioCamino;
+        m.finCamino = finCamino;
+        m.nodosEnTrama = camino.size();
+        m.cuerpoLeido = false;
+        return m;
+    }
+
+    // Un cambio en la cabecera que la trama no refleja: queda solo el cuerpo, como en cabeceraDesdeBinario
+    private void soltarTrama() {
+        byte[] t = trama;
+        if (t == null) return;
+        cuerpoBinario = Arrays.copyOfRange(t, finCamino, t.length);
+        trama = null;
+    }
+
+    // Decodifica el cuerpo guardado por cabeceraDesde* o deTrama; no hace nada si ya está leído
+    private void leerCuerpo() {
+        if (cuerpoLeido) return;
+
+        synchronized (this) {
+            if (cuerpoLeido) return;
+
+            byte[] t = trama;
+            if (t != null || cuerpoBinario != null) {
+                ByteBuffer buf = t != null
+                        ? ByteBuffer.wrap(t, finCamino, t.length - finCamino)
+                        : ByteBuffer.wrap(cuerpoBinario);
+                origen = Protocolo.leerCadena(buf);
+                encAesKey = Campo.deBytes(Protocolo.leerBytes(buf));
+                iv = Campo.deBytes(Protocolo.leerBytes(buf));
+                ciphertext = Campo.deBytes(Protocolo.leerBytes(buf));
+                signature = Campo.deBytes(Protocolo.leerBytes(buf));
+            } else {
+                String[] partes = textoOriginal.substring(0, finCuerpoTexto).split(";", -1);
+                if (partes.length != 6) {
+                    throw new IllegalArgumentException("Formato de mensaje inválido, se esperaban 7 u 8 partes");
+                }
+                origen = partes[0];
+                encAesKey = Campo.deHex(partes[2]);
+                iv = Campo.deHex(partes[3]);
+                ciphertext = Campo.deHex(partes[4]);
+                signature = Campo.deHex(partes[5]);
+            }
+            cuerpoLeido = true;
+        }
     }
 
     public void agregarAlCamino(String nodo) {
-        if (!camino.contains(nodo)) camino.add(nodo);
+        if (!camino.contains(nodo)) {
+            camino.add(nodo);
+            textoCache = null;
+        }
+    }
+
+    /**
+     * Descuenta un salto antes de reenviar y devuelve los que quedan; con 0 el mensaje
+     * ya no debe salir de este nodo.
+     */
+    public int consumirSalto() {
+        if (ttl > 0) {
+            ttl--;
+            textoCache = null;
+        }
+        return ttl;
+    }
+
+    public void setSesion(long sesion) {
+        soltarTrama();
+        this.sesion = sesion;
+        textoCache = null;
+    }
+
+    public void setGcm(boolean gcm) {
+        soltarTrama();
+        this.gcm = gcm;
+        textoCache = null;
+    }
+
+    public void setCompresion(Compresor.Tipo compresion) {
+        soltarTrama();
+        this.compresion = compresion;
+        textoCache = null;
+    }
+
+    public void setUrgente(boolean urgente) {
+        soltarTrama();
+        this.urgente = urgente;
+        textoCache = null;
     }
 
-    public String getOrigen() { return origen; }
+    public long getId() { return id; }
+    public long getSesion() { return sesion; }
+    public boolean esGcm() { return gcm; }
+    public Compresor.Tipo getCompresion() { return compresion; }
+    public boolean esUrgente() { return urgente; }
+    public int getTtl() { return ttl; }
+    public String getOrigen() { leerCuerpo(); return origen; }
     public String getDestino() { return destino; }
-    public String getEncAesKeyHex() { return encAesKeyHex; }
-    public String getIvHex() { return ivHex; }
-    public String getCiphertextHex() { return ciphertextHex; }
-    public String getSignatureHex() { return signatureHex; }
+    public String getEncAesKeyHex() { leerCuerpo(); return encAesKey.hex(); }
+    public String getIvHex() { leerCuerpo(); return iv.hex(); }
+    public String getCiphertextHex() { leerCuerpo(); return ciphertext.hex(); }
+    public String getSignatureHex() { leerCuerpo(); return signature.hex(); }
+    public byte[] getEncAesKey() { leerCuerpo(); return encAesKey.bytes(); }
+    public byte[] getIv() { leerCuerpo(); return iv.bytes(); }
+    public byte[] getCiphertext() { leerCuerpo(); return ciphertext.bytes(); }
+    public byte[] getSignature() { leerCuerpo(); return signature.bytes(); }
     public List<String> getCamino() { return camino; }
 }
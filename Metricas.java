@@ -0,0 +1,237 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Métricas de un nodo: contadores y histogramas de latencia con nombre, más valores que ya
+ * cuentan otras partes del nodo (entregados, duplicados, colas...) registrados como lecturas.
+ *
+ * Los contadores son LongAdder (sin contención entre hilos) y los histogramas son
+ * {@link HistogramaLatencia}; sumar cuesta unos nanosegundos y medir una etapa, con sus dos
+ * lecturas del reloj, unas decenas o un centenar. Las etapas que corren una vez por mensaje y
+ * duran menos de un microsegundo (parseo) se miden con {@link #ahoraMuestreado()}, una de cada
+ * MUESTREO veces: la distribución es la misma y el n del histograma cuenta solo las muestras.
+ * Desactivadas, contadores e histogramas no hacen nada y el reloj ni se lee.
+ *
+ * Se leen en el proceso con {@link #valor(String)}, {@link #histograma(String)} o
+ * {@link #volcar(PrintStream)}; con nodo.metricas.archivo se vuelcan además cada periodoMs a
+ * ese archivo, que se reemplaza entero con cada volcado (los valores son acumulados).
+ *
+ * Nombres usados por el nodo:
+ *   conexiones.aceptadas, bytes.entrada, bytes.salida   contadores del transporte
+ *   parseo (muestreado), rsa, aes, firma               histogramas por etapa
+ *   reenvio.unicast, reenvio.inundacion, reenvio.copias contadores del reenvío
+ *   envio VECINO, envio.fallos VECINO                   latencia de escritura y fallos por vecino
+ *                                                       (con NIO solo fallos: mensajes perdidos
+ *                                                       al cerrarse el canal)
+ *
+ * Propiedades del sistema:
+ *   nodo.metricas           = true | false (por defecto true)
+ *   nodo.metricas.archivo   = archivo del volcado periódico (por defecto ninguno); "{nodo}" se
+ *                             reemplaza por el nombre del nodo, para varios nodos en un proceso
+ *   nodo.metricas.periodoMs = periodo del volcado (por defecto 10000)
+ */
+public class Metricas {
+
+    /** Contador sin contención; desactivado no cuenta. */
+    public static final class Contador {
+        private final LongAdder valor = new LongAdder();
+        private final boolean activo;
+
+        private Contador(boolean activo) {
+            this.activo = activo;
+        }
+
+        public void sumar() {
+            if (activo) valor.increment();
+        }
+
+        public void sumar(long n) {
+            if (activo) valor.add(n);
+        }
+
+        public long valor() {
+            return valor.sum();
+        }
+    }
+
+    public static final int MUESTREO = 16;
+
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final String nodo;
+    private final boolean activas;
+    private final long inicio = System.nanoTime();
+    // Ordenados por nombre para que el volcado sea estable
+    private final ConcurrentMap<String, Contador> contadores = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LongSupplier> lecturas = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, HistogramaLatencia> histogramas = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService volcador;
+    private Path archivo;
+
+    public Metricas(String nodo, boolean activas) {
+        this.nodo = nodo;
+        this.activas = activas;
+    }
+
+    public static Metricas desdePropiedades(String nodo) {
+        Metricas m = new Metricas(nodo, Boolean.parseBoolean(System.getProperty("nodo.metricas", "true")));
+        String archivo = System.getProperty("nodo.metricas.archivo");
+        if (m.activas && archivo != null && !archivo.isBlank())
+            m.volcarCada(Paths.get(archivo.trim().replace("{nodo}", nodo)),
+                    Long.getLong("nodo.metricas.periodoMs", 10_000));
+        return m;
+    }
+
+    public boolean activas() { return activas; }
+
+    // ============================
+    //          REGISTRO
+    // ============================
+
+    public Contador contador(String nombre) {
+        Contador c = contadores.get(nombre);
+        return c != null ? c : contadores.computeIfAbsent(nombre, n -> new Contador(activas));
+    }
+
+    public HistogramaLatencia histograma(String nombre) {
+        HistogramaLatencia h = histogramas.get(nombre);
+        return h != null ? h : histogramas.computeIfAbsent(nombre, HistogramaLatencia::new);
+    }
+
+    /** Registra un valor que se lee al consultarlo (un contador que ya lleva otra clase). */
+    public void registrar(String nombre, LongSupplier lectura) {
+        lecturas.put(nombre, lectura);
+    }
+
+    /** Momento de inicio de una medición: System.nanoTime(), o 0 si están desactivadas. */
+    public long ahora() {
+        return activas ? System.nanoTime() : 0;
+    }
+
+    /** Como {@link #ahora()}, pero solo una de cada MUESTREO veces; las demás devuelve 0. */
+    public long ahoraMuestreado() {
+        return activas && ThreadLocalRandom.current().nextInt(MUESTREO) == 0 ? System.nanoTime() : 0;
+    }
+
+    /** Registra en h lo que pasó desde 'desde' (un valor de ahora()); con 'desde' 0 no hace nada. */
+    public void medir(HistogramaLatencia h, long desde) {
+        if (desde != 0) h.registrar(System.nanoTime() - desde);
+    }
+
+    /** Envuelve el stream para sumar en c los bytes escritos; desactivadas lo devuelve tal cual. */
+    public OutputStream contar(OutputStream out, Contador c) {
+        if (!activas) return out;
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                c.sumar();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                c.sumar(len);
+            }
+        };
+    }
+
+    /** Envuelve el stream para sumar en c los bytes leídos; desactivadas lo devuelve tal cual. */
+    public InputStream contar(InputStream in, Contador c) {
+        if (!activas) return in;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) c.sumar();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) c.sumar(n);
+                return n;
+            }
+        };
+    }
+
+    /** Valor de un contador o lectura; 0 si no existe. */
+    public long valor(String nombre) {
+        Contador c = contadores.get(nombre);
+        if (c != null) return c.valor();
+        LongSupplier l = lecturas.get(nombre);
+        return l != null ? l.getAsLong() : 0;
+    }
+
+    // ============================
+    //          VOLCADO
+    // ============================
+
+    public void volcar(PrintStream salida) {
+        salida.printf("# Métricas de %s - %s (%d s en marcha)%n", nodo,
+                LocalDateTime.now().format(FECHA), TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - inicio));
+
+        ConcurrentMap<String, Long> valores = new ConcurrentSkipListMap<>();
+        for (Map.Entry<String, Contador> e : contadores.entrySet()) valores.put(e.getKey(), e.getValue().valor());
+        for (Map.Entry<String, LongSupplier> e : lecturas.entrySet()) valores.put(e.getKey(), e.getValue().getAsLong());
+        for (Map.Entry<String, Long> e : valores.entrySet())
+            salida.printf("%-36s %14d%n", e.getKey(), e.getValue());
+
+        if (histogramas.isEmpty()) return;
+        salida.println();
+        salida.printf("%-36s %9s %10s %10s %10s %10s %10s%n",
+                "histograma", "n", "prom µs", "p50 µs", "p90 µs", "p99 µs", "máx µs");
+        for (HistogramaLatencia h : histogramas.values()) {
+            if (h.getCantidad() == 0) continue;
+            salida.printf("%-36s %9d %10.1f %10.1f %10.1f %10.1f %10.1f%n", h.getNombre(), h.getCantidad(),
+                    h.getPromedio() / 1e3, h.percentil(50) / 1e3, h.percentil(90) / 1e3,
+                    h.percentil(99) / 1e3, h.getMaximo() / 1e3);
+        }
+    }
+
+    public String texto() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        volcar(ps);
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Vuelca las métricas al archivo cada periodoMs; se escribe aparte y se reemplaza de una vez. */
+    public synchronized void volcarCada(Path archivo, long periodoMs) {
+        if (volcador != null) return;
+        this.archivo = archivo;
+        volcador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metricas-" + nodo);
+            t.setDaemon(true);
+            return t;
+        });
+        long periodo = Math.max(100, periodoMs);
+        volcador.scheduleAtFixedRate(() -> volcarA(archivo), periodo, periodo, TimeUnit.MILLISECONDS);
+        System.out.println("[INFO] Métricas de " + nodo + " en " + archivo + " cada " + periodo + " ms");
+    }
+
+    private void volcarA(Path archivo) {
+        try {
+            Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+            Files.write(temporal, texto().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[WARN] No se pudieron volcar las métricas en " + archivo + ": " + e.getMessage());
+        }
+    }
+
+    /** Detiene el volcado periódico; antes escribe un último volcado. */
+    public synchronized void cerrar() {
+        if (volcador == null) return;
+        volcador.shutdownNow();
+        volcarA(archivo);
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Pasa los archivos keys/*.pub (una clave en hexadecimal por nodo) al almacén keys/claves.db
+ * ({@link AlmacenClaves}) y lo compacta. Los .pub importados se borran solo con --borrar.
+ * Hay que correrlo con los nodos detenidos.
+ *
+ * Uso: java MigrarClaves [directorio] [--borrar]
+ */
+public class MigrarClaves {
+
+    public static void main(String[] args) throws IOException {
+        Path directorio = Paths.get("keys");
+        boolean borrar = false;
+        for (String a : args) {
+            if (a.equals("--borrar")) borrar = true;
+            else directorio = Paths.get(a);
+        }
+
+        if (!Files.isDirectory(directorio)) {
+            System.err.println("[ERROR] No existe el directorio " + directorio);
+            return;
+        }
+
+        List<Path> archivos;
+        try (Stream<Path> listado = Files.list(directorio)) {
+            archivos = listado.filter(p -> p.getFileName().toString().endsWith(".pub")).sorted()
+                    .collect(Collectors.toList());
+        }
+
+        int importadas = 0, invalidas = 0;
+        try (AlmacenClaves almacen = AlmacenClaves.abrir(directorio.resolve(AlmacenClaves.ARCHIVO))) {
+            for (Path archivo : archivos) {
+                String nombreArchivo = archivo.getFileName().toString();
+                String nombre = nombreArchivo.substring(0, nombreArchivo.length() - ".pub".length());
+                try {
+                    // Se decodifica para no importar archivos dañados
+                    byte[] der = Encriptador.publicKeyFromHex(Files.readString(archivo).trim()).getEncoded();
+                    almacen.guardar(nombre, der);
+                    importadas++;
+                    if (borrar) Files.delete(archivo);
+                } catch (Exception e) {
+                    invalidas++;
+                    System.err.println("[WARN] Se omite " + archivo + ": " + e.getMessage());
+                }
+            }
+
+            int antes = almacen.getRegistros();
+            almacen.compactar();
+            System.out.println("[INFO] Importadas " + importadas + " claves (" + invalidas + " inválidas). "
+                    + "Almacén: " + almacen.tamano() + " nodos, " + antes + " -> " + almacen.getRegistros()
+                    + " registros tras compactar.");
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Forma en que un nodo procesa los mensajes que recibe. Cada conexión tiene su propio
+ * lector (ver {@link DespachadorConexiones}); el modo decide dónde corre el procesamiento
+ * (RSA, AES, reenvío) de cada mensaje y, en modo virtual, los lectores son hilos virtuales.
+ */
+public enum ModoEjecucion {
+    // El hilo lector de la conexión procesa cada mensaje antes de leer el siguiente
+    SECUENCIAL,
+    // Pool de tamaño fijo con cola sin límite
+    POOL_FIJO,
+    // Un hilo virtual por mensaje (si la JVM no los soporta, un hilo de plataforma reutilizable)
+    HILO_VIRTUAL,
+    // Pool fijo con cola acotada: si se llena, el hilo lector procesa el mensaje y deja de leer de ese vecino
+    COLA_ACOTADA;
+
+    public static ModoEjecucion desdeTexto(String texto) {
+        if (texto == null || texto.isBlank()) return POOL_FIJO;
+
+        switch (texto.trim().toLowerCase()) {
+            case "secuencial": return SECUENCIAL;
+            case "pool":
+            case "pool_fijo":  return POOL_FIJO;
+            case "virtual":
+            case "hilo_virtual": return HILO_VIRTUAL;
+            case "acotada":
+            case "cola_acotada": return COLA_ACOTADA;
+            default:
+                throw new IllegalArgumentException("Modo de ejecución desconocido: " + texto);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import javax.crypto.*;
+import java.security.*;
+
+/**
+ * Instancias de Cipher, Signature, KeyFactory, KeyGenerator y SecureRandom reutilizadas por
+ * hilo. getInstance() busca el proveedor en cada llamada y new SecureRandom() vuelve a
+ * sembrar el DRBG; con un mensaje por llamada eso pesaba tanto como la criptografía misma.
+ *
+ * Ninguna de estas clases es segura entre hilos, así que cada hilo tiene las suyas. Quien las
+ * usa debe volver a llamar a init() en cada operación (init descarta el estado anterior,
+ * incluso si la operación previa terminó con una excepción).
+ *
+ * Con hilos virtuales (un hilo por mensaje) cada mensaje crea sus instancias, como antes.
+ */
+public final class MotorCripto {
+
+    public static final String AES = "AES/CBC/PKCS5Padding";
+    public static final String AES_GCM = "AES/GCM/NoPadding";
+    public static final String RSA = "RSA";
+    public static final String FIRMA = "SHA256withRSA";
+
+    private static final ThreadLocal<Cipher> aes = ThreadLocal.withInitial(() -> cifrador(AES));
+    private static final ThreadLocal<Cipher> aesGcm = ThreadLocal.withInitial(() -> cifrador(AES_GCM));
+    private static final ThreadLocal<Cipher> rsa = ThreadLocal.withInitial(() -> cifrador(RSA));
+    private static final ThreadLocal<Signature> firma = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance(FIRMA);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<KeyFactory> fabricaRsa = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance(RSA);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<KeyGenerator> generadorAes = ThreadLocal.withInitial(() -> {
+        try {
+            KeyGenerator kg = KeyGenerator.getInstance("AES");
+            kg.init(128);
+            return kg;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<SecureRandom> azar = ThreadLocal.withInitial(SecureRandom::new);
+
+    private MotorCripto() {}
+
+    private static Cipher cifrador(String transformacion) {
+        try {
+            return Cipher.getInstance(transformacion);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Cipher aes() { return aes.get(); }
+    public static Cipher aesGcm() { return aesGcm.get(); }
+    public static Cipher rsa() { return rsa.get(); }
+    public static Signature firma() { return firma.get(); }
+    public static KeyFactory fabricaRsa() { return fabricaRsa.get(); }
+    public static KeyGenerator generadorAes() { return generadorAes.get(); }
+    public static SecureRandom azar() { return azar.get(); }
+}
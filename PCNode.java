@@ -1,10 +1,13 @@
 import javax.crypto.SecretKey;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.security.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PCNode {
 
@@ -15,15 +18,63 @@ public class PCNode {
     private final String ip;
     private final int puerto;
     private final String nombre;
-    private final List<String> vecinos = new ArrayList<>();
+    private final CopyOnWriteArrayList<String> vecinos = new CopyOnWriteArrayList<>();
+    private final TablaRuteo ruteo;
 
     private ServerSocket server;
+    private TransporteNio transporteNio;
     volatile boolean activo = true;
+    private final DespachadorConexiones despachador;
+    private final PoolConexiones conexiones = PoolConexiones.desdePropiedades();
+    private final AtomicLong mensajesEntregados = new AtomicLong();
+    private final CacheVistos vistos = CacheVistos.desdePropiedades();
+    private final AtomicLong duplicadosSuprimidos = new AtomicLong();
+    private final AtomicLong ttlAgotados = new AtomicLong();
+    private final AtomicLong mensajesEnviados = new AtomicLong();
+    private final SesionesCifrado sesiones = SesionesCifrado.desdePropiedades();
+    private final AtomicLong sesionesDesconocidas = new AtomicLong();
+    private final AtomicLong flujosRecibidos = new AtomicLong();
+    // Donde se guardan los contenidos de los mensajes en flujo (nodo.flujos.directorio)
+    private final Path directorioFlujos = Paths.get(System.getProperty("nodo.flujos.directorio", "recibidos"));
+    // Bytes cifrados que se aceptan en un flujo (nodo.flujos.maximo, 1 GB); se cortan los más grandes
+    private final long maximoFlujo = Long.getLong("nodo.flujos.maximo", 1L << 30);
+    private final PipelineDestino pipeline = PipelineDestino.desdePropiedades();
+    // Mensajes salientes agrupados por vecino (nodo.lote.*, ver AgrupadorSalida)
+    private final AgrupadorSalida agrupador = AgrupadorSalida.desdePropiedades(this::escribirLote);
+    // Con el transporte bloqueante cada vecino tiene su cola y su hilo de escritura
+    // (nodo.salida.*, ver ColasSalida); null si nodo.salida.capacidad es 0
+    private final ColasSalida colas = ColasSalida.desdePropiedades(this::escribirVecino);
+
+    // Métricas del nodo (nodo.metricas.*, ver Metricas); las del camino caliente, a mano
+    private final Metricas metricas;
+    private final Metricas.Contador aceptadas, bytesEntrada, reenviosUnicast, reenviosInundacion, copiasInundacion;
+    private final HistogramaLatencia parseo, rsa, aes, firma;
+    private final ConcurrentMap<String, HistogramaLatencia> envioPorVecino = new ConcurrentHashMap<>();
+    private volatile Oyente oyente;
+
+    // Claves de destinos pedidas sin bloquear; los mensajes a un destino sin clave esperan
+    // en esperandoClave hasta que llega (nodo.claves.pendientesMax por destino, 1000)
+    private final ClienteClaves clienteClaves = ClienteClaves.desdePropiedades(clavesPublicas);
+    private final ConcurrentMap<String, EnEspera> esperandoClave = new ConcurrentHashMap<>();
+    private final int maxEsperandoClave = Integer.getInteger("nodo.claves.pendientesMax", 1000);
+
+    // nodo.cifrado = cbc | gcm (por defecto cbc). nodo.firma = siempre | amortizada: con GCM y
+    // sesiones, "amortizada" firma solo los mensajes que llevan la clave de sesión; el resto
+    // queda autenticado por el tag GCM, ya que solo el origen y el destino conocen esa clave.
+    private final boolean cifrarConGcm =
+            "gcm".equalsIgnoreCase(System.getProperty("nodo.cifrado", "cbc").trim());
+    private final boolean firmaAmortizada =
+            "amortizada".equalsIgnoreCase(System.getProperty("nodo.firma", "siempre").trim());
+
+    // Compresión del contenido antes de cifrarlo (ver Compresor: nodo.compresion, nodo.compresion.umbral)
+    private final Compresor.Tipo compresion = Compresor.tipoPorPropiedad();
+    private final int umbralCompresion = Compresor.umbral();
 
     private final PublicKey miClavePublica;
     private final PrivateKey miClavePrivada;
 
-    private static final ConcurrentMap<String, PublicKey> clavesPublicas = new ConcurrentHashMap<>();
+    // Compartido por todos los nodos del proceso, como el directorio keys/
+    private static final DirectorioClaves clavesPublicas = DirectorioClaves.global();
 
 
     // ============================
@@ -31,9 +82,29 @@ public class PCNode {
     // ============================
 
     public PCNode(String ip, int puerto) throws Exception {
+        this(ip, puerto, DespachadorConexiones.desdePropiedades());
+    }
+
+    public PCNode(String ip, int puerto, DespachadorConexiones despachador) throws Exception {
         this.ip = ip;
         this.puerto = puerto;
         this.nombre = ip + "_" + puerto;
+        this.despachador = despachador;
+        this.ruteo = new TablaRuteo(nombre);
+        conexiones.setProponerLotes(agrupador::agrupa);
+
+        this.metricas = Metricas.desdePropiedades(nombre);
+        this.aceptadas = metricas.contador("conexiones.aceptadas");
+        this.bytesEntrada = metricas.contador("bytes.entrada");
+        this.reenviosUnicast = metricas.contador("reenvio.unicast");
+        this.reenviosInundacion = metricas.contador("reenvio.inundacion");
+        this.copiasInundacion = metricas.contador("reenvio.copias");
+        this.parseo = metricas.histograma("parseo");
+        this.rsa = metricas.histograma("rsa");
+        this.aes = metricas.histograma("aes");
+        this.firma = metricas.histograma("firma");
+        conexiones.setMetricas(metricas);
+        registrarLecturas();
 
         KeyPair kp = generarParDeClaves();
         miClavePublica  = kp.getPublic();
@@ -69,25 +140,23 @@ public class PCNode {
     }
 
     private void procesarLineaConfig(String linea, String pcActual) {
-        String[] partes = linea.split(" ");
-        String nodo = partes[0];
+        String[] partes = linea.split("\\s+");
+        String nodo = TablaRuteo.normalizar(partes[0]);
 
         cargarClaveSiExiste(nodo);
 
-        if (nodo.equals(pcActual))
+        // Todas las líneas describen la topología, no solo la de este nodo
+        List<String> adyacentes = new ArrayList<>();
+        for (int i = 1; i < partes.length; i++) adyacentes.add(TablaRuteo.normalizar(partes[i]));
+        ruteo.agregarEnlaces(nodo, adyacentes);
+
+        if (nodo.equals(TablaRuteo.normalizar(pcActual)))
             cargarVecinos(partes);
     }
 
     private void cargarClaveSiExiste(String nodo) {
-        try {
-            String pubHex = Encriptador.leerClavePublicaDesdeArchivoComoHex(nodo);
-            if (pubHex != null) {
-                PublicKey pub = Encriptador.publicKeyFromHex(pubHex);
-                clavesPublicas.put(nodo, pub);
-            } else {
-                System.out.println("[INFO] No había clave precargada para " + nodo);
-            }
-        } catch (Exception ignored) {}
+        if (clavesPublicas.obtener(nodo) == null)
+            System.out.println("[INFO] No había clave precargada para " + nodo);
     }
 
     public void agregarVecino(String vecino) {
@@ -96,7 +165,7 @@ public class PCNode {
             return;
         }
 
-        String v = vecino.trim();
+        String v = TablaRuteo.normalizar(vecino);
         if (v.isEmpty()) {
             System.err.println("[ERROR] agregarVecino: cadena vacía");
             return;
@@ -120,6 +189,13 @@ public class PCNode {
         }
 
         String id = ip + "_" + puerto;
+
+        if (vecinos.addIfAbsent(id)) {
+            ruteo.agregarEnlace(nombre, id);
+            System.out.println("[INFO] Vecino agregado: " + id);
+        } else {
+            System.out.println("[INFO] Vecino ya existía, ignorado: " + id);
+        }
     }
 
 
@@ -135,10 +211,16 @@ public class PCNode {
     // ============================
 
     public void iniciarServidor() {
+        if (TransporteNio.seleccionadoPorPropiedad()) {
+            iniciarServidorNio();
+            return;
+        }
+
         new Thread(() -> {
             try {
                 server = new ServerSocket(puerto);
-                System.out.println("PC " + nombre + " escuchando en puerto " + puerto);
+                System.out.println("PC " + nombre + " escuchando en puerto " + puerto
+                        + " (modo " + despachador.getModo() + ")");
 
                 while (activo)
                     aceptarConexion();
@@ -150,613 +232,841 @@ public class PCNode {
         }).start();
     }
 
-    private void aceptarConexion() {
-        try (Socket socket = server.accept()) {
-            manejarConexion(socket);
-
-        } catch (SocketException se) {
-            if (!activo) return;
-
-        } catch (Exception e) {
-            System.err.println("Error manejando conexión: " + e.getMessage());
+    private void iniciarServidorNio() {
+        try {
+            transporteNio = new TransporteNio(puerto, new TransporteNio.Receptor() {
+                @Override
+                public String alRecibirLinea(String linea) {
+                    return atenderLinea(linea);
+                }
+
+                @Override
+                public Mensaje armar(VistaMensaje v) {
+                    return PCNode.this.armar(v);
+                }
+
+                @Override
+                public void alRecibirMensaje(Mensaje m) {
+                    procesarMensaje(m);
+                }
+
+                @Override
+                public void alRecibirFlujo(InputStream in, OutputStream respuesta) throws IOException {
+                    recibirFlujo(in, respuesta);
+                }
+            }, despachador);
+            transporteNio.setProponerLotes(agrupador::agrupa);
+            transporteNio.setMetricas(metricas);
+            transporteNio.iniciar();
+        } catch (IOException e) {
+            System.err.println("Error en servidor NIO: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private void manejarConexion(Socket socket) throws Exception {
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-        PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-
-        String linea = in.readLine();
-        if (linea == null) return;
+    public void detener() {
+        agrupador.cerrar();
+        activo = false;
+        if (transporteNio != null) transporteNio.detener();
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {}
+        despachador.cerrar();
+        if (colas != null) colas.cerrar(1_000);
+        conexiones.cerrar();
+        pipeline.cerrar();
+        clienteClaves.cerrar();
+        metricas.cerrar();
+    }
 
-        if (linea.equals("GET_PUBKEY")) {
-            responderClavePublica(out);
-            return;
+    // Lo que ya cuentan el nodo y sus partes se lee al volcar las métricas
+    private void registrarLecturas() {
+        metricas.registrar("mensajes.entregados", mensajesEntregados::get);
+        metricas.registrar("mensajes.enviados", mensajesEnviados::get);
+        metricas.registrar("mensajes.duplicados", duplicadosSuprimidos::get);
+        metricas.registrar("mensajes.ttlAgotado", ttlAgotados::get);
+        metricas.registrar("sesiones.desconocidas", sesionesDesconocidas::get);
+        metricas.registrar("sesiones.retenidosVencidos", sesiones::getRetenidosVencidos);
+        metricas.registrar("flujos.recibidos", flujosRecibidos::get);
+        metricas.registrar("lotes.escritos", agrupador::getLotes);
+        metricas.registrar("lotes.mensajes", agrupador::getMensajesEnLotes);
+        metricas.registrar("lotes.descartados", agrupador::getDescartados);
+        metricas.registrar("claves.pedidas", clienteClaves::getPedidas);
+        metricas.registrar("claves.fallidas", clienteClaves::getFallidas);
+        if (colas != null) {
+            metricas.registrar("colas.escritos", colas::getEscritos);
+            metricas.registrar("colas.descartadosLlena", colas::getDescartadosLlena);
+            metricas.registrar("colas.descartadosError", colas::getDescartadosError);
         }
-
-        procesarMensajeEntrante(linea);
     }
 
-    private void responderClavePublica(PrintWriter out) {
-        out.println(Encriptador.publicKeyToHex(miClavePublica));
+    public String getNombre() { return nombre; }
+    public long getMensajesEntregados() { return mensajesEntregados.get(); }
+    public long getDuplicadosSuprimidos() { return duplicadosSuprimidos.get(); }
+    public long getTtlAgotados() { return ttlAgotados.get(); }
+    public long getMensajesEnviados() { return mensajesEnviados.get(); }
+    public long getSesionesDesconocidas() { return sesionesDesconocidas.get(); }
+    public TablaRuteo getRuteo() { return ruteo; }
+    public PipelineDestino getPipeline() { return pipeline; }
+    public DirectorioClaves getDirectorioClaves() { return clavesPublicas; }
+    public ClienteClaves getClienteClaves() { return clienteClaves; }
+    public long getFlujosRecibidos() { return flujosRecibidos.get(); }
+    public AgrupadorSalida getAgrupador() { return agrupador; }
+    public ColasSalida getColasSalida() { return colas; }
+    public Metricas getMetricas() { return metricas; }
+
+    /** Recibe cada mensaje entregado por este nodo; autentico es el resultado de la firma (o de GCM). */
+    public interface Oyente {
+        void entregado(String origen, byte[] contenido, List<String> camino, boolean autentico);
     }
 
+    /** Con un oyente, los mensajes entregados van a él en lugar de imprimirse; null vuelve a la consola. */
+    public void setOyente(Oyente oyente) {
+        this.oyente = oyente;
+    }
 
-    // ============================
-    //      PROCESAR MENSAJES
-    // ============================
+    /** Agrupa los mensajes hacia ese vecino: hasta max mensajes o esperaUs (max 1 = sin agrupar). */
+    public void configurarLote(String vecino, int max, long esperaUs) {
+        agrupador.configurar(TablaRuteo.normalizar(vecino), max, esperaUs);
+    }
 
-    private void procesarMensajeEntrante(String texto) {
+    private void aceptarConexion() {
         try {
-            Mensaje mensaje = Mensaje.desdeTexto(texto);
-            mensaje.agregarAlCamino(nombre);
+            Socket socket = server.accept();
+            aceptadas.sumar();
 
-            if (esDestino(mensaje))
-                procesarComoDestino(mensaje);
-            else
-                reenviarMensaje(mensaje);
+            // Las conexiones son persistentes: cada una tiene su propio lector y el procesamiento
+            // de cada mensaje se reparte en el despachador. Con todos los lectores ocupados,
+            // esto espera y el servidor deja de aceptar.
+            despachador.atenderConexion(() -> atenderConexion(socket));
+
+        } catch (SocketException se) {
+            if (!activo) return;
 
         } catch (Exception e) {
-            System.err.println("Error procesando mensaje: " + e.getMessage());
+            System.err.println("Error aceptando conexión: " + e.getMessage());
+            e.printStackTrace();
         }
     }
 
-    private boolean esDestino(Mensaje m) {
-        return m.getDestino().equals(nombre) || m.getDestino().equals("TODOS");
-    }
+    private void atenderConexion(Socket socket) {
+        try (socket) {
+            manejarConexion(socket);
 
-    private void procesarComoDestino(Mensaje m) {
-        try {
-            byte[] aesKey = descifrarClaveAES(m);
-            byte[] plain = descifrarContenidoAES(m, aesKey);
-            boolean firmaCorrecta = verificarFirma(m);
+        } catch (SocketTimeoutException ste) {
+            // Conexión ociosa: se cierra sin más
 
-            System.out.println("Mensaje recibido en " + nombre);
-            System.out.println("Contenido: " + new String(plain, StandardCharsets.UTF_8));
-            System.out.println("Firma válida: " + firmaCorrecta);
-            System.out.println("Ruta: " + m.getCamino() + "\n");
+        } catch (SocketException se) {
+            if (!activo) return;
 
         } catch (Exception e) {
-            System.err.println("[WARN] Error procesando como destino:");
+            System.err.println("Error manejando conexión: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private byte[] descifrarClaveAES(Mensaje m) throws Exception {
-        byte[] encAes = Encriptador.hexToBytes(m.getEncAesKeyHex());
-        return Encriptador.descifrarClaveAESConRSA(encAes, miClavePrivada);
-    }
+    private void manejarConexion(Socket socket) throws Exception {
+        Protocolo.Lector in = new Protocolo.Lector(metricas.contar(socket.getInputStream(), bytesEntrada));
+        OutputStream out = socket.getOutputStream();
+
+        // Las conexiones son persistentes: se leen mensajes hasta que el vecino cierre
+        // o pase el tiempo de inactividad.
+        socket.setSoTimeout(PoolConexiones.inactividadServidorMs());
+
+        // Los mensajes de esta conexión se procesan en orden (ver DespachadorConexiones.Serie)
+        DespachadorConexiones.Serie serie = despachador.serie();
+
+        String linea;
+        while ((linea = in.leerLinea()) != null) {
+            if (linea.equals(Protocolo.HOLA_BINARIO) || linea.equals(Protocolo.HOLA_BINARIO_LOTES)) {
+                Protocolo.escribirLinea(out, linea.equals(Protocolo.HOLA_BINARIO)
+                        ? Protocolo.OK_BINARIO : Protocolo.OK_BINARIO_LOTES);
+                leerTramas(in, serie);
+                return;
+            }
+            if (Protocolo.esPropuesta(linea)) {
+                Protocolo.escribirLinea(out, Protocolo.NO_BINARIO);
+                continue;
+            }
+            if (linea.equals("GET_PUBKEY")) {
+                Protocolo.escribirLinea(out, atenderLinea(linea));
+                continue;
+            }
+            if (linea.equals(Protocolo.INICIO_FLUJO)) {
+                recibirFlujo(in.comoFlujo(), out);
+                return;
+            }
 
-    private byte[] descifrarContenidoAES(Mensaje m, byte[] aesKey) throws Exception {
-        byte[] iv = Encriptador.hexToBytes(m.getIvHex());
-        byte[] cipher = Encriptador.hexToBytes(m.getCiphertextHex());
-        return Encriptador.descifrarConAES(cipher, iv, aesKey);
+            String texto = linea;
+            serie.execute(() -> atenderLinea(texto));
+        }
     }
 
-    private boolean verificarFirma(Mensaje m) {
-        try {
-            PublicKey pub = obtenerClaveOrigen(m.getOrigen());
-            if (pub == null) return false;
-
-            return FirmaDigital.verificarFirma(
-                    Encriptador.hexToBytes(m.getCiphertextHex()),
-                    m.getSignatureHex(),
-                    pub
-            );
-
-        } catch (Exception e) {
-            return false;
+    private void leerTramas(Protocolo.Lector in, DespachadorConexiones.Serie serie) throws IOException {
+        ByteBuffer trama;
+        while ((trama = in.leerTrama()) != null) {
+            // Se lee acá: la trama apunta al buffer del lector y la próxima lectura la pisa
+            try {
+                EventosJfr.Recibido ev = new EventosJfr.Recibido();
+                ev.begin();
+                long t0 = metricas.ahoraMuestreado();
+                int bytes = 4 + trama.remaining();
+                if (Protocolo.esLote(trama)) {
+                    // Una sola tarea por lote: el despachador no ve cada mensaje
+                    List<Mensaje> lote = Protocolo.leerLote(trama, this::armar);
+                    metricas.medir(parseo, t0);
+                    ev.emitirLote(bytes, lote.size());
+                    if (!lote.isEmpty()) serie.execute(() -> lote.forEach(this::procesarMensaje));
+                } else {
+                    Mensaje m = armar(new VistaMensaje(trama));
+                    metricas.medir(parseo, t0);
+                    ev.emitir("binario", bytes, m);
+                    if (m != null) serie.execute(() -> procesarMensaje(m));
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error procesando mensaje: " + e.getMessage());
+            }
         }
     }
 
-    private PublicKey obtenerClaveOrigen(String origen) {
-        PublicKey pub = clavesPublicas.get(origen);
-        if (pub != null) return pub;
-
-        try {
-            String hex = Encriptador.leerClavePublicaDesdeArchivoComoHex(origen);
-            if (hex != null) {
-                pub = Encriptador.publicKeyFromHex(hex);
-                clavesPublicas.put(origen, pub);
-                return pub;
-            }
-        } catch (Exception ignored) {}
+    // Común a ambos transportes: devuelve la respuesta a escribir en la misma conexión, o null
+    private String atenderLinea(String linea) {
+        if (linea.equals("GET_PUBKEY"))
+            return Encriptador.publicKeyToHex(miClavePublica);
 
+        procesarMensajeEntrante(linea);
         return null;
     }
 
 
     // ============================
-    //         ENVÍO MENSAJES
+    //      PROCESAR MENSAJES
     // ============================
 
-    public void enviarMensajeInicial(String destino, String contenido) {
+    private void procesarMensajeEntrante(String texto) {
         try {
-            PublicKey claveDestino = obtenerClavePublica(destino);
-            if (claveDestino == null) {
-                System.err.println("No se pudo obtener clave de destino.");
-                return;
-            }
-
-            Mensaje mensaje = construirMensaje(destino, contenido, claveDestino);
-
-            enviarDirecto(destino, mensaje);
-            reenviarMensaje(mensaje);
-
+            EventosJfr.Recibido ev = new EventosJfr.Recibido();
+            ev.begin();
+            long t0 = metricas.ahoraMuestreado();
+            Mensaje m = armar(new VistaMensaje(texto));
+            metricas.medir(parseo, t0);
+            ev.emitir("texto", texto.length() + 1, m);
+            if (m != null) procesarMensaje(m);
         } catch (Exception e) {
-            System.err.println("Error enviando mensaje inicial: " + e.getMessage());
+            System.err.println("Error procesando mensaje: " + e.getMessage());
         }
     }
 
-    private PublicKey obtenerClavePublica(String destino) {
-        if (clavesPublicas.containsKey(destino))
-            return clavesPublicas.get(destino);
-
-        solicitarYGuardarClavePublica(destino);
-        return clavesPublicas.get(destino);
+    /**
+     * El mensaje a procesar, o null si es una copia que llegó por otro camino. Con la vista
+     * se decide antes de armarlo: un duplicado se descarta con solo leer su id, y uno que no es
+     * para este nodo ni pasó antes por él se arma para reenviarlo sobre lo recibido
+     * (VistaMensaje.paraReenviar), sin decodificar la cabecera otra vez.
+     */
+    private Mensaje armar(VistaMensaje v) {
+        if (!esNuevo(v)) return null;
+        if (v.destinoEs(nombre) || v.destinoEs("TODOS") || v.caminoContiene(nombre)) return v.aMensaje();
+        return v.paraReenviar(nombre);
     }
 
-    private Mensaje construirMensaje(String destino, String contenido, PublicKey pubDestino) throws Exception {
-        SecretKey aes = Encriptador.generarClaveAES();
-
-        Encriptador.AesResultado ar = Encriptador.cifrarConAES(
-                contenido.getBytes(StandardCharsets.UTF_8),
-                aes
-        );
-
-        return new Mensaje(
-                nombre,
-                destino,
-                Encriptador.bytesToHex(Encriptador.cifrarClaveAESConRSA(ar.clave, pubDestino)),
-                Encriptador.bytesToHex(ar.iv),
-                Encriptador.bytesToHex(ar.cipher),
-                FirmaDigital.firmar(ar.cipher, miClavePrivada),
-                nombre
-        );
+    // Copias que llegan por otro camino: se descartan al leerlas, con solo el id de la vista
+    private boolean esNuevo(VistaMensaje v) {
+        if (vistos.registrar(v.getId())) return true;
+        duplicadosSuprimidos.incrementAndGet();
+        return false;
     }
 
-    private void enviarDirecto(String destino, Mensaje m) {
+    // Mensajes que ya pasaron por esNuevo
+    private void procesarMensaje(Mensaje mensaje) {
         try {
-            enviarMensaje(m, destino);
-        } catch (Exception ignored) {}
-    }
+            mensaje.agregarAlCamino(nombre);
+            ruteo.aprenderCamino(mensaje.getCamino());
 
-    private void reenviarMensaje(Mensaje m) {
-        for (String vecino : vecinos)
-            if (!m.getCamino().contains(vecino))
-                enviarMensaje(m, vecino);
-    }
+            if (esDestino(mensaje)) {
+                procesarComoDestino(mensaje);
+                // A TODOS lo procesa cada nodo y además se sigue inundando
+                if (!esDifusion(mensaje)) return;
+            }
+
+            if (mensaje.consumirSalto() > 0)
+                reenviarMensaje(mensaje);
+            else
+                ttlAgotados.incrementAndGet();
 
-    private void enviarMensaje(Mensaje m, String vecino) {
-        try {
-            String[] datos = vecino.split("_");
-            Socket socket = new Socket(datos[0], Integer.parseInt(datos[1]));
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            out.println(m.aTexto());
-            socket.close();
         } catch (Exception e) {
-            System.err.println("Error enviando a " + vecino + ": " + e.getMessage());
+            System.err.println("Error procesando mensaje: " + e.getMessage());
         }
     }
 
-
-    // ============================
-    //        CLAVES PÚBLICAS
-    // ============================
-
-    private void guardarMiClavePublica() throws IOException {
-        Encriptador.guardarClavePublicaEnArchivo(nombre,
-                Encriptador.publicKeyToHex(miClavePublica));
+    private boolean esDestino(Mensaje m) {
+        return m.getDestino().equals(nombre) || esDifusion(m);
     }
 
-    private KeyPair generarParDeClaves() throws Exception {
-        return KeyPairGenerator.getInstance("RSA").generateKeyPair();
+    private boolean esDifusion(Mensaje m) {
+        return m.getDestino().equals("TODOS");
     }
 
-    public boolean solicitarYGuardarClavePublica(String destino) {
-        try {
-            String[] partes = destino.split("_");
-            String ipDest = partes[0];
-            int puertoDest = Integer.parseInt(partes[1]);
+    // Resultado de la etapa de descifrado. plain null = la sesión todavía no se conoce
+    private static final class Descifrado {
+        final byte[] plain;
+        final byte[] claveNueva;
 
-            Socket socket = new Socket(ipDest, puertoDest);
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        Descifrado(byte[] plain, byte[] claveNueva) {
+            this.plain = plain;
+            this.claveNueva = claveNueva;
+        }
+    }
 
-            out.println("GET_PUBKEY");
-            String pubHex = in.readLine();
+    // Descifrar y verificar corren en paralelo en el pipeline (si tiene hilos); la entrega
+    // llega en orden por origen y es la única que toca la caché de sesiones entrantes
+    private void procesarComoDestino(Mensaje m) {
+        boolean firmado = m.getSignature().length > 0;
+        // Copia: con difusión el mensaje se sigue reenviando mientras las etapas corren
+        List<String> camino = new ArrayList<>(m.getCamino());
+        // Termina en el hilo que entrega; abarca la espera en el pipeline
+        EventosJfr.Entregado ev = new EventosJfr.Entregado();
+        ev.begin();
+
+        pipeline.procesar(m.getOrigen(),
+                () -> descifrar(m),
+                () -> firmado && verificarFirma(m),
+                (descifrado, firmaCorrecta, error) -> {
+                    if (error != null) {
+                        System.err.println("[WARN] Error procesando como destino:");
+                        error.printStackTrace();
+                        ev.emitir(m, camino.size(), false, false);
+                        return;
+                    }
+                    boolean entregado = false;
+                    try {
+                        entregado = entregar(m, camino, descifrado, firmado, firmaCorrecta);
+                    } catch (Exception e) {
+                        System.err.println("[WARN] Error procesando como destino:");
+                        e.printStackTrace();
+                    }
+                    ev.emitir(m, camino.size(), firmaCorrecta, entregado);
+                });
+    }
 
-            if (pubHex == null) return false;
+    // Con sesión, la clave sale de la caché y solo se descifra con RSA la primera vez
+    private Descifrado descifrar(Mensaje m) throws Exception {
+        if (m.getSesion() == 0) return new Descifrado(abrirContenido(m, descifrarClaveAES(m)), null);
 
-            PublicKey pub = Encriptador.publicKeyFromHex(pubHex);
-            clavesPublicas.put(destino, pub);
-            Encriptador.guardarClavePublicaEnArchivo(destino, pubHex);
-            socket.close();
-            return true;
+        byte[] clave = sesiones.claveEntrante(m.getOrigen(), m.getSesion());
+        if (clave != null) return new Descifrado(abrirContenido(m, clave), null);
+        if (m.getEncAesKey().length == 0) return new Descifrado(null, null);
 
-        } catch (Exception e) {
-            System.err.println("Error solicitando clave: " + e.getMessage());
-            return false;
-        }
+        clave = descifrarClaveAES(m);
+        return new Descifrado(abrirContenido(m, clave), clave);
     }
 
-
-    // ============================
-    //             MAIN
-    // ============================
-
-    public static void main(String[] args) {
-        if (args.length < 2) {
-            System.err.println("Uso: java PCNode <archivo_config> <ip_puerto>");
-            return;
+    // false si se descarta o se retiene por una sesión desconocida
+    private boolean entregar(Mensaje m, List<String> camino, Descifrado d, boolean firmado, boolean firmaCorrecta)
+            throws Exception {
+        // La clave de sesión nueva se guarda solo si la firma del mensaje que la trajo es válida;
+        // los mensajes de esa sesión que llegaron antes que ella se entregan primero
+        if (d.claveNueva != null && firmaCorrecta)
+            sesiones.registrarEntrante(m.getOrigen(), m.getSesion(), d.claveNueva).forEach(Runnable::run);
+
+        byte[] plain = d.plain;
+        if (plain == null) {
+            // El descifrado pudo correr antes de que se entregara el mensaje que trajo la
+            // clave; ya se entregaron los anteriores del mismo origen, así que se busca de nuevo
+            byte[] clave = sesiones.claveEntrante(m.getOrigen(), m.getSesion());
+            if (clave == null) {
+                // Los mensajes que traían la clave pudieron perderse: el origen la vuelve a
+                // adjuntar cada nodo.sesion.anuncioMs y hasta entonces el mensaje espera
+                if (sesiones.retener(m.getOrigen(), m.getSesion(),
+                        () -> entregarRetenido(m, camino, firmado, firmaCorrecta)))
+                    return false;
+                sesionesDesconocidas.incrementAndGet();
+                System.err.println("[WARN] Mensaje de " + m.getOrigen() + " con una sesión desconocida o vencida; se descarta.");
+                return false;
+            }
+            plain = abrirContenido(m, clave);
         }
 
-        String archivo = args[0];
-        String actual = args[1];
-
-        try {
-            String[] datos = actual.split("_");
-            PCNode pc = new PCNode(datos[0], Integer.parseInt(datos[1]));
+        // Sin firma solo vale GCM con una clave de sesión que llegó en un mensaje firmado
+        boolean autentico = firmado
+                ? firmaCorrecta
+                : m.esGcm() && sesiones.claveEntrante(m.getOrigen(), m.getSesion()) != null;
+        String autenticidad = (firmado ? "Firma válida: " : "Autenticado por GCM de sesión: ") + autentico;
 
-            pc.cargarConfiguracion(archivo, actual);
-            pc.iniciarServidor();
+        mensajesEntregados.incrementAndGet();
 
-            Scanner sc = new Scanner(System.in);
-            while (true) {
-                System.out.print("Destino> ");
-                String destino = sc.nextLine();
-                if (destino.equalsIgnoreCase("exit")) break;
+        Oyente o = oyente;
+        if (o != null) {
+            o.entregado(m.getOrigen(), plain, camino, autentico);
+            return true;
+        }
 
-                System.out.print("Mensaje> ");
-                pc.enviarMensajeInicial(destino, sc.nextLine());
-            }
+        // Un único println: varias conexiones pueden entregar mensajes a la vez
+        System.out.println("Mensaje recibido en " + nombre + "\n"
+                + "Contenido: " + new String(plain, StandardCharsets.UTF_8) + "\n"
+                + autenticidad + "\n"
+                + "Ruta: " + camino + "\n");
+        return true;
+    }
 
+    private void entregarRetenido(Mensaje m, List<String> camino, boolean firmado, boolean firmaCorrecta) {
+        try {
+            entregar(m, camino, new Descifrado(null, null), firmado, firmaCorrecta);
         } catch (Exception e) {
+            System.err.println("[WARN] Error procesando como destino:");
             e.printStackTrace();
         }
     }
-}
-import javax.crypto.SecretKey;
-import java.io.*;
-import java.net.*;
-import java.nio.charset.StandardCharsets;
-import java.security.*;
-import java.util.*;
-import java.util.concurrent.*;
-
-public class PCNode {
-
-    // ============================
-    //        ATRIBUTOS
-    // ============================
 
-    private final String ip;
-    private final int puerto;
-    private final String nombre;
-    private final List<String> vecinos = new ArrayList<>();
-
-    private ServerSocket server;
-    volatile boolean activo = true;
-
-    private final PublicKey miClavePublica;
-    private final PrivateKey miClavePrivada;
+    private byte[] descifrarClaveAES(Mensaje m) throws Exception {
+        EventosJfr.EtapaCripto ev = new EventosJfr.EtapaCripto();
+        ev.begin();
+        long t0 = metricas.ahora();
+        byte[] clave = Encriptador.descifrarClaveAESConRSA(m.getEncAesKey(), miClavePrivada);
+        metricas.medir(rsa, t0);
+        ev.emitir("rsa", m.getOrigen(), m.getEncAesKey().length);
+        return clave;
+    }
 
-    private static final ConcurrentMap<String, PublicKey> clavesPublicas = new ConcurrentHashMap<>();
+    // Contenido descifrado y, si vino comprimido, descomprimido
+    private byte[] abrirContenido(Mensaje m, byte[] aesKey) throws Exception {
+        return Compresor.descomprimir(descifrarContenidoAES(m, aesKey), m.getCompresion());
+    }
 
+    private byte[] descifrarContenidoAES(Mensaje m, byte[] aesKey) throws Exception {
+        EventosJfr.EtapaCripto ev = new EventosJfr.EtapaCripto();
+        ev.begin();
+        long t0 = metricas.ahora();
+        byte[] plain = m.esGcm()
+                ? Encriptador.descifrarConAESGCM(m.getCiphertext(), m.getIv(), aesKey,
+                        datosAsociados(m.getOrigen(), m.getDestino()))
+                : Encriptador.descifrarConAES(m.getCiphertext(), m.getIv(), aesKey);
+        metricas.medir(aes, t0);
+        ev.emitir("aes", m.getOrigen(), m.getCiphertext().length);
+        return plain;
+    }
 
-    // ============================
-    //       CONSTRUCTOR
-    // ============================
+    // Con GCM, origen y destino quedan autenticados junto con el contenido
+    private static byte[] datosAsociados(String origen, String destino) {
+        return (origen + ";" + destino).getBytes(StandardCharsets.UTF_8);
+    }
 
-    public PCNode(String ip, int puerto) throws Exception {
-        this.ip = ip;
-        this.puerto = puerto;
-        this.nombre = ip + "_" + puerto;
+    private boolean verificarFirma(Mensaje m) {
+        try {
+            PublicKey pub = obtenerClaveOrigen(m.getOrigen());
+            if (pub == null) return false;
 
-        KeyPair kp = generarParDeClaves();
-        miClavePublica  = kp.getPublic();
-        miClavePrivada = kp.getPrivate();
+            EventosJfr.EtapaCripto ev = new EventosJfr.EtapaCripto();
+            ev.begin();
+            long t0 = metricas.ahora();
+            boolean valida = FirmaDigital.verificarFirma(
+                    m.getCiphertext(),
+                    m.getSignature(),
+                    pub
+            );
+            metricas.medir(firma, t0);
+            ev.emitir("firma", m.getOrigen(), m.getCiphertext().length);
+            return valida;
 
-        guardarMiClavePublica();
+        } catch (Exception e) {
+            return false;
+        }
+    }
 
-        System.out.println("Nodo " + nombre + " iniciado.");
+    private PublicKey obtenerClaveOrigen(String origen) {
+        return clavesPublicas.obtener(origen);
     }
 
 
     // ============================
-    //     CARGA DE CONFIGURACIÓN
+    //         ENVÍO MENSAJES
     // ============================
 
-    public void cargarConfiguracion(String archivoConfig, String pcActual) {
-        try (BufferedReader br = new BufferedReader(new FileReader(archivoConfig))) {
-            String linea;
-
-            while ((linea = br.readLine()) != null) {
-                linea = linea.trim();
-
-                if (linea.isEmpty() || linea.startsWith("#"))
-                    continue;
-
-                procesarLineaConfig(linea, pcActual);
-            }
-
-        } catch (Exception e) {
-            System.err.println("Error leyendo archivo de config: " + e.getMessage());
-            e.printStackTrace();
-        }
+    public void enviarMensajeInicial(String destino, String contenido) {
+        enviarMensajesIniciales(destino, List.of(contenido));
     }
 
-    private void procesarLineaConfig(String linea, String pcActual) {
-        String[] partes = linea.split(" ");
-        String nodo = partes[0];
-
-        cargarClaveSiExiste(nodo);
+    /** Como enviarMensajeInicial, pero el mensaje no espera en los lotes de ningún enlace. */
+    public void enviarMensajeUrgente(String destino, String contenido) {
+        enviarMensajesIniciales(destino, List.of(contenido), true);
+    }
 
-        if (nodo.equals(pcActual))
-            cargarVecinos(partes);
+    /**
+     * Envía varios mensajes al mismo destino. Las firmas se hacen en un solo lote
+     * ({@link FirmaDigital#firmarLote}) en lugar de una por mensaje.
+     *
+     * Si todavía no se conoce la clave del destino, los mensajes esperan (en orden) a que
+     * llegue y se envían entonces, sin bloquear a quien llama.
+     */
+    public void enviarMensajesIniciales(String destino, List<String> contenidos) {
+        enviarMensajesIniciales(destino, contenidos, false);
     }
 
-    private void cargarClaveSiExiste(String nodo) {
-        try {
-            String pubHex = Encriptador.leerClavePublicaDesdeArchivoComoHex(nodo);
-            if (pubHex != null) {
-                PublicKey pub = Encriptador.publicKeyFromHex(pubHex);
-                clavesPublicas.put(nodo, pub);
-            } else {
-                System.out.println("[INFO] No había clave precargada para " + nodo);
-            }
-        } catch (Exception ignored) {}
+    /**
+     * Envía contenido a TODOS: a cada nodo de la topología conocida (ver TablaRuteo) le llega
+     * su propio mensaje, cifrado con su clave como cualquier otro. No hay una clave común con
+     * la cual cifrar una sola copia, y así la difusión sigue siendo confidencial y sale con el
+     * formato de siempre.
+     */
+    public void enviarDifusion(String contenido) {
+        enviarDifusion(List.of(contenido), false);
     }
 
-    public void agregarVecino(String vecino) {
-        if (vecino == null) {
-            System.err.println("[ERROR] agregarVecino: valor nulo");
-            return;
-        }
+    private void enviarDifusion(List<String> contenidos, boolean urgentes) {
+        for (String destino : ruteo.getSiguientesSaltos().keySet())
+            enviarMensajesIniciales(destino, contenidos, urgentes);
+    }
 
-        String v = vecino.trim();
-        if (v.isEmpty()) {
-            System.err.println("[ERROR] agregarVecino: cadena vacía");
+    private void enviarMensajesIniciales(String destino, List<String> contenidos, boolean urgentes) {
+        if (destino.equals("TODOS")) {
+            enviarDifusion(contenidos, urgentes);
             return;
         }
+        // La clave puede estar ya en el directorio mientras todavía se envía la cola de los que
+        // la esperaban: entonces estos van detrás de ellos, no directo
+        PublicKey claveDestino = clavesPublicas.obtener(destino);
+        if (claveDestino != null && !esperandoClave.containsKey(destino))
+            enviarConClave(destino, contenidos, claveDestino, urgentes);
+        else
+            esperarClave(destino, contenidos, urgentes);
+    }
 
-        String[] partes = v.split("_");
-        if (partes.length != 2) {
-            System.err.println("[ERROR] agregarVecino: formato incorrecto (se esperaba ip_puerto). Recibido: " + vecino);
-            return;
-        }
+    // Mensajes a un destino cuya clave se está pidiendo; si alguno es urgente, salen todos urgentes
+    private static final class EnEspera {
+        final List<String> contenidos = new ArrayList<>();
+        boolean urgentes;
+    }
 
-        String ip = partes[0].trim();
-        String puertoStr = partes[1].trim();
+    private void esperarClave(String destino, List<String> contenidos, boolean urgentes) {
+        boolean[] pedir = {false};
+        boolean[] llena = {false};
+        esperandoClave.compute(destino, (d, cola) -> {
+            if (cola == null) {
+                cola = new EnEspera();
+                pedir[0] = true;
+            }
+            if (cola.contenidos.size() + contenidos.size() > maxEsperandoClave) {
+                llena[0] = true;
+                return cola;
+            }
+            cola.contenidos.addAll(contenidos);
+            cola.urgentes |= urgentes;
+            return cola;
+        });
+
+        if (llena[0])
+            System.err.println("[WARN] Demasiados mensajes esperando la clave de " + destino
+                    + "; se descartan " + contenidos.size() + ".");
+        if (!pedir[0]) return;
+
+        // Los que lleguen mientras tanto se suman a la cola; al terminar la pedida se envía
+        // la cola entera, o se descarta si no hubo clave
+        clienteClaves.solicitar(destino).whenComplete((pub, error) -> {
+            if (pub != null) {
+                enviarCola(destino, pub);
+                return;
+            }
 
-        int puerto;
-        try {
-            puerto = Integer.parseInt(puertoStr);
-        } catch (NumberFormatException e) {
-            System.err.println("[ERROR] agregarVecino: puerto inválido en: " + vecino);
-            return;
-        }
+            EnEspera cola = esperandoClave.remove(destino);
+            if (cola == null || cola.contenidos.isEmpty()) return;
 
-        String id = ip + "_" + puerto;
+            Throwable causa = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            System.err.println("No se pudo obtener clave de destino " + destino + " ("
+                    + (causa != null ? causa.getMessage() : "sin respuesta") + "); se descartan "
+                    + cola.contenidos.size() + " mensajes.");
+        });
     }
 
-
-    private void cargarVecinos(String[] partes) {
-        for (int i = 1; i < partes.length; i++) {
-            agregarVecino(partes[i]);
+    // La entrada del destino sigue en esperandoClave hasta que la cola quede vacía: los mensajes
+    // que lleguen mientras se envía se suman a ella y salen después, en orden
+    private void enviarCola(String destino, PublicKey pub) {
+        while (true) {
+            EnEspera[] tomada = {null};
+            esperandoClave.computeIfPresent(destino, (d, cola) -> {
+                if (cola.contenidos.isEmpty()) return null;
+                tomada[0] = cola;
+                return new EnEspera();
+            });
+            if (tomada[0] == null) return;
+            enviarConClave(destino, tomada[0].contenidos, pub, tomada[0].urgentes);
         }
     }
 
-
-    // ============================
-    //        RED Y SERVIDOR
-    // ============================
-
-    public void iniciarServidor() {
-        new Thread(() -> {
-            try {
-                server = new ServerSocket(puerto);
-                System.out.println("PC " + nombre + " escuchando en puerto " + puerto);
-
-                while (activo)
-                    aceptarConexion();
-
-            } catch (IOException e) {
-                System.err.println("Error en servidor: " + e.getMessage());
-                e.printStackTrace();
+    private void enviarConClave(String destino, List<String> contenidos, PublicKey claveDestino, boolean urgentes) {
+        try {
+            for (Mensaje mensaje : construirMensajes(destino, contenidos, claveDestino)) {
+                mensaje.setUrgente(urgentes);
+                // Las copias que vuelvan a este nodo por la inundación se descartan
+                vistos.registrar(mensaje.getId());
+
+                if (esDifusion(mensaje) || ruteo.siguienteSalto(destino) != null) {
+                    reenviarMensaje(mensaje);
+                } else {
+                    // Sin ruta conocida: directo y por inundación, como antes de la tabla de ruteo
+                    enviarDirecto(destino, mensaje);
+                    inundar(mensaje);
+                }
             }
-        }).start();
-    }
-
-    private void aceptarConexion() {
-        try (Socket socket = server.accept()) {
-            manejarConexion(socket);
-
-        } catch (SocketException se) {
-            if (!activo) return;
 
         } catch (Exception e) {
-            System.err.println("Error manejando conexión: " + e.getMessage());
-            e.printStackTrace();
+            System.err.println("Error enviando mensaje inicial: " + e.getMessage());
         }
     }
 
-    private void manejarConexion(Socket socket) throws Exception {
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-        PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+    // Contenido listo para cifrar
+    private static final class Comprimido {
+        final byte[] datos;
+        final Compresor.Tipo tipo;
 
-        String linea = in.readLine();
-        if (linea == null) return;
-
-        if (linea.equals("GET_PUBKEY")) {
-            responderClavePublica(out);
-            return;
+        Comprimido(byte[] datos, Compresor.Tipo tipo) {
+            this.datos = datos;
+            this.tipo = tipo;
         }
+    }
 
-        procesarMensajeEntrante(linea);
+    // Se comprime solo si el contenido llega al umbral y comprimido queda más chico
+    private Comprimido comprimir(String contenido) {
+        byte[] datos = contenido.getBytes(StandardCharsets.UTF_8);
+        if (compresion != Compresor.Tipo.NINGUNO && datos.length >= umbralCompresion) {
+            byte[] comprimidos = Compresor.comprimir(datos, compresion);
+            if (comprimidos != null) return new Comprimido(comprimidos, compresion);
+        }
+        return new Comprimido(datos, Compresor.Tipo.NINGUNO);
     }
 
-    private void responderClavePublica(PrintWriter out) {
-        out.println(Encriptador.publicKeyToHex(miClavePublica));
+    // Contenido ya cifrado, antes de firmar
+    private static final class Cifrado {
+        final SesionesCifrado.Salida sesion;
+        final byte[] claveCifrada;
+        final Encriptador.AesResultado ar;
+        final Compresor.Tipo compresion;
+        final boolean firmar;
+
+        Cifrado(SesionesCifrado.Salida sesion, byte[] claveCifrada, Encriptador.AesResultado ar,
+                Compresor.Tipo compresion, boolean firmar) {
+            this.sesion = sesion;
+            this.claveCifrada = claveCifrada;
+            this.ar = ar;
+            this.compresion = compresion;
+            this.firmar = firmar;
+        }
     }
 
+    private List<Mensaje> construirMensajes(String destino, List<String> contenidos, PublicKey pubDestino)
+            throws Exception {
+        List<Cifrado> cifrados = new ArrayList<>(contenidos.size());
+        List<byte[]> aFirmar = new ArrayList<>();
 
-    // ============================
-    //      PROCESAR MENSAJES
-    // ============================
+        for (String contenido : contenidos) {
+            SesionesCifrado.Salida sesion = sesiones.habilitadas() ? sesiones.salida(destino, pubDestino) : null;
+            SecretKey aes = sesion != null ? sesion.getClave() : Encriptador.generarClaveAES();
 
-    private void procesarMensajeEntrante(String texto) {
-        try {
-            Mensaje mensaje = Mensaje.desdeTexto(texto);
-            mensaje.agregarAlCamino(nombre);
+            Comprimido comprimido = comprimir(contenido);
+            Encriptador.AesResultado ar = cifrarConGcm
+                    ? Encriptador.cifrarConAESGCM(comprimido.datos, aes, datosAsociados(nombre, destino))
+                    : Encriptador.cifrarConAES(comprimido.datos, aes);
 
-            if (esDestino(mensaje))
-                procesarComoDestino(mensaje);
-            else
-                reenviarMensaje(mensaje);
+            byte[] claveCifrada = sesion != null
+                    ? sesiones.claveParaMensaje(sesion)
+                    : Encriptador.cifrarClaveAESConRSA(ar.clave, pubDestino);
 
-        } catch (Exception e) {
-            System.err.println("Error procesando mensaje: " + e.getMessage());
+            // Firma amortizada: los mensajes de sesión sin clave adjunta se autentican con GCM
+            boolean firmar = !(cifrarConGcm && firmaAmortizada && sesion != null && claveCifrada.length == 0);
+
+            cifrados.add(new Cifrado(sesion, claveCifrada, ar, comprimido.tipo, firmar));
+            if (firmar) aFirmar.add(ar.cipher);
         }
-    }
 
-    private boolean esDestino(Mensaje m) {
-        return m.getDestino().equals(nombre) || m.getDestino().equals("TODOS");
+        byte[][] firmas = FirmaDigital.firmarLote(aFirmar, miClavePrivada);
+
+        List<Mensaje> mensajes = new ArrayList<>(cifrados.size());
+        int siguienteFirma = 0;
+        for (Cifrado c : cifrados) {
+            Mensaje m = new Mensaje(
+                    nombre,
+                    destino,
+                    c.claveCifrada,
+                    c.ar.iv,
+                    c.ar.cipher,
+                    c.firmar ? firmas[siguienteFirma++] : new byte[0],
+                    nombre
+            );
+            if (c.sesion != null) m.setSesion(c.sesion.getId());
+            m.setGcm(cifrarConGcm);
+            m.setCompresion(c.compresion);
+            mensajes.add(m);
+        }
+        return mensajes;
     }
 
-    private void procesarComoDestino(Mensaje m) {
+    private void enviarDirecto(String destino, Mensaje m) {
         try {
-            byte[] aesKey = descifrarClaveAES(m);
-            byte[] plain = descifrarContenidoAES(m, aesKey);
-            boolean firmaCorrecta = verificarFirma(m);
-
-            System.out.println("Mensaje recibido en " + nombre);
-            System.out.println("Contenido: " + new String(plain, StandardCharsets.UTF_8));
-            System.out.println("Firma válida: " + firmaCorrecta);
-            System.out.println("Ruta: " + m.getCamino() + "\n");
+            enviarMensaje(m, destino);
+        } catch (Exception ignored) {}
+    }
 
-        } catch (Exception e) {
-            System.err.println("[WARN] Error procesando como destino:");
-            e.printStackTrace();
+    // Unicast: solo al siguiente salto de la ruta más corta. Se inunda si el destino es TODOS,
+    // si no hay ruta, si el salto ya está en el camino o si no se le pudo enviar.
+    private void reenviarMensaje(Mensaje m) {
+        EventosJfr.Reenviado ev = new EventosJfr.Reenviado();
+        ev.begin();
+        if (!esDifusion(m)) {
+            String salto = ruteo.siguienteSalto(m.getDestino());
+            if (salto != null && !m.getCamino().contains(salto) && enviarMensaje(m, salto)) {
+                reenviosUnicast.sumar();
+                ev.emitir(m, true, 1);
+                return;
+            }
         }
+        ev.emitir(m, false, inundar(m));
     }
 
-    private byte[] descifrarClaveAES(Mensaje m) throws Exception {
-        byte[] encAes = Encriptador.hexToBytes(m.getEncAesKeyHex());
-        return Encriptador.descifrarClaveAESConRSA(encAes, miClavePrivada);
+    // Devuelve a cuántos vecinos se envió
+    private int inundar(Mensaje m) {
+        reenviosInundacion.sumar();
+        int copias = 0;
+        for (String vecino : vecinos) {
+            if (!m.getCamino().contains(vecino)) {
+                enviarMensaje(m, vecino);
+                copiasInundacion.sumar();
+                copias++;
+            }
+        }
+        return copias;
     }
 
-    private byte[] descifrarContenidoAES(Mensaje m, byte[] aesKey) throws Exception {
-        byte[] iv = Encriptador.hexToBytes(m.getIvHex());
-        byte[] cipher = Encriptador.hexToBytes(m.getCiphertextHex());
-        return Encriptador.descifrarConAES(cipher, iv, aesKey);
+    // false si el vecino está caído (su última escritura falló, ver ColasSalida) o si se
+    // escribió en el acto y falló; así reenviarMensaje inunda en vez de perder el mensaje. Si
+    // no, el mensaje se escribe después y los errores los informan el agrupador o las colas
+    private boolean enviarMensaje(Mensaje m, String vecino) {
+        if (!disponible(vecino)) return false;
+        mensajesEnviados.incrementAndGet();
+        return agrupador.enviar(vecino, m);
     }
 
-    private boolean verificarFirma(Mensaje m) {
-        try {
-            PublicKey pub = obtenerClaveOrigen(m.getOrigen());
-            if (pub == null) return false;
-
-            return FirmaDigital.verificarFirma(
-                    Encriptador.hexToBytes(m.getCiphertextHex()),
-                    m.getSignatureHex(),
-                    pub
-            );
+    private boolean disponible(String vecino) {
+        if (transporteNio != null) return transporteNio.disponible(vecino);
+        return colas == null || colas.disponible(vecino);
+    }
 
-        } catch (Exception e) {
-            return false;
+    private void escribirLote(String vecino, List<Mensaje> lote) throws IOException {
+        boolean encolado;
+        if (transporteNio != null)
+            encolado = transporteNio.enviarLote(vecino, lote);
+        else if (colas != null)
+            encolado = colas.encolar(vecino, lote);
+        else {
+            escribirVecino(vecino, lote);
+            return;
         }
+        if (!encolado) throw new IOException("vecino caído");
     }
 
-    private PublicKey obtenerClaveOrigen(String origen) {
-        PublicKey pub = clavesPublicas.get(origen);
-        if (pub != null) return pub;
-
+    // Escritura por el pool, desde la cola del vecino o en el acto: se mide por vecino
+    private void escribirVecino(String vecino, List<Mensaje> lote) throws IOException {
+        EventosJfr.EscrituraVecino ev = new EventosJfr.EscrituraVecino();
+        ev.begin();
+        long t0 = metricas.ahora();
         try {
-            String hex = Encriptador.leerClavePublicaDesdeArchivoComoHex(origen);
-            if (hex != null) {
-                pub = Encriptador.publicKeyFromHex(hex);
-                clavesPublicas.put(origen, pub);
-                return pub;
-            }
-        } catch (Exception ignored) {}
-
-        return null;
+            conexiones.enviarLote(vecino, lote);
+        } catch (IOException | RuntimeException e) {
+            metricas.contador("envio.fallos " + vecino).sumar(lote.size());
+            ev.emitir(vecino, lote.size(), e);
+            throw e;
+        }
+        ev.emitir(vecino, lote.size(), null);
+        if (metricas.activas())
+            metricas.medir(envioPorVecino.computeIfAbsent(vecino, v -> metricas.histograma("envio " + v)), t0);
     }
 
 
     // ============================
-    //         ENVÍO MENSAJES
+    //       MENSAJES EN FLUJO
     // ============================
 
-    public void enviarMensajeInicial(String destino, String contenido) {
+    /**
+     * Envía un contenido de cualquier tamaño como mensaje en flujo ({@link FlujoCifrado}),
+     * directo al destino. Bloquea hasta que el destino confirma haberlo recibido y verificado.
+     */
+    public boolean enviarFlujo(String destino, InputStream contenido) {
+        String d = TablaRuteo.normalizar(destino);
         try {
-            PublicKey claveDestino = obtenerClavePublica(destino);
-            if (claveDestino == null) {
-                System.err.println("No se pudo obtener clave de destino.");
-                return;
+            PublicKey claveDestino = clienteClaves.solicitar(d).get();
+
+            String[] partes = d.split("_");
+            try (Socket socket = new Socket(partes[0], Integer.parseInt(partes[1]))) {
+                OutputStream out = socket.getOutputStream();
+                Protocolo.escribirLinea(out, Protocolo.INICIO_FLUJO);
+                long bytes = FlujoCifrado.enviar(contenido, out, nombre, d,
+                        ThreadLocalRandom.current().nextLong(), claveDestino, miClavePrivada);
+
+                socket.setSoTimeout(PoolConexiones.inactividadServidorMs());
+                String respuesta = new Protocolo.Lector(socket.getInputStream()).leerLinea();
+                if (!Protocolo.FLUJO_OK.equals(respuesta)) {
+                    System.err.println("[WARN] " + d + " no aceptó el flujo de " + bytes + " bytes: " + respuesta);
+                    return false;
+                }
+                return true;
             }
 
-            Mensaje mensaje = construirMensaje(destino, contenido, claveDestino);
-
-            enviarDirecto(destino, mensaje);
-            reenviarMensaje(mensaje);
-
+        } catch (ExecutionException e) {
+            System.err.println("No se pudo obtener clave de destino " + d + ": " + e.getCause().getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         } catch (Exception e) {
-            System.err.println("Error enviando mensaje inicial: " + e.getMessage());
+            System.err.println("Error enviando flujo a " + d + ": " + e.getMessage());
+            return false;
         }
     }
 
-    private PublicKey obtenerClavePublica(String destino) {
-        if (clavesPublicas.containsKey(destino))
-            return clavesPublicas.get(destino);
+    // El contenido va a un archivo a medida que se descifra; solo queda si la firma es válida
+    private void recibirFlujo(InputStream in, OutputStream respuesta) throws IOException {
+        Files.createDirectories(directorioFlujos);
+        Path parcial = Files.createTempFile(directorioFlujos, "flujo-", ".parcial");
 
-        solicitarYGuardarClavePublica(destino);
-        return clavesPublicas.get(destino);
-    }
-
-    private Mensaje construirMensaje(String destino, String contenido, PublicKey pubDestino) throws Exception {
-        SecretKey aes = Encriptador.generarClaveAES();
-
-        Encriptador.AesResultado ar = Encriptador.cifrarConAES(
-                contenido.getBytes(StandardCharsets.UTF_8),
-                aes
-        );
+        FlujoCifrado.Recibido r;
+        try (OutputStream plano = Files.newOutputStream(parcial)) {
+            r = FlujoCifrado.recibir(in, plano, miClavePrivada, clavesPublicas::obtener, maximoFlujo);
+        } catch (Exception e) {
+            Files.deleteIfExists(parcial);
+            System.err.println("[WARN] Flujo descartado: " + e.getMessage());
+            Protocolo.escribirLinea(respuesta, Protocolo.FLUJO_ERROR);
+            return;
+        }
 
-        return new Mensaje(
-                nombre,
-                destino,
-                Encriptador.bytesToHex(Encriptador.cifrarClaveAESConRSA(ar.clave, pubDestino)),
-                Encriptador.bytesToHex(ar.iv),
-                Encriptador.bytesToHex(ar.cipher),
-                FirmaDigital.firmar(ar.cipher, miClavePrivada),
-                nombre
-        );
-    }
+        if (!r.firmaValida || !nombre.equals(TablaRuteo.normalizar(r.destino))) {
+            Files.deleteIfExists(parcial);
+            System.err.println("[WARN] Flujo de " + r.origen + " descartado: "
+                    + (r.firmaValida ? "destino " + r.destino : "firma inválida"));
+            Protocolo.escribirLinea(respuesta, Protocolo.FLUJO_ERROR);
+            return;
+        }
 
-    private void enviarDirecto(String destino, Mensaje m) {
-        try {
-            enviarMensaje(m, destino);
-        } catch (Exception ignored) {}
-    }
+        Path archivo = directorioFlujos.resolve(nombreDeArchivo(r.origen) + "-" + Long.toHexString(r.id) + ".bin");
+        Files.move(parcial, archivo, StandardCopyOption.REPLACE_EXISTING);
+        flujosRecibidos.incrementAndGet();
 
-    private void reenviarMensaje(Mensaje m) {
-        for (String vecino : vecinos)
-            if (!m.getCamino().contains(vecino))
-                enviarMensaje(m, vecino);
+        System.out.println("Flujo recibido en " + nombre + "\n"
+                + "Origen: " + r.origen + "\n"
+                + "Bytes: " + r.bytes + "\n"
+                + "Firma válida: true\n"
+                + "Archivo: " + archivo + "\n");
+        Protocolo.escribirLinea(respuesta, Protocolo.FLUJO_OK);
     }
 
-    private void enviarMensaje(Mensaje m, String vecino) {
-        try {
-            String[] datos = vecino.split("_");
-            Socket socket = new Socket(datos[0], Integer.parseInt(datos[1]));
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            out.println(m.aTexto());
-            socket.close();
-        } catch (Exception e) {
-            System.err.println("Error enviando a " + vecino + ": " + e.getMessage());
+    // El origen viene del otro extremo: solo letras, dígitos, '.', '_' y '-' llegan al nombre,
+    // así no puede indicar otro directorio
+    private static String nombreDeArchivo(String origen) {
+        StringBuilder sb = new StringBuilder(origen.length());
+        for (int i = 0; i < origen.length(); i++) {
+            char c = origen.charAt(i);
+            boolean permitido = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '_' || c == '-';
+            sb.append(permitido ? c : '_');
         }
+        return sb.toString();
     }
 
 
@@ -764,38 +1074,24 @@ public class PCNode {
     //        CLAVES PÚBLICAS
     // ============================
 
-    private void guardarMiClavePublica() throws IOException {
-        Encriptador.guardarClavePublicaEnArchivo(nombre,
-                Encriptador.publicKeyToHex(miClavePublica));
+    private void guardarMiClavePublica() {
+        clavesPublicas.guardar(nombre, miClavePublica);
     }
 
     private KeyPair generarParDeClaves() throws Exception {
         return KeyPairGenerator.getInstance("RSA").generateKeyPair();
     }
 
+    // Pedida bloqueante, para quien necesita la clave ya; los envíos usan clienteClaves
     public boolean solicitarYGuardarClavePublica(String destino) {
         try {
-            String[] partes = destino.split("_");
-            String ipDest = partes[0];
-            int puertoDest = Integer.parseInt(partes[1]);
-
-            Socket socket = new Socket(ipDest, puertoDest);
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            out.println("GET_PUBKEY");
-            String pubHex = in.readLine();
-
-            if (pubHex == null) return false;
-
-            PublicKey pub = Encriptador.publicKeyFromHex(pubHex);
-            clavesPublicas.put(destino, pub);
-            Encriptador.guardarClavePublicaEnArchivo(destino, pubHex);
-            socket.close();
+            clienteClaves.solicitar(destino).get();
             return true;
-
-        } catch (Exception e) {
-            System.err.println("Error solicitando clave: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println("Error solicitando clave: " + e.getCause().getMessage());
             return false;
         }
     }
@@ -5,6 +5,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PCNodeB {
 
@@ -18,22 +19,31 @@ public class PCNodeB {
     private final List<String> vecinos = new ArrayList<>();
 
     private ServerSocket server;
+    private TransporteNio transporteNio;
     volatile boolean activo = true;
+    private final DespachadorConexiones despachador;
+    private final AtomicLong mensajesEntregados = new AtomicLong();
 
     private final PublicKey miClavePublica;
     private final PrivateKey miClavePrivada;
 
-    private static final ConcurrentMap<String, PublicKey> clavesPublicas = new ConcurrentHashMap<>();
+    // Compartido por todos los nodos del proceso, como el directorio keys/
+    private static final DirectorioClaves clavesPublicas = DirectorioClaves.global();
 
 
     // ============================
     //       CONSTRUCTOR
     // ============================
 
-    public PCNodeB (String ip, int puerto) throws Exception {
+    public PCNodeB(String ip, int puerto) throws Exception {
+        this(ip, puerto, DespachadorConexiones.desdePropiedades());
+    }
+
+    public PCNodeB(String ip, int puerto, DespachadorConexiones despachador) throws Exception {
         this.ip = ip;
         this.puerto = puerto;
         this.nombre = ip + "_" + puerto;
+        this.despachador = despachador;
 
         KeyPair kp = generarParDeClaves();
         miClavePublica  = kp.getPublic();
@@ -79,15 +89,8 @@ public class PCNodeB {
     }
 
     private void cargarClaveSiExiste(String nodo) {
-        try {
-            String pubHex = Encriptador.leerClavePublicaDesdeArchivoComoHex(nodo);
-            if (pubHex != null) {
-                PublicKey pub = Encriptador.publicKeyFromHex(pubHex);
-                clavesPublicas.put(nodo, pub);
-            } else {
-                System.out.println("[INFO] No había clave precargada para " + nodo);
-            }
-        } catch (Exception ignored) {}
+        if (clavesPublicas.obtener(nodo) == null)
+            System.out.println("[INFO] No había clave precargada para " + nodo);
     }
 
     /**
@@ -149,10 +152,16 @@ public class PCNodeB {
     // ============================
 
     public void iniciarServidor() {
+        if (TransporteNio.seleccionadoPorPropiedad()) {
+            iniciarServidorNio();
+            return;
+        }
+
         new Thread(() -> {
             try {
                 server = new ServerSocket(puerto);
-                System.out.println("PC " + nombre + " escuchando en puerto " + puerto);
+                System.out.println("PC " + nombre + " escuchando en puerto " + puerto
+                        + " (modo " + despachador.getModo() + ")");
 
                 while (activo)
                     aceptarConexion();
@@ -164,10 +173,53 @@ public class PCNodeB {
         }).start();
     }
 
+    private void iniciarServidorNio() {
+        try {
+            transporteNio = new TransporteNio(puerto, this::atenderLinea, despachador);
+            transporteNio.iniciar();
+        } catch (IOException e) {
+            System.err.println("Error en servidor NIO: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public void detener() {
+        activo = false;
+        if (transporteNio != null) transporteNio.detener();
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {}
+        despachador.cerrar();
+    }
+
+    public String getNombre() { return nombre; }
+    public long getMensajesEntregados() { return mensajesEntregados.get(); }
+
     private void aceptarConexion() {
-        try (Socket socket = server.accept()) {
+        try {
+            Socket socket = server.accept();
+
+            // Las conexiones son persistentes: cada una tiene su propio lector y el procesamiento
+            // de cada mensaje se reparte en el despachador. Con todos los lectores ocupados,
+            // esto espera y el servidor deja de aceptar.
+            despachador.atenderConexion(() -> atenderConexion(socket));
+
+        } catch (SocketException se) {
+            if (!activo) return;
+
+        } catch (Exception e) {
+            System.err.println("Error aceptando conexión: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void atenderConexion(Socket socket) {
+        try (socket) {
             manejarConexion(socket);
 
+        } catch (SocketTimeoutException ste) {
+            // Conexión ociosa: se cierra sin más
+
         } catch (SocketException se) {
             if (!activo) return;
 
@@ -181,19 +233,38 @@ public class PCNodeB {
         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
         PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
 
-        String linea = in.readLine();
-        if (linea == null) return;
+        // Las conexiones son persistentes: se leen mensajes hasta que el vecino cierre
+        // o pase el tiempo de inactividad.
+        socket.setSoTimeout(PoolConexiones.inactividadServidorMs());
 
-        if (linea.equals("GET_PUBKEY")) {
-            responderClavePublica(out);
-            return;
-        }
+        // Los mensajes de esta conexión se procesan en orden (ver DespachadorConexiones.Serie)
+        DespachadorConexiones.Serie serie = despachador.serie();
 
-        procesarMensajeEntrante(linea);
+        String linea;
+        while ((linea = in.readLine()) != null) {
+            // PCNodeB solo habla texto: rechaza la propuesta de formato binario de PCNode
+            // para que siga en texto sin esperar la negociación
+            if (Protocolo.esPropuesta(linea)) {
+                out.println(Protocolo.NO_BINARIO);
+                continue;
+            }
+            if (linea.equals("GET_PUBKEY")) {
+                out.println(atenderLinea(linea));
+                continue;
+            }
+
+            String texto = linea;
+            serie.execute(() -> atenderLinea(texto));
+        }
     }
 
-    private void responderClavePublica(PrintWriter out) {
-        out.println(Encriptador.publicKeyToHex(miClavePublica));
+    // Común a ambos transportes: devuelve la respuesta a escribir en la misma conexión, o null
+    private String atenderLinea(String linea) {
+        if (linea.equals("GET_PUBKEY"))
+            return Encriptador.publicKeyToHex(miClavePublica);
+
+        procesarMensajeEntrante(linea);
+        return null;
     }
 
 
@@ -226,10 +297,13 @@ public class PCNodeB {
             byte[] plain = descifrarContenidoAES(m, aesKey);
             boolean firmaCorrecta = verificarFirma(m);
 
-            System.out.println("Mensaje recibido en " + nombre);
-            System.out.println("Contenido: " + new String(plain, StandardCharsets.UTF_8));
-            System.out.println("Firma válida: " + firmaCorrecta);
-            System.out.println("Ruta: " + m.getCamino() + "\n");
+            mensajesEntregados.incrementAndGet();
+
+            // Un único println: varias conexiones pueden entregar mensajes a la vez
+            System.out.println("Mensaje recibido en " + nombre + "\n"
+                    + "Contenido: " + new String(plain, StandardCharsets.UTF_8) + "\n"
+                    + "Firma válida: " + firmaCorrecta + "\n"
+                    + "Ruta: " + m.getCamino() + "\n");
 
         } catch (Exception e) {
             System.err.println("[WARN] Error procesando como destino:");
@@ -265,19 +339,7 @@ public class PCNodeB {
     }
 
     private PublicKey obtenerClaveOrigen(String origen) {
-        PublicKey pub = clavesPublicas.get(origen);
-        if (pub != null) return pub;
-
-        try {
-            String hex = Encriptador.leerClavePublicaDesdeArchivoComoHex(origen);
-            if (hex != null) {
-                pub = Encriptador.publicKeyFromHex(hex);
-                clavesPublicas.put(origen, pub);
-                return pub;
-            }
-        } catch (Exception ignored) {}
-
-        return null;
+        return clavesPublicas.obtener(origen);
     }
 
 
@@ -304,11 +366,11 @@ public class PCNodeB {
     }
 
     private PublicKey obtenerClavePublica(String destino) {
-        if (clavesPublicas.containsKey(destino))
-            return clavesPublicas.get(destino);
+        PublicKey pub = clavesPublicas.obtener(destino);
+        if (pub != null) return pub;
 
         solicitarYGuardarClavePublica(destino);
-        return clavesPublicas.get(destino);
+        return clavesPublicas.obtener(destino);
     }
 
     private Mensaje construirMensaje(String destino, String contenido, PublicKey pubDestino) throws Exception {
@@ -343,6 +405,11 @@ public class PCNodeB {
     }
 
     private void enviarMensaje(Mensaje m, String vecino) {
+        if (transporteNio != null) {
+            transporteNio.enviarLinea(vecino, m.aTexto());
+            return;
+        }
+
         try {
             String[] datos = vecino.split("_");
             Socket socket = new Socket(datos[0], Integer.parseInt(datos[1]));
@@ -359,9 +426,8 @@ public class PCNodeB {
     //        CLAVES PÚBLICAS
     // ============================
 
-    private void guardarMiClavePublica() throws IOException {
-        Encriptador.guardarClavePublicaEnArchivo(nombre,
-                Encriptador.publicKeyToHex(miClavePublica));
+    private void guardarMiClavePublica() {
+        clavesPublicas.guardar(nombre, miClavePublica);
     }
 
     private KeyPair generarParDeClaves() throws Exception {
@@ -384,8 +450,7 @@ public class PCNodeB {
             if (pubHex == null) return false;
 
             PublicKey pub = Encriptador.publicKeyFromHex(pubHex);
-            clavesPublicas.put(destino, pub);
-            Encriptador.guardarClavePublicaEnArchivo(destino, pubHex);
+            clavesPublicas.guardar(destino, pub);
             socket.close();
             return true;
 
@@ -0,0 +1,174 @@
+import java.io.PrintStream;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Procesamiento de los mensajes que llegan a su destino, en etapas:
+ *
+ *   lectura -> (descifrar: clave + AES) || (verificar firma) -> entregar
+ *
+ * Descifrar y verificar no dependen una de la otra y corren en paralelo en el ejecutor de
+ * etapas. La entrega espera a las dos y respeta el orden de llegada por origen: un mensaje
+ * de un origen no se entrega antes que los anteriores del mismo origen.
+ *
+ * A lo sumo "capacidad" mensajes están dentro del pipeline; con el cupo lleno, el hilo que
+ * entrega uno nuevo espera, y así la presión llega hasta la conexión del vecino.
+ *
+ * Con 0 hilos las etapas corren una tras otra en el hilo que llama, como antes del pipeline.
+ * En los dos casos se registra la latencia de cada etapa (ver {@link #imprimirLatencias}).
+ *
+ * Propiedades del sistema:
+ *   nodo.pipeline.hilos     = hilos de las etapas; 0 = en el hilo que llama (por defecto 0)
+ *   nodo.pipeline.capacidad = mensajes dentro del pipeline como máximo (por defecto 256)
+ */
+public class PipelineDestino {
+
+    public interface Etapa<T> {
+        T ejecutar() throws Exception;
+    }
+
+    public interface Entrega<D, V> {
+        /** error es la excepción de alguna de las etapas anteriores, o null. */
+        void entregar(D descifrado, V verificado, Throwable error);
+    }
+
+    private final ExecutorService ejecutor;
+    private final Semaphore cupo;
+    private final ConcurrentMap<String, CompletableFuture<Void>> ultimaPorOrigen = new ConcurrentHashMap<>();
+
+    private final HistogramaLatencia espera = new HistogramaLatencia("espera");
+    private final HistogramaLatencia descifrado = new HistogramaLatencia("descifrar");
+    private final HistogramaLatencia verificacion = new HistogramaLatencia("verificar");
+    private final HistogramaLatencia entrega = new HistogramaLatencia("entregar");
+    private final HistogramaLatencia total = new HistogramaLatencia("total");
+
+    /** ejecutor null = etapas en el hilo que llama. */
+    public PipelineDestino(ExecutorService ejecutor, int capacidad) {
+        this.ejecutor = ejecutor;
+        this.cupo = new Semaphore(capacidad);
+    }
+
+    public static PipelineDestino desdePropiedades() {
+        int hilos = Integer.getInteger("nodo.pipeline.hilos", 0);
+        int capacidad = Integer.getInteger("nodo.pipeline.capacidad", 256);
+        return new PipelineDestino(hilos > 0 ? crearEjecutor(hilos, capacidad) : null, capacidad);
+    }
+
+    // Cada mensaje encola a lo sumo tres tareas (dos etapas y la entrega), y el cupo limita los
+    // mensajes: la cola nunca pasa de 3 * capacidad
+    public static ExecutorService crearEjecutor(int hilos, int capacidad) {
+        AtomicInteger contador = new AtomicInteger();
+        return new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(3 * capacidad),
+                r -> {
+                    Thread t = new Thread(r, "nodo-etapa-" + contador.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public <D, V> void procesar(String origen, Etapa<D> descifrar, Etapa<V> verificar, Entrega<D, V> entregar) {
+        long llegada = System.nanoTime();
+
+        if (ejecutor == null) {
+            procesarEnLinea(llegada, descifrar, verificar, entregar);
+            return;
+        }
+
+        cupo.acquireUninterruptibly();
+        CompletableFuture<D> d = CompletableFuture.supplyAsync(() -> medir(descifrar, descifrado, llegada), ejecutor);
+        CompletableFuture<V> v = CompletableFuture.supplyAsync(() -> medir(verificar, verificacion, llegada), ejecutor);
+        CompletableFuture<Void> etapas = CompletableFuture.allOf(d, v);
+
+        CompletableFuture<Void> esta = ultimaPorOrigen.compute(origen, (o, anterior) -> {
+            CompletableFuture<Void> listo = anterior == null ? etapas : CompletableFuture.allOf(anterior, etapas);
+            // handle: la entrega corre aunque alguna etapa haya fallado, y nunca termina con
+            // error, así no frena a los mensajes siguientes del mismo origen
+            return listo.handleAsync((x, e) -> {
+                long inicio = System.nanoTime();
+                try {
+                    Throwable error = causa(d, v);
+                    entregar.entregar(error == null ? d.join() : null, error == null ? v.join() : null, error);
+                } catch (RuntimeException ex) {
+                    System.err.println("[WARN] Error entregando mensaje de " + origen + ": " + ex.getMessage());
+                } finally {
+                    long fin = System.nanoTime();
+                    entrega.registrar(fin - inicio);
+                    total.registrar(fin - llegada);
+                    cupo.release();
+                }
+                return null;
+            }, ejecutor);
+        });
+
+        // El último de cada origen se saca del mapa al terminar, si no llegó otro después
+        esta.whenComplete((x, e) -> ultimaPorOrigen.remove(origen, esta));
+    }
+
+    private <D, V> void procesarEnLinea(long llegada, Etapa<D> descifrar, Etapa<V> verificar, Entrega<D, V> entregar) {
+        D resultadoDescifrado = null;
+        V resultadoVerificacion = null;
+        Throwable error = null;
+        try {
+            resultadoVerificacion = medir(verificar, verificacion, llegada);
+            resultadoDescifrado = medir(descifrar, descifrado, llegada);
+        } catch (CompletionException e) {
+            error = e.getCause();
+        }
+
+        long inicio = System.nanoTime();
+        try {
+            entregar.entregar(resultadoDescifrado, resultadoVerificacion, error);
+        } finally {
+            long fin = System.nanoTime();
+            entrega.registrar(fin - inicio);
+            total.registrar(fin - llegada);
+        }
+    }
+
+    // Corre una etapa y registra su duración y cuánto esperó en cola desde que llegó el mensaje
+    private <T> T medir(Etapa<T> etapa, HistogramaLatencia histograma, long llegada) {
+        long inicio = System.nanoTime();
+        espera.registrar(inicio - llegada);
+        try {
+            return etapa.ejecutar();
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            histograma.registrar(System.nanoTime() - inicio);
+        }
+    }
+
+    private static Throwable causa(CompletableFuture<?> a, CompletableFuture<?> b) {
+        for (CompletableFuture<?> f : new CompletableFuture<?>[]{a, b}) {
+            if (f.isCompletedExceptionally()) {
+                try {
+                    f.join();
+                } catch (CompletionException e) {
+                    return e.getCause() != null ? e.getCause() : e;
+                }
+            }
+        }
+        return null;
+    }
+
+    public void imprimirLatencias(PrintStream salida) {
+        salida.println(HistogramaLatencia.encabezado());
+        for (HistogramaLatencia h : new HistogramaLatencia[]{espera, descifrado, verificacion, entrega, total})
+            salida.println(h.resumen());
+    }
+
+    public void cerrar() {
+        if (ejecutor == null) return;
+
+        ejecutor.shutdown();
+        try {
+            if (!ejecutor.awaitTermination(5, TimeUnit.SECONDS))
+                ejecutor.shutdownNow();
+        } catch (InterruptedException e) {
+            ejecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+/**
+ * Conexiones persistentes hacia los vecinos: en vez de abrir un Socket por mensaje,
+ * cada vecino tiene una pila de conexiones libres que se reutilizan.
+ *
+ * - Al abrir una conexión se negocia el formato binario (ver {@link Protocolo}); los
+ *   vecinos que no lo aceptan se recuerdan y se les habla siempre en texto.
+ * - A los vecinos hacia los que se agrupan mensajes se les propone también aceptar tramas
+ *   de lote; si no, un lote se escribe como mensajes seguidos con un solo flush.
+ * - Keep-alive TCP activado en cada socket.
+ * - Si escribir en una conexión reutilizada falla, se descarta y se reintenta una vez
+ *   con una conexión nueva.
+ * - Una escritura que tarda más de escrituraMs (vecino que no lee) se corta cerrando la
+ *   conexión; no se reintenta.
+ * - Un hilo desaloja las conexiones que llevan más de inactividadMs sin usarse. El
+ *   servidor cierra las suyas a las 2 * inactividadMs, así que nunca se reutiliza una
+ *   conexión que el otro extremo ya cerró por inactividad.
+ *
+ * Propiedades del sistema:
+ *   nodo.pool.inactividadMs = tiempo máximo sin uso de una conexión libre (por defecto 30000)
+ *   nodo.pool.maxPorVecino  = conexiones libres que se guardan por vecino (por defecto 4)
+ *   nodo.pool.connectMs     = timeout de conexión (por defecto 3000)
+ *   nodo.pool.escrituraMs   = tiempo máximo de una escritura (por defecto 10000)
+ */
+public class PoolConexiones {
+
+    private static class Conexion {
+        final Socket socket;
+        final OutputStream out;
+        boolean binario;
+        boolean lotes;     // el vecino acepta tramas de lote
+        volatile long ultimoUso;
+        volatile long escribiendoDesde;
+        volatile boolean vencida;   // cerrada por escribir demasiado tiempo
+
+        Conexion(Socket socket, OutputStream out) {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(out);
+            this.ultimoUso = System.nanoTime();
+        }
+
+        void escribir(Mensaje m) throws IOException {
+            if (binario)
+                Protocolo.escribirTrama(out, m);
+            else
+                Protocolo.escribirLinea(out, m.aTexto());
+            ultimoUso = System.nanoTime();
+        }
+
+        void escribir(List<Mensaje> lote) throws IOException {
+            if (lote.size() == 1) {
+                escribir(lote.get(0));
+                return;
+            }
+            if (lotes) {
+                Protocolo.escribirTramaLote(out, lote);
+            } else {
+                // El BufferedOutputStream junta los mensajes y el flush los escribe de una vez
+                for (Mensaje m : lote) {
+                    if (binario) {
+                        ByteBuffer buf = ByteBuffer.allocate(4 + m.tamanoBinario());
+                        buf.putInt(buf.capacity() - 4);
+                        m.escribirBinario(buf);
+                        out.write(buf.array(), 0, buf.position());
+                    } else {
+                        out.write(m.aTexto().getBytes(StandardCharsets.UTF_8));
+                        out.write('\n');
+                    }
+                }
+                out.flush();
+            }
+            ultimoUso = System.nanoTime();
+        }
+
+        void cerrar() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private final ConcurrentMap<String, Deque<Conexion>> libres = new ConcurrentHashMap<>();
+    // Vecinos que no respondieron a la propuesta de formato binario
+    private final Set<String> soloTexto = ConcurrentHashMap.newKeySet();
+    private final long inactividadNanos;
+    private final int maxPorVecino;
+    private final int connectMs;
+    private final int escrituraMs;
+    private final ScheduledExecutorService desalojador;
+    // Conexiones con una escritura en curso, que el desalojador vigila
+    private final Set<Conexion> escribiendo = ConcurrentHashMap.newKeySet();
+    // Vecinos a los que se propone el formato binario con lotes
+    private volatile Predicate<String> proponerLotes = v -> false;
+    private volatile Metricas metricas = new Metricas("", false);
+    private volatile Metricas.Contador bytesSalida = metricas.contador("bytes.salida");
+
+    public PoolConexiones(long inactividadMs, int maxPorVecino, int connectMs, int escrituraMs) {
+        this.inactividadNanos = TimeUnit.MILLISECONDS.toNanos(inactividadMs);
+        this.maxPorVecino = maxPorVecino;
+        this.connectMs = connectMs;
+        this.escrituraMs = escrituraMs;
+
+        this.desalojador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-conexiones-desalojo");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodo = Math.max(1, inactividadMs / 2);
+        desalojador.scheduleAtFixedRate(this::desalojarInactivas, periodo, periodo, TimeUnit.MILLISECONDS);
+        long revision = Math.max(10, escrituraMs / 4);
+        desalojador.scheduleAtFixedRate(this::vencerEscrituras, revision, revision, TimeUnit.MILLISECONDS);
+    }
+
+    public static PoolConexiones desdePropiedades() {
+        return new PoolConexiones(
+                Long.getLong("nodo.pool.inactividadMs", 30_000),
+                Integer.getInteger("nodo.pool.maxPorVecino", 4),
+                Integer.getInteger("nodo.pool.connectMs", 3_000),
+                Integer.getInteger("nodo.pool.escrituraMs", 10_000));
+    }
+
+    /** Tiempo que el servidor debe esperar una nueva línea antes de cerrar una conexión ociosa. */
+    public static int inactividadServidorMs() {
+        return (int) (2 * Long.getLong("nodo.pool.inactividadMs", 30_000));
+    }
+
+    public void setProponerLotes(Predicate<String> proponerLotes) {
+        this.proponerLotes = proponerLotes;
+    }
+
+    /** Suma en bytes.salida lo que se escribe por las conexiones que se abran desde ahora. */
+    public void setMetricas(Metricas metricas) {
+        this.metricas = metricas;
+        this.bytesSalida = metricas.contador("bytes.salida");
+    }
+
+    public void enviar(String vecino, Mensaje m) throws IOException {
+        enviarLote(vecino, List.of(m));
+    }
+
+    /** Escribe los mensajes en orden por una misma conexión. */
+    public void enviarLote(String vecino, List<Mensaje> lote) throws IOException {
+        Conexion c = tomar(vecino);
+
+        if (c != null) {
+            try {
+                escribirVigilado(c, lote);
+                devolver(vecino, c);
+                return;
+            } catch (SocketTimeoutException e) {
+                // El vecino no lee: reintentar solo duplicaría la espera
+                throw e;
+            } catch (IOException e) {
+                // El vecino cerró o se reinició: se reconecta una vez
+                c.cerrar();
+            }
+        }
+
+        c = abrir(vecino);
+        try {
+            escribirVigilado(c, lote);
+        } catch (IOException e) {
+            c.cerrar();
+            throw e;
+        }
+        devolver(vecino, c);
+    }
+
+    private void escribirVigilado(Conexion c, List<Mensaje> lote) throws IOException {
+        c.escribiendoDesde = System.nanoTime();
+        escribiendo.add(c);
+        try {
+            c.escribir(lote);
+        } catch (IOException e) {
+            if (c.vencida) throw new SocketTimeoutException("Escritura de más de " + escrituraMs + " ms");
+            throw e;
+        } finally {
+            escribiendo.remove(c);
+        }
+    }
+
+    // Un socket bloqueante no tiene timeout de escritura: se lo cierra y la escritura falla
+    private void vencerEscrituras() {
+        long limite = TimeUnit.MILLISECONDS.toNanos(escrituraMs);
+        long ahora = System.nanoTime();
+        for (Conexion c : escribiendo) {
+            if (ahora - c.escribiendoDesde > limite) {
+                c.vencida = true;
+                c.cerrar();
+            }
+        }
+    }
+
+    private Conexion tomar(String vecino) {
+        Deque<Conexion> pila = libres.get(vecino);
+        if (pila == null) return null;
+
+        Conexion c;
+        while ((c = pila.pollFirst()) != null) {
+            if (!c.socket.isClosed()) return c;
+        }
+        return null;
+    }
+
+    private void devolver(String vecino, Conexion c) {
+        Deque<Conexion> pila = libres.computeIfAbsent(vecino, v -> new ConcurrentLinkedDeque<>());
+        // LIFO: las conexiones más usadas quedan al frente y las ociosas se desalojan del fondo
+        pila.offerFirst(c);
+        if (pila.size() > maxPorVecino) {
+            Conexion sobrante = pila.pollLast();
+            if (sobrante != null) sobrante.cerrar();
+        }
+    }
+
+    private Conexion abrir(String vecino) throws IOException {
+        EventosJfr.ConexionVecino ev = new EventosJfr.ConexionVecino();
+        ev.begin();
+        String[] datos = vecino.split("_");
+        Socket socket = new Socket();
+        try {
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(datos[0], Integer.parseInt(datos[1])), connectMs);
+            Conexion c = new Conexion(socket, metricas.contar(socket.getOutputStream(), bytesSalida));
+            if (Protocolo.binarioHabilitado() && !soloTexto.contains(vecino) && !negociarFormato(vecino, c)) {
+                // Sin respuesta a tiempo: una respuesta tardía cambiaría el formato del otro lado
+                // con este ya escribiendo texto, así que se descarta la conexión y se abre otra
+                // en texto, sin proponer nada
+                socket.close();
+                ev.emitir(vecino, "texto", null);
+                return abrir(vecino);
+            }
+            ev.emitir(vecino, c.lotes ? "lotes" : c.binario ? "binario" : "texto", null);
+            return c;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            ev.emitir(vecino, null, e);
+            throw e;
+        }
+    }
+
+    // Propone el formato binario; false si el vecino no contestó a tiempo (queda marcado como
+    // solo texto y la conexión no sirve)
+    private boolean negociarFormato(String vecino, Conexion c) throws IOException {
+        boolean conLotes = proponerLotes.test(vecino);
+        Protocolo.escribirLinea(c.out, conLotes ? Protocolo.HOLA_BINARIO_LOTES : Protocolo.HOLA_BINARIO);
+        c.socket.setSoTimeout(Protocolo.esperaNegociacionMs());
+        try {
+            String respuesta = new Protocolo.Lector(c.socket.getInputStream()).leerLinea();
+            c.lotes = conLotes && Protocolo.OK_BINARIO_LOTES.equals(respuesta);
+            c.binario = c.lotes || Protocolo.OK_BINARIO.equals(respuesta);
+        } catch (SocketTimeoutException e) {
+            soloTexto.add(vecino);
+            System.out.println("[INFO] " + vecino + " no respondió la propuesta de formato; se reconecta en texto.");
+            return false;
+        } finally {
+            c.socket.setSoTimeout(0);
+        }
+
+        if (!c.binario) {
+            soloTexto.add(vecino);
+            System.out.println("[INFO] " + vecino + " solo habla texto; se usa el formato texto.");
+        }
+        return true;
+    }
+
+    private void desalojarInactivas() {
+        long ahora = System.nanoTime();
+        for (Deque<Conexion> pila : libres.values()) {
+            Iterator<Conexion> it = pila.descendingIterator();
+            while (it.hasNext()) {
+                Conexion c = it.next();
+                if (ahora - c.ultimoUso > inactividadNanos && pila.remove(c))
+                    c.cerrar();
+            }
+        }
+    }
+
+    public void cerrar() {
+        desalojador.shutdownNow();
+        for (Deque<Conexion> pila : libres.values()) {
+            Conexion c;
+            while ((c = pila.pollFirst()) != null)
+                c.cerrar();
+        }
+    }
+}
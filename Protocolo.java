@@ -0,0 +1,329 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Detalles del protocolo de cable compartidos por los transportes.
+ *
+ * Toda conexión empieza en modo texto (una línea por mensaje, ver {@link Mensaje#aTexto()}).
+ * El que abre la conexión puede proponer el formato binario enviando la línea HOLA_BINARIO;
+ * si el otro extremo responde OK_BINARIO, a partir de ahí cada mensaje viaja como una trama
+ * [int longitud][bytes de {@link Mensaje#escribirBinario(ByteBuffer)}]. Un nodo que solo
+ * habla texto, o que no conoce esa versión, responde NO_BINARIO y la conexión sigue en texto.
+ * Si no llega ninguna respuesta en nodo.negociacionMs (un nodo anterior a la negociación), el
+ * que propuso cierra la conexión y abre otra en texto sin proponer: seguir en la misma dejaría
+ * que una respuesta tardía pase al otro extremo a binario mientras este escribe texto.
+ *
+ * Un nodo que agrupa mensajes hacia ese vecino ({@link AgrupadorSalida}) propone en cambio
+ * HOLA_BINARIO_LOTES; si la respuesta es OK_BINARIO_LOTES puede enviar además tramas de lote,
+ * que llevan varios mensajes:
+ *
+ *   u8      MARCA_LOTE (un mensaje empieza con VERSION_BINARIA, así se distinguen)
+ *   varint  cantidad de mensajes, seguido por cada uno: varint longitud + bytes del mensaje
+ *
+ * Una conexión que empieza con la línea INICIO_FLUJO lleva un solo mensaje en flujo
+ * ({@link FlujoCifrado}) y se cierra al terminarlo.
+ *
+ * Propiedades del sistema:
+ *   nodo.formato       = binario | texto  (por defecto binario: se negocia con cada vecino)
+ *   nodo.negociacionMs = espera máxima de la respuesta a HOLA_BINARIO (por defecto 500)
+ */
+public final class Protocolo {
+
+    // La versión va en la propuesta: un nodo con otra versión binaria no la reconoce y la
+    // conexión sigue en texto, que ambos entienden
+    public static final String HOLA_BINARIO = "PROTO BIN" + Mensaje.VERSION_BINARIA;
+    public static final String OK_BINARIO = "PROTO_OK BIN" + Mensaje.VERSION_BINARIA;
+    public static final String HOLA_BINARIO_LOTES = HOLA_BINARIO + " LOTES";
+    public static final String OK_BINARIO_LOTES = OK_BINARIO + " LOTES";
+    public static final String NO_BINARIO = "PROTO_NO";
+
+    public static final byte MARCA_LOTE = 0x4C;
+
+    public static final String INICIO_FLUJO = "FLUJO 1";
+    public static final String FLUJO_OK = "FLUJO_OK";
+    public static final String FLUJO_ERROR = "FLUJO_ERROR";
+
+    public static final int TRAMA_MAXIMA = 64 * 1024 * 1024;
+
+    private Protocolo() {}
+
+    public static boolean binarioHabilitado() {
+        return !"texto".equalsIgnoreCase(System.getProperty("nodo.formato", "binario").trim());
+    }
+
+    public static int esperaNegociacionMs() {
+        return Integer.getInteger("nodo.negociacionMs", 500);
+    }
+
+    /** Si la línea es una propuesta de formato, de esta versión o de otra. */
+    public static boolean esPropuesta(String linea) {
+        return linea.startsWith("PROTO ");
+    }
+
+    // ============================
+    //        TEXTO / TRAMAS
+    // ============================
+
+    public static void escribirLinea(OutputStream out, String linea) throws IOException {
+        out.write(linea.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * Lector de una conexión bloqueante que entiende ambos modos: líneas de texto y tramas
+     * binarias. Usa su propio buffer, así cambiar de modo a mitad de conexión no pierde bytes.
+     */
+    public static final class Lector {
+        private final InputStream in;
+        private byte[] buf = new byte[16 * 1024];
+        private int pos;
+        private int lim;
+
+        public Lector(InputStream in) {
+            this.in = in;
+        }
+
+        /** Lee una línea UTF-8 terminada en '\n' (sin el '\r' final). Devuelve null al final del flujo. */
+        public String leerLinea() throws IOException {
+            int revisados = 0;   // relativo a pos: llenar() puede mover los datos al inicio
+            while (true) {
+                for (int i = pos + revisados; i < lim; i++) {
+                    if (buf[i] != '\n') continue;
+
+                    int fin = (i > pos && buf[i - 1] == '\r') ? i - 1 : i;
+                    String linea = new String(buf, pos, fin - pos, StandardCharsets.UTF_8);
+                    pos = i + 1;
+                    return linea;
+                }
+                revisados = lim - pos;
+
+                if (!llenar(revisados + 1)) {
+                    if (pos == lim) return null;
+                    String linea = new String(buf, pos, lim - pos, StandardCharsets.UTF_8);
+                    pos = lim;
+                    return linea;
+                }
+            }
+        }
+
+        /**
+         * Lee una trama binaria completa. Devuelve null si el flujo termina entre tramas.
+         * El buffer devuelto apunta al buffer interno: solo es válido hasta la próxima lectura.
+         */
+        public ByteBuffer leerTrama() throws IOException {
+            if (!llenar(4)) {
+                if (pos == lim) return null;
+                throw new EOFException("Trama incompleta");
+            }
+            int longitud = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16)
+                    | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+            if (longitud < 0 || longitud > TRAMA_MAXIMA)
+                throw new IOException("Longitud de trama inválida: " + longitud);
+
+            if (!llenar(4 + longitud)) throw new EOFException("Trama incompleta");
+            ByteBuffer trama = ByteBuffer.wrap(buf, pos + 4, longitud).slice();
+            pos += 4 + longitud;
+            return trama;
+        }
+
+        /** El resto de la conexión como InputStream: primero lo que quedó en el buffer. */
+        public InputStream comoFlujo() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] uno = new byte[1];
+                    return read(uno, 0, 1) < 0 ? -1 : uno[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) return 0;
+                    if (pos < lim) {
+                        int n = Math.min(len, lim - pos);
+                        System.arraycopy(buf, pos, b, off, n);
+                        pos += n;
+                        return n;
+                    }
+                    return in.read(b, off, len);
+                }
+            };
+        }
+
+        // Asegura al menos 'necesarios' bytes sin consumir; false si el flujo termina antes
+        private boolean llenar(int necesarios) throws IOException {
+            if (lim - pos >= necesarios) return true;
+
+            if (necesarios > TRAMA_MAXIMA + 4) throw new IOException("Línea o trama demasiado larga");
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, lim - pos);
+                lim -= pos;
+                pos = 0;
+            }
+            if (buf.length < necesarios)
+                buf = Arrays.copyOf(buf, Math.max(necesarios, buf.length * 2));
+
+            while (lim < necesarios) {
+                int n = in.read(buf, lim, buf.length - lim);
+                if (n < 0) return false;
+                lim += n;
+            }
+            return true;
+        }
+    }
+
+    public static void escribirTrama(OutputStream out, Mensaje m) throws IOException {
+        int tamano = m.tamanoBinario();
+        ByteBuffer buf = ByteBuffer.allocate(4 + tamano);
+        buf.putInt(tamano);
+        m.escribirBinario(buf);
+        out.write(buf.array(), 0, buf.position());
+        out.flush();
+    }
+
+    // ============================
+    //           LOTES
+    // ============================
+
+    /** Tamaño de la trama de lote (sin el int de longitud); guarda en tamanos el de cada mensaje. */
+    public static int tamanoLote(List<Mensaje> lote, int[] tamanos) {
+        int n = 1 + tamanoVarint(lote.size());
+        for (int i = 0; i < lote.size(); i++) {
+            tamanos[i] = lote.get(i).tamanoBinario();
+            n += tamanoVarint(tamanos[i]) + tamanos[i];
+        }
+        return n;
+    }
+
+    public static void escribirLote(ByteBuffer buf, List<Mensaje> lote, int[] tamanos) {
+        buf.put(MARCA_LOTE);
+        escribirVarint(buf, lote.size());
+        for (int i = 0; i < lote.size(); i++) {
+            escribirVarint(buf, tamanos[i]);
+            lote.get(i).escribirBinario(buf);
+        }
+    }
+
+    public static void escribirTramaLote(OutputStream out, List<Mensaje> lote) throws IOException {
+        int[] tamanos = new int[lote.size()];
+        int tamano = tamanoLote(lote, tamanos);
+        ByteBuffer buf = ByteBuffer.allocate(4 + tamano);
+        buf.putInt(tamano);
+        escribirLote(buf, lote, tamanos);
+        out.write(buf.array(), 0, buf.position());
+        out.flush();
+    }
+
+    public static boolean esLote(ByteBuffer trama) {
+        return trama.remaining() > 0 && trama.get(trama.position()) == MARCA_LOTE;
+    }
+
+    /** Cabeceras de los mensajes de una trama de lote (ver {@link Mensaje#cabeceraDesdeBinario}). */
+    public static List<Mensaje> leerLote(ByteBuffer trama) {
+        return leerLote(trama, null);
+    }
+
+    /**
+     * Como leerLote, pero cada mensaje se mira antes con una {@link VistaMensaje} y lo arma
+     * 'armar', que devuelve null para descartarlo (con null, se arman todos). Las vistas de
+     * todo el lote se crean antes de llamar a 'armar' con la primera: un lote dañado se
+     * rechaza entero sin que 'armar' haya visto (y registrado como visto) ninguno.
+     */
+    public static List<Mensaje> leerLote(ByteBuffer trama, Function<VistaMensaje, Mensaje> armar) {
+        trama.get();
+        int cantidad = leerVarint(trama);
+        // Cada mensaje ocupa al menos un byte: una cantidad mayor es una trama dañada
+        if (cantidad > trama.remaining())
+            throw new IllegalArgumentException("Lote con más mensajes que bytes");
+
+        List<Mensaje> mensajes = new ArrayList<>(cantidad);
+        List<VistaMensaje> vistas = armar != null ? new ArrayList<>(cantidad) : null;
+        for (int i = 0; i < cantidad; i++) {
+            int longitud = leerVarint(trama);
+            if (longitud > trama.remaining())
+                throw new IllegalArgumentException("Mensaje más largo que el lote");
+            ByteBuffer mensaje = trama.slice(trama.position(), longitud);
+            if (armar == null)
+                mensajes.add(Mensaje.cabeceraDesdeBinario(mensaje));
+            else
+                vistas.add(new VistaMensaje(mensaje));
+            trama.position(trama.position() + longitud);
+        }
+        if (armar == null) return mensajes;
+
+        for (VistaMensaje v : vistas) {
+            Mensaje m = armar.apply(v);
+            if (m != null) mensajes.add(m);
+        }
+        return mensajes;
+    }
+
+    // ============================
+    //     CAMPOS DEL FORMATO BINARIO
+    // ============================
+
+    public static int tamanoVarint(int valor) {
+        int n = 1;
+        while ((valor & ~0x7F) != 0) {
+            valor >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    public static void escribirVarint(ByteBuffer buf, int valor) {
+        while ((valor & ~0x7F) != 0) {
+            buf.put((byte) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        buf.put((byte) valor);
+    }
+
+    public static int leerVarint(ByteBuffer buf) {
+        int valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 32; desplazamiento += 7) {
+            byte b = buf.get();
+            valor |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                if (valor < 0) throw new IllegalArgumentException("Varint negativo");
+                return valor;
+            }
+        }
+        throw new IllegalArgumentException("Varint demasiado largo");
+    }
+
+    public static int tamanoBytes(byte[] datos) {
+        return tamanoVarint(datos.length) + datos.length;
+    }
+
+    public static void escribirBytes(ByteBuffer buf, byte[] datos) {
+        escribirVarint(buf, datos.length);
+        buf.put(datos);
+    }
+
+    public static byte[] leerBytes(ByteBuffer buf) {
+        int longitud = leerVarint(buf);
+        if (longitud > buf.remaining())
+            throw new IllegalArgumentException("Campo más largo que la trama");
+        byte[] datos = new byte[longitud];
+        buf.get(datos);
+        return datos;
+    }
+
+    public static int tamanoCadena(String s) {
+        return tamanoBytes(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void escribirCadena(ByteBuffer buf, String s) {
+        escribirBytes(buf, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String leerCadena(ByteBuffer buf) {
+        return new String(leerBytes(buf), StandardCharsets.UTF_8);
+    }
+}
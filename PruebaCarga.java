@@ -0,0 +1,114 @@
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.concurrent.*;
+
+/**
+ * Prueba de carga del servidor de un nodo: mide mensajes entrantes por segundo
+ * procesados como destino en cada {@link ModoEjecucion} y con distinto número de hilos.
+ *
+ * Uso: java PruebaCarga [mensajes] [clientes] [puertoBase]
+ */
+public class PruebaCarga {
+
+    private static final String ORIGEN = "127.0.0.1_5999";
+
+    public static void main(String[] args) throws Exception {
+        int mensajes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int clientes = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int puerto = args.length > 2 ? Integer.parseInt(args[2]) : 6000;
+        int nucleos = Runtime.getRuntime().availableProcessors();
+
+        KeyPair origen = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        DirectorioClaves.global().guardar(ORIGEN, origen.getPublic());
+
+        PrintStream consola = System.out;
+        consola.printf("Núcleos: %d, mensajes por corrida: %d, clientes: %d%n%n", nucleos, mensajes, clientes);
+        consola.printf("%-14s %6s %12s%n", "modo", "hilos", "msg/s");
+
+        for (ModoEjecucion modo : ModoEjecucion.values()) {
+            for (int hilos = 1; hilos <= nucleos; hilos *= 2) {
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                double tasa;
+                try {
+                    tasa = correr(modo, hilos, puerto++, origen.getPrivate(), mensajes, clientes);
+                } finally {
+                    System.setOut(consola);
+                }
+                consola.printf("%-14s %6d %12.1f%n", modo, hilos, tasa);
+
+                if (modo == ModoEjecucion.SECUENCIAL || modo == ModoEjecucion.HILO_VIRTUAL) break;
+            }
+        }
+    }
+
+    private static double correr(ModoEjecucion modo, int hilos, int puerto, PrivateKey firmante,
+                                 int mensajes, int clientes) throws Exception {
+        PCNode nodo = new PCNode("127.0.0.1", puerto, new DespachadorConexiones(modo, hilos, 64 * hilos));
+        nodo.iniciarServidor();
+        esperarServidor(puerto);
+
+        PublicKey destino = DirectorioClaves.global().obtener(nodo.getNombre());
+        Mensaje plantilla = construirMensaje(nodo.getNombre(), destino, firmante);
+
+        ExecutorService pool = Executors.newFixedThreadPool(clientes);
+        long inicio = System.nanoTime();
+        for (int c = 0; c < clientes; c++) {
+            int cuota = mensajes / clientes + (c < mensajes % clientes ? 1 : 0);
+            pool.execute(() -> enviar(puerto, plantilla, cuota));
+        }
+
+        while (nodo.getMensajesEntregados() < mensajes)
+            Thread.sleep(1);
+        long nanos = System.nanoTime() - inicio;
+
+        pool.shutdown();
+        nodo.detener();
+        return mensajes / (nanos / 1e9);
+    }
+
+    private static Mensaje construirMensaje(String destino, PublicKey pubDestino, PrivateKey firmante) throws Exception {
+        SecretKey aes = Encriptador.generarClaveAES();
+        Encriptador.AesResultado ar = Encriptador.cifrarConAES(
+                "mensaje de prueba de carga".getBytes(StandardCharsets.UTF_8), aes);
+
+        return new Mensaje(
+                ORIGEN,
+                destino,
+                Encriptador.bytesToHex(Encriptador.cifrarClaveAESConRSA(ar.clave, pubDestino)),
+                Encriptador.bytesToHex(ar.iv),
+                Encriptador.bytesToHex(ar.cipher),
+                FirmaDigital.firmar(ar.cipher, firmante),
+                ORIGEN
+        );
+    }
+
+    // Cada envío es un mensaje nuevo (otro id), si no el nodo descarta las copias como duplicadas
+    private static void enviar(int puerto, Mensaje plantilla, int cantidad) {
+        for (int i = 0; i < cantidad; i++) {
+            String linea = new Mensaje(plantilla.getOrigen(), plantilla.getDestino(), plantilla.getEncAesKeyHex(),
+                    plantilla.getIvHex(), plantilla.getCiphertextHex(), plantilla.getSignatureHex(), ORIGEN).aTexto();
+            try (Socket socket = new Socket("127.0.0.1", puerto)) {
+                PrintWriter out = new PrintWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                out.println(linea);
+            } catch (IOException e) {
+                System.err.println("Error enviando en prueba de carga: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void esperarServidor(int puerto) throws InterruptedException {
+        for (int intento = 0; intento < 100; intento++) {
+            try {
+                new Socket("127.0.0.1", puerto).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("El servidor no arrancó en el puerto " + puerto);
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Efecto de las colas de salida ({@link ColasSalida}) cuando un vecino deja de leer.
+ *
+ * Un nodo tiene dos vecinos: uno sano, que lee y cuenta lo que recibe, y uno trabado, que
+ * acepta la conexión y nunca lee. Un cliente le envía al nodo, por una sola conexión, mensajes
+ * alternados para uno y otro. Sin colas el hilo que recibe escribe en el acto: cuando se llena
+ * el socket del vecino trabado se detiene hasta que vence nodo.pool.escrituraMs, y con él los
+ * mensajes para el sano. Con colas solo esperan los del trabado.
+ *
+ * Para cada modo se mide el tiempo hasta que el vecino sano recibe todos sus mensajes, su
+ * latencia y cuántos mensajes hacia el trabado se descartaron.
+ *
+ * Uso: java PruebaColas [mensajes] [bytesPorMensaje] [escrituraMs] [puertoBase]
+ *      (con -Dnodo.transporte=nio prueba el transporte NIO)
+ */
+public class PruebaColas {
+
+    private static final String ORIGEN = "127.0.0.1_5995";
+
+    private static final String[][] MODOS = {
+            {"sin colas", "0", "descartarNuevo"},
+            {"descartarNuevo", "1000", "descartarNuevo"},
+            {"descartarViejo", "1000", "descartarViejo"},
+            {"bloquear", "1000", "bloquear"},
+    };
+
+    // id del mensaje -> momento en que el cliente lo envió
+    private static final ConcurrentMap<Long, Long> enviados = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        int mensajes = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int bytes = args.length > 1 ? Integer.parseInt(args[1]) : 8_192;
+        int escrituraMs = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        int puerto = args.length > 3 ? Integer.parseInt(args[3]) : 6700;
+
+        PrintStream consola = System.out;
+        PrintStream errores = System.err;
+        consola.printf("%d mensajes de %d bytes, mitad a cada vecino; nodo.pool.escrituraMs=%d%n%n",
+                mensajes, bytes, escrituraMs);
+        consola.printf("%-16s %10s %12s %12s %12s %12s%n", "modo", "total ms", "sano msg/s",
+                "p50 us", "p99 us", "descartados");
+
+        System.setProperty("nodo.pool.escrituraMs", String.valueOf(escrituraMs));
+        for (String[] modo : MODOS) {
+            System.setProperty("nodo.salida.capacidad", modo[1]);
+            System.setProperty("nodo.salida.desborde", modo[2]);
+
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+            Vecino sano = new Vecino(puerto + 1, true);
+            Vecino trabado = new Vecino(puerto + 2, false);
+            PCNode nodo = new PCNode("127.0.0.1", puerto);
+            nodo.agregarVecino(sano.nombre);
+            nodo.agregarVecino(trabado.nombre);
+            try {
+                nodo.iniciarServidor();
+                esperarServidor(puerto);
+
+                HistogramaLatencia h = new HistogramaLatencia(modo[0]);
+                sano.latencias = h;
+                long inicio = System.nanoTime();
+                try (Socket s = conectar(puerto)) {
+                    OutputStream out = new BufferedOutputStream(s.getOutputStream());
+                    for (int i = 0; i < mensajes; i++) {
+                        boolean alSano = i % 2 == 0;
+                        Mensaje m = mensaje(alSano ? sano.nombre : trabado.nombre, bytes);
+                        if (alSano) enviados.put(m.getId(), System.nanoTime());
+                        Protocolo.escribirTrama(out, m);
+                        out.flush();
+                    }
+                    sano.esperar((mensajes + 1) / 2);
+                }
+                double ms = (System.nanoTime() - inicio) / 1e6;
+
+                // Con NIO las colas son las de cada canal y no se cuentan aquí
+                ColasSalida colas = TransporteNio.seleccionadoPorPropiedad() ? null : nodo.getColasSalida();
+                long descartados = colas == null ? -1 : colas.getDescartadosLlena() + colas.getDescartadosError();
+                consola.printf("%-16s %10.0f %12.0f %12.1f %12.1f %12s%n", modo[0], ms,
+                        (mensajes + 1) / 2 / (ms / 1e3), h.percentil(50) / 1e3, h.percentil(99) / 1e3,
+                        descartados < 0 ? "-" : String.valueOf(descartados));
+            } finally {
+                nodo.detener();
+                sano.cerrar();
+                trabado.cerrar();
+                enviados.clear();
+                System.setOut(consola);
+                System.setErr(errores);
+            }
+            puerto += 3;
+        }
+        System.exit(0);
+    }
+
+    private static Mensaje mensaje(String destino, int bytes) {
+        return new Mensaje(ORIGEN, destino, new byte[0], new byte[16], new byte[bytes], new byte[0], ORIGEN);
+    }
+
+    private static Socket conectar(int puerto) throws IOException {
+        Socket socket = new Socket("127.0.0.1", puerto);
+        socket.setTcpNoDelay(true);
+        Protocolo.escribirLinea(socket.getOutputStream(), Protocolo.HOLA_BINARIO);
+        String respuesta = new Protocolo.Lector(socket.getInputStream()).leerLinea();
+        if (!Protocolo.OK_BINARIO.equals(respuesta))
+            throw new IOException("El nodo no aceptó el formato binario: " + respuesta);
+        return socket;
+    }
+
+    // ============================
+    //          VECINOS
+    // ============================
+
+    // Acepta el formato binario; si 'lee' es false no lee nada después de la negociación
+    private static final class Vecino {
+        final String nombre;
+        final boolean lee;
+        final ServerSocket server;
+        final AtomicLong mensajes = new AtomicLong();
+        final List<Socket> abiertos = new CopyOnWriteArrayList<>();
+        volatile HistogramaLatencia latencias;
+
+        Vecino(int puerto, boolean lee) throws IOException {
+            this.nombre = "127.0.0.1_" + puerto;
+            this.lee = lee;
+            this.server = new ServerSocket(puerto);
+            Thread t = new Thread(this::aceptar, "vecino-" + puerto);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void aceptar() {
+            try {
+                while (true) {
+                    Socket s = server.accept();
+                    abiertos.add(s);
+                    Thread t = new Thread(() -> atender(s), "vecino-conexion");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (IOException e) {
+                // cerrado
+            }
+        }
+
+        private void atender(Socket s) {
+            try {
+                Protocolo.Lector in = new Protocolo.Lector(s.getInputStream());
+                String linea = in.leerLinea();
+                if (Protocolo.HOLA_BINARIO_LOTES.equals(linea))
+                    Protocolo.escribirLinea(s.getOutputStream(), Protocolo.OK_BINARIO_LOTES);
+                else if (Protocolo.HOLA_BINARIO.equals(linea))
+                    Protocolo.escribirLinea(s.getOutputStream(), Protocolo.OK_BINARIO);
+                else
+                    return;
+                if (!lee) return;   // la conexión queda abierta y sin leer
+
+                ByteBuffer trama;
+                while ((trama = in.leerTrama()) != null) {
+                    if (Protocolo.esLote(trama)) {
+                        for (Mensaje m : Protocolo.leerLote(trama)) recibido(m);
+                    } else {
+                        recibido(Mensaje.cabeceraDesdeBinario(trama));
+                    }
+                }
+            } catch (IOException e) {
+                // conexión cerrada
+            }
+        }
+
+        private void recibido(Mensaje m) {
+            Long enviado = enviados.remove(m.getId());
+            HistogramaLatencia h = latencias;
+            if (enviado != null && h != null) h.registrar(System.nanoTime() - enviado);
+            mensajes.incrementAndGet();
+        }
+
+        void esperar(long cantidad) throws InterruptedException {
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+            while (mensajes.get() < cantidad) {
+                if (System.nanoTime() > limite)
+                    throw new IllegalStateException("Llegaron " + mensajes.get() + " de " + cantidad + " mensajes");
+                Thread.sleep(1);
+            }
+        }
+
+        void cerrar() throws IOException {
+            server.close();
+            for (Socket s : abiertos) s.close();
+        }
+    }
+
+    private static void esperarServidor(int puerto) throws InterruptedException {
+        for (int intento = 0; intento < 100; intento++) {
+            try {
+                new Socket("127.0.0.1", puerto).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("El servidor no arrancó en el puerto " + puerto);
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Envía un contenido grande como mensaje en flujo ({@link FlujoCifrado}) entre dos nodos del
+ * mismo proceso y comprueba que el archivo recibido es idéntico (SHA-256). El contenido se
+ * genera mientras se envía, así que nunca está entero en memoria; corriendo con un heap chico
+ * (por ejemplo -Xmx64m) se ve que la memoria no depende del tamaño.
+ *
+ * Uso: java -Xmx64m PruebaFlujo [megabytes] [puertoBase]
+ *      (con -Dnodo.transporte=nio prueba el transporte NIO)
+ */
+public class PruebaFlujo {
+
+    public static void main(String[] args) throws Exception {
+        int megas = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int puerto = args.length > 1 ? Integer.parseInt(args[1]) : 6500;
+
+        PCNode origen = new PCNode("127.0.0.1", puerto);
+        PCNode destino = new PCNode("127.0.0.1", puerto + 1);
+        origen.iniciarServidor();
+        destino.iniciarServidor();
+        Thread.sleep(300);
+
+        MessageDigest enviado = MessageDigest.getInstance("SHA-256");
+        InputStream contenido = new Generado((long) megas * 1024 * 1024, enviado);
+
+        long inicio = System.nanoTime();
+        boolean ok = origen.enviarFlujo(destino.getNombre(), contenido);
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        Path recibido;
+        try (Stream<Path> archivos = Files.list(Paths.get(System.getProperty("nodo.flujos.directorio", "recibidos")))) {
+            recibido = archivos.filter(p -> p.getFileName().toString().startsWith(origen.getNombre()))
+                    .max((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()))
+                    .orElseThrow();
+        }
+        MessageDigest leido = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new DigestInputStream(Files.newInputStream(recibido), leido)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        boolean iguales = Arrays.equals(enviado.digest(), leido.digest());
+        long tamano = Files.size(recibido);
+        Files.delete(recibido);
+
+        System.out.printf("%n%d MB en %.2f s (%.1f MB/s), confirmado=%s, contenido idéntico=%s%n",
+                megas, segundos, megas / segundos, ok, iguales);
+        System.out.printf("Archivo recibido: %d bytes; heap máximo usado: %.1f MB de %.1f MB%n",
+                tamano, picoHeap() / 1e6, Runtime.getRuntime().maxMemory() / 1e6);
+
+        origen.detener();
+        destino.detener();
+        System.exit(ok && iguales ? 0 : 1);
+    }
+
+    private static long picoHeap() {
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP) total += pool.getPeakUsage().getUsed();
+        return total;
+    }
+
+    // Bytes pseudoaleatorios generados a pedido, que van sumándose al digest
+    private static final class Generado extends InputStream {
+        private final Random rnd = new Random(42);
+        private final MessageDigest digest;
+        private long restantes;
+
+        Generado(long tamano, MessageDigest digest) {
+            this.restantes = tamano;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() {
+            byte[] uno = new byte[1];
+            return read(uno, 0, 1) < 0 ? -1 : uno[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (restantes == 0) return -1;
+            int n = (int) Math.min(len, restantes);
+            byte[] trozo = new byte[n];
+            rnd.nextBytes(trozo);
+            System.arraycopy(trozo, 0, b, off, n);
+            digest.update(trozo);
+            restantes -= n;
+            return n;
+        }
+    }
+}
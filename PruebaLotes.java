@@ -0,0 +1,234 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Efecto de agrupar mensajes ({@link AgrupadorSalida}) en un nodo que reenvía muchos mensajes
+ * chicos a un mismo vecino.
+ *
+ * Un cliente le envía al nodo mensajes de pocos bytes para un destino que no es él, por una
+ * conexión persistente; el nodo los reenvía a su único vecino, un sumidero que habla el
+ * protocolo y cuenta tramas y mensajes. Nada se descifra: se mide solo el reenvío.
+ *
+ * Para cada política se mide:
+ *   - a plena carga: mensajes por segundo y mensajes por trama que llegan al sumidero
+ *   - a ritmo bajo (un mensaje cada 'intervaloUs'): latencia del cliente al sumidero, con
+ *     mensajes normales y con mensajes urgentes, que no esperan en el lote
+ *
+ * Uso: java PruebaLotes [mensajes] [intervaloUs] [puertoBase]
+ *      (con -Dnodo.transporte=nio prueba el transporte NIO; usa nodo.salida.desborde=bloquear
+ *      salvo que se indique otra política)
+ */
+public class PruebaLotes {
+
+    private static final String ORIGEN = "127.0.0.1_5996";
+
+    private static final int[][] POLITICAS = {{1, 0}, {16, 200}, {64, 1000}, {256, 2000}};
+
+    // id del mensaje -> momento en que el cliente lo envió
+    private static final ConcurrentMap<Long, Long> enviados = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        int mensajes = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int intervaloUs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int puerto = args.length > 2 ? Integer.parseInt(args[2]) : 6600;
+        // A plena carga el cliente envía más rápido de lo que el nodo escribe: con la cola de
+        // salida llena se frena la recepción en vez de descartar (ver ColasSalida)
+        if (System.getProperty("nodo.salida.desborde") == null)
+            System.setProperty("nodo.salida.desborde", "bloquear");
+
+        PrintStream consola = System.out;
+        consola.printf("Mensajes a plena carga: %d; a ritmo bajo: %d, uno cada %d us%n%n",
+                mensajes, mensajes / 20, intervaloUs);
+        consola.printf("%-18s %10s %10s %12s %12s %12s %12s%n", "política", "msg/s", "msg/trama",
+                "p50 us", "p99 us", "p50 urg us", "p99 urg us");
+
+        for (int[] politica : POLITICAS) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            Sumidero sumidero = new Sumidero(puerto + 1);
+            PCNode nodo = new PCNode("127.0.0.1", puerto);
+            nodo.agregarVecino(sumidero.nombre);
+            nodo.configurarLote(sumidero.nombre, politica[0], politica[1]);
+            try {
+                nodo.iniciarServidor();
+                esperarServidor(puerto);
+
+                try (Cliente cliente = new Cliente(puerto)) {
+                    double tasa = cliente.aPlenaCarga(sumidero, mensajes);
+                    double porTrama = (double) sumidero.mensajes.get() / sumidero.tramas.get();
+
+                    HistogramaLatencia normal = cliente.aRitmo(sumidero, mensajes / 20, intervaloUs, false);
+                    HistogramaLatencia urgente = cliente.aRitmo(sumidero, mensajes / 20, intervaloUs, true);
+
+                    String nombre = politica[0] == 1 ? "sin agrupar" : politica[0] + " / " + politica[1] + " us";
+                    consola.printf("%-18s %10.0f %10.1f %12.1f %12.1f %12.1f %12.1f%n", nombre, tasa, porTrama,
+                            normal.percentil(50) / 1e3, normal.percentil(99) / 1e3,
+                            urgente.percentil(50) / 1e3, urgente.percentil(99) / 1e3);
+                }
+            } finally {
+                System.setOut(consola);
+                nodo.detener();
+                sumidero.cerrar();
+            }
+            puerto += 2;
+        }
+        System.exit(0);
+    }
+
+    private static Mensaje mensaje(String destino, boolean urgente) {
+        Mensaje m = new Mensaje(ORIGEN, destino, new byte[0], new byte[16], new byte[48], new byte[0], ORIGEN);
+        m.setUrgente(urgente);
+        return m;
+    }
+
+    // ============================
+    //          CLIENTE
+    // ============================
+
+    // Conexión binaria persistente hacia el nodo
+    private static final class Cliente implements Closeable {
+        private final Socket socket;
+        private final OutputStream out;
+
+        Cliente(int puerto) throws IOException {
+            socket = new Socket("127.0.0.1", puerto);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            Protocolo.escribirLinea(out, Protocolo.HOLA_BINARIO);
+            String respuesta = new Protocolo.Lector(socket.getInputStream()).leerLinea();
+            if (!Protocolo.OK_BINARIO.equals(respuesta))
+                throw new IOException("El nodo no aceptó el formato binario: " + respuesta);
+        }
+
+        double aPlenaCarga(Sumidero sumidero, int cantidad) throws Exception {
+            Mensaje[] lista = new Mensaje[cantidad];
+            for (int i = 0; i < cantidad; i++) lista[i] = mensaje(sumidero.nombre, false);
+
+            long inicio = System.nanoTime();
+            for (Mensaje m : lista) Protocolo.escribirTrama(out, m);
+            sumidero.esperar(cantidad);
+            return cantidad / ((System.nanoTime() - inicio) / 1e9);
+        }
+
+        HistogramaLatencia aRitmo(Sumidero sumidero, int cantidad, int intervaloUs, boolean urgentes) throws Exception {
+            HistogramaLatencia h = new HistogramaLatencia(urgentes ? "urgente" : "normal");
+            sumidero.latencias = h;
+            long antes = sumidero.mensajes.get();
+
+            long proximo = System.nanoTime();
+            for (int i = 0; i < cantidad; i++) {
+                Mensaje m = mensaje(sumidero.nombre, urgentes);
+                // Sin espera activa: con pocos núcleos le quitaría la CPU al nodo
+                long falta;
+                while ((falta = proximo - System.nanoTime()) > 0) LockSupport.parkNanos(falta);
+                enviados.put(m.getId(), System.nanoTime());
+                Protocolo.escribirTrama(out, m);
+                proximo += intervaloUs * 1_000L;
+            }
+            sumidero.esperar(antes + cantidad);
+            return h;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    // ============================
+    //          SUMIDERO
+    // ============================
+
+    // Vecino del nodo: acepta el formato binario con lotes y cuenta lo que recibe
+    private static final class Sumidero {
+        final String nombre;
+        final ServerSocket server;
+        final AtomicLong tramas = new AtomicLong();
+        final AtomicLong mensajes = new AtomicLong();
+        volatile HistogramaLatencia latencias;
+
+        Sumidero(int puerto) throws IOException {
+            nombre = "127.0.0.1_" + puerto;
+            server = new ServerSocket(puerto);
+            Thread t = new Thread(this::aceptar, "sumidero-" + puerto);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void aceptar() {
+            try {
+                while (true) {
+                    Socket s = server.accept();
+                    Thread t = new Thread(() -> leer(s), "sumidero-conexion");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (IOException e) {
+                // cerrado
+            }
+        }
+
+        private void leer(Socket s) {
+            try (s) {
+                Protocolo.Lector in = new Protocolo.Lector(s.getInputStream());
+                String linea = in.leerLinea();
+                if (Protocolo.HOLA_BINARIO_LOTES.equals(linea)) {
+                    Protocolo.escribirLinea(s.getOutputStream(), Protocolo.OK_BINARIO_LOTES);
+                } else if (Protocolo.HOLA_BINARIO.equals(linea)) {
+                    Protocolo.escribirLinea(s.getOutputStream(), Protocolo.OK_BINARIO);
+                } else {
+                    return;
+                }
+
+                ByteBuffer trama;
+                while ((trama = in.leerTrama()) != null) {
+                    tramas.incrementAndGet();
+                    if (Protocolo.esLote(trama)) {
+                        List<Mensaje> lote = Protocolo.leerLote(trama);
+                        for (Mensaje m : lote) recibido(m);
+                    } else {
+                        recibido(Mensaje.cabeceraDesdeBinario(trama));
+                    }
+                }
+            } catch (IOException e) {
+                // conexión cerrada
+            }
+        }
+
+        private void recibido(Mensaje m) {
+            Long enviado = enviados.remove(m.getId());
+            HistogramaLatencia h = latencias;
+            if (enviado != null && h != null) h.registrar(System.nanoTime() - enviado);
+            mensajes.incrementAndGet();
+        }
+
+        void esperar(long cantidad) throws InterruptedException {
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (mensajes.get() < cantidad) {
+                if (System.nanoTime() > limite)
+                    throw new IllegalStateException("Llegaron " + mensajes.get() + " de " + cantidad + " mensajes");
+                Thread.sleep(1);
+            }
+        }
+
+        void cerrar() throws IOException {
+            server.close();
+        }
+    }
+
+    private static void esperarServidor(int puerto) throws InterruptedException {
+        for (int intento = 0; intento < 100; intento++) {
+            try {
+                new Socket("127.0.0.1", puerto).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("El servidor no arrancó en el puerto " + puerto);
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Costo de las métricas ({@link Metricas}) en el camino de reenvío, el más barato del nodo y
+ * por eso donde más pesan.
+ *
+ * 1. Lo que cuesta cada operación en un solo hilo: sumar a un contador y medir una etapa
+ *    (leer el reloj dos veces y registrar en el histograma).
+ * 2. Un nodo que reenvía a un sumidero los mensajes chicos que le manda un cliente, con las
+ *    métricas activadas y desactivadas, en rondas alternadas después de unas de calentamiento;
+ *    se informa la mediana de cada modo y la diferencia.
+ *
+ * Como la diferencia entre rondas suele ser mayor que el costo de las métricas, se informa
+ * también el costo estimado por mensaje reenviado a partir de los costos por operación.
+ *
+ * Al final vuelca las métricas del último nodo con métricas, como ejemplo del formato.
+ *
+ * Uso: java PruebaMetricas [mensajesPorRonda] [rondas] [puertoBase]
+ */
+public class PruebaMetricas {
+
+    private static final String ORIGEN = "127.0.0.1_5994";
+
+    private static final int CALENTAMIENTO = 3;
+
+    private static volatile long sumidero;
+
+    public static void main(String[] args) throws Exception {
+        int mensajes = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int rondas = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int puerto = args.length > 2 ? Integer.parseInt(args[2]) : 6800;
+        // Como en PruebaLotes: a plena carga se frena la recepción en vez de descartar
+        if (System.getProperty("nodo.salida.desborde") == null)
+            System.setProperty("nodo.salida.desborde", "bloquear");
+
+        PrintStream consola = System.out;
+        double[] costos = microcostos(consola);
+
+        consola.printf("%nReenvío de %d mensajes por ronda, %d rondas por modo%n", mensajes, rondas);
+        double[] con = new double[rondas];
+        double[] sin = new double[rondas];
+        Metricas ultimas = null;
+        // Las primeras CALENTAMIENTO rondas no se cuentan
+        for (int r = -CALENTAMIENTO; r < rondas; r++) {
+            // Se alterna cuál va primero: las rondas se aceleran a medida que el JIT compila
+            for (boolean activas : r % 2 == 0 ? new boolean[]{true, false} : new boolean[]{false, true}) {
+                System.setProperty("nodo.metricas", String.valueOf(activas));
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                Sumidero s = new Sumidero(puerto + 1);
+                PCNode nodo = new PCNode("127.0.0.1", puerto);
+                nodo.agregarVecino(s.nombre);
+                try {
+                    nodo.iniciarServidor();
+                    esperarServidor(puerto);
+                    double tasa = reenviar(puerto, s, mensajes);
+                    if (r >= 0 && activas) {
+                        con[r] = tasa;
+                        ultimas = nodo.getMetricas();
+                    } else if (r >= 0) {
+                        sin[r] = tasa;
+                    }
+                } finally {
+                    System.setOut(consola);
+                    nodo.detener();
+                    s.cerrar();
+                }
+                puerto += 2;
+            }
+            if (r >= 0) consola.printf("ronda %d: con métricas %.0f msg/s, sin métricas %.0f msg/s%n", r + 1, con[r], sin[r]);
+        }
+
+        double medianaCon = mediana(con);
+        double medianaSin = mediana(sin);
+        consola.printf("%nMediana: con %.0f msg/s, sin %.0f msg/s, diferencia %.2f %%%n",
+                medianaCon, medianaSin, 100 * (medianaSin - medianaCon) / medianaSin);
+
+        // Por mensaje reenviado: reenvio.unicast y el parseo muestreado. Los bytes se suman una
+        // vez por lectura o escritura del socket, que llevan muchos mensajes cada una
+        double estimado = costos[0] + costos[1] / Metricas.MUESTREO;
+        double porMensaje = 1e9 / medianaSin;
+        consola.printf("Costo estimado por mensaje: %.1f ns de %.0f ns (%.2f %%)%n",
+                estimado, porMensaje, 100 * estimado / porMensaje);
+
+        if (ultimas != null) {
+            consola.println();
+            ultimas.volcar(consola);
+        }
+        System.exit(0);
+    }
+
+    // ============================
+    //         MICROCOSTOS
+    // ============================
+
+    // {ns por suma a un contador, ns por etapa medida}
+    private static double[] microcostos(PrintStream salida) {
+        Metricas m = new Metricas("prueba", true);
+        Metricas.Contador c = m.contador("contador");
+        HistogramaLatencia h = m.histograma("etapa");
+        int n = 20_000_000;
+
+        for (int vuelta = 0; vuelta < 2; vuelta++) {   // la primera calienta
+            long t = System.nanoTime();
+            for (int i = 0; i < n; i++) c.sumar();
+            double contador = (System.nanoTime() - t) / (double) n;
+
+            t = System.nanoTime();
+            for (int i = 0; i < n; i++) m.medir(h, m.ahora());
+            double etapa = (System.nanoTime() - t) / (double) n;
+
+            t = System.nanoTime();
+            for (int i = 0; i < n; i++) sumidero += System.nanoTime();
+            double reloj = (System.nanoTime() - t) / (double) n;
+
+            if (vuelta == 1) {
+                salida.printf("Por operación: contador %.1f ns, medir una etapa %.1f ns (System.nanoTime %.1f ns)%n",
+                        contador, etapa, reloj);
+                return new double[]{contador, etapa};
+            }
+        }
+        throw new AssertionError();
+    }
+
+    // ============================
+    //          REENVÍO
+    // ============================
+
+    private static double reenviar(int puerto, Sumidero s, int cantidad) throws Exception {
+        Mensaje[] lista = new Mensaje[cantidad];
+        for (int i = 0; i < cantidad; i++)
+            lista[i] = new Mensaje(ORIGEN, s.nombre, new byte[0], new byte[16], new byte[48], new byte[0], ORIGEN);
+
+        try (Socket socket = new Socket("127.0.0.1", puerto)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            Protocolo.escribirLinea(out, Protocolo.HOLA_BINARIO);
+            String respuesta = new Protocolo.Lector(socket.getInputStream()).leerLinea();
+            if (!Protocolo.OK_BINARIO.equals(respuesta))
+                throw new IOException("El nodo no aceptó el formato binario: " + respuesta);
+
+            long inicio = System.nanoTime();
+            for (Mensaje m : lista) Protocolo.escribirTrama(out, m);
+            out.flush();
+            s.esperar(cantidad);
+            return cantidad / ((System.nanoTime() - inicio) / 1e9);
+        }
+    }
+
+    // Vecino del nodo: acepta el formato binario y cuenta los mensajes
+    private static final class Sumidero {
+        final String nombre;
+        final ServerSocket server;
+        final AtomicLong mensajes = new AtomicLong();
+
+        Sumidero(int puerto) throws IOException {
+            nombre = "127.0.0.1_" + puerto;
+            server = new ServerSocket(puerto);
+            Thread t = new Thread(this::aceptar, "sumidero-" + puerto);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void aceptar() {
+            try {
+                while (true) {
+                    Socket s = server.accept();
+                    Thread t = new Thread(() -> leer(s), "sumidero-conexion");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (IOException e) {
+                // cerrado
+            }
+        }
+
+        private void leer(Socket s) {
+            try (s) {
+                Protocolo.Lector in = new Protocolo.Lector(s.getInputStream());
+                String linea = in.leerLinea();
+                if (Protocolo.HOLA_BINARIO_LOTES.equals(linea))
+                    Protocolo.escribirLinea(s.getOutputStream(), Protocolo.OK_BINARIO_LOTES);
+                else if (Protocolo.HOLA_BINARIO.equals(linea))
+                    Protocolo.escribirLinea(s.getOutputStream(), Protocolo.OK_BINARIO);
+                else
+                    return;
+
+                ByteBuffer trama;
+                while ((trama = in.leerTrama()) != null)
+                    mensajes.addAndGet(Protocolo.esLote(trama) ? Protocolo.leerLote(trama).size() : 1);
+            } catch (IOException e) {
+                // conexión cerrada
+            }
+        }
+
+        void esperar(long cantidad) throws InterruptedException {
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (mensajes.get() < cantidad) {
+                if (System.nanoTime() > limite)
+                    throw new IllegalStateException("Llegaron " + mensajes.get() + " de " + cantidad + " mensajes");
+                Thread.sleep(1);
+            }
+        }
+
+        void cerrar() throws IOException {
+            server.close();
+        }
+    }
+
+    private static double mediana(double[] valores) {
+        double[] orden = valores.clone();
+        Arrays.sort(orden);
+        return orden[orden.length / 2];
+    }
+
+    private static void esperarServidor(int puerto) throws InterruptedException {
+        for (int intento = 0; intento < 100; intento++) {
+            try {
+                new Socket("127.0.0.1", puerto).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("El servidor no arrancó en el puerto " + puerto);
+    }
+}
@@ -0,0 +1,92 @@
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+
+/**
+ * Mensajes por segundo que entrega un nodo destino según los hilos del pipeline de destino
+ * ({@link PipelineDestino}), y la latencia de cada etapa.
+ *
+ * Cada mensaje trae su clave AES cifrada con RSA (sin sesiones), así descifrar y verificar la
+ * firma cuestan lo mismo y se nota cuando corren en paralelo. Los mensajes se arman antes de
+ * medir y se envían por una conexión persistente; se mide hasta que el destino entregó todos.
+ *
+ * Uso: java PruebaPipeline [mensajes] [puertoBase]
+ */
+public class PruebaPipeline {
+
+    private static final String ORIGEN = "127.0.0.1_5997";
+
+    public static void main(String[] args) throws Exception {
+        int mensajes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int puerto = args.length > 1 ? Integer.parseInt(args[1]) : 6400;
+
+        KeyPair origen = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        DirectorioClaves.global().guardar(ORIGEN, origen.getPublic());
+
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        PrintStream consola = System.out;
+        consola.printf("Mensajes por corrida: %d, núcleos: %d%n", mensajes, nucleos);
+
+        for (int hilos : new int[]{0, 1, 2, Math.max(4, nucleos)}) {
+            System.setProperty("nodo.pipeline.hilos", String.valueOf(hilos));
+            PCNode nodo = new PCNode("127.0.0.1", puerto++);
+
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            double tasa;
+            try {
+                tasa = correr(nodo, origen.getPrivate(), mensajes);
+            } finally {
+                System.setOut(consola);
+            }
+
+            consola.printf("%nhilos=%d: %.1f msg/s%n", hilos, tasa);
+            nodo.getPipeline().imprimirLatencias(consola);
+            nodo.detener();
+        }
+    }
+
+    private static double correr(PCNode nodo, PrivateKey firmante, int mensajes) throws Exception {
+        nodo.iniciarServidor();
+        esperarServidor(nodo.getNombre());
+
+        PublicKey pubDestino = DirectorioClaves.global().obtener(nodo.getNombre());
+
+        SecretKey clave = Encriptador.generarClaveAES();
+        Encriptador.AesResultado ar = Encriptador.cifrarConAES(
+                "mensaje de prueba del pipeline".getBytes(StandardCharsets.UTF_8), clave);
+        byte[] firma = FirmaDigital.firmarBytes(ar.cipher, firmante);
+        byte[] claveCifrada = Encriptador.cifrarClaveAESConRSA(clave, pubDestino);
+
+        // Cada mensaje es nuevo (otro id), si no el destino descarta las copias como duplicadas
+        Mensaje[] lote = new Mensaje[mensajes];
+        for (int i = 0; i < mensajes; i++)
+            lote[i] = new Mensaje(ORIGEN, nodo.getNombre(), claveCifrada, ar.iv, ar.cipher, firma, ORIGEN);
+
+        PoolConexiones conexiones = new PoolConexiones(30_000, 1, 3_000, 10_000);
+        long inicio = System.nanoTime();
+        for (Mensaje m : lote)
+            conexiones.enviar(nodo.getNombre(), m);
+
+        while (nodo.getMensajesEntregados() < mensajes)
+            Thread.sleep(1);
+        long nanos = System.nanoTime() - inicio;
+
+        conexiones.cerrar();
+        return mensajes / (nanos / 1e9);
+    }
+
+    private static void esperarServidor(String nombre) throws InterruptedException {
+        int puerto = Integer.parseInt(nombre.substring(nombre.indexOf('_') + 1));
+        for (int intento = 0; intento < 100; intento++) {
+            try {
+                new Socket("127.0.0.1", puerto).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("El servidor no arrancó en el puerto " + puerto);
+    }
+}
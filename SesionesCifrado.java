@@ -0,0 +1,218 @@
+import javax.crypto.SecretKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Claves AES de sesión entre pares de nodos, para no pagar RSA en cada mensaje.
+ *
+ * El que envía crea una sesión por destino: una clave AES y un id, y cifra la clave con
+ * RSA una sola vez. Durante anuncioMs los mensajes llevan la clave cifrada y el id (así la
+ * clave llega aunque los primeros mensajes se procesen en otro orden); después solo el id,
+ * salvo un mensaje cada anuncioMs que la vuelve a llevar. Nada confirma que la clave llegó:
+ * si se perdieron todos los mensajes que la llevaban, la lleva el próximo de esos.
+ * La sesión se renueva a los duracionMs o tras maxMensajes.
+ *
+ * El destino descifra la clave con RSA la primera vez que ve el id y la guarda, asociada al
+ * origen, durante 2 * duracionMs. Los mensajes siguientes solo usan AES. Los que llegan con
+ * un id todavía desconocido se retienen (hasta retenidosMax por sesión, durante duracionMs)
+ * y se entregan cuando llega la clave.
+ *
+ * Propiedades del sistema:
+ *   nodo.sesiones            = true para enviar con sesión (por defecto false; recibir siempre se admite)
+ *   nodo.sesion.duracionMs   = vida de una sesión saliente (por defecto 60000)
+ *   nodo.sesion.maxMensajes  = mensajes por sesión saliente (por defecto 100000)
+ *   nodo.sesion.anuncioMs    = tiempo durante el que se adjunta la clave cifrada, y cada cuánto
+ *                              se vuelve a adjuntar después (por defecto 1000)
+ *   nodo.sesion.retenidosMax = mensajes retenidos por sesión desconocida (por defecto 1000)
+ */
+public class SesionesCifrado {
+
+    /** Sesión saliente hacia un destino. */
+    public static final class Salida {
+        private final long id;
+        private final SecretKey clave;
+        private final byte[] claveCifrada;
+        private final long creada = System.nanoTime();
+        private final AtomicLong usos = new AtomicLong();
+        private final AtomicLong ultimoAnuncio = new AtomicLong(creada);
+
+        private Salida(long id, SecretKey clave, byte[] claveCifrada) {
+            this.id = id;
+            this.clave = clave;
+            this.claveCifrada = claveCifrada;
+        }
+
+        public long getId() { return id; }
+        public SecretKey getClave() { return clave; }
+    }
+
+    private static final class Entrada {
+        final byte[] clave;
+        final long vence;
+
+        Entrada(byte[] clave, long vence) {
+            this.clave = clave;
+            this.vence = vence;
+        }
+    }
+
+    // Mensajes de una sesión entrante cuya clave todavía no llegó
+    private static final class Retenidos {
+        final List<Runnable> mensajes = new ArrayList<>();
+        final long vence;
+
+        Retenidos(long vence) {
+            this.vence = vence;
+        }
+    }
+
+    private static final byte[] SIN_CLAVE = new byte[0];
+
+    private final boolean habilitadas;
+    private final long duracionNanos;
+    private final long maxMensajes;
+    private final long anuncioNanos;
+    private final int retenidosMax;
+
+    private final ConcurrentMap<String, Salida> salientes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Entrada> entrantes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Retenidos> retenidos = new ConcurrentHashMap<>();
+    private final AtomicLong retenidosVencidos = new AtomicLong();
+
+    public SesionesCifrado(boolean habilitadas, long duracionMs, long maxMensajes, long anuncioMs) {
+        this(habilitadas, duracionMs, maxMensajes, anuncioMs, 1_000);
+    }
+
+    public SesionesCifrado(boolean habilitadas, long duracionMs, long maxMensajes, long anuncioMs, int retenidosMax) {
+        this.habilitadas = habilitadas;
+        this.duracionNanos = TimeUnit.MILLISECONDS.toNanos(duracionMs);
+        this.maxMensajes = maxMensajes;
+        this.anuncioNanos = TimeUnit.MILLISECONDS.toNanos(anuncioMs);
+        this.retenidosMax = retenidosMax;
+    }
+
+    public static SesionesCifrado desdePropiedades() {
+        return new SesionesCifrado(
+                Boolean.getBoolean("nodo.sesiones"),
+                Long.getLong("nodo.sesion.duracionMs", 60_000),
+                Long.getLong("nodo.sesion.maxMensajes", 100_000),
+                Long.getLong("nodo.sesion.anuncioMs", 1_000),
+                Integer.getInteger("nodo.sesion.retenidosMax", 1_000));
+    }
+
+    public boolean habilitadas() { return habilitadas; }
+
+    /** Sesión vigente hacia destino; si no hay o venció, crea otra (un cifrado RSA). */
+    public Salida salida(String destino, PublicKey pubDestino) {
+        Salida s = salientes.get(destino);
+        if (s != null && vigente(s)) return s;
+
+        return salientes.compute(destino, (d, actual) -> {
+            if (actual != null && vigente(actual)) return actual;
+            try {
+                SecretKey clave = Encriptador.generarClaveAES();
+                return new Salida(nuevoId(), clave, Encriptador.cifrarClaveAESConRSA(clave, pubDestino));
+            } catch (Exception e) {
+                throw new IllegalStateException("No se pudo crear la sesión con " + d, e);
+            }
+        });
+    }
+
+    private boolean vigente(Salida s) {
+        return System.nanoTime() - s.creada < duracionNanos && s.usos.get() < maxMensajes;
+    }
+
+    /**
+     * Clave cifrada que debe viajar en el próximo mensaje de la sesión: la lleva todo mensaje
+     * durante el anuncio y después uno cada anuncioMs; los demás, vacía.
+     */
+    public byte[] claveParaMensaje(Salida s) {
+        s.usos.incrementAndGet();
+        long ahora = System.nanoTime();
+        if (ahora - s.creada < anuncioNanos) return s.claveCifrada;
+
+        long ultimo = s.ultimoAnuncio.get();
+        if (ahora - ultimo >= anuncioNanos && s.ultimoAnuncio.compareAndSet(ultimo, ahora))
+            return s.claveCifrada;
+        return SIN_CLAVE;
+    }
+
+    /** Clave AES de una sesión entrante, o null si no se conoce o ya venció. */
+    public byte[] claveEntrante(String origen, long id) {
+        Entrada e = entrantes.get(clave(origen, id));
+        if (e == null) return null;
+        if (System.nanoTime() - e.vence > 0) {
+            entrantes.remove(clave(origen, id), e);
+            return null;
+        }
+        return e.clave;
+    }
+
+    /**
+     * Guarda la clave de una sesión entrante. Devuelve los mensajes que se retuvieron esperándola,
+     * en el orden en que llegaron, para entregarlos ahora; lista vacía si no había.
+     */
+    public List<Runnable> registrarEntrante(String origen, long id, byte[] claveAES) {
+        long ahora = System.nanoTime();
+        // Las sesiones nuevas son raras: se aprovecha para limpiar las vencidas
+        entrantes.values().removeIf(e -> ahora - e.vence > 0);
+        limpiarRetenidos(ahora);
+        entrantes.putIfAbsent(clave(origen, id), new Entrada(claveAES, ahora + 2 * duracionNanos));
+
+        Retenidos r = retenidos.remove(clave(origen, id));
+        if (r == null) return List.of();
+        synchronized (r) {
+            return new ArrayList<>(r.mensajes);
+        }
+    }
+
+    /**
+     * Retiene la entrega de un mensaje cuya sesión todavía no se conoce, hasta que llegue la
+     * clave (ver registrarEntrante). false si ya hay retenidosMax de esa sesión y se descarta.
+     */
+    public boolean retener(String origen, long id, Runnable entrega) {
+        long ahora = System.nanoTime();
+        String k = clave(origen, id);
+        Retenidos r = retenidos.get(k);
+        if (r == null) {
+            limpiarRetenidos(ahora);
+            r = retenidos.computeIfAbsent(k, x -> new Retenidos(ahora + duracionNanos));
+        }
+        synchronized (r) {
+            if (r.mensajes.size() >= retenidosMax) return false;
+            r.mensajes.add(entrega);
+            return true;
+        }
+    }
+
+    /** Mensajes retenidos que vencieron sin que llegara la clave de su sesión. */
+    public long getRetenidosVencidos() { return retenidosVencidos.get(); }
+
+    private void limpiarRetenidos(long ahora) {
+        retenidos.values().removeIf(r -> {
+            if (ahora - r.vence <= 0) return false;
+            synchronized (r) {
+                retenidosVencidos.addAndGet(r.mensajes.size());
+            }
+            return true;
+        });
+    }
+
+    private static String clave(String origen, long id) {
+        return origen + '#' + Long.toHexString(id);
+    }
+
+    private static long nuevoId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+}
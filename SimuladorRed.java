@@ -0,0 +1,511 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simula una red de N nodos en un solo proceso, sobre puertos de 127.0.0.1, y la somete a una
+ * mezcla de tráfico configurable. Sirve para comparar cambios de ruteo, reenvío o transporte
+ * sin levantar cada nodo a mano; no necesita red, alcanza con una máquina Linux.
+ *
+ * La topología se lee de un archivo con el formato de 'data' (cada nodo se reasigna a
+ * 127.0.0.1 con puertos consecutivos, en el orden en que aparece) o se genera:
+ *   linea:N        N nodos en fila
+ *   anillo:N       N nodos en círculo
+ *   malla:FxC      grilla de F filas y C columnas, cada nodo con sus cuatro vecinos
+ *   azar:N:GRADO   árbol al azar más enlaces al azar hasta un grado promedio GRADO
+ * La topología usada se escribe en el mismo formato (parámetro guardar, o un temporal) y cada
+ * nodo la carga con cargarConfiguracion, como lo haría con 'data'.
+ *
+ * Cada mensaje lleva en el contenido su número y el momento del envío, y el destino lo
+ * informa al entregarlo ({@link PCNode.Oyente}). Al final se informa:
+ *   - entregas obtenidas y esperadas (un mensaje a TODOS cuenta una por cada otro nodo), y
+ *     cuántas no pasaron la verificación de firma
+ *   - entregas por segundo, desde el primer envío hasta la última entrega
+ *   - latencia de punta a punta (de enviarMensajeInicial a la entrega): p50, p90, p99 y máximo
+ *   - transmisiones por entrega: mensajes escritos a vecinos por todos los nodos, incluidas
+ *     las copias de la inundación, sobre entregas
+ *   - CPU de cada nodo: todos sus hilos (servidor, lectores, despachador, colas, generador
+ *     de tráfico) corren en un ThreadGroup propio y se suma su tiempo de CPU. Las firmas en
+ *     lote usan el pool común y no se atribuyen a ningún nodo.
+ *
+ * Parámetros (clave=valor, todos opcionales):
+ *   topologia = ARCHIVO o generador (por defecto malla:3x3)
+ *   guardar   = archivo donde escribir la topología usada
+ *   mensajes  = mensajes a enviar entre todos los orígenes (por defecto 2000)
+ *   tasa      = mensajes por segundo entre todos los orígenes; 0 = sin pausa (por defecto 500)
+ *   difusion  = fracción de los mensajes que van a TODOS (por defecto 0)
+ *   tamanos   = tamaños del contenido en bytes separados por coma; cada mensaje toma uno al
+ *               azar (por defecto 64)
+ *   puerto    = puerto del primer nodo (por defecto 7000)
+ *   semilla   = semilla de la topología y del tráfico (por defecto 1)
+ *   esperaMs  = cuánto esperar al final las entregas que faltan (por defecto 30000)
+ *
+ * Las propiedades nodo.* valen para todos los nodos (transporte, lotes, colas...); si no se
+ * da nodo.salida.desborde se usa bloquear, para que una ráfaga no se pierda en las colas. Las
+ * claves públicas quedan en keys/ del directorio actual, como con PCNode.
+ *
+ * Uso: java SimuladorRed topologia=azar:20:3 mensajes=5000 tasa=1000 difusion=0.05 tamanos=64,1024
+ */
+public class SimuladorRed {
+
+    private static final String IP = "127.0.0.1";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> p = parametros(args);
+        String topologia = p.getOrDefault("topologia", "malla:3x3");
+        int mensajes = Integer.parseInt(p.getOrDefault("mensajes", "2000"));
+        double tasa = Double.parseDouble(p.getOrDefault("tasa", "500"));
+        double difusion = Double.parseDouble(p.getOrDefault("difusion", "0"));
+        int[] tamanos = Arrays.stream(p.getOrDefault("tamanos", "64").split(","))
+                .map(String::trim).mapToInt(Integer::parseInt).toArray();
+        int puerto = Integer.parseInt(p.getOrDefault("puerto", "7000"));
+        long semilla = Long.parseLong(p.getOrDefault("semilla", "1"));
+        long esperaMs = Long.parseLong(p.getOrDefault("esperaMs", "30000"));
+        if (System.getProperty("nodo.salida.desborde") == null)
+            System.setProperty("nodo.salida.desborde", "bloquear");
+
+        Random azar = new Random(semilla);
+        List<List<Integer>> vecinos = topologia.contains(":") && !Files.exists(Paths.get(topologia))
+                ? generar(topologia, azar)
+                : leer(Paths.get(topologia));
+        int n = vecinos.size();
+        Path archivo = p.containsKey("guardar")
+                ? Paths.get(p.get("guardar"))
+                : Files.createTempFile("topologia", ".txt");
+        escribir(archivo, vecinos, puerto);
+        if (!p.containsKey("guardar")) archivo.toFile().deleteOnExit();
+
+        PrintStream consola = System.out;
+        consola.printf("Topología %s: %d nodos, %d enlaces (%s)%n", topologia, n, enlaces(vecinos), archivo);
+        consola.printf("%d mensajes, %s, %.0f %% a TODOS, tamaños %s, transporte %s%n",
+                mensajes, tasa > 0 ? String.format("%.0f msg/s", tasa) : "sin pausa",
+                100 * difusion, Arrays.toString(tamanos),
+                TransporteNio.seleccionadoPorPropiedad() ? "nio" : "bloqueante");
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Red red = null;
+        try {
+            red = new Red(n, puerto, archivo.toString());
+            Trafico t = new Trafico(red, vecinos, mensajes, tasa, difusion, tamanos, azar);
+            t.correr(esperaMs);
+            System.setOut(consola);
+            informe(consola, red, vecinos, t);
+        } finally {
+            System.setOut(consola);
+            if (red != null) red.detener();
+        }
+        System.exit(0);
+    }
+
+    // ============================
+    //          TOPOLOGÍA
+    // ============================
+
+    // Listas de adyacencia por índice de nodo; los enlaces generados van en los dos sentidos
+    private static List<List<Integer>> generar(String spec, Random azar) {
+        String[] partes = spec.split(":");
+        String[] dims = partes[1].split("x");
+        int n = partes[0].equals("malla")
+                ? Integer.parseInt(dims[0]) * Integer.parseInt(dims[1])
+                : Integer.parseInt(partes[1]);
+        List<Set<Integer>> ady = new ArrayList<>();
+        for (int i = 0; i < n; i++) ady.add(new TreeSet<>());
+
+        switch (partes[0]) {
+            case "linea":
+            case "anillo":
+                for (int i = 0; i + 1 < n; i++) enlazar(ady, i, i + 1);
+                if (partes[0].equals("anillo") && n > 2) enlazar(ady, n - 1, 0);
+                break;
+            case "malla":
+                int columnas = Integer.parseInt(dims[1]);
+                for (int i = 0; i < n; i++) {
+                    if ((i + 1) % columnas != 0) enlazar(ady, i, i + 1);
+                    if (i + columnas < n) enlazar(ady, i, i + columnas);
+                }
+                break;
+            case "azar":
+                double grado = partes.length > 2 ? Double.parseDouble(partes[2]) : 3;
+                // Primero un árbol, para que la red sea conexa
+                for (int i = 1; i < n; i++) enlazar(ady, i, azar.nextInt(i));
+                long objetivo = Math.min((long) Math.ceil(grado * n / 2), (long) n * (n - 1) / 2);
+                for (long e = n - 1; e < objetivo; ) {
+                    int a = azar.nextInt(n), b = azar.nextInt(n);
+                    if (a != b && ady.get(a).add(b)) {
+                        ady.get(b).add(a);
+                        e++;
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Topología desconocida: " + spec);
+        }
+
+        List<List<Integer>> vecinos = new ArrayList<>();
+        for (Set<Integer> s : ady) vecinos.add(new ArrayList<>(s));
+        return vecinos;
+    }
+
+    private static void enlazar(List<Set<Integer>> ady, int a, int b) {
+        ady.get(a).add(b);
+        ady.get(b).add(a);
+    }
+
+    // Un archivo como 'data': los enlaces quedan como están escritos (pueden ir en un solo sentido)
+    private static List<List<Integer>> leer(Path archivo) throws IOException {
+        Map<String, Integer> indices = new LinkedHashMap<>();
+        Map<Integer, List<Integer>> ady = new HashMap<>();
+        for (String linea : Files.readAllLines(archivo, StandardCharsets.UTF_8)) {
+            linea = linea.trim();
+            if (linea.isEmpty() || linea.startsWith("#")) continue;
+            String[] partes = linea.split("\\s+");
+            int nodo = indices.computeIfAbsent(TablaRuteo.normalizar(partes[0]), k -> indices.size());
+            List<Integer> lista = ady.computeIfAbsent(nodo, k -> new ArrayList<>());
+            for (int i = 1; i < partes.length; i++) {
+                int v = indices.computeIfAbsent(TablaRuteo.normalizar(partes[i]), k -> indices.size());
+                if (v != nodo && !lista.contains(v)) lista.add(v);
+            }
+        }
+        if (indices.isEmpty()) throw new IllegalArgumentException("La topología " + archivo + " no tiene nodos");
+
+        List<List<Integer>> vecinos = new ArrayList<>();
+        for (int i = 0; i < indices.size(); i++) vecinos.add(ady.getOrDefault(i, new ArrayList<>()));
+        return vecinos;
+    }
+
+    private static void escribir(Path archivo, List<List<Integer>> vecinos, int puerto) throws IOException {
+        StringBuilder sb = new StringBuilder("# Formato: ip:puerto vecino1:puerto1 vecino2:puerto2 ...\n");
+        for (int i = 0; i < vecinos.size(); i++) {
+            if (vecinos.get(i).isEmpty()) continue;
+            sb.append(IP).append(':').append(puerto + i);
+            for (int v : vecinos.get(i)) sb.append(' ').append(IP).append(':').append(puerto + v);
+            sb.append('\n');
+        }
+        Files.write(archivo, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int enlaces(List<List<Integer>> vecinos) {
+        Set<Long> pares = new HashSet<>();
+        for (int i = 0; i < vecinos.size(); i++)
+            for (int v : vecinos.get(i))
+                pares.add((long) Math.min(i, v) << 32 | Math.max(i, v));
+        return pares.size();
+    }
+
+    // ============================
+    //            RED
+    // ============================
+
+    private static final class Red {
+        final int puerto;
+        final PCNode[] nodos;
+        final ThreadGroup[] grupos;
+        final CpuPorGrupo cpu;
+        final HistogramaLatencia latencias = new HistogramaLatencia("punta a punta");
+        final AtomicLong entregas = new AtomicLong();
+        final AtomicLong invalidas = new AtomicLong();
+        final AtomicLong noAutenticas = new AtomicLong();
+        volatile long ultimaEntrega;
+
+        Red(int n, int puerto, String archivo) throws Exception {
+            this.puerto = puerto;
+            nodos = new PCNode[n];
+            grupos = new ThreadGroup[n];
+            for (int i = 0; i < n; i++) {
+                int indice = i;
+                String nombre = nombre(i);
+                grupos[i] = new ThreadGroup("nodo " + nombre);
+                // Se construye y arranca desde un hilo del grupo: los hilos que cree el nodo
+                // (servidor, despachador, colas...) quedan en el mismo grupo
+                ejecutarEn(grupos[i], "arranque-" + nombre, () -> {
+                    PCNode nodo = new PCNode(IP, puerto + indice);
+                    nodo.cargarConfiguracion(archivo, nombre);
+                    nodo.setOyente((origen, contenido, camino, autentico) -> entregado(contenido, autentico));
+                    nodo.iniciarServidor();
+                    nodos[indice] = nodo;
+                    return null;
+                });
+            }
+            for (int i = 0; i < n; i++) esperarServidor(puerto + i);
+            cpu = new CpuPorGrupo(grupos);
+        }
+
+        String nombre(int indice) {
+            return IP + "_" + (puerto + indice);
+        }
+
+        private void entregado(byte[] contenido, boolean autentico) {
+            // "sim <id> <nanoTime> relleno"
+            String texto = new String(contenido, 0, Math.min(contenido.length, 64), StandardCharsets.UTF_8);
+            String[] partes = texto.split(" ", 4);
+            long ahora = System.nanoTime();
+            if (partes.length < 3 || !partes[0].equals("sim")) {
+                invalidas.incrementAndGet();
+                return;
+            }
+            if (!autentico) noAutenticas.incrementAndGet();
+            latencias.registrar(ahora - Long.parseLong(partes[2]));
+            entregas.incrementAndGet();
+            ultimaEntrega = ahora;
+        }
+
+        void detener() {
+            cpu.detener();
+            for (PCNode nodo : nodos) if (nodo != null) nodo.detener();
+        }
+    }
+
+    // ============================
+    //          TRÁFICO
+    // ============================
+
+    private static final class Trafico {
+        final Red red;
+        final int mensajes;
+        final double tasa;
+        // Por origen: los mensajes que le tocan, cada uno {número, destino (-1 = TODOS), tamaño}
+        final Map<Integer, List<int[]>> porOrigen = new TreeMap<>();
+        final Map<Integer, String> rellenos = new HashMap<>();
+        long esperadas;
+        long difusiones;
+        long inicio;
+        long fin;
+        boolean completo;
+
+        Trafico(Red red, List<List<Integer>> vecinos, int mensajes, double tasa, double difusion,
+                int[] tamanos, Random azar) {
+            this.red = red;
+            this.mensajes = mensajes;
+            this.tasa = tasa;
+            int n = vecinos.size();
+
+            // Solo envían los nodos con vecinos; los destinos unicast deben ser alcanzables
+            List<Integer> origenes = new ArrayList<>();
+            for (int i = 0; i < n; i++) if (!vecinos.get(i).isEmpty()) origenes.add(i);
+            if (origenes.isEmpty()) throw new IllegalArgumentException("Ningún nodo tiene vecinos");
+            List<List<Integer>> alcanzables = new ArrayList<>();
+            for (int i = 0; i < n; i++) alcanzables.add(alcanzables(vecinos, i));
+
+            for (int k = 0; k < mensajes; k++) {
+                int origen = origenes.get(azar.nextInt(origenes.size()));
+                List<Integer> destinos = alcanzables.get(origen);
+                int tamano = tamanos[azar.nextInt(tamanos.length)];
+                int destino;
+                if (azar.nextDouble() < difusion) {
+                    destino = -1;
+                    difusiones++;
+                    esperadas += destinos.size();
+                } else if (!destinos.isEmpty()) {
+                    destino = destinos.get(azar.nextInt(destinos.size()));
+                    esperadas++;
+                } else {
+                    continue;
+                }
+                porOrigen.computeIfAbsent(origen, o -> new ArrayList<>()).add(new int[]{k, destino, tamano});
+                rellenos.computeIfAbsent(tamano, t -> "x".repeat(t));
+            }
+        }
+
+        // Nodos a los que llega algo desde 'origen' siguiendo los enlaces
+        private static List<Integer> alcanzables(List<List<Integer>> vecinos, int origen) {
+            boolean[] visto = new boolean[vecinos.size()];
+            Deque<Integer> pendientes = new ArrayDeque<>(List.of(origen));
+            visto[origen] = true;
+            List<Integer> resultado = new ArrayList<>();
+            while (!pendientes.isEmpty()) {
+                for (int v : vecinos.get(pendientes.poll())) {
+                    if (visto[v]) continue;
+                    visto[v] = true;
+                    resultado.add(v);
+                    pendientes.add(v);
+                }
+            }
+            return resultado;
+        }
+
+        void correr(long esperaMs) throws Exception {
+            red.cpu.iniciar();
+            inicio = System.nanoTime();
+            // Cada mensaje k sale en inicio + k / tasa, desde el hilo de su origen
+            List<Thread> hilos = new ArrayList<>();
+            for (Map.Entry<Integer, List<int[]>> e : porOrigen.entrySet()) {
+                PCNode nodo = red.nodos[e.getKey()];
+                List<int[]> lista = e.getValue();
+                Thread t = new Thread(red.grupos[e.getKey()], () -> generar(nodo, lista),
+                        "trafico-" + nodo.getNombre());
+                t.setDaemon(true);
+                t.start();
+                hilos.add(t);
+            }
+            for (Thread t : hilos) t.join();
+
+            long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMs);
+            while (red.entregas.get() < esperadas && System.nanoTime() < limite) Thread.sleep(5);
+            completo = red.entregas.get() >= esperadas;
+            fin = red.ultimaEntrega != 0 ? red.ultimaEntrega : System.nanoTime();
+            red.cpu.detener();
+        }
+
+        private void generar(PCNode nodo, List<int[]> lista) {
+            for (int[] m : lista) {
+                if (tasa > 0) {
+                    long cuando = inicio + (long) (m[0] * 1e9 / tasa);
+                    long falta;
+                    while ((falta = cuando - System.nanoTime()) > 0) LockSupport.parkNanos(falta);
+                }
+                String cabecera = "sim " + m[0] + " " + System.nanoTime() + " ";
+                String relleno = rellenos.get(m[2]);
+                String contenido = cabecera + relleno.substring(0, Math.max(0, m[2] - cabecera.length()));
+                if (m[1] < 0) nodo.enviarDifusion(contenido);
+                else nodo.enviarMensajeInicial(red.nombre(m[1]), contenido);
+            }
+        }
+    }
+
+    // ============================
+    //        CPU POR NODO
+    // ============================
+
+    // Muestrea el tiempo de CPU de los hilos de cada grupo; un hilo que termina conserva su
+    // última muestra, así que se pierde a lo sumo un período de lo que hizo al final
+    private static final class CpuPorGrupo {
+        private static final long PERIODO_MS = 50;
+
+        final ThreadGroup[] grupos;
+        final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        // por grupo: id de hilo -> {cpu al empezar, última cpu vista}
+        final List<Map<Long, long[]>> hilos = new ArrayList<>();
+        final ScheduledExecutorService muestreo = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "simulador-cpu");
+            t.setDaemon(true);
+            return t;
+        });
+        volatile boolean iniciado;
+
+        CpuPorGrupo(ThreadGroup[] grupos) {
+            this.grupos = grupos;
+            for (int i = 0; i < grupos.length; i++) hilos.add(new HashMap<>());
+            if (mx.isThreadCpuTimeSupported() && !mx.isThreadCpuTimeEnabled()) mx.setThreadCpuTimeEnabled(true);
+        }
+
+        // Los hilos que ya existen empiezan a contar desde su CPU actual; los nuevos desde 0
+        void iniciar() {
+            muestrear(true);
+            iniciado = true;
+            muestreo.scheduleAtFixedRate(() -> muestrear(false), PERIODO_MS, PERIODO_MS, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void muestrear(boolean inicial) {
+            for (int i = 0; i < grupos.length; i++) {
+                Thread[] activos = new Thread[grupos[i].activeCount() * 2 + 8];
+                int cuantos = grupos[i].enumerate(activos, true);
+                Map<Long, long[]> mapa = hilos.get(i);
+                for (int k = 0; k < cuantos; k++) {
+                    long id = activos[k].getId();
+                    long cpu = mx.getThreadCpuTime(id);
+                    if (cpu < 0) continue;
+                    long[] v = mapa.computeIfAbsent(id, x -> new long[]{inicial ? cpu : 0, 0});
+                    v[1] = cpu;
+                }
+            }
+        }
+
+        synchronized long nanos(int grupo) {
+            long total = 0;
+            for (long[] v : hilos.get(grupo).values()) total += v[1] - v[0];
+            return total;
+        }
+
+        void detener() {
+            if (muestreo.isShutdown()) return;
+            muestreo.shutdownNow();
+            if (iniciado) muestrear(false);
+        }
+    }
+
+    // ============================
+    //          INFORME
+    // ============================
+
+    private static void informe(PrintStream salida, Red red, List<List<Integer>> vecinos, Trafico t) {
+        double segundos = (t.fin - t.inicio) / 1e9;
+        long entregas = red.entregas.get();
+        long transmisiones = 0, duplicados = 0;
+        for (PCNode nodo : red.nodos) {
+            transmisiones += nodo.getMensajesEnviados();
+            duplicados += nodo.getDuplicadosSuprimidos();
+        }
+
+        salida.println();
+        salida.printf("Entregas: %d de %d%s (%d a TODOS enviados)%n", entregas, t.esperadas,
+                t.completo ? "" : " - INCOMPLETO", t.difusiones);
+        if (red.invalidas.get() > 0) salida.printf("Entregas ajenas al simulador: %d%n", red.invalidas.get());
+        if (red.noAutenticas.get() > 0) salida.printf("Entregas con firma inválida: %d%n", red.noAutenticas.get());
+        salida.printf("Duración: %.2f s, %.0f entregas/s%n", segundos, entregas / segundos);
+        HistogramaLatencia h = red.latencias;
+        salida.printf("Latencia punta a punta: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, máx %.2f ms%n",
+                h.percentil(50) / 1e6, h.percentil(90) / 1e6, h.percentil(99) / 1e6, h.getMaximo() / 1e6);
+        salida.printf("Transmisiones: %d, %.2f por entrega; duplicados suprimidos: %d%n",
+                transmisiones, entregas == 0 ? 0.0 : transmisiones / (double) entregas, duplicados);
+
+        salida.println();
+        salida.printf("%-20s %7s %10s %10s %10s %8s%n", "nodo", "vecinos", "enviados", "entregados", "CPU ms", "CPU %");
+        long cpuTotal = 0;
+        for (int i = 0; i < red.nodos.length; i++) {
+            PCNode nodo = red.nodos[i];
+            long cpu = red.cpu.nanos(i);
+            cpuTotal += cpu;
+            salida.printf("%-20s %7d %10d %10d %10.1f %8.1f%n", nodo.getNombre(), vecinos.get(i).size(),
+                    nodo.getMensajesEnviados(), nodo.getMensajesEntregados(), cpu / 1e6, 100 * cpu / 1e9 / segundos);
+        }
+        salida.printf("%-20s %7s %10d %10d %10.1f %8.1f%n", "total", "", transmisiones, entregas,
+                cpuTotal / 1e6, 100 * cpuTotal / 1e9 / segundos);
+        salida.printf("CPU por entrega: %.1f µs%n", entregas == 0 ? 0.0 : cpuTotal / 1e3 / entregas);
+    }
+
+    // ============================
+    //          AUXILIARES
+    // ============================
+
+    private static Map<String, String> parametros(String[] args) {
+        Map<String, String> p = new HashMap<>();
+        for (String a : args) {
+            int i = a.indexOf('=');
+            if (i <= 0) throw new IllegalArgumentException("Se esperaba clave=valor: " + a);
+            p.put(a.substring(0, i).trim(), a.substring(i + 1).trim());
+        }
+        return p;
+    }
+
+    private static void ejecutarEn(ThreadGroup grupo, String nombre, Callable<Void> tarea) throws Exception {
+        Exception[] error = new Exception[1];
+        Thread t = new Thread(grupo, () -> {
+            try {
+                tarea.call();
+            } catch (Exception e) {
+                error[0] = e;
+            }
+        }, nombre);
+        t.start();
+        t.join();
+        if (error[0] != null) throw error[0];
+    }
+
+    private static void esperarServidor(int puerto) throws InterruptedException {
+        for (int intento = 0; intento < 100; intento++) {
+            try {
+                new java.net.Socket(IP, puerto).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IllegalStateException("El servidor no arrancó en el puerto " + puerto);
+    }
+}
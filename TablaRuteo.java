@@ -0,0 +1,101 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Topología conocida por un nodo y el siguiente salto hacia cada destino.
+ *
+ * Los enlaces salen de las líneas del archivo de configuración ("nodo vecino1 vecino2 ...")
+ * y de los caminos de los mensajes que pasan por el nodo: si un mensaje llegó por
+ * a -> b -> c, existen los enlaces a->b y b->c. Cada cambio recalcula las rutas por camino
+ * mínimo en saltos (BFS, que con costo 1 por enlace da lo mismo que Dijkstra).
+ *
+ * Los enlaces son dirigidos, como en la configuración: un nodo solo envía a los vecinos
+ * que tiene declarados.
+ */
+public class TablaRuteo {
+
+    private final String propio;
+    // Se modifica con el candado tomado; se lee sin él para ver si un camino trae algo nuevo
+    private final Map<String, Set<String>> enlaces = new ConcurrentHashMap<>();
+
+    // Se reemplaza entera al recalcular; las lecturas no toman el candado
+    private volatile Map<String, String> siguientesSaltos = Collections.emptyMap();
+
+    public TablaRuteo(String propio) {
+        this.propio = propio;
+    }
+
+    /** Los nodos se nombran ip_puerto; el archivo de configuración usa ip:puerto. */
+    public static String normalizar(String nodo) {
+        return nodo.trim().replace(':', '_');
+    }
+
+    public synchronized void agregarEnlaces(String desde, Collection<String> hacia) {
+        boolean cambio = false;
+        for (String h : hacia) cambio |= agregar(desde, h);
+        if (cambio) recalcular();
+    }
+
+    public synchronized void agregarEnlace(String desde, String hacia) {
+        if (agregar(desde, hacia)) recalcular();
+    }
+
+    /** Aprende los enlaces recorridos por un mensaje. Si ya los conocía no toma el candado. */
+    public void aprenderCamino(List<String> camino) {
+        if (conoceCamino(camino)) return;
+
+        synchronized (this) {
+            boolean cambio = false;
+            for (int i = 1; i < camino.size(); i++)
+                cambio |= agregar(camino.get(i - 1), camino.get(i));
+            if (cambio) recalcular();
+        }
+    }
+
+    private boolean conoceCamino(List<String> camino) {
+        for (int i = 1; i < camino.size(); i++) {
+            String desde = camino.get(i - 1), hacia = camino.get(i);
+            Set<String> salientes = enlaces.get(desde);
+            if (!desde.equals(hacia) && (salientes == null || !salientes.contains(hacia))) return false;
+        }
+        return true;
+    }
+
+    private boolean agregar(String desde, String hacia) {
+        if (desde.equals(hacia)) return false;
+        return enlaces.computeIfAbsent(desde, k -> ConcurrentHashMap.newKeySet()).add(hacia);
+    }
+
+    /** Vecino al que hay que mandar un mensaje para destino, o null si no se conoce ruta. */
+    public String siguienteSalto(String destino) {
+        return siguientesSaltos.get(destino);
+    }
+
+    public Map<String, String> getSiguientesSaltos() {
+        return siguientesSaltos;
+    }
+
+    // BFS desde este nodo: cada destino hereda el primer salto del nodo por el que se lo alcanzó
+    private void recalcular() {
+        Map<String, String> saltos = new HashMap<>();
+        ArrayDeque<String> pendientes = new ArrayDeque<>();
+
+        for (String vecino : enlaces.getOrDefault(propio, Collections.emptySet())) {
+            saltos.put(vecino, vecino);
+            pendientes.add(vecino);
+        }
+
+        while (!pendientes.isEmpty()) {
+            String nodo = pendientes.poll();
+            String primerSalto = saltos.get(nodo);
+            for (String siguiente : enlaces.getOrDefault(nodo, Collections.emptySet())) {
+                if (!siguiente.equals(propio) && !saltos.containsKey(siguiente)) {
+                    saltos.put(siguiente, primerSalto);
+                    pendientes.add(siguiente);
+                }
+            }
+        }
+
+        siguientesSaltos = Collections.unmodifiableMap(saltos);
+    }
+}
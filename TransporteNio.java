@@ -0,0 +1,828 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Transporte no bloqueante basado en un único Selector: acepta conexiones, lee líneas
+ * terminadas en '\n' y mantiene una conexión saliente por vecino con su cola de escritura.
+ *
+ * El protocolo es el mismo que el del transporte bloqueante (una línea de texto por
+ * mensaje, GET_PUBKEY respondido en la misma conexión, negociación del formato binario
+ * descrita en {@link Protocolo}), así que nodos con uno y otro transporte se entienden
+ * entre sí. En formato binario los mensajes se escriben y leen directamente sobre los
+ * buffers directos de cada canal.
+ *
+ * Los lotes de {@link AgrupadorSalida} se encolan enteros: salen como una trama de lote si
+ * el vecino la aceptó al negociar, o como los mensajes seguidos si no.
+ *
+ * La cola de salida de cada vecino admite hasta nodo.salida.capacidad mensajes y, llena, sigue
+ * la misma política de desborde que {@link ColasSalida} (bloquear nunca frena al hilo del
+ * selector: ahí se descarta el nuevo). Una conexión que no se establece en nodo.pool.connectMs,
+ * o que lleva nodo.pool.escrituraMs con datos por escribir sin avanzar, se cierra y descarta
+ * su cola; el vecino queda caído por nodo.salida.reintentoMs y mientras tanto los envíos hacia él
+ * devuelven false, como {@link ColasSalida#encolar}, para que quien reenvía elija otro camino.
+ *
+ * El hilo del selector solo hace E/S y decodificación: cada línea o mensaje recibido se
+ * entrega al {@link DespachadorConexiones} y, si el receptor devuelve una respuesta, se
+ * encola en el mismo canal. Si una conexión acumula más de nodo.cola mensajes sin procesar,
+ * el selector deja de leerla hasta que baje a la mitad, y TCP frena al vecino.
+ */
+public class TransporteNio {
+
+    /** Procesa lo recibido; alRecibirLinea devuelve la respuesta a enviar por el mismo canal (o null). */
+    public interface Receptor {
+        String alRecibirLinea(String linea);
+
+        /**
+         * Se llama en el hilo del selector con cada mensaje binario: devuelve el mensaje armado
+         * o null para descartarlo (p. ej. un duplicado). La vista solo vale durante la llamada.
+         */
+        default Mensaje armar(VistaMensaje v) {
+            return v.aMensaje();
+        }
+
+        default void alRecibirMensaje(Mensaje m) {
+            alRecibirLinea(m.aTexto());
+        }
+
+        /** Una conexión entrante que lleva un mensaje en flujo ({@link FlujoCifrado}). */
+        default void alRecibirFlujo(InputStream in, OutputStream respuesta) throws IOException {
+            Protocolo.escribirLinea(respuesta, Protocolo.FLUJO_ERROR);
+        }
+    }
+
+    // FLUJO: la conexión pasó a un hilo propio que la lee de forma bloqueante
+    private enum Formato { NEGOCIANDO, TEXTO, BINARIO, FLUJO }
+
+    private static final int BUFFER_INICIAL = 16 * 1024;
+    private static final ByteBuffer SIN_LUGAR = ByteBuffer.allocate(0);
+
+    /**
+     * Estado de una conexión: buffers directos, formato acordado y cola de salida.
+     * La cola guarda líneas ya codificadas (byte[]), mensajes (Mensaje) o lotes
+     * (List de Mensaje), que se codifican al escribirlos según el formato del canal.
+     */
+    private static class Canal {
+        final SocketChannel canal;
+        final String vecino;                 // null en conexiones entrantes
+        DespachadorConexiones.Serie serie;   // procesa en orden lo que llega
+        final Queue<Object> pendientes = new ConcurrentLinkedQueue<>();
+        ByteBuffer lectura = ByteBuffer.allocateDirect(BUFFER_INICIAL);
+        final ByteBuffer escritura = ByteBuffer.allocateDirect(BUFFER_INICIAL);
+        byte[] enCurso;                      // datos que no entraron enteros en 'escritura'
+        int enCursoPos;
+        volatile Formato formato = Formato.TEXTO;
+        volatile boolean lotes;              // el vecino acepta tramas de lote
+        long limiteNegociacion;
+        long limiteConexion;
+        long ultimoAvance;                   // última escritura que avanzó, o cuando hubo qué escribir
+        final AtomicInteger enCola = new AtomicInteger();   // mensajes en 'pendientes'
+        final AtomicLong descartados = new AtomicLong();
+
+        Canal(SocketChannel canal, String vecino) {
+            this.canal = canal;
+            this.vecino = vecino;
+            escritura.flip();
+        }
+    }
+
+    private final int puerto;
+    private final Receptor receptor;
+    private final DespachadorConexiones despachador;
+
+    private final Selector selector;
+    private final ServerSocketChannel servidor;
+    private final ConcurrentMap<String, Canal> salientes = new ConcurrentHashMap<>();
+    private final Set<String> soloTexto = ConcurrentHashMap.newKeySet();
+    // Vecinos cuya conexión falló, con el instante hasta el que se rechazan sus envíos
+    private final ConcurrentMap<String, Long> caidos = new ConcurrentHashMap<>();
+    private final Queue<Runnable> tareas = new ConcurrentLinkedQueue<>();
+    private volatile boolean activo = true;
+    // Vecinos a los que se propone el formato binario con lotes
+    private volatile Predicate<String> proponerLotes = v -> false;
+    private volatile Thread hiloSelector;
+
+    private Metricas metricas = new Metricas("", false);
+    private Metricas.Contador aceptadas, bytesEntrada, bytesSalida;
+    private HistogramaLatencia parseo;
+
+    private final int capacidadCola = Integer.getInteger("nodo.salida.capacidad", 1000);   // 0: sin límite
+    private final ColasSalida.Desborde desborde = ColasSalida.Desborde.porPropiedad();
+    private final long connectNanos = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("nodo.pool.connectMs", 3_000));
+    private final long escrituraNanos = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("nodo.pool.escrituraMs", 10_000));
+    private final long reintentoNanos = ColasSalida.reintentoNanos();
+
+    public TransporteNio(int puerto, Receptor receptor, DespachadorConexiones despachador) throws IOException {
+        this.puerto = puerto;
+        this.receptor = receptor;
+        this.despachador = despachador;
+        this.selector = Selector.open();
+        this.servidor = ServerSocketChannel.open();
+        setMetricas(metricas);
+    }
+
+    /** Métricas del transporte; se fija antes de iniciar. */
+    public void setMetricas(Metricas metricas) {
+        this.metricas = metricas;
+        this.aceptadas = metricas.contador("conexiones.aceptadas");
+        this.bytesEntrada = metricas.contador("bytes.entrada");
+        this.bytesSalida = metricas.contador("bytes.salida");
+        this.parseo = metricas.histograma("parseo");
+    }
+
+    public void setProponerLotes(Predicate<String> proponerLotes) {
+        this.proponerLotes = proponerLotes;
+    }
+
+    public static boolean seleccionadoPorPropiedad() {
+        return "nio".equalsIgnoreCase(System.getProperty("nodo.transporte", "bloqueante").trim());
+    }
+
+    public void iniciar() throws IOException {
+        servidor.bind(new InetSocketAddress(puerto));
+        servidor.configureBlocking(false);
+        servidor.register(selector, SelectionKey.OP_ACCEPT);
+
+        Thread t = new Thread(this::bucle, "nio-" + puerto);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void detener() {
+        activo = false;
+        selector.wakeup();
+    }
+
+    // ============================
+    //        ENVÍO
+    // ============================
+
+    // Los envíos devuelven false si el vecino está caído o no se le pudo conectar: el dato no
+    // se encoló y no va a salir. Un descarte por cola llena (con canal abierto) no cuenta.
+
+    /** Encola una línea de texto hacia un vecino ("ip_puerto"); conecta si hace falta. No bloquea. */
+    public boolean enviarLinea(String vecino, String linea) {
+        return encolar(vecino, (linea + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Encola un mensaje; se codifica en texto o binario según lo negociado con el vecino. No bloquea. */
+    public boolean enviar(String vecino, Mensaje m) {
+        return encolar(vecino, m);
+    }
+
+    /** Encola varios mensajes, en orden, para escribirlos juntos. No bloquea. */
+    public boolean enviarLote(String vecino, List<Mensaje> lote) {
+        if (lote.size() == 1)
+            return encolar(vecino, lote.get(0));
+        return encolar(vecino, lote);
+    }
+
+    /** false si el vecino está caído y los envíos hacia él se rechazarían. */
+    public boolean disponible(String vecino) {
+        return salientes.containsKey(vecino) || !caido(vecino);
+    }
+
+    private boolean encolar(String vecino, Object dato) {
+        Canal c = salientes.get(vecino);
+        if (c == null) {
+            if (caido(vecino)) return false;
+            try {
+                c = salientes.computeIfAbsent(vecino, this::conectar);
+            } catch (UncheckedIOException e) {
+                System.err.println("Error conectando con " + vecino + ": " + e.getCause().getMessage());
+                marcarCaido(vecino);
+                return false;
+            }
+        }
+
+        int mensajes = tamano(dato);
+        if (mensajes > 0) {
+            // Con bloquear solo se descarta si el canal se cerró mientras esperaba
+            if (capacidadCola > 0 && !hacerLugar(c, mensajes)) return c.canal.isOpen();
+            c.enCola.addAndGet(mensajes);
+        }
+        if (c.pendientes.isEmpty()) c.ultimoAvance = System.nanoTime();
+        c.pendientes.add(dato);
+        Canal destino = c;
+        ejecutarEnSelector(() -> interesEscritura(destino));
+        return true;
+    }
+
+    private boolean caido(String vecino) {
+        Long hasta = caidos.get(vecino);
+        if (hasta == null) return false;
+        if (hasta - System.nanoTime() > 0) return true;
+        caidos.remove(vecino, hasta);
+        return false;
+    }
+
+    private void marcarCaido(String vecino) {
+        if (caidos.put(vecino, System.nanoTime() + reintentoNanos) == null)
+            System.err.println("[WARN] " + vecino + " queda caído " + TimeUnit.NANOSECONDS.toMillis(reintentoNanos)
+                    + " ms; sus envíos se rechazan hasta entonces.");
+    }
+
+    // Mensajes que cuenta un dato de la cola; las líneas ya codificadas no cuentan
+    private static int tamano(Object dato) {
+        if (dato instanceof Mensaje) return 1;
+        if (dato instanceof List) return ((List<?>) dato).size();
+        return 0;
+    }
+
+    // Aplica la política de desborde; false si el dato nuevo se descarta
+    private boolean hacerLugar(Canal c, int mensajes) {
+        while (c.enCola.get() > 0 && c.enCola.get() + mensajes > capacidadCola) {
+            if (desborde == ColasSalida.Desborde.DESCARTAR_VIEJO && descartarMasViejo(c))
+                continue;
+            if (desborde == ColasSalida.Desborde.BLOQUEAR && Thread.currentThread() != hiloSelector
+                    && activo && c.canal.isOpen()) {
+                LockSupport.parkNanos(100_000);
+                continue;
+            }
+            descartados(c, mensajes);
+            return false;
+        }
+        return true;
+    }
+
+    // Quita de la cola el mensaje o lote más viejo; false si solo quedan líneas
+    private boolean descartarMasViejo(Canal c) {
+        for (Object dato : c.pendientes) {
+            if (dato instanceof byte[]) continue;
+            // Si el selector lo tomó antes, igual se liberó lugar
+            if (c.pendientes.remove(dato)) {
+                c.enCola.addAndGet(-tamano(dato));
+                descartados(c, tamano(dato));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void descartados(Canal c, int mensajes) {
+        long antes = c.descartados.getAndAdd(mensajes);
+        long ahora = antes + mensajes;
+        // Un aviso al empezar a descartar y después uno cada mil, no uno por mensaje
+        if (antes == 0 || antes / 1000 != ahora / 1000)
+            System.err.println("[WARN] Cola hacia " + c.vecino + " llena (" + capacidadCola + "); "
+                    + ahora + " mensajes descartados hasta ahora (" + desborde + ").");
+    }
+
+    private Canal conectar(String vecino) {
+        try {
+            String[] datos = vecino.split("_");
+            SocketChannel sc = SocketChannel.open();
+            sc.configureBlocking(false);
+            sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            sc.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            sc.connect(new InetSocketAddress(datos[0], Integer.parseInt(datos[1])));
+
+            Canal c = new Canal(sc, vecino);
+            c.serie = despachador.serieConAviso(() -> ejecutarEnSelector(() -> interesLectura(c)));
+            c.limiteConexion = System.nanoTime() + connectNanos;
+            if (Protocolo.binarioHabilitado() && !soloTexto.contains(vecino)) {
+                // Lo primero que sale es la propuesta; los mensajes esperan la respuesta
+                c.formato = Formato.NEGOCIANDO;
+                String propuesta = proponerLotes.test(vecino) ? Protocolo.HOLA_BINARIO_LOTES : Protocolo.HOLA_BINARIO;
+                c.enCurso = (propuesta + "\n").getBytes(StandardCharsets.UTF_8);
+                c.limiteNegociacion = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(Protocolo.esperaNegociacionMs());
+            }
+
+            ejecutarEnSelector(() -> {
+                try {
+                    sc.register(selector, SelectionKey.OP_CONNECT, c);
+                } catch (ClosedChannelException e) {
+                    cerrar(c);
+                }
+            });
+            return c;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void ejecutarEnSelector(Runnable tarea) {
+        tareas.add(tarea);
+        selector.wakeup();
+    }
+
+    private void interesEscritura(Canal c) {
+        SelectionKey k = c.canal.keyFor(selector);
+        if (k != null && k.isValid() && !c.canal.isConnectionPending())
+            k.interestOps(k.interestOps() | SelectionKey.OP_WRITE);
+    }
+
+    // Sin leer mientras la serie de la conexión está saturada: el control de flujo TCP frena
+    // al vecino, como el lector bloqueante que espera en Serie.execute
+    private void interesLectura(Canal c) {
+        SelectionKey k = c.canal.keyFor(selector);
+        if (k == null || !k.isValid() || c.canal.isConnectionPending()) return;
+        if (c.serie.saturada())
+            k.interestOps(k.interestOps() & ~SelectionKey.OP_READ);
+        else
+            k.interestOps(k.interestOps() | SelectionKey.OP_READ);
+    }
+
+    private void fijarFormato(Canal c, Formato formato) {
+        c.formato = formato;
+        if (formato == Formato.TEXTO && c.vecino != null) {
+            soloTexto.add(c.vecino);
+            System.out.println("[INFO] " + c.vecino + " solo habla texto; se usa el formato texto.");
+        }
+        interesEscritura(c);
+    }
+
+    // ============================
+    //       BUCLE DEL SELECTOR
+    // ============================
+
+    private void bucle() {
+        System.out.println("PC escuchando (NIO) en puerto " + puerto);
+        hiloSelector = Thread.currentThread();
+
+        while (activo) {
+            try {
+                selector.select(hayVencimientos() ? 50 : 0);
+
+                Runnable tarea;
+                while ((tarea = tareas.poll()) != null)
+                    tarea.run();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey k = it.next();
+                    it.remove();
+                    atender(k);
+                }
+
+                vencer();
+            } catch (IOException e) {
+                System.err.println("Error en selector: " + e.getMessage());
+            }
+        }
+
+        cerrarTodo();
+    }
+
+    // Canales con algo que puede vencer: el selector se despierta para revisarlos
+    private boolean hayVencimientos() {
+        for (Canal c : salientes.values())
+            if (c.formato == Formato.NEGOCIANDO || c.canal.isConnectionPending() || tieneSalida(c)) return true;
+        return false;
+    }
+
+    private static boolean tieneSalida(Canal c) {
+        return c.escritura.hasRemaining() || c.enCurso != null || !c.pendientes.isEmpty();
+    }
+
+    private void vencer() {
+        long ahora = System.nanoTime();
+        for (Canal c : salientes.values()) {
+            if (c.canal.isConnectionPending()) {
+                if (ahora - c.limiteConexion > 0) {
+                    System.err.println("Error conectando con " + c.vecino + ": timeout de conexión");
+                    marcarCaido(c.vecino);
+                    cerrar(c);
+                }
+            } else if (c.formato == Formato.NEGOCIANDO && ahora - c.limiteNegociacion > 0) {
+                reconectarEnTexto(c);
+            } else if (tieneSalida(c) && ahora - c.ultimoAvance > escrituraNanos) {
+                System.err.println("Error con vecino " + c.vecino + ": no lee desde hace más de "
+                        + TimeUnit.NANOSECONDS.toMillis(escrituraNanos) + " ms");
+                marcarCaido(c.vecino);
+                cerrar(c);
+            }
+        }
+    }
+
+    // Un vecino que no contesta la propuesta a tiempo solo habla texto, pero una respuesta
+    // tardía lo pasaría a binario en este canal: se abre otro en texto y se pasan los mensajes
+    private void reconectarEnTexto(Canal c) {
+        soloTexto.add(c.vecino);
+        System.out.println("[INFO] " + c.vecino + " no respondió la propuesta de formato; se reconecta en texto.");
+        Canal nuevo;
+        try {
+            nuevo = conectar(c.vecino);
+        } catch (UncheckedIOException e) {
+            System.err.println("Error conectando con " + c.vecino + ": " + e.getCause().getMessage());
+            marcarCaido(c.vecino);
+            cerrar(c);
+            return;
+        }
+        salientes.replace(c.vecino, c, nuevo);
+        Object dato;
+        while ((dato = c.pendientes.poll()) != null) {
+            int mensajes = tamano(dato);
+            c.enCola.addAndGet(-mensajes);
+            nuevo.enCola.addAndGet(mensajes);
+            nuevo.pendientes.add(dato);
+        }
+        nuevo.ultimoAvance = System.nanoTime();
+        cerrar(c);
+    }
+
+    private void atender(SelectionKey k) {
+        Canal c = (Canal) k.attachment();
+        try {
+            if (!k.isValid()) return;
+
+            if (k.isAcceptable()) {
+                aceptar();
+                return;
+            }
+            if (k.isConnectable()) {
+                c.canal.finishConnect();
+                k.interestOps((c.serie.saturada() ? 0 : SelectionKey.OP_READ) | SelectionKey.OP_WRITE);
+                return;
+            }
+            if (k.isReadable())
+                leer(c);
+            if (k.isValid() && k.isWritable())
+                escribir(c, k);
+
+        } catch (IOException | RuntimeException e) {
+            if (c != null && c.vecino != null) {
+                System.err.println("Error con vecino " + c.vecino + ": " + e.getMessage());
+                marcarCaido(c.vecino);
+            }
+            if (c != null) cerrar(c);
+        }
+    }
+
+    private void aceptar() throws IOException {
+        SocketChannel sc = servidor.accept();
+        if (sc == null) return;
+
+        aceptadas.sumar();
+        sc.configureBlocking(false);
+        sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Canal c = new Canal(sc, null);
+        // El hilo del selector no puede esperar a que se libere lugar: con la serie saturada
+        // deja de leer de esta conexión (interesLectura)
+        c.serie = despachador.serieConAviso(() -> ejecutarEnSelector(() -> interesLectura(c)));
+        sc.register(selector, SelectionKey.OP_READ, c);
+    }
+
+    // ============================
+    //          LECTURA
+    // ============================
+
+    private void leer(Canal c) throws IOException {
+        int n = c.canal.read(c.lectura);
+        if (n < 0) {
+            cerrar(c);
+            return;
+        }
+        bytesEntrada.sumar(n);
+
+        ByteBuffer buf = c.lectura;
+        buf.flip();
+        while (c.formato != Formato.FLUJO
+                && (c.formato == Formato.BINARIO ? extraerTrama(c, buf) : extraerLinea(c, buf))) {
+            // cada vuelta consume una línea o una trama completa
+        }
+        if (c.formato == Formato.FLUJO) {
+            entregarFlujo(c, buf);
+            return;
+        }
+        buf.compact();
+
+        // Línea o trama más larga que el buffer: se duplica (hasta TRAMA_MAXIMA)
+        if (!buf.hasRemaining()) {
+            if (buf.capacity() > Protocolo.TRAMA_MAXIMA)
+                throw new IOException("Línea o trama demasiado larga");
+            ByteBuffer mayor = ByteBuffer.allocateDirect(buf.capacity() * 2);
+            buf.flip();
+            mayor.put(buf);
+            c.lectura = mayor;
+        }
+    }
+
+    private boolean extraerLinea(Canal c, ByteBuffer buf) {
+        int inicio = buf.position();
+        for (int i = inicio; i < buf.limit(); i++) {
+            if (buf.get(i) != '\n') continue;
+
+            int fin = (i > inicio && buf.get(i - 1) == '\r') ? i - 1 : i;
+            byte[] bytes = new byte[fin - inicio];
+            buf.get(inicio, bytes);
+            buf.position(i + 1);
+            alRecibirLinea(c, new String(bytes, StandardCharsets.UTF_8));
+            return true;
+        }
+        return false;
+    }
+
+    private boolean extraerTrama(Canal c, ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 4) return false;
+
+        int inicio = buf.position();
+        int longitud = buf.getInt(inicio);
+        if (longitud < 0 || longitud > Protocolo.TRAMA_MAXIMA)
+            throw new IOException("Longitud de trama inválida: " + longitud);
+        if (buf.remaining() < 4 + longitud) return false;
+
+        ByteBuffer trama = buf.slice(inicio + 4, longitud);
+        buf.position(inicio + 4 + longitud);
+        EventosJfr.Recibido ev = new EventosJfr.Recibido();
+        ev.begin();
+        long t0 = metricas.ahoraMuestreado();
+        if (Protocolo.esLote(trama)) {
+            // Un lote es una sola tarea: el despachador recibe una por trama, no por mensaje
+            List<Mensaje> lote = Protocolo.leerLote(trama, receptor::armar);
+            metricas.medir(parseo, t0);
+            ev.emitirLote(4 + longitud, lote.size());
+            if (!lote.isEmpty()) c.serie.execute(() -> lote.forEach(receptor::alRecibirMensaje));
+        } else {
+            Mensaje m = receptor.armar(new VistaMensaje(trama));
+            metricas.medir(parseo, t0);
+            ev.emitir("binario", 4 + longitud, m);
+            if (m != null) c.serie.execute(() -> receptor.alRecibirMensaje(m));
+        }
+        return true;
+    }
+
+    private void alRecibirLinea(Canal c, String linea) {
+        if (c.formato == Formato.NEGOCIANDO) {
+            c.lotes = Protocolo.OK_BINARIO_LOTES.equals(linea);
+            fijarFormato(c, c.lotes || Protocolo.OK_BINARIO.equals(linea) ? Formato.BINARIO : Formato.TEXTO);
+            return;
+        }
+        if (c.vecino == null && linea.equals(Protocolo.INICIO_FLUJO)) {
+            c.formato = Formato.FLUJO;
+            return;
+        }
+        if (c.vecino == null && (linea.equals(Protocolo.HOLA_BINARIO) || linea.equals(Protocolo.HOLA_BINARIO_LOTES))) {
+            // El cambio de formato tiene que ocurrir ya: lo que sigue en el buffer son tramas
+            String ok = linea.equals(Protocolo.HOLA_BINARIO) ? Protocolo.OK_BINARIO : Protocolo.OK_BINARIO_LOTES;
+            c.pendientes.add((ok + "\n").getBytes(StandardCharsets.UTF_8));
+            c.formato = Formato.BINARIO;
+            interesEscritura(c);
+            return;
+        }
+        if (c.vecino == null && Protocolo.esPropuesta(linea)) {
+            c.pendientes.add((Protocolo.NO_BINARIO + "\n").getBytes(StandardCharsets.UTF_8));
+            interesEscritura(c);
+            return;
+        }
+
+        c.serie.execute(() -> {
+            String respuesta = receptor.alRecibirLinea(linea);
+            if (respuesta != null) {
+                c.pendientes.add((respuesta + "\n").getBytes(StandardCharsets.UTF_8));
+                ejecutarEnSelector(() -> interesEscritura(c));
+            }
+        });
+    }
+
+    // ============================
+    //           FLUJOS
+    // ============================
+
+    // El flujo puede durar mucho: sale del selector y lo lee un hilo propio, con lo que
+    // quedó en el buffer como comienzo
+    private void entregarFlujo(Canal c, ByteBuffer buf) {
+        byte[] sobrante = new byte[buf.remaining()];
+        buf.get(sobrante);
+        SelectionKey k = c.canal.keyFor(selector);
+        if (k != null) k.cancel();
+
+        Thread t = new Thread(() -> {
+            try (CanalBloqueante flujo = new CanalBloqueante(c.canal, sobrante, PoolConexiones.inactividadServidorMs())) {
+                receptor.alRecibirFlujo(flujo.entrada, flujo.salida);
+            } catch (IOException e) {
+                System.err.println("Error recibiendo flujo: " + e.getMessage());
+            }
+        }, "flujo-" + puerto);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Un canal no bloqueante visto como InputStream/OutputStream bloqueantes, con un Selector
+     * propio para esperar datos o lugar para escribir.
+     */
+    private static final class CanalBloqueante implements Closeable {
+        private final SocketChannel canal;
+        private final Selector espera;
+        private final SelectionKey clave;
+        private final int timeoutMs;
+        private final ByteBuffer sobrante;
+        final InputStream entrada;
+        final OutputStream salida;
+
+        CanalBloqueante(SocketChannel canal, byte[] sobrante, int timeoutMs) throws IOException {
+            this.canal = canal;
+            this.espera = Selector.open();
+            this.clave = canal.register(espera, 0);
+            this.timeoutMs = timeoutMs;
+            this.sobrante = ByteBuffer.wrap(sobrante);
+
+            this.entrada = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] uno = new byte[1];
+                    return read(uno, 0, 1) < 0 ? -1 : uno[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return leer(ByteBuffer.wrap(b, off, len));
+                }
+            };
+            this.salida = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    escribir(ByteBuffer.wrap(b, off, len));
+                }
+            };
+        }
+
+        private int leer(ByteBuffer destino) throws IOException {
+            if (!destino.hasRemaining()) return 0;
+            if (sobrante.hasRemaining()) {
+                int n = Math.min(destino.remaining(), sobrante.remaining());
+                destino.put(sobrante.array(), sobrante.position(), n);
+                sobrante.position(sobrante.position() + n);
+                return n;
+            }
+            while (true) {
+                int n = canal.read(destino);
+                if (n != 0) return n;
+                esperar(SelectionKey.OP_READ);
+            }
+        }
+
+        private void escribir(ByteBuffer origen) throws IOException {
+            while (origen.hasRemaining())
+                if (canal.write(origen) == 0) esperar(SelectionKey.OP_WRITE);
+        }
+
+        private void esperar(int operacion) throws IOException {
+            clave.interestOps(operacion);
+            if (espera.select(timeoutMs) == 0)
+                throw new SocketTimeoutException("Flujo sin actividad por " + timeoutMs + " ms");
+            espera.selectedKeys().clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                espera.close();
+            } finally {
+                canal.close();
+            }
+        }
+    }
+
+    // ============================
+    //          ESCRITURA
+    // ============================
+
+    private void escribir(Canal c, SelectionKey k) throws IOException {
+        ByteBuffer buf = c.escritura;
+
+        while (true) {
+            if (!buf.hasRemaining()) {
+                // Se agrupan los datos pendientes en el buffer directo para escribirlos juntos
+                buf.clear();
+                llenar(c, buf);
+                buf.flip();
+                if (!buf.hasRemaining()) {
+                    k.interestOps(k.interestOps() & ~SelectionKey.OP_WRITE);
+                    // Algo pudo encolarse entre llenar() y quitar el interés
+                    if (!c.pendientes.isEmpty() && c.formato != Formato.NEGOCIANDO)
+                        k.interestOps(k.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+
+            int n = c.canal.write(buf);
+            if (n > 0) {
+                c.ultimoAvance = System.nanoTime();
+                bytesSalida.sumar(n);
+            }
+            if (buf.hasRemaining()) return;   // buffer del socket lleno: seguir en el próximo OP_WRITE
+        }
+    }
+
+    private void llenar(Canal c, ByteBuffer buf) {
+        while (buf.hasRemaining()) {
+            if (c.enCurso == null) {
+                // Mientras se negocia solo sale la propuesta, que ya está en enCurso
+                if (c.formato == Formato.NEGOCIANDO) return;
+
+                Object dato = c.pendientes.poll();
+                if (dato == null) return;
+                c.enCola.addAndGet(-tamano(dato));
+
+                if (dato instanceof byte[]) {
+                    c.enCurso = (byte[]) dato;
+                } else if (dato instanceof List) {
+                    @SuppressWarnings("unchecked")
+                    List<Mensaje> lote = (List<Mensaje>) dato;
+                    if (!codificarLoteEn(c, lote, buf)) continue;
+                } else if (!codificarEn(c, (Mensaje) dato, buf)) {
+                    continue;
+                }
+                c.enCursoPos = 0;
+            }
+            int n = Math.min(buf.remaining(), c.enCurso.length - c.enCursoPos);
+            buf.put(c.enCurso, c.enCursoPos, n);
+            c.enCursoPos += n;
+            if (c.enCursoPos == c.enCurso.length) c.enCurso = null;
+        }
+    }
+
+    /**
+     * Codifica m según el formato del canal. Si la trama binaria entra en buf se escribe
+     * directamente ahí y devuelve false; si no, la deja en c.enCurso y devuelve true.
+     */
+    private boolean codificarEn(Canal c, Mensaje m, ByteBuffer buf) {
+        if (c.formato == Formato.TEXTO) {
+            c.enCurso = (m.aTexto() + "\n").getBytes(StandardCharsets.UTF_8);
+            return true;
+        }
+
+        int tamano = m.tamanoBinario();
+        if (buf.remaining() >= 4 + tamano) {
+            buf.putInt(tamano);
+            m.escribirBinario(buf);
+            return false;
+        }
+
+        ByteBuffer trama = ByteBuffer.allocate(4 + tamano);
+        trama.putInt(tamano);
+        m.escribirBinario(trama);
+        c.enCurso = trama.array();
+        return true;
+    }
+
+    // Como codificarEn: la trama de lote, o sin lotes cada mensaje, mientras entren en buf
+    private boolean codificarLoteEn(Canal c, List<Mensaje> lote, ByteBuffer buf) {
+        if (c.formato == Formato.BINARIO && c.lotes) {
+            int[] tamanos = new int[lote.size()];
+            int tamano = Protocolo.tamanoLote(lote, tamanos);
+            ByteBuffer trama = buf.remaining() >= 4 + tamano ? buf : ByteBuffer.allocate(4 + tamano);
+            trama.putInt(tamano);
+            Protocolo.escribirLote(trama, lote, tamanos);
+            if (trama == buf) return false;
+            c.enCurso = trama.array();
+            return true;
+        }
+
+        // Desde el primero que no entra, todos van a enCurso para no desordenarlos
+        ByteArrayOutputStream resto = null;
+        for (Mensaje m : lote) {
+            if (resto == null) {
+                if (!codificarEn(c, m, buf)) continue;
+                resto = new ByteArrayOutputStream();
+            } else {
+                codificarEn(c, m, SIN_LUGAR);
+            }
+            resto.write(c.enCurso, 0, c.enCurso.length);
+            c.enCurso = null;
+        }
+        if (resto == null) return false;
+        c.enCurso = resto.toByteArray();
+        return true;
+    }
+
+    private void cerrar(Canal c) {
+        if (c.vecino != null) {
+            salientes.remove(c.vecino, c);
+            if (c.enCola.get() > 0) {
+                System.err.println("Se descartan " + c.enCola.get() + " mensajes hacia " + c.vecino);
+                metricas.contador("envio.fallos " + c.vecino).sumar(c.enCola.get());
+            }
+        }
+        try {
+            c.canal.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void cerrarTodo() {
+        for (SelectionKey k : selector.keys()) {
+            try {
+                k.channel().close();
+            } catch (IOException ignored) {}
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+}
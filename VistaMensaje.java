@@ -0,0 +1,259 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vista de solo lectura de un mensaje recibido, sobre la línea de texto o la trama binaria tal
+ * como llegaron. Al crearla solo se ubican los campos de la cabecera de ruteo (posiciones en el
+ * texto o en el buffer) y se leen el id y el ttl; el resto se decodifica recién si alguien lo
+ * pide. Preguntar si el mensaje es para un nodo o si ya pasó por él no crea ningún objeto.
+ *
+ * Sirve para decidir antes de armar el {@link Mensaje}: un duplicado se descarta con solo leer
+ * su id. Para procesarlo, {@link #aMensaje()} lo arma con cabeceraDesdeTexto/Binario; uno que
+ * solo pasa por este nodo, {@link #paraReenviar} lo arma sobre la trama recibida, sin volver a
+ * leerla ni a codificar su cabecera al reenviarlo.
+ *
+ * La vista de una trama apunta al buffer de quien la leyó: vale mientras ese buffer no cambie
+ * (hasta la próxima lectura del socket). Para guardar el mensaje, aMensaje().
+ */
+public final class VistaMensaje {
+
+    // Formato texto: texto != null y las posiciones son índices del texto
+    private final String texto;
+    // Formato binario: posiciones absolutas en la trama, que va de base hasta su límite
+    private final ByteBuffer trama;
+    private final int base;
+
+    private int inicioDestino, finDestino;
+    private int inicioCantidad;        // binario: varint con la cantidad de nodos
+    private int inicioCamino, finCamino;
+    private int saltos;
+    private long id;
+    private int ttl = Mensaje.TTL_POR_DEFECTO;
+
+    private String destino;
+
+    public VistaMensaje(String texto) {
+        this.texto = texto;
+        this.trama = null;
+        this.base = 0;
+
+        int finOrigen = texto.indexOf(';');
+        int finDest = finOrigen < 0 ? -1 : texto.indexOf(';', finOrigen + 1);
+        int antesCamino = texto.lastIndexOf(';');
+        if (finDest < 0 || antesCamino <= finDest)
+            throw new IllegalArgumentException("Formato de mensaje inválido, se esperaban 7 u 8 partes");
+        inicioDestino = finOrigen + 1;
+        finDestino = finDest;
+
+        // Como en Mensaje.cabeceraDesdeTexto: el campo anterior al camino es de extensiones si tiene '='
+        int anterior = texto.lastIndexOf(';', antesCamino - 1);
+        if (anterior > finDest) {
+            int igual = texto.indexOf('=', anterior + 1);
+            if (igual >= 0 && igual < antesCamino) leerExtensiones(anterior + 1, antesCamino);
+        }
+
+        inicioCamino = antesCamino + 1;
+        finCamino = texto.length();
+        for (int i = inicioCamino; i < finCamino; ) {
+            int coma = finDeNodo(i);
+            if (coma > i) saltos++;
+            i = coma + 1;
+        }
+    }
+
+    /** La trama desde su posición hasta su límite, sin los 4 bytes de longitud. No la mueve. */
+    public VistaMensaje(ByteBuffer trama) {
+        this.texto = null;
+        this.trama = trama;
+        this.base = trama.position();
+
+        int p = base;
+        byte version = trama.get(p++);
+        if (version != Mensaje.VERSION_BINARIA)
+            throw new IllegalArgumentException("Versión de formato binario no soportada: " + version);
+        int flags = trama.get(p++);
+        id = trama.getLong(p);
+        p += 8;
+        ttl = trama.get(p++) & 0xFF;
+        if ((flags & 0x01) != 0) p += 8;   // sesión
+
+        p = saltarCadena(p);               // otras extensiones
+        int longitud = leerVarint(p);
+        inicioDestino = p + tamanoVarint(p);
+        finDestino = inicioDestino + longitud;
+        p = finDestino;
+
+        inicioCantidad = p;
+        saltos = leerVarint(p);
+        inicioCamino = p + tamanoVarint(p);
+        p = inicioCamino;
+        for (int i = 0; i < saltos; i++) p = saltarCadena(p);
+        finCamino = p;
+        if (finCamino > trama.limit()) throw new IllegalArgumentException("Trama más corta que su cabecera");
+    }
+
+    public long getId() { return id; }
+    public int getTtl() { return ttl; }
+
+    /** Nodos en el camino. */
+    public int saltos() { return saltos; }
+
+    public boolean esBinario() { return texto == null; }
+
+    // ============================
+    //           CONSULTAS
+    // ============================
+
+    /** Si el destino es nombre, sin decodificarlo. */
+    public boolean destinoEs(String nombre) {
+        if (destino != null) return destino.equals(nombre);
+        return igual(inicioDestino, finDestino, nombre);
+    }
+
+    public String getDestino() {
+        String d = destino;
+        if (d == null) destino = d = cadena(inicioDestino, finDestino);
+        return d;
+    }
+
+    /** Si nodo ya está en el camino, sin decodificar los nombres. */
+    public boolean caminoContiene(String nodo) {
+        if (texto != null) {
+            for (int i = inicioCamino; i < finCamino; ) {
+                int coma = finDeNodo(i);
+                if (coma > i && igual(i, coma, nodo)) return true;
+                i = coma + 1;
+            }
+            return false;
+        }
+        int p = inicioCamino;
+        for (int i = 0; i < saltos; i++) {
+            int inicio = p + tamanoVarint(p);
+            int fin = inicio + leerVarint(p);
+            if (igual(inicio, fin, nodo)) return true;
+            p = fin;
+        }
+        return false;
+    }
+
+    /** El camino decodificado; crea la lista y un String por nodo. */
+    public List<String> getCamino() {
+        List<String> camino = new ArrayList<>(saltos);
+        if (texto != null) {
+            for (int i = inicioCamino; i < finCamino; ) {
+                int coma = finDeNodo(i);
+                if (coma > i) camino.add(texto.substring(i, coma));
+                i = coma + 1;
+            }
+            return camino;
+        }
+        int p = inicioCamino;
+        for (int i = 0; i < saltos; i++) {
+            int inicio = p + tamanoVarint(p);
+            int fin = inicio + leerVarint(p);
+            camino.add(cadena(inicio, fin));
+            p = fin;
+        }
+        return camino;
+    }
+
+    /** El mensaje para procesarlo o guardarlo; con una trama, copia lo que hace falta del buffer. */
+    public Mensaje aMensaje() {
+        if (texto != null) return Mensaje.cabeceraDesdeTexto(texto);
+        ByteBuffer copia = trama.duplicate();
+        copia.position(base);
+        return Mensaje.cabeceraDesdeBinario(copia);
+    }
+
+    /**
+     * El mensaje para reenviarlo, con nodo agregado al camino. Con una trama, la copia entera
+     * una vez y el mensaje la vuelve a escribir tal cual, cambiando solo el ttl y el camino
+     * (ver Mensaje.deTrama); en texto es aMensaje, que ya reenvía el cuerpo sin tocarlo.
+     */
+    public Mensaje paraReenviar(String nodo) {
+        Mensaje m;
+        if (texto != null) {
+            m = Mensaje.cabeceraDesdeTexto(texto);
+        } else {
+            byte[] copia = new byte[trama.limit() - base];
+            trama.get(base, copia);
+            m = Mensaje.deTrama(copia, inicioCantidad - base, inicioCamino - base, finCamino - base,
+                    getDestino(), getCamino());
+        }
+        m.agregarAlCamino(nodo);
+        return m;
+    }
+
+    // ============================
+    //          AUXILIARES
+    // ============================
+
+    // Extensiones en texto, sin separarlas: solo id y ttl hacen falta antes de armar el mensaje
+    private void leerExtensiones(int desde, int hasta) {
+        for (int i = desde; i < hasta; ) {
+            int coma = texto.indexOf(',', i);
+            if (coma < 0 || coma > hasta) coma = hasta;
+            int igual = texto.indexOf('=', i);
+            if (igual > i && igual < coma) {
+                if (igual - i == 2 && texto.startsWith("id", i))
+                    id = Long.parseUnsignedLong(texto, igual + 1, coma, 16);
+                else if (igual - i == 3 && texto.startsWith("ttl", i))
+                    ttl = Integer.parseInt(texto, igual + 1, coma, 10);
+            }
+            i = coma + 1;
+        }
+    }
+
+    private int finDeNodo(int desde) {
+        int coma = texto.indexOf(',', desde);
+        return coma < 0 ? finCamino : coma;
+    }
+
+    // Compara [desde, hasta) con s; en binario byte a byte si s es ASCII, que es lo normal (ip_puerto)
+    private boolean igual(int desde, int hasta, String s) {
+        if (texto != null) return hasta - desde == s.length() && texto.startsWith(s, desde);
+        if (hasta - desde != s.length()) {
+            // Con caracteres de más de un byte las longitudes no coinciden: se decodifica
+            return hasta - desde > s.length() && cadena(desde, hasta).equals(s);
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) return cadena(desde, hasta).equals(s);
+            if (trama.get(desde + i) != (byte) c) return false;
+        }
+        return true;
+    }
+
+    private String cadena(int desde, int hasta) {
+        if (texto != null) return texto.substring(desde, hasta);
+        byte[] b = new byte[hasta - desde];
+        trama.get(desde, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private int saltarCadena(int p) {
+        return p + tamanoVarint(p) + leerVarint(p);
+    }
+
+    // Varint como Protocolo.leerVarint, pero en una posición absoluta
+    private int leerVarint(int p) {
+        int valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 32; desplazamiento += 7) {
+            byte b = trama.get(p++);
+            valor |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                if (valor < 0) throw new IllegalArgumentException("Varint negativo");
+                return valor;
+            }
+        }
+        throw new IllegalArgumentException("Varint demasiado largo");
+    }
+
+    private int tamanoVarint(int p) {
+        int n = 1;
+        while ((trama.get(p++) & 0x80) != 0) n++;
+        return n;
+    }
+}
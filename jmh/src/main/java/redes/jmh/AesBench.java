@@ -0,0 +1,67 @@
+package redes.jmh;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cifrar y descifrar el contenido con AES-CBC (el formato original) y AES-GCM (sesiones),
+ * desde un mensaje chico hasta uno de 256 KB. Cifrar incluye generar el IV.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AesBench {
+
+    @Param({"64", "1024", "16384", "262144"})
+    int tamano;
+
+    private byte[] datos;
+    private SecretKey clave;
+    private byte[] claveBytes;
+    private byte[] aad;
+    private byte[] cifradoCbc;
+    private byte[] ivCbc;
+    private byte[] cifradoGcm;
+    private byte[] ivGcm;
+
+    @Setup
+    public void preparar() throws Throwable {
+        datos = MensajeBench.bytes(new Random(42), tamano);
+        clave = (SecretKey) Puente.GENERAR_CLAVE_AES.invokeExact();
+        claveBytes = clave.getEncoded();
+        aad = "10.0.0.1_5000;10.0.0.99_5000".getBytes(StandardCharsets.UTF_8);
+
+        Object cbc = (Object) Puente.CIFRAR_AES.invokeExact(datos, clave);
+        cifradoCbc = (byte[]) Puente.AES_CIFRADO.invokeExact(cbc);
+        ivCbc = (byte[]) Puente.AES_IV.invokeExact(cbc);
+        Object gcm = (Object) Puente.CIFRAR_AES_GCM.invokeExact(datos, clave, aad);
+        cifradoGcm = (byte[]) Puente.AES_CIFRADO.invokeExact(gcm);
+        ivGcm = (byte[]) Puente.AES_IV.invokeExact(gcm);
+    }
+
+    @Benchmark
+    public Object cifrarCbc() throws Throwable {
+        return (Object) Puente.CIFRAR_AES.invokeExact(datos, clave);
+    }
+
+    @Benchmark
+    public byte[] descifrarCbc() throws Throwable {
+        return (byte[]) Puente.DESCIFRAR_AES.invokeExact(cifradoCbc, ivCbc, claveBytes);
+    }
+
+    @Benchmark
+    public Object cifrarGcm() throws Throwable {
+        return (Object) Puente.CIFRAR_AES_GCM.invokeExact(datos, clave, aad);
+    }
+
+    @Benchmark
+    public byte[] descifrarGcm() throws Throwable {
+        return (byte[]) Puente.DESCIFRAR_AES_GCM.invokeExact(cifradoGcm, ivGcm, claveBytes, aad);
+    }
+}
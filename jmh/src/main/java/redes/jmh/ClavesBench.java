@@ -0,0 +1,56 @@
+package redes.jmh;
+
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Las claves de cada mensaje: generar la clave AES y leer la clave pública RSA del destino
+ * desde su hex. Encriptador reutiliza el KeyGenerator y la KeyFactory de cada hilo
+ * (MotorCripto); las variantes "Nueva" crean la instancia en cada llamada, como el código
+ * original, para medir lo que ahorra la reutilización.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClavesBench {
+
+    private String claveHex;
+
+    @Setup
+    public void preparar() throws Throwable {
+        byte[] claveDer = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic().getEncoded();
+        claveHex = (String) Puente.BYTES_A_HEX.invokeExact(claveDer);
+    }
+
+    @Benchmark
+    public SecretKey generarClaveAES() throws Throwable {
+        return (SecretKey) Puente.GENERAR_CLAVE_AES.invokeExact();
+    }
+
+    @Benchmark
+    public SecretKey generarClaveAESNueva() throws Exception {
+        KeyGenerator kgen = KeyGenerator.getInstance("AES");
+        kgen.init(128);
+        return kgen.generateKey();
+    }
+
+    @Benchmark
+    public PublicKey publicKeyFromHex() throws Throwable {
+        return (PublicKey) Puente.CLAVE_PUBLICA_DESDE_HEX.invokeExact(claveHex);
+    }
+
+    @Benchmark
+    public PublicKey publicKeyFromHexNueva() throws Throwable {
+        byte[] der = (byte[]) Puente.HEX_A_BYTES.invokeExact(claveHex);
+        return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(der));
+    }
+}
@@ -0,0 +1,41 @@
+package redes.jmh;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Firmar (SHA256withRSA, firma en hex) y verificar 1 KB de contenido cifrado, con claves
+ * como las del nodo. El costo es casi todo RSA; el tamaño del contenido apenas cambia el hash.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FirmaBench {
+
+    private KeyPair claves;
+    private byte[] datos;
+    private String firma;
+
+    @Setup
+    public void preparar() throws Throwable {
+        claves = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        datos = MensajeBench.bytes(new Random(42), 1024);
+        firma = (String) Puente.FIRMAR.invokeExact(datos, claves.getPrivate());
+    }
+
+    @Benchmark
+    public String firmar() throws Throwable {
+        return (String) Puente.FIRMAR.invokeExact(datos, claves.getPrivate());
+    }
+
+    @Benchmark
+    public boolean verificarFirma() throws Throwable {
+        return (boolean) Puente.VERIFICAR_FIRMA.invokeExact(datos, firma, claves.getPublic());
+    }
+}
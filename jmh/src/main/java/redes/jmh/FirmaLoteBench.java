@@ -0,0 +1,87 @@
+package redes.jmh;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Verificar un lote de firmas una por una y con FirmaDigital.verificarLote, según el tamaño
+ * del lote. Como en ComparacionFirmaLote, el lote mezcla dos orígenes (una ráfaga que llega
+ * por un vecino) y cada firma es de 256 B de datos.
+ *
+ * Cada operación verifica un lote entero, así que ops/s depende del tamaño; el contador
+ * "verificaciones" da las firmas verificadas por segundo, comparables entre tamaños.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FirmaLoteBench {
+
+    @Param({"1", "8", "32", "128"})
+    public int lote;
+
+    private List<Object> verificaciones;
+    private byte[][] datos;
+    private byte[][] firmas;
+    private PublicKey[] clavePorFirma;
+    private Function<String, PublicKey> claves;
+
+    /** Firmas verificadas en la iteración; JMH lo informa por segundo. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Contador {
+        public long verificaciones;
+
+        @Setup(Level.Iteration)
+        public void reiniciar() {
+            verificaciones = 0;
+        }
+    }
+
+    @Setup
+    public void preparar() throws Throwable {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        KeyPair[] pares = {kpg.generateKeyPair(), kpg.generateKeyPair()};
+        claves = Map.of("a", pares[0].getPublic(), "b", pares[1].getPublic())::get;
+
+        Random rnd = new Random(42);
+        verificaciones = new ArrayList<>(lote);
+        datos = new byte[lote][];
+        firmas = new byte[lote][];
+        clavePorFirma = new PublicKey[lote];
+        for (int i = 0; i < lote; i++) {
+            int quien = i % 2;
+            String origen = quien == 0 ? "a" : "b";
+            datos[i] = MensajeBench.bytes(rnd, 256);
+            firmas[i] = (byte[]) Puente.FIRMAR_BYTES.invokeExact(datos[i], pares[quien].getPrivate());
+            clavePorFirma[i] = pares[quien].getPublic();
+            verificaciones.add((Object) Puente.NUEVA_VERIFICACION.invokeExact(datos[i], firmas[i], origen));
+        }
+    }
+
+    @Benchmark
+    public int verificarUnaPorUna(Contador contador) throws Throwable {
+        int validas = 0;
+        for (int i = 0; i < lote; i++)
+            if ((boolean) Puente.VERIFICAR_FIRMA_BYTES.invokeExact(datos[i], firmas[i], clavePorFirma[i])) validas++;
+        contador.verificaciones += lote;
+        return validas;
+    }
+
+    @Benchmark
+    public boolean[] verificarLote(Contador contador) throws Throwable {
+        boolean[] resultado = (boolean[]) Puente.VERIFICAR_LOTE.invokeExact((List<?>) verificaciones, claves);
+        contador.verificaciones += lote;
+        return resultado;
+    }
+}
@@ -0,0 +1,78 @@
+package redes.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Codec hex de Encriptador, con los tamaños de los campos del formato texto: IV (16), clave
+ * RSA o firma (256), un contenido cifrado de 4 KB y contenidos grandes de 64 KB y 1 MB.
+ *
+ * Mide bytesToHex / hexToBytes, las variantes que escriben en un buffer del llamador
+ * (escribirHex / leerHex) y, como referencia, el codec original (String.format por byte y
+ * Character.digit por dígito).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HexBench {
+
+    @Param({"16", "256", "4096", "65536", "1048576"})
+    int tamano;
+
+    private byte[] datos;
+    private String hex;
+    private char[] bufferHex;
+    private byte[] bufferBytes;
+
+    @Setup
+    public void preparar() throws Throwable {
+        datos = MensajeBench.bytes(new Random(42), tamano);
+        hex = (String) Puente.BYTES_A_HEX.invokeExact(datos);
+        bufferHex = new char[2 * tamano];
+        bufferBytes = new byte[tamano];
+    }
+
+    @Benchmark
+    public String bytesToHex() throws Throwable {
+        return (String) Puente.BYTES_A_HEX.invokeExact(datos);
+    }
+
+    @Benchmark
+    public byte[] hexToBytes() throws Throwable {
+        return (byte[]) Puente.HEX_A_BYTES.invokeExact(hex);
+    }
+
+    @Benchmark
+    public int escribirHex() throws Throwable {
+        return (int) Puente.ESCRIBIR_HEX.invokeExact(datos, 0, tamano, bufferHex, 0);
+    }
+
+    @Benchmark
+    public int leerHex() throws Throwable {
+        return (int) Puente.LEER_HEX.invokeExact((CharSequence) hex, 0, hex.length(), bufferBytes, 0);
+    }
+
+    @Benchmark
+    public String bytesToHexOriginal() {
+        StringBuilder sb = new StringBuilder(datos.length * 2);
+        for (byte b : datos) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public byte[] hexToBytesOriginal() {
+        int len = hex.length();
+        byte[] out = new byte[len / 2];
+        for (int i = 0; i < len; i += 2) {
+            out[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
+                    + Character.digit(hex.charAt(i + 1), 16));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,56 @@
+package redes.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Formato texto de Mensaje: leer una línea completa con desdeTexto y escribirla con aTexto,
+ * con un camino corto y uno largo. Los campos tienen los tamaños de un mensaje real: clave
+ * RSA de 256 bytes, IV de 16, 1 KB de contenido cifrado y firma de 256, todo en hex.
+ *
+ * aTexto guarda el texto hasta que el mensaje cambia; el benchmark lo descarta en cada
+ * llamada (setUrgente) para medir la escritura y no la lectura del texto guardado.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MensajeBench {
+
+    @Param({"2", "32"})
+    int saltos;
+
+    private String texto;
+    private Object mensaje;
+
+    @Setup
+    public void preparar() throws Throwable {
+        Random rnd = new Random(42);
+        Object m = (Object) Puente.NUEVO_MENSAJE.invokeExact("10.0.0.1_5000", "10.0.0.99_5000",
+                bytes(rnd, 256), bytes(rnd, 16), bytes(rnd, 1024), bytes(rnd, 256), "10.0.0.1_5000");
+        for (int i = 2; i <= saltos; i++)
+            Puente.AGREGAR_AL_CAMINO.invokeExact(m, "10.0.0." + i + "_5000");
+        texto = (String) Puente.A_TEXTO.invokeExact(m);
+        mensaje = (Object) Puente.DESDE_TEXTO.invokeExact(texto);
+    }
+
+    @Benchmark
+    public Object desdeTexto() throws Throwable {
+        return (Object) Puente.DESDE_TEXTO.invokeExact(texto);
+    }
+
+    @Benchmark
+    public String aTexto() throws Throwable {
+        Puente.SET_URGENTE.invokeExact(mensaje, false);
+        return (String) Puente.A_TEXTO.invokeExact(mensaje);
+    }
+
+    static byte[] bytes(Random rnd, int n) {
+        byte[] b = new byte[n];
+        rnd.nextBytes(b);
+        return b;
+    }
+}
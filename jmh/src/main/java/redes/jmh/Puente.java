@@ -0,0 +1,243 @@
+package redes.jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.function.Function;
+import javax.crypto.SecretKey;
+
+/**
+ * Acceso a las clases del nodo desde los benchmarks.
+ *
+ * Las fuentes del nodo están en el paquete por defecto, que no se puede importar, y JMH no
+ * acepta benchmarks en ese paquete. Por eso los benchmarks llaman a los métodos medidos con
+ * estos MethodHandle: al ser static final el JIT los trata como constantes y los llama (y
+ * alinea) igual que una llamada directa, así que no agregan costo a lo medido.
+ *
+ * Los tipos del nodo (Mensaje, VistaMensaje, Encriptador.AesResultado, FirmaDigital.Verificacion)
+ * se ven como Object;
+ * cada handle ya tiene el tipo exacto con el que se lo llama con invokeExact.
+ */
+final class Puente {
+
+    private Puente() {}
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> MENSAJE = clase("Mensaje");
+    private static final Class<?> ENCRIPTADOR = clase("Encriptador");
+    private static final Class<?> AES_RESULTADO = clase("Encriptador$AesResultado");
+    private static final Class<?> FIRMA_DIGITAL = clase("FirmaDigital");
+    private static final Class<?> VERIFICACION = clase("FirmaDigital$Verificacion");
+    private static final Class<?> VISTA_MENSAJE = clase("VistaMensaje");
+
+    // ============================
+    //           MENSAJE
+    // ============================
+
+    /** (String) Object */
+    static final MethodHandle DESDE_TEXTO = estatico(MENSAJE, "desdeTexto", MENSAJE, String.class);
+
+    /** (ByteBuffer) Object */
+    static final MethodHandle DESDE_BINARIO = estatico(MENSAJE, "desdeBinario", MENSAJE, ByteBuffer.class);
+
+    /** (String) Object: solo la cabecera de ruteo, el cuerpo queda sin separar */
+    static final MethodHandle CABECERA_DESDE_TEXTO = estatico(MENSAJE, "cabeceraDesdeTexto", MENSAJE, String.class);
+
+    /** (ByteBuffer) Object: solo la cabecera de ruteo, el cuerpo se copia sin decodificar */
+    static final MethodHandle CABECERA_DESDE_BINARIO = estatico(MENSAJE, "cabeceraDesdeBinario", MENSAJE,
+            ByteBuffer.class);
+
+    /** (Object) long */
+    static final MethodHandle GET_ID = metodo(MENSAJE, "getId", long.class);
+
+    /** (Object) String */
+    static final MethodHandle GET_DESTINO = metodo(MENSAJE, "getDestino", String.class);
+
+    /** (Object) List */
+    static final MethodHandle GET_CAMINO = metodo(MENSAJE, "getCamino", List.class);
+
+    /** (Object) int */
+    static final MethodHandle TAMANO_BINARIO = metodo(MENSAJE, "tamanoBinario", int.class);
+
+    /** (Object, ByteBuffer) void */
+    static final MethodHandle ESCRIBIR_BINARIO = metodo(MENSAJE, "escribirBinario", void.class, ByteBuffer.class);
+
+    /** (Object) String */
+    static final MethodHandle A_TEXTO = metodo(MENSAJE, "aTexto", String.class);
+
+    /** (Object, boolean) void; cualquier cambio descarta el texto que aTexto guarda */
+    static final MethodHandle SET_URGENTE = metodo(MENSAJE, "setUrgente", void.class, boolean.class);
+
+    /** (Object, String) void */
+    static final MethodHandle AGREGAR_AL_CAMINO = metodo(MENSAJE, "agregarAlCamino", void.class, String.class);
+
+    /** (String origen, String destino, byte[] claveCifrada, byte[] iv, byte[] cifrado, byte[] firma, String primerNodo) Object */
+    static final MethodHandle NUEVO_MENSAJE = constructor(MENSAJE, String.class, String.class,
+            byte[].class, byte[].class, byte[].class, byte[].class, String.class);
+
+    // ============================
+    //        VISTA MENSAJE
+    // ============================
+
+    /** (String) Object */
+    static final MethodHandle VISTA_TEXTO = constructor(VISTA_MENSAJE, String.class);
+
+    /** (ByteBuffer) Object */
+    static final MethodHandle VISTA_BINARIO = constructor(VISTA_MENSAJE, ByteBuffer.class);
+
+    /** (Object) long */
+    static final MethodHandle VISTA_ID = metodo(VISTA_MENSAJE, "getId", long.class);
+
+    /** (Object, String) boolean */
+    static final MethodHandle VISTA_DESTINO_ES = metodo(VISTA_MENSAJE, "destinoEs", boolean.class, String.class);
+
+    /** (Object, String) boolean */
+    static final MethodHandle VISTA_CAMINO_CONTIENE = metodo(VISTA_MENSAJE, "caminoContiene", boolean.class,
+            String.class);
+
+    /** (Object, String nodo) Object: el Mensaje para reenviar, con nodo en el camino */
+    static final MethodHandle VISTA_PARA_REENVIAR = metodo(VISTA_MENSAJE, "paraReenviar", MENSAJE, String.class);
+
+    // ============================
+    //         ENCRIPTADOR
+    // ============================
+
+    /** (byte[]) String */
+    static final MethodHandle BYTES_A_HEX = estatico(ENCRIPTADOR, "bytesToHex", String.class, byte[].class);
+
+    /** (String) byte[] */
+    static final MethodHandle HEX_A_BYTES = estatico(ENCRIPTADOR, "hexToBytes", byte[].class, String.class);
+
+    /** (byte[] datos, int desde, int hasta, char[] destino, int pos) int, chars escritos */
+    static final MethodHandle ESCRIBIR_HEX = estatico(ENCRIPTADOR, "escribirHex", int.class,
+            byte[].class, int.class, int.class, char[].class, int.class);
+
+    /** (CharSequence hex, int desde, int hasta, byte[] destino, int pos) int, bytes escritos */
+    static final MethodHandle LEER_HEX = estatico(ENCRIPTADOR, "leerHex", int.class,
+            CharSequence.class, int.class, int.class, byte[].class, int.class);
+
+    /** () SecretKey */
+    static final MethodHandle GENERAR_CLAVE_AES = estatico(ENCRIPTADOR, "generarClaveAES", SecretKey.class);
+
+    /** (String hex) PublicKey, DER X.509 en hex */
+    static final MethodHandle CLAVE_PUBLICA_DESDE_HEX = estatico(ENCRIPTADOR, "publicKeyFromHex", PublicKey.class,
+            String.class);
+
+    /** (byte[] datos, SecretKey) Object, un AesResultado */
+    static final MethodHandle CIFRAR_AES = estatico(ENCRIPTADOR, "cifrarConAES", AES_RESULTADO,
+            byte[].class, SecretKey.class);
+
+    /** (byte[] cifrado, byte[] iv, byte[] clave) byte[] */
+    static final MethodHandle DESCIFRAR_AES = estatico(ENCRIPTADOR, "descifrarConAES", byte[].class,
+            byte[].class, byte[].class, byte[].class);
+
+    /** (byte[] datos, SecretKey, byte[] aad) Object, un AesResultado */
+    static final MethodHandle CIFRAR_AES_GCM = estatico(ENCRIPTADOR, "cifrarConAESGCM", AES_RESULTADO,
+            byte[].class, SecretKey.class, byte[].class);
+
+    /** (byte[] cifrado, byte[] iv, byte[] clave, byte[] aad) byte[] */
+    static final MethodHandle DESCIFRAR_AES_GCM = estatico(ENCRIPTADOR, "descifrarConAESGCM", byte[].class,
+            byte[].class, byte[].class, byte[].class, byte[].class);
+
+    /** (Object) byte[]: campos cipher e iv de un AesResultado */
+    static final MethodHandle AES_CIFRADO = campo(AES_RESULTADO, "cipher", byte[].class);
+    static final MethodHandle AES_IV = campo(AES_RESULTADO, "iv", byte[].class);
+
+    /** (SecretKey, PublicKey) byte[] */
+    static final MethodHandle CIFRAR_CLAVE_RSA = estatico(ENCRIPTADOR, "cifrarClaveAESConRSA", byte[].class,
+            SecretKey.class, PublicKey.class);
+
+    /** (byte[], PrivateKey) byte[] */
+    static final MethodHandle DESCIFRAR_CLAVE_RSA = estatico(ENCRIPTADOR, "descifrarClaveAESConRSA", byte[].class,
+            byte[].class, PrivateKey.class);
+
+    // ============================
+    //         FIRMA DIGITAL
+    // ============================
+
+    /** (byte[], PrivateKey) String, la firma en hex */
+    static final MethodHandle FIRMAR = estatico(FIRMA_DIGITAL, "firmar", String.class,
+            byte[].class, PrivateKey.class);
+
+    /** (byte[], String firmaHex, PublicKey) boolean */
+    static final MethodHandle VERIFICAR_FIRMA = estatico(FIRMA_DIGITAL, "verificarFirma", boolean.class,
+            byte[].class, String.class, PublicKey.class);
+
+    /** (byte[], PrivateKey) byte[] */
+    static final MethodHandle FIRMAR_BYTES = estatico(FIRMA_DIGITAL, "firmarBytes", byte[].class,
+            byte[].class, PrivateKey.class);
+
+    /** (byte[], byte[] firma, PublicKey) boolean */
+    static final MethodHandle VERIFICAR_FIRMA_BYTES = estatico(FIRMA_DIGITAL, "verificarFirma", boolean.class,
+            byte[].class, byte[].class, PublicKey.class);
+
+    /** (byte[] datos, byte[] firma, String origen) Object, una Verificacion */
+    static final MethodHandle NUEVA_VERIFICACION = constructor(VERIFICACION, byte[].class, byte[].class,
+            String.class);
+
+    /** (List de Verificacion, Function de origen a PublicKey) boolean[] */
+    static final MethodHandle VERIFICAR_LOTE = estatico(FIRMA_DIGITAL, "verificarLote", boolean[].class,
+            List.class, Function.class);
+
+    // ============================
+    //          AUXILIARES
+    // ============================
+
+    private static Class<?> clase(String nombre) {
+        try {
+            return Class.forName(nombre);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Falta la clase " + nombre + " del nodo en el classpath", e);
+        }
+    }
+
+    private static MethodHandle estatico(Class<?> c, String nombre, Class<?> retorno, Class<?>... parametros) {
+        try {
+            return borrar(LOOKUP.findStatic(c, nombre, MethodType.methodType(retorno, parametros)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No se encontró " + c.getName() + "." + nombre, e);
+        }
+    }
+
+    private static MethodHandle metodo(Class<?> c, String nombre, Class<?> retorno, Class<?>... parametros) {
+        try {
+            return borrar(LOOKUP.findVirtual(c, nombre, MethodType.methodType(retorno, parametros)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No se encontró " + c.getName() + "." + nombre, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> c, Class<?>... parametros) {
+        try {
+            return borrar(LOOKUP.findConstructor(c, MethodType.methodType(void.class, parametros)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No se encontró el constructor de " + c.getName(), e);
+        }
+    }
+
+    private static MethodHandle campo(Class<?> c, String nombre, Class<?> tipo) {
+        try {
+            return borrar(LOOKUP.findGetter(c, nombre, tipo));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No se encontró " + c.getName() + "." + nombre, e);
+        }
+    }
+
+    // Los tipos del nodo pasan a Object, que es como los declaran los benchmarks
+    private static MethodHandle borrar(MethodHandle h) {
+        MethodType t = h.type();
+        for (int i = 0; i < t.parameterCount(); i++)
+            if (esDelNodo(t.parameterType(i))) t = t.changeParameterType(i, Object.class);
+        if (esDelNodo(t.returnType())) t = t.changeReturnType(Object.class);
+        return h.asType(t);
+    }
+
+    private static boolean esDelNodo(Class<?> c) {
+        return c == MENSAJE || c == VISTA_MENSAJE || c == AES_RESULTADO || c == VERIFICACION;
+    }
+}
@@ -0,0 +1,41 @@
+package redes.jmh;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Envolver la clave AES con la clave pública RSA del destino y desenvolverla con la privada,
+ * con claves como las del nodo (KeyPairGenerator por defecto, 2048 bits).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RsaBench {
+
+    private KeyPair claves;
+    private SecretKey claveAes;
+    private byte[] envuelta;
+
+    @Setup
+    public void preparar() throws Throwable {
+        claves = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        claveAes = (SecretKey) Puente.GENERAR_CLAVE_AES.invokeExact();
+        envuelta = (byte[]) Puente.CIFRAR_CLAVE_RSA.invokeExact(claveAes, claves.getPublic());
+    }
+
+    @Benchmark
+    public byte[] envolver() throws Throwable {
+        return (byte[]) Puente.CIFRAR_CLAVE_RSA.invokeExact(claveAes, claves.getPublic());
+    }
+
+    @Benchmark
+    public byte[] desenvolver() throws Throwable {
+        return (byte[]) Puente.DESCIFRAR_CLAVE_RSA.invokeExact(envuelta, claves.getPrivate());
+    }
+}
@@ -0,0 +1,121 @@
+package redes.jmh;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Lo que un nodo intermedio lee de cada mensaje que recibe (id, si el destino es él y si ya
+ * está en el camino) con cada forma de leerlo:
+ *
+ *   texto/binarioCompleto  Mensaje.desdeTexto/desdeBinario, todos los campos
+ *   texto/binarioCabecera  Mensaje.cabeceraDesdeTexto/Binario, lo que usaba el nodo
+ *   texto/binarioVista     VistaMensaje, posiciones sobre la línea o la trama
+ *
+ * Y lo que hace con uno que solo pasa por él: agregarse al camino y volver a escribirlo en
+ * binario, armándolo con cabeceraDesdeBinario (reenvioCabecera) o sobre la trama recibida con
+ * VistaMensaje.paraReenviar (reenvioVista).
+ *
+ * Con -prof gc, gc.alloc.rate.norm da los bytes asignados por mensaje de cada una. En texto
+ * no cuenta la línea, que el lector arma igual en los tres casos.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VistaMensajeBench {
+
+    private static final String YO = "10.0.0.50_5000";
+
+    @Param({"2", "32"})
+    int saltos;
+
+    private String texto;
+    private ByteBuffer trama;
+    private ByteBuffer salida;
+
+    @Setup
+    public void preparar() throws Throwable {
+        Random rnd = new Random(42);
+        Object m = (Object) Puente.NUEVO_MENSAJE.invokeExact("10.0.0.1_5000", "10.0.0.99_5000",
+                MensajeBench.bytes(rnd, 256), MensajeBench.bytes(rnd, 16), MensajeBench.bytes(rnd, 1024),
+                MensajeBench.bytes(rnd, 256), "10.0.0.1_5000");
+        for (int i = 2; i <= saltos; i++)
+            Puente.AGREGAR_AL_CAMINO.invokeExact(m, "10.0.0." + i + "_5000");
+        texto = (String) Puente.A_TEXTO.invokeExact(m);
+        trama = ByteBuffer.allocate((int) Puente.TAMANO_BINARIO.invokeExact(m));
+        Puente.ESCRIBIR_BINARIO.invokeExact(m, trama);
+        trama.flip();
+        salida = ByteBuffer.allocate(trama.remaining() + 64);
+    }
+
+    @Benchmark
+    public long textoCompleto() throws Throwable {
+        return leerMensaje((Object) Puente.DESDE_TEXTO.invokeExact(texto));
+    }
+
+    @Benchmark
+    public long textoCabecera() throws Throwable {
+        return leerMensaje((Object) Puente.CABECERA_DESDE_TEXTO.invokeExact(texto));
+    }
+
+    @Benchmark
+    public long textoVista() throws Throwable {
+        return leerVista((Object) Puente.VISTA_TEXTO.invokeExact(texto));
+    }
+
+    @Benchmark
+    public long binarioCompleto() throws Throwable {
+        trama.position(0);
+        return leerMensaje((Object) Puente.DESDE_BINARIO.invokeExact(trama));
+    }
+
+    @Benchmark
+    public long binarioCabecera() throws Throwable {
+        trama.position(0);
+        return leerMensaje((Object) Puente.CABECERA_DESDE_BINARIO.invokeExact(trama));
+    }
+
+    @Benchmark
+    public long binarioVista() throws Throwable {
+        return leerVista((Object) Puente.VISTA_BINARIO.invokeExact(trama));
+    }
+
+    @Benchmark
+    public int reenvioCabecera() throws Throwable {
+        trama.position(0);
+        Object m = (Object) Puente.CABECERA_DESDE_BINARIO.invokeExact(trama);
+        Puente.AGREGAR_AL_CAMINO.invokeExact(m, YO);
+        return escribir(m);
+    }
+
+    @Benchmark
+    public int reenvioVista() throws Throwable {
+        Object v = (Object) Puente.VISTA_BINARIO.invokeExact(trama);
+        return escribir((Object) Puente.VISTA_PARA_REENVIAR.invokeExact(v, YO));
+    }
+
+    private int escribir(Object m) throws Throwable {
+        salida.clear();
+        Puente.ESCRIBIR_BINARIO.invokeExact(m, salida);
+        return salida.position();
+    }
+
+    private static long leerMensaje(Object m) throws Throwable {
+        long id = (long) Puente.GET_ID.invokeExact(m);
+        boolean paraMi = ((String) Puente.GET_DESTINO.invokeExact(m)).equals(YO);
+        boolean visto = ((List<?>) Puente.GET_CAMINO.invokeExact(m)).contains(YO);
+        return id + (paraMi ? 1 : 0) + (visto ? 2 : 0);
+    }
+
+    private static long leerVista(Object v) throws Throwable {
+        long id = (long) Puente.VISTA_ID.invokeExact(v);
+        boolean paraMi = (boolean) Puente.VISTA_DESTINO_ES.invokeExact(v, YO);
+        boolean visto = (boolean) Puente.VISTA_CAMINO_CONTIENE.invokeExact(v, YO);
+        return id + (paraMi ? 1 : 0) + (visto ? 2 : 0);
+    }
+}